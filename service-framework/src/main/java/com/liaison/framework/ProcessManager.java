@@ -18,7 +18,10 @@ public class ProcessManager {
         return counter.init();
     }
 
-    protected static int getPid() {
+    /**
+     * @return the PID of the current thread's transaction, or -1 if the thread has none
+     */
+    public static int getPid() {
         return counter.get();
     }
 
@@ -28,6 +31,12 @@ class Counter extends ThreadLocal<Integer> {
 
     private static final AtomicInteger counter = new AtomicInteger(0);
 
+    // threads outside of a transaction have no pid
+    @Override
+    protected Integer initialValue() {
+        return -1;
+    }
+
     // on init, set incremented pid on thread local integer
     // NOTE:  not sufficient to simply increment per thread (ie in initialValue)
     // since threads are reused several times by the container... so we
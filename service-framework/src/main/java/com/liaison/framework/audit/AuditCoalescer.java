@@ -0,0 +1,178 @@
+package com.liaison.framework.audit;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Audit Coalescer
+ * <p/>
+ * <P>Stage of the {@link AuditPipeline} that folds identical statements, ie of the same requirement,
+ * status and message, logged within a window of each other into a single event, which carries their count,
+ * the timestamps of the first and last, and the range of their PIDs (see {@link AuditEvent#getCount()}).
+ * A statement such as the FrameworkFilter's attempt to create a PID, logged once per request, is then
+ * shipped once per window rather than once per request.
+ * <p/>
+ * Failed and potential statements always pass through as logged, as do statements of no status.  A
+ * window opens with the first of its statements and is shipped once it is the given number of
+ * milliseconds old; at most the given number of windows are open at once, beyond which statements pass
+ * through too.
+ * <p/>
+ * Used from the pipeline's consumer thread only.
+ *
+ * @version 1.0
+ */
+class AuditCoalescer {
+
+    private final long windowMillis;
+    private final int maxWindows;
+
+    private final Map<Key, Window> windows = new HashMap<Key, Window>();
+    // oldest first, which is the order they expire in
+    private final ArrayDeque<Window> expiring = new ArrayDeque<Window>();
+    private final ArrayDeque<Window> free = new ArrayDeque<Window>();
+    private final Key probe = new Key();
+
+    private AuditEvent[] output = new AuditEvent[0];
+    private int count;
+    // read by the pipeline's monitor
+    private volatile long coalesced;
+
+    AuditCoalescer(long windowMillis, int maxWindows) {
+        if (windowMillis < 1) {
+            throw new IllegalArgumentException("Audit coalescing window must be at least 1ms, not " + windowMillis);
+        }
+        this.windowMillis = windowMillis;
+        this.maxWindows = maxWindows;
+    }
+
+    /**
+     * Coalesces the events, and ships the windows expired by now
+     *
+     * @return number of events to ship, in {@link #output()}
+     */
+    int coalesce(AuditEvent[] events, int count, long now) {
+        reset();
+        for (int i = 0; i < count; i++) {
+            AuditEvent event = events[i];
+            AuditStatement.Status status = event.getStatus();
+            if (status == null || status == AuditStatement.Status.FAILED || status == AuditStatement.Status.POTENTIAL) {
+                add(event);
+                continue;
+            }
+
+            probe.set(event.getAuditStandardsRequirement(), status, event.getMessage());
+            Window window = windows.get(probe);
+            if (window != null) {
+                window.event.coalesce(event.getTimestamp(), event.getPid());
+                coalesced++;
+            } else if (windows.size() < maxWindows) {
+                window = free.isEmpty() ? new Window() : free.poll();
+                window.key.set(event.getAuditStandardsRequirement(), status, event.getMessage());
+                window.event.set(event);
+                window.opened = now;
+                windows.put(window.key, window);
+                expiring.add(window);
+            } else {
+                add(event);
+            }
+        }
+        expire(now);
+        return this.count;
+    }
+
+    /**
+     * Ships the windows expired by now, or all windows if now is {@link Long#MAX_VALUE}
+     *
+     * @return number of events to ship, in {@link #output()}
+     */
+    int flush(long now) {
+        reset();
+        expire(now);
+        return count;
+    }
+
+    /**
+     * @return the events to ship, valid until the next call to coalesce or flush
+     */
+    AuditEvent[] output() {
+        return output;
+    }
+
+    /**
+     * @return number of open windows
+     */
+    int getWindows() {
+        return windows.size();
+    }
+
+    /**
+     * @return number of statements folded into another, ie not shipped on their own
+     */
+    long getCoalesced() {
+        return coalesced;
+    }
+
+    private void expire(long now) {
+        Window window;
+        while ((window = expiring.peek()) != null && (now == Long.MAX_VALUE || now - window.opened >= windowMillis)) {
+            expiring.poll();
+            windows.remove(window.key);
+            add(window.event);
+            // reused once shipped, since the output refers to its event until then
+            free.add(window);
+        }
+    }
+
+    // so that shipped events are not held on to
+    private void reset() {
+        Arrays.fill(output, 0, count, null);
+        count = 0;
+    }
+
+    private void add(AuditEvent event) {
+        if (count == output.length) {
+            output = Arrays.copyOf(output, Math.max(16, output.length * 2));
+        }
+        output[count++] = event;
+    }
+
+    private static class Window {
+
+        private final Key key = new Key();
+        private final AuditEvent event = new AuditEvent();
+        private long opened;
+    }
+
+    private static class Key {
+
+        private AuditStandardsRequirement requirement;
+        private AuditStatement.Status status;
+        private String message;
+
+        void set(AuditStandardsRequirement requirement, AuditStatement.Status status, String message) {
+            this.requirement = requirement;
+            this.status = status;
+            this.message = message;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return status == other.status && (requirement == null ? other.requirement == null : requirement.equals(other.requirement))
+                    && (message == null ? other.message == null : message.equals(other.message));
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = status.hashCode();
+            hash = 31 * hash + (requirement == null ? 0 : requirement.hashCode());
+            return 31 * hash + (message == null ? 0 : message.hashCode());
+        }
+    }
+
+}
@@ -0,0 +1,114 @@
+package com.liaison.framework.audit;
+
+import com.liaison.framework.audit.hipaa.HIPAAAdminSimplification201303;
+import com.liaison.framework.audit.pci.PCIV20Requirement;
+import com.liaison.framework.util.StripedCounter;
+import com.netflix.servo.DefaultMonitorRegistry;
+import com.netflix.servo.monitor.BasicCompositeMonitor;
+import com.netflix.servo.monitor.CompositeMonitor;
+import com.netflix.servo.monitor.Monitor;
+import com.netflix.servo.monitor.MonitorConfig;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+
+/**
+ * Audit Counters
+ * <p/>
+ * <P>Live counts of the audit statements logged, by requirement and status, so that monitoring can show
+ * the rate of each, ie spikes in PCI10_2_4 invalid access attempts.  There is a counter for each
+ * {@link PCIV20Requirement} and {@link HIPAAAdminSimplification201303} constant and status, registered
+ * with the {@link DefaultMonitorRegistry} (and so published over JMX) as auditStatements, tagged with the
+ * requirement and status.  Statements of any other requirement, or of none, or of no status, are counted
+ * as requirement=OTHER or status=NONE.
+ * <p/>
+ * {@link AuditLogger#log} counts every statement on the logging thread, so the counters are fixed up
+ * front, looked up by {@link EnumMap} and status ordinal, and are {@link StripedCounter}s, so that counting
+ * adds no contention to requests.
+ *
+ * @version 1.0
+ */
+public class AuditCounters {
+
+    private static final AuditStatement.Status[] STATUSES = AuditStatement.Status.values();
+    // the counter of statements of no status, after those of each status
+    private static final int NO_STATUS = STATUSES.length;
+
+    private final EnumMap<PCIV20Requirement, StripedCounter[]> pci =
+            new EnumMap<PCIV20Requirement, StripedCounter[]>(PCIV20Requirement.class);
+    private final EnumMap<HIPAAAdminSimplification201303, StripedCounter[]> hipaa =
+            new EnumMap<HIPAAAdminSimplification201303, StripedCounter[]>(HIPAAAdminSimplification201303.class);
+    private final StripedCounter[] other;
+
+    private final List<Monitor<?>> counters = new ArrayList<Monitor<?>>();
+    private CompositeMonitor<?> monitor;
+
+    AuditCounters() {
+        for (PCIV20Requirement requirement : PCIV20Requirement.values()) {
+            pci.put(requirement, counters(requirement.name()));
+        }
+        for (HIPAAAdminSimplification201303 requirement : HIPAAAdminSimplification201303.values()) {
+            hipaa.put(requirement, counters(requirement.name()));
+        }
+        other = counters("OTHER");
+    }
+
+    private StripedCounter[] counters(String requirement) {
+        StripedCounter[] byStatus = new StripedCounter[STATUSES.length + 1];
+        for (int i = 0; i < byStatus.length; i++) {
+            byStatus[i] = new StripedCounter(MonitorConfig.builder("auditStatements")
+                    .withTag("class", getClass().getSimpleName()).withTag("requirement", requirement)
+                    .withTag("status", i == NO_STATUS ? "NONE" : STATUSES[i].name()).build());
+            counters.add(byStatus[i]);
+        }
+        return byStatus;
+    }
+
+    /**
+     * Counts a statement logged
+     */
+    void increment(AuditStandardsRequirement requirement, AuditStatement.Status status) {
+        counter(requirement, status).increment();
+    }
+
+    /**
+     * @return statements logged of the requirement and status
+     */
+    public long getCount(AuditStandardsRequirement requirement, AuditStatement.Status status) {
+        return counter(requirement, status).getValue().longValue();
+    }
+
+    /**
+     * @return all the counters, each tagged with its requirement and status
+     */
+    public List<Monitor<?>> getCounters() {
+        return Collections.unmodifiableList(counters);
+    }
+
+    private StripedCounter counter(AuditStandardsRequirement requirement, AuditStatement.Status status) {
+        StripedCounter[] byStatus;
+        if (requirement instanceof PCIV20Requirement) {
+            byStatus = pci.get(requirement);
+        } else if (requirement instanceof HIPAAAdminSimplification201303) {
+            byStatus = hipaa.get(requirement);
+        } else {
+            byStatus = other;
+        }
+        return byStatus[status == null ? NO_STATUS : status.ordinal()];
+    }
+
+    void registerMonitors() {
+        monitor = new BasicCompositeMonitor(MonitorConfig.builder("AuditCounters").build(), counters);
+        DefaultMonitorRegistry.getInstance().register(monitor);
+    }
+
+    void unregisterMonitors() {
+        if (monitor != null) {
+            DefaultMonitorRegistry.getInstance().unregister(monitor);
+            monitor = null;
+        }
+    }
+
+}
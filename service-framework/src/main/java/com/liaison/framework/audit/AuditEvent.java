@@ -0,0 +1,168 @@
+package com.liaison.framework.audit;
+
+/**
+ * Audit Event
+ * <p/>
+ * <P>An audit statement as logged, with when and under which PID it was logged.  Events are slots of
+ * the {@link AuditPipeline}'s ring buffer, reused once shipped, so are only valid for the duration of
+ * {@link AuditSink#write(AuditEvent[], int)}.  A sink that keeps an event beyond that must copy it,
+ * ie with {@link #toStatement()}.
+ * <p/>
+ * An event may stand for several identical statements, coalesced by the {@link AuditCoalescer}, in which
+ * case its timestamp and PID are those of the last, and {@link #getCount()} is more than one.
+ *
+ * @version 1.0
+ */
+public final class AuditEvent implements AuditStatement {
+
+    private AuditStandardsRequirement requirement;
+    private Status status;
+    private String message;
+    private long timestamp;
+    private int pid;
+
+    // of the statements coalesced into the event
+    private int count;
+    private long firstTimestamp;
+    private int minPid;
+    private int maxPid;
+
+    // for the pipeline's latency monitor
+    long enqueuedNanos;
+
+    AuditEvent() {
+    }
+
+    /**
+     * An event outside of the ring buffer, ie read back from disk
+     */
+    public AuditEvent(AuditStandardsRequirement requirement, Status status, String message, long timestamp, int pid) {
+        set(requirement, status, message, timestamp, pid, System.nanoTime());
+    }
+
+    void set(AuditStandardsRequirement requirement, Status status, String message, long timestamp, int pid,
+             long enqueuedNanos) {
+        this.requirement = requirement;
+        this.status = status;
+        this.message = message;
+        this.timestamp = timestamp;
+        this.pid = pid;
+        this.enqueuedNanos = enqueuedNanos;
+        this.count = 1;
+        this.firstTimestamp = timestamp;
+        this.minPid = pid;
+        this.maxPid = pid;
+    }
+
+    /**
+     * Folds an identical statement, logged later, into the event
+     */
+    void coalesce(long timestamp, int pid) {
+        count++;
+        this.timestamp = Math.max(this.timestamp, timestamp);
+        this.firstTimestamp = Math.min(firstTimestamp, timestamp);
+        this.pid = pid;
+        this.minPid = Math.min(minPid, pid);
+        this.maxPid = Math.max(maxPid, pid);
+    }
+
+    /**
+     * Sets the event to the coalesced statements, ie as read back from disk
+     */
+    void set(AuditEvent event) {
+        set(event.requirement, event.status, event.message, event.timestamp, event.pid, event.enqueuedNanos);
+        setCoalesced(event.count, event.firstTimestamp, event.minPid, event.maxPid);
+    }
+
+    void setCoalesced(int count, long firstTimestamp, int minPid, int maxPid) {
+        this.count = count;
+        this.firstTimestamp = firstTimestamp;
+        this.minPid = minPid;
+        this.maxPid = maxPid;
+    }
+
+    // so that a shipped message is not held by the ring buffer until the slot is reused
+    void clear() {
+        requirement = null;
+        status = null;
+        message = null;
+    }
+
+    @Override
+    public AuditStandardsRequirement getAuditStandardsRequirement() {
+        return requirement;
+    }
+
+    @Override
+    public Status getStatus() {
+        return status;
+    }
+
+    @Override
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * @return when the statement was logged, in milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return PID of the transaction the statement was logged in, or -1 if none
+     */
+    public int getPid() {
+        return pid;
+    }
+
+    /**
+     * @return number of identical statements the event stands for, 1 unless coalesced
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return when the first of the coalesced statements was logged, in milliseconds since the epoch
+     */
+    public long getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    /**
+     * @return lowest PID of the coalesced statements
+     */
+    public int getMinPid() {
+        return minPid;
+    }
+
+    /**
+     * @return highest PID of the coalesced statements
+     */
+    public int getMaxPid() {
+        return maxPid;
+    }
+
+    /**
+     * @return a copy of the statement, which outlives the event, and which keeps its count if coalesced
+     */
+    public AuditStatement toStatement() {
+        if (count > 1) {
+            AuditEvent copy = new AuditEvent();
+            copy.set(this);
+            return copy;
+        }
+        return new DefaultAuditStatement(requirement, status, message);
+    }
+
+    /**
+     * makes a JSON version of this audit statement.
+     */
+    @Override
+    public String toString() {
+        return AuditJsonEncoder.toJson(this);
+    }
+
+}
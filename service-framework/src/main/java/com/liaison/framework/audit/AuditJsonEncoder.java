@@ -0,0 +1,312 @@
+package com.liaison.framework.audit;
+
+import com.liaison.framework.audit.hipaa.HIPAAAdminSimplification201303;
+import com.liaison.framework.audit.pci.PCIV20Requirement;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Audit JSON Encoder
+ * <p/>
+ * <P>Encodes audit statements, and the log messages bearing them, to the same JSON as the Jackson
+ * mapping of {@link DefaultAuditStatement} and
+ * {@link com.liaison.framework.audit.log4j2.AuditParameterizedMessage}, without building a mapper per
+ * statement, and with its fields in a fixed order:
+ * <pre>
+ * {"status":"ATTEMPT","message":"...","auditStandardsRequirement":"PCI10_2_2: ..."}
+ * {"auditStatement":{...},"throwable":"...","formattedMessage":"..."}
+ * </pre>
+ * A statement coalesced from several (see {@link AuditCoalescer}) has their count, the timestamps of the
+ * first and last, and the range of their PIDs as well:
+ * <pre>
+ * {"status":"ATTEMPT",...,"count":1042,"firstTimestamp":1792310400000,"lastTimestamp":1792310401000,"pids":[17,1058]}
+ * </pre>
+ * The fixed parts of the JSON, ie the fragment of each status and of each {@link PCIV20Requirement} and
+ * {@link HIPAAAdminSimplification201303} constant, are encoded once up front, so only the message is
+ * encoded per statement.  Statements are written as UTF-8 into a {@link Buffer} reused per thread, so
+ * writing one to a stream allocates nothing (see AuditJsonEncoderBenchmark).
+ *
+ * @version 1.0
+ */
+public final class AuditJsonEncoder {
+
+    // buffers grown beyond this by an unusually large message are not kept for reuse
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+    private static final int INITIAL_CAPACITY = 512;
+
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+    // per ascii character, 0 if written as is, the escaped character for a short escape, or -1 for \\u00XX
+    private static final int[] ESCAPES = new int[128];
+
+    static {
+        for (int c = 0; c < 32; c++) {
+            ESCAPES[c] = -1;
+        }
+        ESCAPES['\b'] = 'b';
+        ESCAPES['\t'] = 't';
+        ESCAPES['\n'] = 'n';
+        ESCAPES['\f'] = 'f';
+        ESCAPES['\r'] = 'r';
+        ESCAPES['"'] = '"';
+        ESCAPES['\\'] = '\\';
+    }
+
+    private static final byte[] NULL = ascii("null");
+
+    private static final byte[][] STATUSES = new byte[AuditStatement.Status.values().length][];
+    private static final byte[] NULL_STATUS = ascii("{\"status\":null,\"message\":");
+
+    static {
+        for (AuditStatement.Status status : AuditStatement.Status.values()) {
+            STATUSES[status.ordinal()] = ascii("{\"status\":\"" + status.name() + "\",\"message\":");
+        }
+    }
+
+    private static final byte[] REQUIREMENT = ascii(",\"auditStandardsRequirement\":");
+    private static final byte[] NULL_REQUIREMENT = ascii(",\"auditStandardsRequirement\":null}");
+    private static final byte[][] PCI_REQUIREMENTS = requirements(PCIV20Requirement.values());
+    private static final byte[][] HIPAA_REQUIREMENTS = requirements(HIPAAAdminSimplification201303.values());
+
+    private static final byte[] COUNT = ascii(",\"count\":");
+    private static final byte[] FIRST_TIMESTAMP = ascii(",\"firstTimestamp\":");
+    private static final byte[] LAST_TIMESTAMP = ascii(",\"lastTimestamp\":");
+    private static final byte[] PIDS = ascii(",\"pids\":[");
+    private static final byte[] END_PIDS = ascii("]}");
+
+    private static final byte[] AUDIT_STATEMENT = ascii("{\"auditStatement\":");
+    private static final byte[] THROWABLE = ascii(",\"throwable\":");
+    private static final byte[] FORMATTED_MESSAGE = ascii(",\"formattedMessage\":");
+
+    private static final ThreadLocal<Buffer> buffers = new ThreadLocal<Buffer>() {
+        @Override
+        protected Buffer initialValue() {
+            return new Buffer(INITIAL_CAPACITY);
+        }
+    };
+
+    private AuditJsonEncoder() {
+    }
+
+    /**
+     * @return this thread's buffer, emptied.  Valid until the thread's next call to this method, so should not
+     * be handed to other threads or held across calls that may encode.
+     */
+    public static Buffer buffer() {
+        Buffer buffer = buffers.get();
+        if (buffer.bytes.length > MAX_RETAINED_CAPACITY) {
+            buffer = new Buffer(INITIAL_CAPACITY);
+            buffers.set(buffer);
+        }
+        buffer.length = 0;
+        return buffer;
+    }
+
+    /**
+     * @return the statement as JSON
+     */
+    public static String toJson(AuditStatement statement) {
+        Buffer buffer = buffer();
+        writeStatement(buffer, statement);
+        return buffer.toString();
+    }
+
+    /**
+     * @param throwable the log message's throwable, left out if null
+     * @return the log message bearing the statement as JSON
+     */
+    public static String toJson(AuditStatement statement, String throwable, String formattedMessage) {
+        Buffer buffer = buffer();
+        writeLogMessage(buffer, statement, throwable, formattedMessage);
+        return buffer.toString();
+    }
+
+    public static void writeStatement(Buffer buffer, AuditStatement statement) {
+        AuditStatement.Status status = statement.getStatus();
+        buffer.write(status == null ? NULL_STATUS : STATUSES[status.ordinal()]);
+        writeString(buffer, statement.getMessage());
+
+        AuditStandardsRequirement requirement = statement.getAuditStandardsRequirement();
+        if (requirement == null) {
+            buffer.write(NULL_REQUIREMENT);
+        } else if (requirement instanceof PCIV20Requirement) {
+            buffer.write(PCI_REQUIREMENTS[((PCIV20Requirement) requirement).ordinal()]);
+        } else if (requirement instanceof HIPAAAdminSimplification201303) {
+            buffer.write(HIPAA_REQUIREMENTS[((HIPAAAdminSimplification201303) requirement).ordinal()]);
+        } else {
+            buffer.write(REQUIREMENT);
+            writeString(buffer, requirement.toString());
+            buffer.write('}');
+        }
+
+        if (statement instanceof AuditEvent && ((AuditEvent) statement).getCount() > 1) {
+            writeCoalesced(buffer, (AuditEvent) statement);
+        }
+    }
+
+    private static void writeCoalesced(Buffer buffer, AuditEvent event) {
+        // within the statement's closing brace
+        buffer.length--;
+        buffer.write(COUNT);
+        writeNumber(buffer, event.getCount());
+        buffer.write(FIRST_TIMESTAMP);
+        writeNumber(buffer, event.getFirstTimestamp());
+        buffer.write(LAST_TIMESTAMP);
+        writeNumber(buffer, event.getTimestamp());
+        buffer.write(PIDS);
+        writeNumber(buffer, event.getMinPid());
+        buffer.write(',');
+        writeNumber(buffer, event.getMaxPid());
+        buffer.write(END_PIDS);
+    }
+
+    /**
+     * @param throwable the log message's throwable, left out if null
+     */
+    public static void writeLogMessage(Buffer buffer, AuditStatement statement, String throwable,
+                                       String formattedMessage) {
+        buffer.write(AUDIT_STATEMENT);
+        writeStatement(buffer, statement);
+        if (throwable != null) {
+            buffer.write(THROWABLE);
+            writeString(buffer, throwable);
+        }
+        buffer.write(FORMATTED_MESSAGE);
+        writeString(buffer, formattedMessage);
+        buffer.write('}');
+    }
+
+    /**
+     * Writes the string as a quoted and escaped JSON string, or null
+     */
+    static void writeString(Buffer buffer, String value) {
+        if (value == null) {
+            buffer.write(NULL);
+            return;
+        }
+
+        int length = value.length();
+        // the most a character can take, escaped or as UTF-8, is 6 bytes
+        buffer.ensure(length * 6 + 2);
+        byte[] bytes = buffer.bytes;
+        int position = buffer.length;
+
+        bytes[position++] = '"';
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 128) {
+                int escape = ESCAPES[c];
+                if (escape == 0) {
+                    bytes[position++] = (byte) c;
+                } else if (escape > 0) {
+                    bytes[position++] = '\\';
+                    bytes[position++] = (byte) escape;
+                } else {
+                    bytes[position++] = '\\';
+                    bytes[position++] = 'u';
+                    bytes[position++] = '0';
+                    bytes[position++] = '0';
+                    bytes[position++] = HEX[c >> 4];
+                    bytes[position++] = HEX[c & 0xF];
+                }
+            } else if (c < 0x800) {
+                bytes[position++] = (byte) (0xC0 | (c >> 6));
+                bytes[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                bytes[position++] = (byte) (0xF0 | (codePoint >> 18));
+                bytes[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                bytes[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                bytes[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // unpaired, so not encodable, as String.getBytes
+                bytes[position++] = '?';
+            } else {
+                bytes[position++] = (byte) (0xE0 | (c >> 12));
+                bytes[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        bytes[position++] = '"';
+        buffer.length = position;
+    }
+
+    private static void writeNumber(Buffer buffer, long value) {
+        String digits = Long.toString(value);
+        buffer.ensure(digits.length());
+        for (int i = 0; i < digits.length(); i++) {
+            buffer.bytes[buffer.length++] = (byte) digits.charAt(i);
+        }
+    }
+
+    private static byte[][] requirements(AuditStandardsRequirement[] requirements) {
+        byte[][] fragments = new byte[requirements.length][];
+        Buffer buffer = new Buffer(INITIAL_CAPACITY);
+        for (int i = 0; i < requirements.length; i++) {
+            buffer.length = 0;
+            buffer.write(REQUIREMENT);
+            writeString(buffer, requirements[i].toString());
+            buffer.write('}');
+            fragments[i] = Arrays.copyOf(buffer.bytes, buffer.length);
+        }
+        return fragments;
+    }
+
+    private static byte[] ascii(String fragment) {
+        return fragment.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Growable UTF-8 byte buffer
+     */
+    public static final class Buffer {
+
+        private byte[] bytes;
+        private int length;
+
+        Buffer(int capacity) {
+            this.bytes = new byte[capacity];
+        }
+
+        void ensure(int additional) {
+            if (length + additional > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + additional));
+            }
+        }
+
+        void write(byte[] fragment) {
+            ensure(fragment.length);
+            System.arraycopy(fragment, 0, bytes, length, fragment.length);
+            length += fragment.length;
+        }
+
+        void write(char c) {
+            ensure(1);
+            bytes[length++] = (byte) c;
+        }
+
+        /**
+         * @return the buffer's backing array, of which the first {@link #length()} bytes are written
+         */
+        public byte[] array() {
+            return bytes;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public void writeTo(OutputStream out) throws IOException {
+            out.write(bytes, 0, length);
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+
+}
@@ -1,25 +1,45 @@
 package com.liaison.framework.audit;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import org.slf4j.Marker;
+import com.liaison.framework.ProcessManager;
 
 /**
  * Audit Logger
  * <p/>
- * <P>Log Audit statements here.
+ * <P>Log Audit statements here.  Statements are shipped asynchronously, in batches, by the
+ * {@link AuditPipeline}, so logging one costs the caller little more than a timestamp.  Statements are
+ * counted by requirement and status as they are logged, see {@link AuditCounters}.
  *
  * @author Robert.Christian
  * @version 1.0
  */
 public class AuditLogger {
 
-    // leverage log4j here so that we have control over specific audit targets
-    private static final Logger logger = LoggerFactory.getLogger(AuditLogger.class);
+    private static final AuditPipeline pipeline = AuditPipeline.create();
+    private static final AuditCounters counters = new AuditCounters();
+
+    static {
+        counters.registerMonitors();
+
+        // so that statements logged shortly before exit are shipped
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                pipeline.close();
+            }
+        }, "AuditPipelineShutdown"));
+    }
 
     public static void log(AuditStandardsRequirement requirement, AuditStatement.Status status, String message) {
-        logger.error (Marker.ANY_MARKER, new DefaultAuditStatement(requirement, status, message));
-        Thread.currentThread().getStackTrace().toString();
+        counters.increment(requirement, status);
+        pipeline.log(requirement, status, message, System.currentTimeMillis(), ProcessManager.getPid());
+    }
+
+    public static AuditPipeline getPipeline() {
+        return pipeline;
+    }
+
+    public static AuditCounters getCounters() {
+        return counters;
     }
 
 }
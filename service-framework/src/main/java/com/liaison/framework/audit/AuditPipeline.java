@@ -0,0 +1,500 @@
+package com.liaison.framework.audit;
+
+import com.liaison.framework.audit.syslog.AuditSyslogSink;
+import com.netflix.config.DynamicPropertyFactory;
+import com.netflix.servo.DefaultMonitorRegistry;
+import com.netflix.servo.monitor.BasicCounter;
+import com.netflix.servo.monitor.BasicGauge;
+import com.netflix.servo.monitor.BasicTimer;
+import com.netflix.servo.monitor.CompositeMonitor;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.monitor.Monitors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Audit Pipeline
+ * <p/>
+ * <P>Takes audit statements off the request thread.  {@link AuditLogger#log} puts each statement in a
+ * bounded lock-free ring buffer (see {@link AuditRingBuffer}), and a dedicated consumer thread drains it
+ * in batches of up to {@link #BATCH_SIZE_PROP_NAME} to the {@link AuditSink}s, which serialize and ship
+ * them.  By default that is the {@link LoggingAuditSink}, ie the appenders configured for AuditLogger, and
+ * the {@link AuditSyslogSink} where a syslog host is configured, spooled to disk by a
+ * {@link SpoolingAuditSink} where a spool directory is configured, and the {@link AuditStore} where a
+ * store directory is configured.
+ * <p/>
+ * When the ring buffer ({@link #CAPACITY_PROP_NAME} statements) is full, {@link #OVERFLOW_PROP_NAME}
+ * decides what becomes of a statement:
+ * <ul>
+ * <li>block - the logging thread waits for space, so nothing is lost but a slow sink slows requests.  Should
+ * the consumer thread have died, nothing would make space, so the statement is dropped and counted.</li>
+ * <li>drop - the statement is dropped and counted</li>
+ * <li>spill - the statement is appended to a file in {@link #SPILL_DIRECTORY_PROP_NAME}, and shipped
+ * once the ring buffer has drained (see {@link AuditSpill})</li>
+ * </ul>
+ * Where {@link #COALESCE_WINDOW_PROP_NAME} is set, identical statements logged within that many
+ * milliseconds of each other are shipped as one, with their count (see {@link AuditCoalescer}), though
+ * failed and potential statements are always shipped as logged.
+ * <p/>
+ * Statements from different threads, and spilled or coalesced statements, are not shipped in the order
+ * logged, so sinks should order by {@link AuditEvent#getTimestamp()} where it matters.
+ * <p/>
+ * Queue depth, the latency from log to ship, and statements dropped, spilled, blocked on, coalesced and
+ * failed are registered as AuditPipeline monitors.
+ *
+ * @version 1.0
+ */
+public class AuditPipeline {
+
+    private static final Logger logger = LoggerFactory.getLogger(AuditPipeline.class);
+
+    public static final String CAPACITY_PROP_NAME = "com.liaison.framework.audit.queue.capacity";
+    public static final String BATCH_SIZE_PROP_NAME = "com.liaison.framework.audit.batch.size";
+    public static final String OVERFLOW_PROP_NAME = "com.liaison.framework.audit.overflow";
+    public static final String SPILL_DIRECTORY_PROP_NAME = "com.liaison.framework.audit.spill.directory";
+    public static final String COALESCE_WINDOW_PROP_NAME = "com.liaison.framework.audit.coalesce.window.millis";
+    public static final String COALESCE_MAX_WINDOWS_PROP_NAME = "com.liaison.framework.audit.coalesce.max.windows";
+
+    // how long the consumer sleeps when idle, unless woken by a producer
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    // how long a blocked producer waits between attempts, after first yielding
+    private static final long BLOCKED_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final int BLOCKED_YIELDS = 100;
+
+    private static final long CLOSE_TIMEOUT_MILLIS = 10000;
+
+    public enum OverflowPolicy {
+        BLOCK, DROP, SPILL
+    }
+
+    private final AuditRingBuffer ring;
+    private final AuditEvent[] batch;
+    private final OverflowPolicy overflow;
+    private final AuditSpill spill;
+    private final AuditEvent[] spillBatch;
+    private final List<AuditSink> sinks;
+    private final AuditCoalescer coalescer;
+
+    private final Thread consumer;
+    private volatile boolean running = true;
+    private volatile boolean idle;
+    // once closed, only LoggingAuditSinks, which hold nothing of their own to close, are written to
+    private volatile boolean sinksClosed;
+
+    private final PipelineMonitors monitors = new PipelineMonitors();
+    private CompositeMonitor<?> monitor;
+
+    static AuditPipeline create() {
+        DynamicPropertyFactory properties = DynamicPropertyFactory.getInstance();
+        OverflowPolicy overflow;
+        String policy = properties.getStringProperty(OVERFLOW_PROP_NAME, OverflowPolicy.BLOCK.name()).get();
+        try {
+            overflow = OverflowPolicy.valueOf(policy.toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            logger.error("Unknown audit overflow policy " + policy + ", blocking instead");
+            overflow = OverflowPolicy.BLOCK;
+        }
+
+        String directory = properties.getStringProperty(SPILL_DIRECTORY_PROP_NAME, null).get();
+        if (overflow == OverflowPolicy.SPILL && directory == null) {
+            logger.error("No " + SPILL_DIRECTORY_PROP_NAME + " to spill audit statements to, blocking instead");
+            overflow = OverflowPolicy.BLOCK;
+        }
+
+        List<AuditSink> sinks = new ArrayList<AuditSink>();
+        sinks.add(new LoggingAuditSink());
+        AuditSyslogSink syslog = AuditSyslogSink.create();
+        if (syslog != null) {
+            sinks.add(SpoolingAuditSink.create(syslog));
+        }
+        AuditStore store = AuditStore.create();
+        if (store != null) {
+            sinks.add(store);
+        }
+
+        long window = properties.getLongProperty(COALESCE_WINDOW_PROP_NAME, 0).get();
+        AuditCoalescer coalescer = window > 0
+                ? new AuditCoalescer(window, properties.getIntProperty(COALESCE_MAX_WINDOWS_PROP_NAME, 1024).get())
+                : null;
+
+        AuditPipeline pipeline = new AuditPipeline(properties.getIntProperty(CAPACITY_PROP_NAME, 8192).get(),
+                properties.getIntProperty(BATCH_SIZE_PROP_NAME, 256).get(), overflow,
+                directory == null ? null : Paths.get(directory), sinks, coalescer);
+        pipeline.registerMonitors();
+        return pipeline;
+    }
+
+    AuditPipeline(int capacity, int batchSize, OverflowPolicy overflow, Path spillDirectory, List<AuditSink> sinks) {
+        this(capacity, batchSize, overflow, spillDirectory, sinks, null);
+    }
+
+    /**
+     * @param spillDirectory directory of the spill file, for the spill overflow policy only
+     * @param coalescer      coalescing stage, or null to ship statements as logged
+     */
+    AuditPipeline(int capacity, int batchSize, OverflowPolicy overflow, Path spillDirectory, List<AuditSink> sinks,
+                  AuditCoalescer coalescer) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Audit batch size must be at least 1, not " + batchSize);
+        }
+        this.ring = new AuditRingBuffer(capacity);
+        this.batch = new AuditEvent[Math.min(batchSize, ring.capacity())];
+        this.overflow = overflow;
+        this.sinks = new ArrayList<AuditSink>(sinks);
+        this.coalescer = coalescer;
+
+        if (overflow == OverflowPolicy.SPILL) {
+            try {
+                this.spill = new AuditSpill(spillDirectory);
+            } catch (IOException e) {
+                throw new IllegalStateException("Error opening audit spill in " + spillDirectory, e);
+            }
+            this.spillBatch = new AuditEvent[batch.length];
+            for (int i = 0; i < spillBatch.length; i++) {
+                spillBatch[i] = new AuditEvent();
+            }
+        } else {
+            this.spill = null;
+            this.spillBatch = null;
+        }
+
+        this.consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    consume();
+                } catch (Throwable t) {
+                    logger.error("Audit pipeline consumer died, " + ring.size() + " statements not shipped, and any"
+                            + " overflowing the ring buffer are dropped", t);
+                }
+            }
+        }, "AuditPipeline");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    /**
+     * Enqueues the statement for shipping, applying the overflow policy if the ring buffer is full
+     */
+    void log(AuditStandardsRequirement requirement, AuditStatement.Status status, String message, long timestamp, int pid) {
+        if (!running) {
+            // after close, so ship on the caller's thread rather than lose it, to whichever sinks are usable
+            shipNow(requirement, status, message, timestamp, pid);
+            return;
+        }
+
+        if (!ring.offer(requirement, status, message, timestamp, pid, System.nanoTime())) {
+            switch (overflow) {
+                case DROP:
+                    monitors.dropped.increment();
+                    return;
+                case SPILL:
+                    if (spill.append(requirement, status, message, timestamp, pid)) {
+                        monitors.spilled.increment();
+                    } else {
+                        monitors.dropped.increment();
+                    }
+                    break;
+                default:
+                    block(requirement, status, message, timestamp, pid);
+                    break;
+            }
+        }
+
+        if (idle) {
+            LockSupport.unpark(consumer);
+        }
+        if (!running) {
+            // enqueued as the pipeline closed, possibly after the consumer's last drain
+            drainAfterClose();
+        }
+    }
+
+    private void block(AuditStandardsRequirement requirement, AuditStatement.Status status, String message,
+                       long timestamp, int pid) {
+        monitors.blocked.increment();
+        long start = System.nanoTime();
+        int attempts = 0;
+        do {
+            if (!running) {
+                shipNow(requirement, status, message, timestamp, pid);
+                break;
+            }
+            if (!consumer.isAlive()) {
+                // nothing will drain the ring buffer, see the consumer's run()
+                monitors.dropped.increment();
+                break;
+            }
+            LockSupport.unpark(consumer);
+            if (++attempts < BLOCKED_YIELDS) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(BLOCKED_NANOS);
+            }
+        } while (!ring.offer(requirement, status, message, timestamp, pid, System.nanoTime()));
+        monitors.blockedTime.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private void consume() {
+        while (true) {
+            int count = ring.drain(batch);
+            if (count > 0) {
+                ship(batch, count);
+                ring.release(count);
+                continue;
+            }
+
+            if (spill != null && spill.isPending()) {
+                try {
+                    count = spill.read(spillBatch);
+                } catch (IOException e) {
+                    logger.error("Error reading spilled audit statements", e);
+                }
+                if (count > 0) {
+                    ship(spillBatch, count);
+                    continue;
+                }
+            }
+
+            if (!running) {
+                // and the ring buffer is drained
+                flushCoalesced(Long.MAX_VALUE);
+                return;
+            }
+            flushCoalesced(System.currentTimeMillis());
+
+            idle = true;
+            // checked again, since a producer may have missed idle being set
+            if (ring.size() == 0) {
+                LockSupport.parkNanos(this, IDLE_NANOS);
+            }
+            idle = false;
+        }
+    }
+
+    private void ship(AuditEvent[] events, int count) {
+        if (coalescer != null) {
+            // before output(), which may grow
+            int coalesced = coalescer.coalesce(events, count, System.currentTimeMillis());
+            write(coalescer.output(), coalesced);
+        } else {
+            write(events, count);
+        }
+
+        long now = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            monitors.latency.record(now - events[i].enqueuedNanos, TimeUnit.NANOSECONDS);
+        }
+        monitors.shipped.increment(count);
+    }
+
+    // ships the coalesced statements whose window has expired by now
+    private void flushCoalesced(long now) {
+        if (coalescer != null) {
+            int expired = coalescer.flush(now);
+            write(coalescer.output(), expired);
+        }
+    }
+
+    /**
+     * @return false if there was no sink to write to, the statements having been dropped
+     */
+    private boolean write(AuditEvent[] events, int count) {
+        if (count == 0) {
+            return true;
+        }
+        boolean written = false;
+        for (AuditSink sink : sinks) {
+            if (sinksClosed && !(sink instanceof LoggingAuditSink)) {
+                continue;
+            }
+            written = true;
+            try {
+                sink.write(events, count);
+            } catch (Throwable t) {
+                // an Error from one sink is not left to kill the consumer, and with it every other sink
+                monitors.failed.increment(count);
+                logger.error("Error shipping " + count + " audit statements to " + sink.getClass().getSimpleName(), t);
+            }
+        }
+        if (!written) {
+            for (int i = 0; i < count; i++) {
+                monitors.dropped.increment(events[i].getCount());
+            }
+        }
+        return written;
+    }
+
+    private synchronized void shipNow(AuditStandardsRequirement requirement, AuditStatement.Status status,
+                                      String message, long timestamp, int pid) {
+        AuditEvent event = new AuditEvent();
+        event.set(requirement, status, message, timestamp, pid, System.nanoTime());
+        // not coalesced, since the consumer may yet be flushing the coalescer
+        if (write(new AuditEvent[]{event}, 1)) {
+            monitors.shipped.increment();
+        }
+    }
+
+    private synchronized void drainAfterClose() {
+        if (consumer.isAlive()) {
+            return;
+        }
+        int count;
+        while ((count = ring.drain(batch)) > 0) {
+            ship(batch, count);
+            ring.release(count);
+        }
+        flushCoalesced(Long.MAX_VALUE);
+    }
+
+    /**
+     * Ships what is in the ring buffer and spill, then closes the sinks.  Statements logged afterwards are
+     * shipped on the logging thread, to the {@link LoggingAuditSink} only, since the other sinks are closed.
+     * Without one they are dropped and counted.
+     */
+    synchronized void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(consumer);
+        try {
+            consumer.join(CLOSE_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (consumer.isAlive()) {
+            logger.error("Audit pipeline did not drain within " + CLOSE_TIMEOUT_MILLIS + "ms, " + ring.size()
+                    + " statements not shipped");
+        }
+
+        if (spill != null) {
+            try {
+                spill.close();
+            } catch (IOException e) {
+                logger.error("Error closing audit spill", e);
+            }
+        }
+        sinksClosed = true;
+        for (AuditSink sink : sinks) {
+            try {
+                sink.close();
+            } catch (Exception e) {
+                logger.error("Error closing " + sink.getClass().getSimpleName(), e);
+            }
+        }
+    }
+
+    /**
+     * @return the pipeline's local store, or null if none is configured
+     */
+    public AuditStore getStore() {
+        for (AuditSink sink : sinks) {
+            if (sink instanceof AuditStore) {
+                return (AuditStore) sink;
+            }
+        }
+        return null;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflow;
+    }
+
+    public int getCapacity() {
+        return ring.capacity();
+    }
+
+    /**
+     * @return statements logged but not yet shipped, ie in the ring buffer
+     */
+    public int getQueueDepth() {
+        return ring.size();
+    }
+
+    public long getShipped() {
+        return monitors.shipped.getValue().longValue();
+    }
+
+    public long getDropped() {
+        return monitors.dropped.getValue().longValue();
+    }
+
+    public long getSpilled() {
+        return monitors.spilled.getValue().longValue();
+    }
+
+    public long getBlocked() {
+        return monitors.blocked.getValue().longValue();
+    }
+
+    public long getFailed() {
+        return monitors.failed.getValue().longValue();
+    }
+
+    /**
+     * @return statements folded into another by coalescing, ie not shipped on their own
+     */
+    public long getCoalesced() {
+        return coalescer == null ? 0 : coalescer.getCoalesced();
+    }
+
+    void registerMonitors() {
+        monitor = Monitors.newObjectMonitor("AuditPipeline", monitors);
+        DefaultMonitorRegistry.getInstance().register(monitor);
+    }
+
+    void unregisterMonitors() {
+        if (monitor != null) {
+            DefaultMonitorRegistry.getInstance().unregister(monitor);
+        }
+    }
+
+    // registered through Monitors.newObjectMonitor, which picks up Monitor fields
+    private class PipelineMonitors {
+
+        private final BasicCounter shipped = new BasicCounter(MonitorConfig.builder("auditShipped").build());
+
+        private final BasicCounter dropped = new BasicCounter(MonitorConfig.builder("auditDropped").build());
+
+        private final BasicCounter spilled = new BasicCounter(MonitorConfig.builder("auditSpilled").build());
+
+        private final BasicCounter blocked = new BasicCounter(MonitorConfig.builder("auditBlocked").build());
+
+        private final BasicCounter failed = new BasicCounter(MonitorConfig.builder("auditFailed").build());
+
+        private final BasicGauge<Long> coalesced = new BasicGauge<Long>(MonitorConfig.builder("auditCoalesced").build(),
+                new Callable<Long>() {
+                    @Override
+                    public Long call() {
+                        return getCoalesced();
+                    }
+                });
+
+        private final BasicTimer latency = new BasicTimer(MonitorConfig.builder("auditLatency").build(),
+                TimeUnit.MICROSECONDS);
+
+        private final BasicTimer blockedTime = new BasicTimer(MonitorConfig.builder("auditBlockedTime").build(),
+                TimeUnit.MICROSECONDS);
+
+        private final BasicGauge<Integer> queueDepth = new BasicGauge<Integer>(MonitorConfig.builder("auditQueueDepth").build(),
+                new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        return getQueueDepth();
+                    }
+                });
+    }
+
+}
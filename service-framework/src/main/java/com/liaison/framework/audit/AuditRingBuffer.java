@@ -0,0 +1,120 @@
+package com.liaison.framework.audit;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Audit Ring Buffer
+ * <p/>
+ * <P>Bounded, lock-free, many producer single consumer queue of preallocated {@link AuditEvent} slots,
+ * so that logging an audit statement neither locks nor allocates.  Each slot carries a sequence: a
+ * producer claims the next position with a CAS on the tail, fills the slot and publishes it by
+ * advancing the slot's sequence, and the consumer hands the slot back to producers the same way once
+ * it has shipped it.
+ *
+ * @version 1.0
+ */
+class AuditRingBuffer {
+
+    private final AuditEvent[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+
+    private final AtomicLong tail = new AtomicLong();
+
+    // written by the consumer only
+    private volatile long head;
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    AuditRingBuffer(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Audit ring buffer capacity must be between 1 and 2^30, not " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.slots = new AuditEvent[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            slots[i] = new AuditEvent();
+            sequences.set(i, i);
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * @return false if the buffer is full
+     */
+    boolean offer(AuditStandardsRequirement requirement, AuditStatement.Status status, String message, long timestamp,
+                  int pid, long enqueuedNanos) {
+
+        long position;
+        int index;
+        while (true) {
+            position = tail.get();
+            index = (int) position & mask;
+            long available = sequences.get(index) - position;
+            if (available == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if (available < 0) {
+                // not yet shipped from the previous lap
+                return false;
+            }
+            // otherwise claimed by another producer, so try the next position
+        }
+
+        slots[index].set(requirement, status, message, timestamp, pid, enqueuedNanos);
+        sequences.set(index, position + 1);
+        return true;
+    }
+
+    /**
+     * Consumer only.  Fills the batch with published events, oldest first, which stay claimed until
+     * {@link #release(int)}.
+     *
+     * @return number of events in the batch
+     */
+    int drain(AuditEvent[] batch) {
+        long position = head;
+        int count = 0;
+        while (count < batch.length) {
+            int index = (int) position & mask;
+            if (sequences.get(index) != position + 1) {
+                break;
+            }
+            batch[count++] = slots[index];
+            position++;
+        }
+        return count;
+    }
+
+    /**
+     * Consumer only.  Hands the first count drained events back to producers.
+     */
+    void release(int count) {
+        long position = head;
+        for (int i = 0; i < count; i++, position++) {
+            int index = (int) position & mask;
+            slots[index].clear();
+            sequences.set(index, position + slots.length);
+        }
+        head = position;
+    }
+
+    /**
+     * @return events claimed but not yet shipped, approximately
+     */
+    int size() {
+        return (int) Math.max(0, Math.min(slots.length, tail.get() - head));
+    }
+
+    int capacity() {
+        return slots.length;
+    }
+
+}
@@ -0,0 +1,398 @@
+package com.liaison.framework.audit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Audit Segment
+ * <p/>
+ * <P>One time partition of the {@link AuditStore}: the events written from its start until the next
+ * segment's.  Events are buffered into blocks, each deflated on its own and appended to the segment's
+ * data file, audit-&lt;start&gt;.seg, as
+ * <pre>
+ * [compressed length][length][deflated records]
+ * </pre>
+ * and then indexed in its index file, audit-&lt;start&gt;.idx, by a fixed length entry of
+ * <pre>
+ * [offset][lowest timestamp][highest timestamp][records][requirement bits][status bits]
+ * </pre>
+ * where a requirement sets the bit of the hash of its name, and a status the bit of its ordinal.  A
+ * query reads the index, and inflates only the blocks whose entry may hold a match, one at a time, so
+ * memory is bounded by the block size however large the segment.  A block is only read once indexed,
+ * so a block or entry torn by a crash is ignored.
+ *
+ * @version 1.0
+ */
+class AuditSegment {
+
+    private static final Logger logger = LoggerFactory.getLogger(AuditSegment.class);
+
+    static final String PREFIX = "audit-";
+    static final String DATA_SUFFIX = ".seg";
+    static final String INDEX_SUFFIX = ".idx";
+
+    private static final int BLOCK_HEADER = 8;
+    private static final int INDEX_ENTRY_LENGTH = 8 + 8 + 8 + 4 + 8 + 4;
+
+    private static final AuditStatement.Status[] STATUSES = AuditStatement.Status.values();
+    private static final int NULL_STATUS_BIT = 1 << STATUSES.length;
+
+    final long start;
+    final Path data;
+    final Path index;
+
+    // bytes of indexed blocks, read by the store's monitors
+    private volatile long size;
+
+    // writer only, open until closed
+    private FileChannel dataChannel;
+    private FileChannel indexChannel;
+    private BlockBuffer block;
+    private DataOutputStream blockOut;
+    private Deflater deflater;
+    private byte[] deflated;
+    private final ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_LENGTH);
+
+    // of the block being written
+    private int records;
+    private long lowest;
+    private long highest;
+    private long requirementBits;
+    private int statusBits;
+    private long blockOpened;
+
+    /**
+     * A segment written before, ie by a previous process, for queries only
+     */
+    AuditSegment(Path directory, long start) throws IOException {
+        this.start = start;
+        this.data = directory.resolve(String.format("%s%013d%s", PREFIX, start, DATA_SUFFIX));
+        this.index = directory.resolve(String.format("%s%013d%s", PREFIX, start, INDEX_SUFFIX));
+        this.size = Files.exists(data) ? Files.size(data) : 0;
+    }
+
+    /**
+     * Creates the segment's files, for writing
+     */
+    void open() throws IOException {
+        dataChannel = FileChannel.open(data, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        indexChannel = FileChannel.open(index, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        block = new BlockBuffer();
+        blockOut = new DataOutputStream(block);
+        deflater = new Deflater(Deflater.BEST_SPEED);
+        deflated = new byte[1024];
+    }
+
+    void append(AuditEvent event) throws IOException {
+        if (records == 0) {
+            lowest = Long.MAX_VALUE;
+            highest = Long.MIN_VALUE;
+            requirementBits = 0;
+            statusBits = 0;
+            blockOpened = System.currentTimeMillis();
+        }
+        records++;
+        lowest = Math.min(lowest, event.getCount() > 1 ? event.getFirstTimestamp() : event.getTimestamp());
+        highest = Math.max(highest, event.getTimestamp());
+
+        String className = "";
+        String name = "";
+        AuditStandardsRequirement requirement = event.getAuditStandardsRequirement();
+        if (requirement instanceof Enum) {
+            className = ((Enum<?>) requirement).getDeclaringClass().getName();
+            name = ((Enum<?>) requirement).name();
+        } else if (requirement != null) {
+            name = requirement.toString();
+        }
+        requirementBits |= requirementBit(name);
+        statusBits |= statusBit(event.getStatus());
+
+        blockOut.writeLong(event.getTimestamp());
+        blockOut.writeInt(event.getPid());
+        blockOut.writeInt(event.getCount());
+        if (event.getCount() > 1) {
+            blockOut.writeLong(event.getFirstTimestamp());
+            blockOut.writeInt(event.getMinPid());
+            blockOut.writeInt(event.getMaxPid());
+        }
+        blockOut.writeByte(event.getStatus() == null ? -1 : event.getStatus().ordinal());
+        blockOut.writeUTF(className);
+        blockOut.writeUTF(name);
+        String message = event.getMessage();
+        if (message == null) {
+            blockOut.writeInt(-1);
+        } else {
+            byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+            blockOut.writeInt(bytes.length);
+            blockOut.write(bytes);
+        }
+    }
+
+    /**
+     * @return uncompressed bytes of the block being written
+     */
+    int getBlockLength() {
+        return block.size();
+    }
+
+    /**
+     * @return when the block being written was started, or 0 if it is empty
+     */
+    long getBlockOpened() {
+        return records == 0 ? 0 : blockOpened;
+    }
+
+    /**
+     * @return bytes of the data file, ie compressed
+     */
+    long getSize() {
+        return size;
+    }
+
+    /**
+     * Compresses the block being written to the data file, then indexes it
+     */
+    void flush() throws IOException {
+        if (records == 0) {
+            return;
+        }
+        int length = block.size();
+        deflater.reset();
+        deflater.setInput(block.array(), 0, length);
+        deflater.finish();
+        int compressed = BLOCK_HEADER;
+        while (!deflater.finished()) {
+            if (compressed == deflated.length) {
+                deflated = Arrays.copyOf(deflated, deflated.length * 2);
+            }
+            compressed += deflater.deflate(deflated, compressed, deflated.length - compressed);
+        }
+        ByteBuffer.wrap(deflated, 0, BLOCK_HEADER).putInt(compressed - BLOCK_HEADER).putInt(length);
+
+        long offset = size;
+        write(dataChannel, ByteBuffer.wrap(deflated, 0, compressed), offset);
+        entry.clear();
+        entry.putLong(offset).putLong(lowest).putLong(highest).putInt(records).putLong(requirementBits).putInt(statusBits);
+        entry.flip();
+        write(indexChannel, entry, indexChannel.size());
+
+        size = offset + compressed;
+        records = 0;
+        block.reset();
+        // blocks grown by an unusually large statement are not kept
+        if (deflated.length > 4 * length + 1024) {
+            deflated = new byte[1024];
+        }
+    }
+
+    void close() throws IOException {
+        if (dataChannel == null) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            deflater.end();
+            dataChannel.close();
+            indexChannel.close();
+            dataChannel = null;
+            block = null;
+            blockOut = null;
+        }
+    }
+
+    /**
+     * Visits the events of the segment's indexed blocks that match, in the order written
+     *
+     * @param requirement name of the requirement, ie its enum constant, or null for any
+     * @param status      status, or null for any
+     * @return false if the visitor stopped the query
+     */
+    boolean query(long from, long to, String requirement, AuditStatement.Status status, AuditStore.Visitor visitor)
+            throws IOException {
+        long wantRequirement = requirement == null ? 0 : requirementBit(requirement);
+        int wantStatus = status == null ? 0 : statusBit(status);
+
+        InputStream indexIn;
+        FileChannel dataIn;
+        try {
+            indexIn = Files.newInputStream(index);
+        } catch (NoSuchFileException e) {
+            // deleted by retention since listed
+            return true;
+        }
+        try {
+            dataIn = FileChannel.open(data, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            indexIn.close();
+            return true;
+        }
+
+        try {
+            DataInputStream entries = new DataInputStream(new BufferedInputStream(indexIn));
+            byte[] compressed = new byte[0];
+            byte[] inflated = new byte[0];
+            Inflater inflater = new Inflater();
+            try {
+                while (true) {
+                    long offset;
+                    long lowest;
+                    long highest;
+                    long requirementBits;
+                    int statusBits;
+                    try {
+                        offset = entries.readLong();
+                        lowest = entries.readLong();
+                        highest = entries.readLong();
+                        entries.readInt();
+                        requirementBits = entries.readLong();
+                        statusBits = entries.readInt();
+                    } catch (EOFException e) {
+                        // the end of the index, or an entry being written
+                        return true;
+                    }
+                    if (highest < from || lowest >= to || (requirementBits & wantRequirement) != wantRequirement
+                            || (statusBits & wantStatus) != wantStatus) {
+                        continue;
+                    }
+
+                    ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER);
+                    read(dataIn, header, offset);
+                    int compressedLength = header.getInt(0);
+                    int length = header.getInt(4);
+                    if (compressed.length < compressedLength) {
+                        compressed = new byte[compressedLength];
+                    }
+                    if (inflated.length < length) {
+                        inflated = new byte[length];
+                    }
+                    read(dataIn, ByteBuffer.wrap(compressed, 0, compressedLength), offset + BLOCK_HEADER);
+                    inflater.reset();
+                    inflater.setInput(compressed, 0, compressedLength);
+                    try {
+                        int inflatedLength = 0;
+                        while (inflatedLength < length && !inflater.finished()) {
+                            int n = inflater.inflate(inflated, inflatedLength, length - inflatedLength);
+                            if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                                throw new DataFormatException("truncated block");
+                            }
+                            inflatedLength += n;
+                        }
+                    } catch (DataFormatException e) {
+                        logger.error("Skipping corrupt audit block at " + offset + " of " + data, e);
+                        continue;
+                    }
+
+                    if (!visit(inflated, length, from, to, requirement, status, visitor)) {
+                        return false;
+                    }
+                }
+            } finally {
+                inflater.end();
+            }
+        } finally {
+            indexIn.close();
+            dataIn.close();
+        }
+    }
+
+    private static boolean visit(byte[] block, int length, long from, long to, String requirement,
+                                 AuditStatement.Status status, AuditStore.Visitor visitor) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(block, 0, length));
+        while (in.available() > 0) {
+            long timestamp = in.readLong();
+            int pid = in.readInt();
+            int count = in.readInt();
+            long firstTimestamp = timestamp;
+            int minPid = pid;
+            int maxPid = pid;
+            if (count > 1) {
+                firstTimestamp = in.readLong();
+                minPid = in.readInt();
+                maxPid = in.readInt();
+            }
+            byte ordinal = in.readByte();
+            String className = in.readUTF();
+            String name = in.readUTF();
+            int messageLength = in.readInt();
+            String message = null;
+            if (messageLength >= 0) {
+                byte[] bytes = new byte[messageLength];
+                in.readFully(bytes);
+                message = new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            AuditStatement.Status eventStatus = ordinal < 0 || ordinal >= STATUSES.length ? null : STATUSES[ordinal];
+            if (timestamp < from || firstTimestamp >= to || (requirement != null && !requirement.equals(name))
+                    || (status != null && status != eventStatus)) {
+                continue;
+            }
+
+            AuditEvent event = new AuditEvent(AuditSpool.requirement(className, name), eventStatus, message, timestamp, pid);
+            if (count > 1) {
+                event.setCoalesced(count, firstTimestamp, minPid, maxPid);
+            }
+            if (!visitor.visit(event)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long requirementBit(String name) {
+        return 1L << (name.hashCode() & 63);
+    }
+
+    private static int statusBit(AuditStatement.Status status) {
+        return status == null ? NULL_STATUS_BIT : 1 << status.ordinal();
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new EOFException("Audit block at " + position + " past the end of the segment");
+            }
+            position += n;
+        }
+    }
+
+    // exposes its array, so that a block is compressed without copying it
+    private static class BlockBuffer extends ByteArrayOutputStream {
+
+        BlockBuffer() {
+            super(64 * 1024);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+    }
+
+}
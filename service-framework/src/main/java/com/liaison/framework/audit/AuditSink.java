@@ -0,0 +1,25 @@
+package com.liaison.framework.audit;
+
+/**
+ * Audit Sink
+ * <p/>
+ * <P>Destination of the batches of audit events shipped by the {@link AuditPipeline}.  Called from the
+ * pipeline's consumer thread only, so implementations need not be thread safe.
+ *
+ * @version 1.0
+ */
+public interface AuditSink {
+
+    /**
+     * Ships the first count events of the batch.  Events are reused once this returns, see {@link AuditEvent}.
+     *
+     * @throws Exception if the batch could not be shipped, in which case it is counted as failed
+     */
+    void write(AuditEvent[] events, int count) throws Exception;
+
+    /**
+     * Called once the pipeline has shipped its last batch
+     */
+    void close() throws Exception;
+
+}
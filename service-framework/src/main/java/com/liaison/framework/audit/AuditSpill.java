@@ -0,0 +1,151 @@
+package com.liaison.framework.audit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Audit Spill
+ * <p/>
+ * <P>Overflow of the {@link AuditPipeline} to disk, for the spill overflow policy.  Statements that do
+ * not fit in the ring buffer are appended to audit.spill, and read back by the consumer whenever the
+ * ring buffer is empty.  The file is truncated once read to its end, and a file left by a previous
+ * process is read back on start, so that spilled statements survive a restart.
+ * <p/>
+ * Requirements are recorded by enum class and constant, so only enum requirements can be spilled.
+ *
+ * @version 1.0
+ */
+class AuditSpill {
+
+    private static final Logger logger = LoggerFactory.getLogger(AuditSpill.class);
+
+    static final String FILE_NAME = "audit.spill";
+
+    private static final AuditStatement.Status[] STATUSES = AuditStatement.Status.values();
+
+    private final Path file;
+    private final RandomAccessFile raf;
+    private long readPosition;
+    private volatile boolean pending;
+
+    AuditSpill(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        this.file = directory.resolve(FILE_NAME);
+        this.raf = new RandomAccessFile(file.toFile(), "rw");
+        this.pending = raf.length() > 0;
+        if (pending) {
+            logger.info("Replaying " + raf.length() + " bytes of spilled audit statements from " + file);
+        }
+    }
+
+    /**
+     * @return false if the statement could not be spilled
+     */
+    synchronized boolean append(AuditStandardsRequirement requirement, AuditStatement.Status status, String message,
+                                long timestamp, int pid) {
+        if (!(requirement instanceof Enum)) {
+            return false;
+        }
+        try {
+            // written as a single record, so that a failed write is not followed by a partial one
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(((Enum<?>) requirement).getDeclaringClass().getName());
+            out.writeUTF(((Enum<?>) requirement).name());
+            out.writeByte(status.ordinal());
+            out.writeLong(timestamp);
+            out.writeInt(pid);
+            byte[] text = message == null ? null : message.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(text == null ? -1 : text.length);
+            if (text != null) {
+                out.write(text);
+            }
+            raf.seek(raf.length());
+            raf.write(bytes.toByteArray());
+            pending = true;
+            return true;
+        } catch (IOException e) {
+            logger.error("Error spilling audit statement to " + file, e);
+            return false;
+        }
+    }
+
+    boolean isPending() {
+        return pending;
+    }
+
+    /**
+     * Reads the next spilled statements into the given events, truncating the file once all are read.
+     *
+     * @return number of events read
+     */
+    synchronized int read(AuditEvent[] events) throws IOException {
+        int count = 0;
+        long length = raf.length();
+        raf.seek(readPosition);
+        while (count < events.length && readPosition < length) {
+            String className;
+            String name;
+            AuditStatement.Status status;
+            long timestamp;
+            int pid;
+            String message = null;
+            try {
+                className = raf.readUTF();
+                name = raf.readUTF();
+                status = STATUSES[raf.readByte()];
+                timestamp = raf.readLong();
+                pid = raf.readInt();
+                int textLength = raf.readInt();
+                if (textLength >= 0) {
+                    byte[] text = new byte[textLength];
+                    raf.readFully(text);
+                    message = new String(text, StandardCharsets.UTF_8);
+                }
+            } catch (EOFException e) {
+                // the torn tail of a write in progress when a previous process died
+                logger.error("Dropping partial spilled audit statement at " + readPosition + " of " + file);
+                readPosition = length;
+                break;
+            }
+            readPosition = raf.getFilePointer();
+
+            AuditStandardsRequirement requirement = requirement(className, name);
+            if (requirement == null) {
+                logger.error("Dropping spilled audit statement of unknown requirement " + className + "." + name);
+                continue;
+            }
+            events[count++].set(requirement, status, message, timestamp, pid, System.nanoTime());
+        }
+        if (readPosition >= length) {
+            raf.setLength(0);
+            readPosition = 0;
+            pending = false;
+        }
+        return count;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static AuditStandardsRequirement requirement(String className, String name) {
+        try {
+            Object requirement = Enum.valueOf((Class<Enum>) Class.forName(className), name);
+            return requirement instanceof AuditStandardsRequirement ? (AuditStandardsRequirement) requirement : null;
+        } catch (ClassNotFoundException | IllegalArgumentException | ClassCastException e) {
+            return null;
+        }
+    }
+
+    synchronized void close() throws IOException {
+        raf.close();
+    }
+
+}
@@ -0,0 +1,555 @@
+package com.liaison.framework.audit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.zip.CRC32;
+
+/**
+ * Audit Spool
+ * <p/>
+ * <P>Durable, segmented write-ahead log of audit events, written at memory speed through memory-mapped
+ * segment files, and read back in order by a single reader until acknowledged.  See
+ * {@link SpoolingAuditSink}, whose pipeline consumer is the one writer and whose forwarder the reader.
+ * <p/>
+ * Segments are named audit-&lt;number&gt;.spool, and hold records of
+ * <pre>
+ * [length][crc32 of payload][payload: timestamp, pid, count, status, requirement, message]
+ * </pre>
+ * A zero length (ie the file's initial zeros) ends the records of a segment, as does a length of -1, written
+ * when the next record does not fit.  A record is published to the reader once written in whole, and
+ * written to disk as the {@link FsyncPolicy} says, so that without fsync a crash of the process, though
+ * not of the machine, loses nothing.
+ * <p/>
+ * The reader's position is acknowledged to audit.ack once what it read has been forwarded, and segments
+ * wholly before it are deleted.  On open, the records from the acknowledged position onwards, up to the
+ * first torn or corrupt record of each segment, are read again, and new records go to a new segment.
+ * <p/>
+ * Requirements are recorded by enum class and constant, and any other requirement by its description.
+ * Coalesced events (see {@link AuditCoalescer}) keep their count, first timestamp and range of PIDs.
+ *
+ * @version 1.0
+ */
+class AuditSpool {
+
+    private static final Logger logger = LoggerFactory.getLogger(AuditSpool.class);
+
+    static final String ACK_FILE = "audit.ack";
+    private static final String SEGMENT_PREFIX = "audit-";
+    private static final String SEGMENT_SUFFIX = ".spool";
+
+    // length of a segment's unused remainder
+    private static final int SKIP = -1;
+    private static final int RECORD_HEADER = 8;
+    private static final int ACK_LENGTH = 20;
+
+    private static final AuditStatement.Status[] STATUSES = AuditStatement.Status.values();
+
+    public enum FsyncPolicy {
+        /**
+         * Left to the operating system, so a crash of the machine may lose the latest records
+         */
+        NEVER,
+        /**
+         * Forced to disk after every batch, before the pipeline ships the next
+         */
+        BATCH,
+        /**
+         * Forced to disk periodically, by the reader
+         */
+        INTERVAL
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long maxBytes;
+    private final FsyncPolicy fsync;
+
+    // oldest first, the last being written
+    private final ConcurrentLinkedDeque<Segment> segments = new ConcurrentLinkedDeque<Segment>();
+
+    // written by the writer only, and forced by the reader for the interval policy
+    private volatile Segment writeSegment;
+    private ByteBuffer scratch = ByteBuffer.allocate(1024);
+    private final CRC32 writeCrc = new CRC32();
+    private final Map<AuditStandardsRequirement, byte[]> requirements = new IdentityHashMap<AuditStandardsRequirement, byte[]>();
+
+    // reader only
+    private Segment readSegment;
+    private int readPosition;
+    private final CRC32 readCrc = new CRC32();
+
+    // the reader's position as last acknowledged
+    private Segment ackSegment;
+    private int ackPosition;
+    private final FileChannel ack;
+    private final ByteBuffer ackBuffer = ByteBuffer.allocate(ACK_LENGTH);
+
+    AuditSpool(Path directory, int segmentSize, long maxBytes, FsyncPolicy fsync) throws IOException {
+        if (segmentSize < 1024) {
+            throw new IllegalArgumentException("Audit spool segments must be at least 1024 bytes, not " + segmentSize);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxBytes = maxBytes;
+        this.fsync = fsync;
+
+        Files.createDirectories(directory);
+        this.ack = FileChannel.open(directory.resolve(ACK_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        recover();
+    }
+
+    private void recover() throws IOException {
+        long[] acknowledged = readAck();
+
+        List<Long> numbers = new ArrayList<Long>();
+        DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX);
+        try {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    numbers.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    logger.warn("Ignoring " + file + " in audit spool");
+                }
+            }
+        } finally {
+            files.close();
+        }
+        Collections.sort(numbers);
+
+        long next = 0;
+        int pending = 0;
+        for (long number : numbers) {
+            next = number + 1;
+            if (acknowledged != null && number < acknowledged[0]) {
+                Files.deleteIfExists(segmentFile(number));
+                continue;
+            }
+            Segment segment = map(number, 0);
+            int start = acknowledged != null && number == acknowledged[0] ? (int) acknowledged[1] : 0;
+            segment.limit = scan(segment, start);
+            segment.sealed = true;
+            link(segment);
+            if (readSegment == null) {
+                readSegment = segment;
+                readPosition = Math.min(start, segment.limit);
+            }
+            pending += segment.limit - (segment == readSegment ? readPosition : 0);
+        }
+        if (pending > 0) {
+            logger.info("Replaying " + pending + " bytes of spooled audit statements from " + directory);
+        }
+
+        writeSegment = map(next, segmentSize);
+        link(writeSegment);
+        if (readSegment == null) {
+            readSegment = writeSegment;
+            readPosition = 0;
+        }
+        ackSegment = readSegment;
+        ackPosition = readPosition;
+    }
+
+    /**
+     * @return the end of the valid records of the segment, from the given position
+     */
+    private int scan(Segment segment, int position) {
+        ByteBuffer buffer = segment.buffer.duplicate();
+        CRC32 crc = new CRC32();
+        while (position + RECORD_HEADER <= segment.capacity) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + RECORD_HEADER + length > segment.capacity) {
+                break;
+            }
+            buffer.limit(position + RECORD_HEADER + length).position(position + RECORD_HEADER);
+            crc.reset();
+            crc.update(buffer);
+            buffer.limit(segment.capacity);
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                logger.error("Dropping corrupt audit spool records from " + position + " of " + segment.file);
+                break;
+            }
+            position += RECORD_HEADER + length;
+        }
+        return position;
+    }
+
+    /**
+     * Writer only.  Appends the event, which is read once {@link #commit()}ted.
+     *
+     * @return false if the spool has reached its maximum size
+     */
+    boolean append(AuditEvent event) throws IOException {
+        ByteBuffer payload = encode(event);
+        int length = payload.remaining();
+
+        if (writeSegment.buffer.remaining() < RECORD_HEADER + length) {
+            if (!roll(RECORD_HEADER + length)) {
+                return false;
+            }
+        }
+
+        writeCrc.reset();
+        writeCrc.update(payload.array(), 0, length);
+        MappedByteBuffer buffer = writeSegment.buffer;
+        int position = buffer.position();
+        buffer.position(position + RECORD_HEADER);
+        buffer.put(payload.array(), 0, length);
+        buffer.putInt(position + 4, (int) writeCrc.getValue());
+        // last, so that a torn record reads as the end of the segment
+        buffer.putInt(position, length);
+        return true;
+    }
+
+    /**
+     * Writer only.  Publishes the events appended to the reader, forcing them to disk for the batch policy.
+     */
+    void commit() {
+        if (fsync == FsyncPolicy.BATCH) {
+            writeSegment.buffer.force();
+        }
+        writeSegment.limit = writeSegment.buffer.position();
+    }
+
+    private boolean roll(int recordLength) throws IOException {
+        int size = Math.max(segmentSize, recordLength);
+        if (getSize() + size > maxBytes) {
+            return false;
+        }
+
+        Segment segment = map(writeSegment.number + 1, size);
+        Segment previous = writeSegment;
+        MappedByteBuffer buffer = previous.buffer;
+        if (buffer.remaining() >= 4) {
+            buffer.putInt(buffer.position(), SKIP);
+        }
+        if (fsync != FsyncPolicy.NEVER) {
+            buffer.force();
+        }
+        link(segment);
+        writeSegment = segment;
+
+        previous.limit = buffer.position();
+        // after its limit, see read
+        previous.sealed = true;
+        return true;
+    }
+
+    private ByteBuffer encode(AuditEvent event) {
+        byte[] requirement = requirement(event.getAuditStandardsRequirement());
+        String message = event.getMessage();
+        byte[] text = message == null ? null : message.getBytes(StandardCharsets.UTF_8);
+
+        int coalesced = event.getCount() > 1 ? 16 : 0;
+        int length = 8 + 4 + 4 + coalesced + 1 + requirement.length + 4 + (text == null ? 0 : text.length);
+        if (scratch.capacity() < length) {
+            scratch = ByteBuffer.allocate(Math.max(length, scratch.capacity() * 2));
+        }
+        scratch.clear();
+        scratch.putLong(event.getTimestamp());
+        scratch.putInt(event.getPid());
+        scratch.putInt(event.getCount());
+        if (coalesced > 0) {
+            scratch.putLong(event.getFirstTimestamp());
+            scratch.putInt(event.getMinPid());
+            scratch.putInt(event.getMaxPid());
+        }
+        scratch.put((byte) (event.getStatus() == null ? -1 : event.getStatus().ordinal()));
+        scratch.put(requirement);
+        scratch.putInt(text == null ? -1 : text.length);
+        if (text != null) {
+            scratch.put(text);
+        }
+        scratch.flip();
+        return scratch;
+    }
+
+    // the requirement's class and constant, as two length prefixed strings, encoded once per requirement
+    private byte[] requirement(AuditStandardsRequirement requirement) {
+        byte[] encoded = requirements.get(requirement);
+        if (encoded == null) {
+            String className = "";
+            String name = "";
+            if (requirement instanceof Enum) {
+                className = ((Enum<?>) requirement).getDeclaringClass().getName();
+                name = ((Enum<?>) requirement).name();
+            } else if (requirement != null) {
+                name = requirement.toString();
+            }
+            byte[] classBytes = className.getBytes(StandardCharsets.UTF_8);
+            byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            encoded = ByteBuffer.allocate(8 + classBytes.length + nameBytes.length)
+                    .putInt(classBytes.length).put(classBytes).putInt(nameBytes.length).put(nameBytes).array();
+            // enum constants only, since other requirements may be created per statement
+            if (requirement instanceof Enum) {
+                requirements.put(requirement, encoded);
+            }
+        }
+        return encoded;
+    }
+
+    /**
+     * Reader only.  Reads the next published events into the given events, without acknowledging them.
+     *
+     * @return number of events read
+     */
+    int read(AuditEvent[] events) {
+        int count = 0;
+        while (count < events.length) {
+            // sealed before limit, since the writer publishes the final limit before sealing
+            boolean sealed = readSegment.sealed;
+            int limit = readSegment.limit;
+            if (readPosition + RECORD_HEADER > limit) {
+                if (!sealed || readSegment.next == null) {
+                    break;
+                }
+                readSegment = readSegment.next;
+                readPosition = 0;
+                continue;
+            }
+
+            ByteBuffer buffer = readSegment.reader;
+            int length = buffer.getInt(readPosition);
+            if (length <= 0) {
+                // published limits only cover whole records, so this is the end of a recovered segment
+                readPosition = limit;
+                continue;
+            }
+            buffer.limit(readPosition + RECORD_HEADER + length).position(readPosition + RECORD_HEADER);
+            decode(buffer, events[count]);
+            buffer.limit(buffer.capacity());
+            readPosition += RECORD_HEADER + length;
+            count++;
+        }
+        return count;
+    }
+
+    private void decode(ByteBuffer buffer, AuditEvent event) {
+        long timestamp = buffer.getLong();
+        int pid = buffer.getInt();
+        int count = buffer.getInt();
+        long firstTimestamp = timestamp;
+        int minPid = pid;
+        int maxPid = pid;
+        if (count > 1) {
+            firstTimestamp = buffer.getLong();
+            minPid = buffer.getInt();
+            maxPid = buffer.getInt();
+        }
+        byte status = buffer.get();
+        String className = string(buffer, buffer.getInt());
+        String name = string(buffer, buffer.getInt());
+        String message = string(buffer, buffer.getInt());
+
+        AuditStandardsRequirement requirement = requirement(className, name);
+        event.set(requirement, status < 0 || status >= STATUSES.length ? null : STATUSES[status], message, timestamp, pid,
+                System.nanoTime());
+        if (count > 1) {
+            event.setCoalesced(count, firstTimestamp, minPid, maxPid);
+        }
+    }
+
+    /**
+     * @return the requirement recorded by enum class and constant, or by description, or null if none
+     */
+    static AuditStandardsRequirement requirement(String className, final String name) {
+        AuditStandardsRequirement requirement = null;
+        if (!className.isEmpty()) {
+            requirement = AuditSpill.requirement(className, name);
+            if (requirement == null) {
+                logger.error("Audit statement of unknown requirement " + className + "." + name);
+            }
+        }
+        if (requirement == null && !name.isEmpty()) {
+            requirement = new AuditStandardsRequirement() {
+                @Override
+                public String getDescription() {
+                    return name;
+                }
+
+                @Override
+                public String toString() {
+                    return name;
+                }
+            };
+        }
+        return requirement;
+    }
+
+    private static String string(ByteBuffer buffer, int length) {
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reader only.  Acknowledges what has been read, so that it is not read again after a restart, and
+     * deletes the segments wholly before it.
+     */
+    void acknowledge() throws IOException {
+        ackSegment = readSegment;
+        ackPosition = readPosition;
+
+        ackBuffer.clear();
+        ackBuffer.putLong(ackSegment.number).putInt(ackPosition);
+        CRC32 crc = new CRC32();
+        crc.update(ackBuffer.array(), 0, 12);
+        ackBuffer.putLong(crc.getValue());
+        ackBuffer.flip();
+        while (ackBuffer.hasRemaining()) {
+            ack.write(ackBuffer, ackBuffer.position());
+        }
+        if (fsync != FsyncPolicy.NEVER) {
+            ack.force(false);
+        }
+
+        Segment oldest;
+        while ((oldest = segments.peekFirst()) != null && oldest != ackSegment) {
+            segments.pollFirst();
+            // unmapped once collected, which on unix does not prevent the delete
+            Files.deleteIfExists(oldest.file);
+        }
+    }
+
+    /**
+     * Reader only.  Returns to the last acknowledged position, to read again what could not be forwarded.
+     */
+    void rewind() {
+        readSegment = ackSegment;
+        readPosition = ackPosition;
+    }
+
+    /**
+     * Forces the segment being written to disk, for the interval policy
+     */
+    void force() {
+        writeSegment.buffer.force();
+    }
+
+    FsyncPolicy getFsyncPolicy() {
+        return fsync;
+    }
+
+    /**
+     * @return bytes published but not yet acknowledged, approximately
+     */
+    long getPending() {
+        long pending = 0;
+        for (Segment segment : segments) {
+            pending += segment.limit;
+        }
+        return Math.max(0, pending - ackPosition);
+    }
+
+    /**
+     * @return bytes of the spool's segments on disk
+     */
+    long getSize() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.capacity;
+        }
+        return size;
+    }
+
+    int getSegments() {
+        return segments.size();
+    }
+
+    void close() throws IOException {
+        if (fsync != FsyncPolicy.NEVER) {
+            writeSegment.buffer.force();
+        }
+        ack.close();
+    }
+
+    private long[] readAck() throws IOException {
+        ackBuffer.clear();
+        while (ackBuffer.hasRemaining() && ack.read(ackBuffer, ackBuffer.position()) > 0) {
+            // until read in whole, or at the end of the file
+        }
+        if (ackBuffer.hasRemaining()) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(ackBuffer.array(), 0, 12);
+        if (crc.getValue() != ackBuffer.getLong(12)) {
+            logger.error("Ignoring corrupt " + ACK_FILE + ", replaying all of the audit spool");
+            return null;
+        }
+        return new long[]{ackBuffer.getLong(0), ackBuffer.getInt(8)};
+    }
+
+    private Segment map(long number, int size) throws IOException {
+        Path file = segmentFile(number);
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            // an existing segment keeps its size
+            long capacity = size > 0 ? size : channel.size();
+            return new Segment(number, file, channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity));
+        } finally {
+            // the mapping outlives the channel
+            channel.close();
+        }
+    }
+
+    private void link(Segment segment) {
+        Segment last = segments.peekLast();
+        segments.addLast(segment);
+        if (last != null) {
+            last.next = segment;
+        }
+    }
+
+    private Path segmentFile(long number) {
+        return directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    private static class Segment {
+
+        private final long number;
+        private final Path file;
+        private final int capacity;
+
+        // the writer's, positioned at the end of its records
+        private final MappedByteBuffer buffer;
+        // the reader's
+        private final ByteBuffer reader;
+
+        // end of the records published to the reader
+        private volatile int limit;
+        // once no more records will be written to the segment
+        private volatile boolean sealed;
+        private volatile Segment next;
+
+        Segment(long number, Path file, MappedByteBuffer buffer) {
+            this.number = number;
+            this.file = file;
+            this.capacity = buffer.capacity();
+            this.buffer = buffer;
+            this.reader = buffer.duplicate();
+        }
+    }
+
+}
@@ -0,0 +1,351 @@
+package com.liaison.framework.audit;
+
+import com.netflix.config.DynamicPropertyFactory;
+import com.netflix.servo.DefaultMonitorRegistry;
+import com.netflix.servo.monitor.BasicCounter;
+import com.netflix.servo.monitor.BasicGauge;
+import com.netflix.servo.monitor.CompositeMonitor;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.monitor.Monitors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Audit Store
+ * <p/>
+ * <P>Keeps the audit statements shipped by the {@link AuditPipeline} on local disk, so that they can be
+ * queried by time range, requirement and status (see {@link #query}), ie by the admin port's
+ * {@link com.liaison.framework.audit.admin.AuditResource}, without a trip to the syslog receiver.
+ * <p/>
+ * Statements are written to time partitioned, compressed and indexed segments (see {@link AuditSegment}).
+ * A new segment is started once the current one reaches {@link #SEGMENT_MAX_BYTES_PROP_NAME} or
+ * {@link #SEGMENT_MAX_AGE_PROP_NAME}, and segments are deleted once older than {@link #RETENTION_PROP_NAME},
+ * or to keep the store within {@link #MAX_BYTES_PROP_NAME}.  Statements are buffered into blocks of
+ * {@link #BLOCK_SIZE_PROP_NAME} bytes before they are compressed, and written at the latest
+ * {@link #FLUSH_INTERVAL_PROP_NAME} milliseconds after the pipeline ships them, or when queried.  A timer
+ * thread writes the block due while no more statements arrive, and deletes segments past retention while the
+ * store is idle.  The store is a convenience for queries, not a durable record: the last unwritten block is
+ * lost in a crash.
+ * <p/>
+ * Enabled by {@link #DIRECTORY_PROP_NAME}.  Monitors are registered as AuditStore.
+ *
+ * @version 1.0
+ */
+public class AuditStore implements AuditSink {
+
+    private static final Logger logger = LoggerFactory.getLogger(AuditStore.class);
+
+    public static final String DIRECTORY_PROP_NAME = "com.liaison.framework.audit.store.directory";
+    public static final String SEGMENT_MAX_BYTES_PROP_NAME = "com.liaison.framework.audit.store.segment.max.bytes";
+    public static final String SEGMENT_MAX_AGE_PROP_NAME = "com.liaison.framework.audit.store.segment.max.age.millis";
+    public static final String BLOCK_SIZE_PROP_NAME = "com.liaison.framework.audit.store.block.size";
+    public static final String FLUSH_INTERVAL_PROP_NAME = "com.liaison.framework.audit.store.flush.interval.millis";
+    public static final String RETENTION_PROP_NAME = "com.liaison.framework.audit.store.retention.millis";
+    public static final String MAX_BYTES_PROP_NAME = "com.liaison.framework.audit.store.max.bytes";
+
+    /**
+     * Receives the events matching a query, one at a time
+     */
+    public interface Visitor {
+
+        /**
+         * @return false to stop the query
+         */
+        boolean visit(AuditEvent event) throws IOException;
+    }
+
+    private final Path directory;
+    private final long segmentMaxBytes;
+    private final long segmentMaxAgeMillis;
+    private final int blockSize;
+    private final long flushIntervalMillis;
+    private final long retentionMillis;
+    private final long maxBytes;
+
+    // oldest first, the last being written
+    private final List<AuditSegment> segments = new ArrayList<AuditSegment>();
+    private AuditSegment current;
+    private boolean closed;
+
+    // flushes the block due, and deletes expired segments, while no statements arrive
+    private final ScheduledExecutorService timer;
+
+    private final StoreMonitors monitors = new StoreMonitors();
+    private CompositeMonitor<?> monitor;
+
+    /**
+     * @return the store configured by properties, or null if {@link #DIRECTORY_PROP_NAME} is not set
+     */
+    public static AuditStore create() {
+        DynamicPropertyFactory properties = DynamicPropertyFactory.getInstance();
+        String directory = properties.getStringProperty(DIRECTORY_PROP_NAME, null).get();
+        if (directory == null) {
+            return null;
+        }
+        AuditStore store;
+        try {
+            store = new AuditStore(Paths.get(directory),
+                    properties.getLongProperty(SEGMENT_MAX_BYTES_PROP_NAME, 64L * 1024 * 1024).get(),
+                    properties.getLongProperty(SEGMENT_MAX_AGE_PROP_NAME, 60L * 60 * 1000).get(),
+                    properties.getIntProperty(BLOCK_SIZE_PROP_NAME, 64 * 1024).get(),
+                    properties.getLongProperty(FLUSH_INTERVAL_PROP_NAME, 1000).get(),
+                    properties.getLongProperty(RETENTION_PROP_NAME, 30L * 24 * 60 * 60 * 1000).get(),
+                    properties.getLongProperty(MAX_BYTES_PROP_NAME, 10L * 1024 * 1024 * 1024).get());
+        } catch (IOException e) {
+            throw new IllegalStateException("Error opening audit store in " + directory, e);
+        }
+        store.registerMonitors();
+        return store;
+    }
+
+    AuditStore(Path directory, long segmentMaxBytes, long segmentMaxAgeMillis, int blockSize, long flushIntervalMillis,
+               long retentionMillis, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.segmentMaxBytes = segmentMaxBytes;
+        this.segmentMaxAgeMillis = segmentMaxAgeMillis;
+        this.blockSize = blockSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.retentionMillis = retentionMillis;
+        this.maxBytes = maxBytes;
+
+        Files.createDirectories(directory);
+        List<Long> starts = new ArrayList<Long>();
+        DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+                AuditSegment.PREFIX + "*" + AuditSegment.INDEX_SUFFIX);
+        try {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    starts.add(Long.parseLong(name.substring(AuditSegment.PREFIX.length(),
+                            name.length() - AuditSegment.INDEX_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    logger.warn("Ignoring " + file + " in audit store");
+                }
+            }
+        } finally {
+            files.close();
+        }
+        Collections.sort(starts);
+        for (long start : starts) {
+            segments.add(new AuditSegment(directory, start));
+        }
+        roll(System.currentTimeMillis());
+
+        timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "AuditStoreTimer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long interval = Math.max(1, flushIntervalMillis);
+        timer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    tick();
+                } catch (IOException e) {
+                    logger.error("Error flushing audit store in " + AuditStore.this.directory, e);
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void write(AuditEvent[] events, int count) throws IOException {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            current.append(events[i]);
+            if (current.getBlockLength() >= blockSize) {
+                flushBlock(now);
+            }
+        }
+        flushDue(now);
+        monitors.records.increment(count);
+    }
+
+    synchronized void tick() throws IOException {
+        if (closed) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        flushDue(now);
+        deleteExpired(now);
+    }
+
+    /**
+     * Writes the block being written, so that queries see it
+     */
+    synchronized void flush() throws IOException {
+        flushBlock(System.currentTimeMillis());
+    }
+
+    private void flushDue(long now) throws IOException {
+        if (current.getBlockOpened() != 0 && now - current.getBlockOpened() >= flushIntervalMillis) {
+            flushBlock(now);
+        }
+    }
+
+    private void flushBlock(long now) throws IOException {
+        if (current.getBlockOpened() == 0) {
+            return;
+        }
+        current.flush();
+        monitors.blocks.increment();
+        if (current.getSize() >= segmentMaxBytes || now - current.start >= segmentMaxAgeMillis) {
+            roll(now);
+        }
+    }
+
+    // closes the current segment, if any, starts a new one, and deletes those past retention
+    private void roll(long now) throws IOException {
+        long start = now;
+        if (current != null) {
+            current.close();
+            start = Math.max(now, current.start + 1);
+        } else if (!segments.isEmpty()) {
+            start = Math.max(now, segments.get(segments.size() - 1).start + 1);
+        }
+        AuditSegment segment = new AuditSegment(directory, start);
+        segment.open();
+        segments.add(segment);
+        current = segment;
+        deleteExpired(now);
+    }
+
+    private void deleteExpired(long now) throws IOException {
+        long size = 0;
+        for (AuditSegment s : segments) {
+            size += s.getSize();
+        }
+        // the oldest, while its successor started, ie it ended, before retention, or the store is too large
+        while (segments.size() > 1
+                && (segments.get(1).start < now - retentionMillis || size > maxBytes)) {
+            AuditSegment oldest = segments.remove(0);
+            size -= oldest.getSize();
+            Files.deleteIfExists(oldest.data);
+            Files.deleteIfExists(oldest.index);
+            monitors.deleted.increment();
+        }
+    }
+
+    /**
+     * Visits the stored events logged within the time range that match, segment by segment in the order
+     * written, without holding more than a block of any segment in memory.  A coalesced event matches if
+     * any of its statements were logged within the range.
+     *
+     * @param from        start of the time range, inclusive, in milliseconds since the epoch
+     * @param to          end of the time range, exclusive
+     * @param requirement name of the requirement, ie its enum constant such as PCI10_2_4, or null for any
+     * @param status      status, or null for any
+     */
+    public void query(long from, long to, String requirement, AuditStatement.Status status, Visitor visitor)
+            throws IOException {
+        List<AuditSegment> snapshot;
+        synchronized (this) {
+            flushBlock(System.currentTimeMillis());
+            snapshot = new ArrayList<AuditSegment>(segments);
+        }
+        monitors.queries.increment();
+
+        for (int i = 0; i < snapshot.size(); i++) {
+            // written before the next segment started, so logged before then too
+            if (i + 1 < snapshot.size() && snapshot.get(i + 1).start < from) {
+                continue;
+            }
+            if (!snapshot.get(i).query(from, to, requirement, status, visitor)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        timer.shutdown();
+        closed = true;
+        try {
+            current.close();
+        } finally {
+            unregisterMonitors();
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public long getRecords() {
+        return monitors.records.getValue().longValue();
+    }
+
+    /**
+     * @return bytes of the store's segments, ie compressed
+     */
+    public synchronized long getSize() {
+        long size = 0;
+        for (AuditSegment segment : segments) {
+            size += segment.getSize();
+        }
+        return size;
+    }
+
+    public synchronized int getSegments() {
+        return segments.size();
+    }
+
+    void registerMonitors() {
+        monitor = Monitors.newObjectMonitor("AuditStore", monitors);
+        DefaultMonitorRegistry.getInstance().register(monitor);
+    }
+
+    void unregisterMonitors() {
+        if (monitor != null) {
+            DefaultMonitorRegistry.getInstance().unregister(monitor);
+            monitor = null;
+        }
+    }
+
+    // registered through Monitors.newObjectMonitor, which picks up Monitor fields
+    private class StoreMonitors {
+
+        private final BasicCounter records = new BasicCounter(MonitorConfig.builder("storeRecords").build());
+
+        private final BasicCounter blocks = new BasicCounter(MonitorConfig.builder("storeBlocks").build());
+
+        private final BasicCounter deleted = new BasicCounter(MonitorConfig.builder("storeSegmentsDeleted").build());
+
+        private final BasicCounter queries = new BasicCounter(MonitorConfig.builder("storeQueries").build());
+
+        private final BasicGauge<Long> size = new BasicGauge<Long>(MonitorConfig.builder("storeBytes").build(),
+                new Callable<Long>() {
+                    @Override
+                    public Long call() {
+                        return getSize();
+                    }
+                });
+
+        private final BasicGauge<Integer> segments = new BasicGauge<Integer>(MonitorConfig.builder("storeSegments").build(),
+                new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        return getSegments();
+                    }
+                });
+    }
+
+}
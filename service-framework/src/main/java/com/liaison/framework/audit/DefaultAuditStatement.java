@@ -1,17 +1,5 @@
 package com.liaison.framework.audit;
 
-import java.io.IOException;
-
-import javax.xml.bind.JAXBException;
-
-import org.codehaus.jackson.JsonGenerationException;
-import org.codehaus.jackson.map.AnnotationIntrospector;
-import org.codehaus.jackson.map.JsonMappingException;
-import org.codehaus.jackson.map.ObjectMapper;
-import org.codehaus.jackson.map.introspect.JacksonAnnotationIntrospector;
-import org.codehaus.jackson.xc.JaxbAnnotationIntrospector;
-
-
 /**
  * General use implementation of AuditStatement
  * 
@@ -49,34 +37,7 @@ public class DefaultAuditStatement implements AuditStatement {
      * makes a JSON version of this audit statement.
      */
     public String toString() {
-    	try {
-    		return marshallToJson(this);
-		} catch (  JAXBException| IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-    	return message;
+        return AuditJsonEncoder.toJson(this);
     }
-    
-    //TODO move to jaxbutil
-	@SuppressWarnings("deprecation")
-	private String marshallToJson(AuditStatement object) throws JAXBException,
-		JsonGenerationException, JsonMappingException, IOException {
-		ObjectMapper mapper = new ObjectMapper();
-		AnnotationIntrospector primary = new JaxbAnnotationIntrospector();
-		AnnotationIntrospector secondary = new JacksonAnnotationIntrospector();
-		AnnotationIntrospector introspector = new AnnotationIntrospector.Pair(
-				primary, secondary);
-
-		// make deserializer use JAXB annotations (only)
-		mapper.getDeserializationConfig().setAnnotationIntrospector(
-				introspector);
-		// make serializer use JAXB annotations (only)
-		mapper.getSerializationConfig().setAnnotationIntrospector(introspector);
-
-		return mapper.writeValueAsString(object);
-	}
-
-
 
 }
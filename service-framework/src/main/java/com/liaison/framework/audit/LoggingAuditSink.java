@@ -0,0 +1,32 @@
+package com.liaison.framework.audit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.Marker;
+
+/**
+ * Logging Audit Sink
+ * <p/>
+ * <P>Ships audit events to the appenders configured for the AuditLogger logger, ie the
+ * {@link com.liaison.framework.audit.log4j2.AuditSyslogAppender}, as audit statement bearing messages.
+ *
+ * @version 1.0
+ */
+public class LoggingAuditSink implements AuditSink {
+
+    // leverage log4j here so that we have control over specific audit targets
+    private static final Logger logger = LoggerFactory.getLogger(AuditLogger.class);
+
+    @Override
+    public void write(AuditEvent[] events, int count) {
+        for (int i = 0; i < count; i++) {
+            // copied, since an asynchronous appender may hold on to the message
+            logger.error(Marker.ANY_MARKER, events[i].toStatement());
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+}
@@ -0,0 +1,281 @@
+package com.liaison.framework.audit;
+
+import com.netflix.config.DynamicPropertyFactory;
+import com.netflix.servo.DefaultMonitorRegistry;
+import com.netflix.servo.monitor.BasicCounter;
+import com.netflix.servo.monitor.BasicGauge;
+import com.netflix.servo.monitor.CompositeMonitor;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.monitor.Monitors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Spooling Audit Sink
+ * <p/>
+ * <P>Decouples the {@link AuditPipeline} from a remote sink, ie the
+ * {@link com.liaison.framework.audit.syslog.AuditSyslogSink}, so that an outage of the remote end neither
+ * backs up the pipeline nor loses statements.  Each batch is appended to an {@link AuditSpool} in
+ * {@link #DIRECTORY_PROP_NAME} at memory speed, and a forwarder thread ships the spooled statements to the
+ * remote sink in batches, acknowledging them once shipped.  While the remote sink fails, the spool grows,
+ * up to {@link #MAX_BYTES_PROP_NAME}, and the forwarder retries with exponential backoff; statements spooled
+ * but not acknowledged when the process ends are forwarded after a restart.  Statements that do not fit in
+ * a full spool are counted as rejected, and lost.
+ * <p/>
+ * {@link #FSYNC_PROP_NAME} trades durability for throughput:
+ * <ul>
+ * <li>never - spooled statements survive a crash of the process, but not of the machine</li>
+ * <li>batch - each batch is forced to disk before the pipeline ships the next</li>
+ * <li>interval - spooled statements are forced to disk every {@link #FSYNC_INTERVAL_PROP_NAME} milliseconds</li>
+ * </ul>
+ * The remote sink is called from the forwarder thread only.  Monitors are registered as AuditSpool.
+ *
+ * @version 1.0
+ */
+public class SpoolingAuditSink implements AuditSink {
+
+    private static final Logger logger = LoggerFactory.getLogger(SpoolingAuditSink.class);
+
+    public static final String DIRECTORY_PROP_NAME = "com.liaison.framework.audit.spool.directory";
+    public static final String SEGMENT_SIZE_PROP_NAME = "com.liaison.framework.audit.spool.segment.size";
+    public static final String MAX_BYTES_PROP_NAME = "com.liaison.framework.audit.spool.max.bytes";
+    public static final String FSYNC_PROP_NAME = "com.liaison.framework.audit.spool.fsync";
+    public static final String FSYNC_INTERVAL_PROP_NAME = "com.liaison.framework.audit.spool.fsync.interval.millis";
+
+    // how long the forwarder sleeps when there is nothing to forward, unless woken by a write
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final long BACKOFF_INITIAL_MILLIS = 100;
+    private static final long BACKOFF_MAX_MILLIS = 30000;
+
+    private static final long CLOSE_TIMEOUT_MILLIS = 10000;
+
+    private final AuditSpool spool;
+    private final AuditSink delegate;
+    private final AuditEvent[] batch;
+    private final long fsyncIntervalNanos;
+
+    private final Thread forwarder;
+    private volatile boolean running = true;
+    private volatile boolean idle;
+
+    private final SpoolMonitors monitors = new SpoolMonitors();
+    private CompositeMonitor<?> monitor;
+
+    /**
+     * @return the delegate, spooled if {@link #DIRECTORY_PROP_NAME} is set
+     */
+    public static AuditSink create(AuditSink delegate) {
+        DynamicPropertyFactory properties = DynamicPropertyFactory.getInstance();
+        String directory = properties.getStringProperty(DIRECTORY_PROP_NAME, null).get();
+        if (directory == null) {
+            return delegate;
+        }
+
+        AuditSpool.FsyncPolicy fsync;
+        String policy = properties.getStringProperty(FSYNC_PROP_NAME, AuditSpool.FsyncPolicy.INTERVAL.name()).get();
+        try {
+            fsync = AuditSpool.FsyncPolicy.valueOf(policy.toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            logger.error("Unknown audit spool fsync policy " + policy + ", forcing at intervals instead");
+            fsync = AuditSpool.FsyncPolicy.INTERVAL;
+        }
+
+        AuditSpool spool;
+        try {
+            spool = new AuditSpool(Paths.get(directory),
+                    properties.getIntProperty(SEGMENT_SIZE_PROP_NAME, 16 * 1024 * 1024).get(),
+                    properties.getLongProperty(MAX_BYTES_PROP_NAME, 1024L * 1024 * 1024).get(), fsync);
+        } catch (IOException e) {
+            throw new IllegalStateException("Error opening audit spool in " + directory, e);
+        }
+        SpoolingAuditSink sink = new SpoolingAuditSink(spool, delegate,
+                properties.getIntProperty(AuditPipeline.BATCH_SIZE_PROP_NAME, 256).get(),
+                properties.getLongProperty(FSYNC_INTERVAL_PROP_NAME, 1000).get());
+        sink.registerMonitors();
+        return sink;
+    }
+
+    SpoolingAuditSink(AuditSpool spool, AuditSink delegate, int batchSize, long fsyncIntervalMillis) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Audit batch size must be at least 1, not " + batchSize);
+        }
+        this.spool = spool;
+        this.delegate = delegate;
+        this.batch = new AuditEvent[batchSize];
+        for (int i = 0; i < batch.length; i++) {
+            batch[i] = new AuditEvent();
+        }
+        this.fsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(fsyncIntervalMillis);
+
+        this.forwarder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                forward();
+            }
+        }, "AuditSpool");
+        forwarder.setDaemon(true);
+        forwarder.start();
+    }
+
+    @Override
+    public void write(AuditEvent[] events, int count) throws IOException {
+        int appended = 0;
+        while (appended < count && spool.append(events[appended])) {
+            appended++;
+        }
+        spool.commit();
+        monitors.appended.increment(appended);
+
+        if (idle) {
+            LockSupport.unpark(forwarder);
+        }
+        if (appended < count) {
+            monitors.rejected.increment(count - appended);
+            logger.error("Audit spool is full, " + (count - appended) + " audit statements not spooled");
+        }
+    }
+
+    private void forward() {
+        long backoffMillis = BACKOFF_INITIAL_MILLIS;
+        long lastForce = System.nanoTime();
+        while (true) {
+            if (spool.getFsyncPolicy() == AuditSpool.FsyncPolicy.INTERVAL
+                    && System.nanoTime() - lastForce >= fsyncIntervalNanos) {
+                spool.force();
+                lastForce = System.nanoTime();
+            }
+
+            int count = spool.read(batch);
+            if (count > 0) {
+                try {
+                    delegate.write(batch, count);
+                    spool.acknowledge();
+                    monitors.forwarded.increment(count);
+                    backoffMillis = BACKOFF_INITIAL_MILLIS;
+                } catch (Exception e) {
+                    monitors.failures.increment();
+                    spool.rewind();
+                    if (!running) {
+                        logger.error("Error forwarding spooled audit statements, leaving them to the next start", e);
+                        return;
+                    }
+                    logger.error("Error forwarding " + count + " spooled audit statements, retrying in "
+                            + backoffMillis + "ms", e);
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(backoffMillis));
+                    backoffMillis = Math.min(backoffMillis * 2, BACKOFF_MAX_MILLIS);
+                }
+                continue;
+            }
+
+            if (!running) {
+                // and the spool is forwarded
+                return;
+            }
+
+            idle = true;
+            LockSupport.parkNanos(this, IDLE_NANOS);
+            idle = false;
+        }
+    }
+
+    /**
+     * Forwards what is spooled, for a bounded time, then closes the spool and the delegate.  Whatever is
+     * left in the spool is forwarded after a restart.
+     */
+    @Override
+    public void close() throws Exception {
+        running = false;
+        LockSupport.unpark(forwarder);
+        try {
+            forwarder.join(CLOSE_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (forwarder.isAlive()) {
+            logger.error("Audit spool did not forward within " + CLOSE_TIMEOUT_MILLIS + "ms, "
+                    + spool.getPending() + " bytes left to the next start");
+        }
+
+        try {
+            spool.close();
+        } finally {
+            unregisterMonitors();
+            delegate.close();
+        }
+    }
+
+    public long getAppended() {
+        return monitors.appended.getValue().longValue();
+    }
+
+    public long getForwarded() {
+        return monitors.forwarded.getValue().longValue();
+    }
+
+    public long getRejected() {
+        return monitors.rejected.getValue().longValue();
+    }
+
+    /**
+     * @return failed attempts to forward a batch, each retried
+     */
+    public long getFailures() {
+        return monitors.failures.getValue().longValue();
+    }
+
+    /**
+     * @return bytes spooled but not yet forwarded, approximately
+     */
+    public long getPendingBytes() {
+        return spool.getPending();
+    }
+
+    void registerMonitors() {
+        monitor = Monitors.newObjectMonitor("AuditSpool", monitors);
+        DefaultMonitorRegistry.getInstance().register(monitor);
+    }
+
+    void unregisterMonitors() {
+        if (monitor != null) {
+            DefaultMonitorRegistry.getInstance().unregister(monitor);
+            monitor = null;
+        }
+    }
+
+    // registered through Monitors.newObjectMonitor, which picks up Monitor fields
+    private class SpoolMonitors {
+
+        private final BasicCounter appended = new BasicCounter(MonitorConfig.builder("spoolAppended").build());
+
+        private final BasicCounter forwarded = new BasicCounter(MonitorConfig.builder("spoolForwarded").build());
+
+        private final BasicCounter rejected = new BasicCounter(MonitorConfig.builder("spoolRejected").build());
+
+        private final BasicCounter failures = new BasicCounter(MonitorConfig.builder("spoolForwardFailures").build());
+
+        private final BasicGauge<Long> pendingBytes = new BasicGauge<Long>(MonitorConfig.builder("spoolPendingBytes").build(),
+                new Callable<Long>() {
+                    @Override
+                    public Long call() {
+                        return getPendingBytes();
+                    }
+                });
+
+        private final BasicGauge<Integer> segments = new BasicGauge<Integer>(MonitorConfig.builder("spoolSegments").build(),
+                new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        return spool.getSegments();
+                    }
+                });
+    }
+
+}
@@ -0,0 +1,143 @@
+package com.liaison.framework.audit.admin;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.liaison.framework.audit.AuditEvent;
+import com.liaison.framework.audit.AuditJsonEncoder;
+import com.liaison.framework.audit.AuditLogger;
+import com.liaison.framework.audit.AuditStatement;
+import com.liaison.framework.audit.AuditStore;
+import com.netflix.adminresources.resources.KaryonAdminResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Audit Resource
+ * <p/>
+ * <P>Admin port query of the local {@link AuditStore}, ie
+ * <pre>
+ * /webadmin/audit?from=2026-10-17T00:00:00Z&amp;to=2026-10-18T00:00:00Z&amp;requirement=PCI10_2_4&amp;status=FAILED
+ * </pre>
+ * where from and to are ISO-8601 instants or milliseconds since the epoch, from defaulting to a day ago
+ * and to to now, requirement is the name of a requirement's constant, and limit (1000 by default) caps
+ * the statements returned.  Statements are streamed as they are read from the store, in the order written:
+ * <pre>
+ * {"data":[{"timestamp":...,"pid":...,"auditStatement":{"status":"FAILED",...}},...]}
+ * </pre>
+ * Served by the karyon admin container when this package is listed in
+ * netflix.platform.admin.resources.packages.
+ *
+ * @version 1.0
+ */
+@Path("/webadmin/audit")
+@Produces(MediaType.APPLICATION_JSON)
+public class AuditResource {
+
+    private static final Logger logger = LoggerFactory.getLogger(AuditResource.class);
+
+    private static final int DEFAULT_LIMIT = 1000;
+
+    private static final byte[] START = ascii("{\"data\":[");
+    private static final byte[] TIMESTAMP = ascii("{\"timestamp\":");
+    private static final byte[] PID = ascii(",\"pid\":");
+    private static final byte[] STATEMENT = ascii(",\"auditStatement\":");
+    private static final byte[] END = ascii("]}");
+
+    @GET
+    public Response query(@QueryParam("from") String from, @QueryParam("to") String to,
+                          @QueryParam("requirement") final String requirement, @QueryParam("status") String status,
+                          @QueryParam("limit") Integer limit) {
+        final AuditStore store = AuditLogger.getPipeline().getStore();
+        if (store == null) {
+            return Response.status(Response.Status.NOT_FOUND)
+                    .entity(toJson("No audit store, see " + AuditStore.DIRECTORY_PROP_NAME)).build();
+        }
+
+        final long now = System.currentTimeMillis();
+        final long fromMillis;
+        final long toMillis;
+        final AuditStatement.Status statusValue;
+        try {
+            fromMillis = from == null ? now - TimeUnit.DAYS.toMillis(1) : time(from);
+            toMillis = to == null ? Long.MAX_VALUE : time(to);
+            statusValue = status == null ? null : AuditStatement.Status.valueOf(status.toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(toJson(e.getMessage())).build();
+        }
+        final int maxStatements = limit == null ? DEFAULT_LIMIT : limit;
+
+        StreamingOutput output = new StreamingOutput() {
+            @Override
+            public void write(OutputStream stream) throws IOException {
+                final OutputStream out = new BufferedOutputStream(stream);
+                out.write(START);
+                try {
+                    store.query(fromMillis, toMillis, requirement, statusValue, new AuditStore.Visitor() {
+                        private int written;
+
+                        @Override
+                        public boolean visit(AuditEvent event) throws IOException {
+                            if (written >= maxStatements) {
+                                return false;
+                            }
+                            if (written++ > 0) {
+                                out.write(',');
+                            }
+                            out.write(TIMESTAMP);
+                            out.write(Long.toString(event.getTimestamp()).getBytes(StandardCharsets.US_ASCII));
+                            out.write(PID);
+                            out.write(Integer.toString(event.getPid()).getBytes(StandardCharsets.US_ASCII));
+                            out.write(STATEMENT);
+                            AuditJsonEncoder.Buffer buffer = AuditJsonEncoder.buffer();
+                            AuditJsonEncoder.writeStatement(buffer, event);
+                            buffer.writeTo(out);
+                            out.write('}');
+                            return true;
+                        }
+                    });
+                } catch (IOException e) {
+                    // the response has started, so all that can be done is to end it
+                    logger.error("Error querying audit store from admin port", e);
+                }
+                out.write(END);
+                out.flush();
+            }
+        };
+        return Response.ok(output).build();
+    }
+
+    // an ISO-8601 instant, or milliseconds since the epoch
+    private static long time(String value) {
+        if (!value.isEmpty() && Character.isDigit(value.charAt(value.length() - 1)) && value.indexOf('T') < 0) {
+            return Long.parseLong(value);
+        }
+        return Instant.parse(value).toEpochMilli();
+    }
+
+    private static String toJson(Object data) {
+        GsonBuilder gsonBuilder = new GsonBuilder().serializeNulls();
+        Gson gson = gsonBuilder.create();
+        return gson.toJson(new KaryonAdminResponse(data));
+    }
+
+    private static byte[] ascii(String fragment) {
+        return fragment.getBytes(StandardCharsets.US_ASCII);
+    }
+
+}
@@ -1,20 +1,12 @@
 package com.liaison.framework.audit.log4j2;
 
-import java.io.IOException;
-
-import javax.xml.bind.JAXBException;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 import javax.xml.bind.annotation.XmlTransient;
 
 import org.apache.logging.log4j.message.ParameterizedMessage;
-import org.codehaus.jackson.JsonGenerationException;
-import org.codehaus.jackson.map.AnnotationIntrospector;
-import org.codehaus.jackson.map.JsonMappingException;
-import org.codehaus.jackson.map.ObjectMapper;
-import org.codehaus.jackson.map.introspect.JacksonAnnotationIntrospector;
-import org.codehaus.jackson.xc.JaxbAnnotationIntrospector;
 
+import com.liaison.framework.audit.AuditJsonEncoder;
 import com.liaison.framework.audit.AuditStatement;
 
 /**
@@ -94,34 +86,11 @@ public class AuditParameterizedMessage extends ParameterizedMessage implements A
 	 */
 	@Override
 	public String toString() {
-		try {
-			return marshallToJson(this);
-		} catch ( JAXBException | IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+		AuditStatement auditStatement = extractAuditStatement(this);
+		if (null == auditStatement) {
+			return "ERROR SERIALIZING LOG MESSAGE";
 		}
-		return "ERROR SERIALIZING LOG MESSAGE";
-	}
-	
-	/**
-	 * TODO move this to a general jaxbutil
-	 */
-	@SuppressWarnings("deprecation")
-	private String marshallToJson(AuditParameterizedMessage object) throws JAXBException,
-		JsonGenerationException, JsonMappingException, IOException {
-		ObjectMapper mapper = new ObjectMapper();
-		AnnotationIntrospector primary = new JaxbAnnotationIntrospector();
-		AnnotationIntrospector secondary = new JacksonAnnotationIntrospector();
-		AnnotationIntrospector introspector = new AnnotationIntrospector.Pair(
-				primary, secondary);
-
-		// make deserializer use JAXB annotations (only)
-		mapper.getDeserializationConfig().setAnnotationIntrospector(
-				introspector);
-		// make serializer use JAXB annotations (only)
-		mapper.getSerializationConfig().setAnnotationIntrospector(introspector);
-
-		return mapper.writeValueAsString(object);
+		return AuditJsonEncoder.toJson(auditStatement, getThrowableMessage(), getFormattedMessage());
 	}
 	
 }
@@ -0,0 +1,404 @@
+package com.liaison.framework.audit.syslog;
+
+import com.liaison.framework.audit.AuditEvent;
+import com.liaison.framework.audit.AuditJsonEncoder;
+import com.liaison.framework.audit.AuditSink;
+import com.liaison.framework.audit.AuditStatement;
+import com.netflix.config.DynamicPropertyFactory;
+import com.netflix.servo.DefaultMonitorRegistry;
+import com.netflix.servo.monitor.BasicCounter;
+import com.netflix.servo.monitor.BasicGauge;
+import com.netflix.servo.monitor.CompositeMonitor;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.monitor.Monitors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Audit Syslog Sink
+ * <p/>
+ * <P>Ships audit statements to a syslog receiver over TCP, or TLS, as RFC 5424 records framed by octet
+ * counting (RFC 6587), rather than as a datagram per statement as the UDP AuditSyslogAppender does.  Each
+ * batch from the {@link com.liaison.framework.audit.AuditPipeline} is written at once (see
+ * {@link SyslogConnection}), and the statement is the record's message, as JSON:
+ * <pre>
+ * 215 &lt;131&gt;1 2026-10-18T08:00:15.123Z host app 4242 Audit [meta sequenceId="17"][audit@18060 pid="12" status="FAILED"] {"status":...}
+ * </pre>
+ * Records are numbered by the standard meta sequenceId, from 1 per process, so that a receiver can tell
+ * records lost (or, after a reconnect, resent) from a gap (or repeat) in the sequence.
+ * <p/>
+ * A lost connection is reopened with exponential backoff, between {@link #BACKOFF_INITIAL_PROP_NAME} and
+ * {@link #BACKOFF_MAX_PROP_NAME} milliseconds.  A batch is retried for up to {@link #RETRY_MAX_PROP_NAME}
+ * milliseconds, during which the pipeline backs up and its overflow policy applies, before it is given
+ * up on and counted as failed.  That includes a write to a receiver which has stopped reading.
+ * <p/>
+ * Enabled by {@link #HOST_PROP_NAME}.  Monitors are registered as AuditSyslogSink.
+ *
+ * @version 1.0
+ */
+public class AuditSyslogSink implements AuditSink {
+
+    private static final Logger logger = LoggerFactory.getLogger(AuditSyslogSink.class);
+
+    public static final String HOST_PROP_NAME = "com.liaison.framework.audit.syslog.host";
+    public static final String PORT_PROP_NAME = "com.liaison.framework.audit.syslog.port";
+    public static final String TLS_PROP_NAME = "com.liaison.framework.audit.syslog.tls";
+    public static final String APP_NAME_PROP_NAME = "com.liaison.framework.audit.syslog.appName";
+    public static final String FACILITY_PROP_NAME = "com.liaison.framework.audit.syslog.facility";
+    public static final String ENTERPRISE_NUMBER_PROP_NAME = "com.liaison.framework.audit.syslog.enterpriseNumber";
+    public static final String CONNECT_TIMEOUT_PROP_NAME = "com.liaison.framework.audit.syslog.connect.timeout.millis";
+    public static final String BACKOFF_INITIAL_PROP_NAME = "com.liaison.framework.audit.syslog.backoff.initial.millis";
+    public static final String BACKOFF_MAX_PROP_NAME = "com.liaison.framework.audit.syslog.backoff.max.millis";
+    public static final String RETRY_MAX_PROP_NAME = "com.liaison.framework.audit.syslog.retry.max.millis";
+
+    // as the AuditLogger logged at, ie error
+    private static final int SEVERITY = 3;
+
+    private static final int FACILITY_LOCAL0 = 16;
+    private static final int DEFAULT_ENTERPRISE_NUMBER = 18060;
+
+    // records grown beyond this by an unusually large statement are not kept for reuse
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+    private static final int INITIAL_CAPACITY = 512;
+
+    private static final byte[] STATUS = ascii("\" status=\"");
+    private static final byte[] NIL_STATUS = ascii("-");
+    private static final byte[][] STATUSES = new byte[AuditStatement.Status.values().length][];
+    private static final byte[] END = ascii("\"] ");
+
+    static {
+        for (AuditStatement.Status status : AuditStatement.Status.values()) {
+            STATUSES[status.ordinal()] = ascii(status.name());
+        }
+    }
+
+    private static final DateTimeFormatter SECONDS = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.")
+            .withZone(ZoneOffset.UTC);
+
+    private final String host;
+    private final int port;
+    private final SSLSocketFactory tls;
+    private final int connectTimeoutMillis;
+    private final long backoffInitialMillis;
+    private final long backoffMaxMillis;
+    private final long retryMaxMillis;
+
+    // the fixed parts of every record's header, around its timestamp and sequenceId
+    private final byte[] priority;
+    private final byte[] origin;
+    private final byte[] structuredData;
+
+    private ByteBuffer[] records = new ByteBuffer[0];
+    private final ByteBuffer header;
+    private final byte[] digits = new byte[20];
+
+    // the timestamp up to its milliseconds, formatted once per second
+    private long second = Long.MIN_VALUE;
+    private final byte[] timestamp = new byte[24];
+
+    private int sequence;
+    private SyslogConnection connection;
+    private long backoffMillis;
+    private long nextAttemptNanos;
+
+    private final SinkMonitors monitors = new SinkMonitors();
+    private CompositeMonitor<?> monitor;
+
+    /**
+     * @return the sink configured by properties, or null if {@link #HOST_PROP_NAME} is not set
+     */
+    public static AuditSyslogSink create() {
+        DynamicPropertyFactory properties = DynamicPropertyFactory.getInstance();
+        String host = properties.getStringProperty(HOST_PROP_NAME, null).get();
+        if (host == null) {
+            return null;
+        }
+        boolean tls = properties.getBooleanProperty(TLS_PROP_NAME, false).get();
+        AuditSyslogSink sink = new AuditSyslogSink(host, properties.getIntProperty(PORT_PROP_NAME, tls ? 6514 : 514).get(),
+                tls ? (SSLSocketFactory) SSLSocketFactory.getDefault() : null,
+                properties.getStringProperty(APP_NAME_PROP_NAME, null).get(),
+                properties.getIntProperty(FACILITY_PROP_NAME, FACILITY_LOCAL0).get(),
+                properties.getIntProperty(ENTERPRISE_NUMBER_PROP_NAME, DEFAULT_ENTERPRISE_NUMBER).get(),
+                properties.getIntProperty(CONNECT_TIMEOUT_PROP_NAME, 5000).get(),
+                properties.getLongProperty(BACKOFF_INITIAL_PROP_NAME, 100).get(),
+                properties.getLongProperty(BACKOFF_MAX_PROP_NAME, 30000).get(),
+                properties.getLongProperty(RETRY_MAX_PROP_NAME, 30000).get());
+        sink.registerMonitors();
+        return sink;
+    }
+
+    /**
+     * @param tls     the factory of TLS connections, or null to connect over plain TCP
+     * @param appName the record's APP-NAME, or null for none
+     */
+    AuditSyslogSink(String host, int port, SSLSocketFactory tls, String appName, int facility, int enterpriseNumber,
+                    int connectTimeoutMillis, long backoffInitialMillis, long backoffMaxMillis, long retryMaxMillis) {
+        this.host = host;
+        this.port = port;
+        this.tls = tls;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.backoffInitialMillis = Math.max(1, backoffInitialMillis);
+        this.backoffMaxMillis = Math.max(this.backoffInitialMillis, backoffMaxMillis);
+        this.retryMaxMillis = retryMaxMillis;
+        this.backoffMillis = this.backoffInitialMillis;
+
+        this.priority = ascii("<" + (facility * 8 + SEVERITY) + ">1 ");
+        this.origin = ascii(" " + field(hostName(), 255) + " " + field(appName, 48) + " " + field(processId(), 128)
+                + " Audit [meta sequenceId=\"");
+        this.structuredData = ascii("\"][audit@" + enterpriseNumber + " pid=\"");
+        // with room for the timestamp, the sequenceId, the pid and the status
+        this.header = ByteBuffer.allocate(priority.length + origin.length + structuredData.length + 128);
+    }
+
+    @Override
+    public void write(AuditEvent[] events, int count) throws IOException {
+        if (records.length < count) {
+            records = Arrays.copyOf(records, count);
+        }
+        for (int i = 0; i < count; i++) {
+            frame(i, events[i]);
+        }
+        send(count);
+        monitors.records.increment(count);
+    }
+
+    /**
+     * Encodes the event as the octet counted record at the index
+     */
+    private void frame(int index, AuditEvent event) {
+        if (++sequence <= 0) {
+            // wraps to 1, per RFC 5424
+            sequence = 1;
+        }
+
+        header.clear();
+        header.put(priority);
+        putTimestamp(event.getTimestamp());
+        header.put(origin);
+        putDecimal(header, sequence);
+        header.put(structuredData);
+        putDecimal(header, event.getPid());
+        header.put(STATUS);
+        header.put(event.getStatus() == null ? NIL_STATUS : STATUSES[event.getStatus().ordinal()]);
+        header.put(END);
+        header.flip();
+
+        AuditJsonEncoder.Buffer message = AuditJsonEncoder.buffer();
+        AuditJsonEncoder.writeStatement(message, event);
+
+        int length = header.remaining() + message.length();
+        ByteBuffer record = records[index];
+        if (record == null || record.capacity() < length + 11 || record.capacity() > MAX_RETAINED_CAPACITY) {
+            record = ByteBuffer.allocate(Math.max(INITIAL_CAPACITY, length + 11));
+            records[index] = record;
+        }
+        record.clear();
+        putDecimal(record, length);
+        record.put((byte) ' ');
+        record.put(header);
+        record.put(message.array(), 0, message.length());
+        record.flip();
+    }
+
+    /**
+     * Writes the framed records, reconnecting as needed, for up to the retry period
+     */
+    private void send(int count) throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(retryMaxMillis);
+        while (true) {
+            if (connection == null) {
+                long wait = nextAttemptNanos - System.nanoTime();
+                if (wait > 0) {
+                    if (System.nanoTime() + wait - deadline > 0) {
+                        throw new IOException("Not connected to syslog at " + host + ":" + port + " within "
+                                + retryMaxMillis + "ms");
+                    }
+                    sleep(wait);
+                }
+                try {
+                    connection = SyslogConnection.open(host, port, tls, connectTimeoutMillis);
+                    monitors.connects.increment();
+                    logger.info("Connected to syslog at " + host + ":" + port + (tls != null ? " over TLS" : ""));
+                } catch (IOException e) {
+                    logger.warn("Error connecting to syslog at " + host + ":" + port + ", retrying in " + backoffMillis
+                            + "ms: " + e);
+                    backoff();
+                    continue;
+                }
+            }
+
+            try {
+                connection.write(records, count, deadline);
+                monitors.writes.increment();
+                // reset only once written to, so that a receiver accepting and dropping connections is backed off
+                backoffMillis = backoffInitialMillis;
+                return;
+            } catch (IOException e) {
+                connection.close();
+                connection = null;
+                monitors.disconnects.increment();
+                logger.warn("Lost connection to syslog at " + host + ":" + port + ": " + e);
+                backoff();
+                if (System.nanoTime() - deadline > 0) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private void backoff() {
+        nextAttemptNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoffMillis);
+        backoffMillis = Math.min(backoffMaxMillis, backoffMillis * 2);
+    }
+
+    private static void sleep(long nanos) throws InterruptedIOException {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting to reconnect to syslog");
+        }
+    }
+
+    private void putTimestamp(long millis) {
+        long seconds = Math.floorDiv(millis, 1000);
+        if (seconds != second) {
+            byte[] formatted = SECONDS.format(Instant.ofEpochSecond(seconds)).getBytes(StandardCharsets.US_ASCII);
+            System.arraycopy(formatted, 0, timestamp, 0, 20);
+            second = seconds;
+        }
+        int fraction = (int) Math.floorMod(millis, 1000);
+        timestamp[20] = (byte) ('0' + fraction / 100);
+        timestamp[21] = (byte) ('0' + fraction / 10 % 10);
+        timestamp[22] = (byte) ('0' + fraction % 10);
+        timestamp[23] = 'Z';
+        header.put(timestamp);
+    }
+
+    private void putDecimal(ByteBuffer buffer, long value) {
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        int position = digits.length;
+        do {
+            digits[--position] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        buffer.put(digits, position, digits.length - position);
+    }
+
+    @Override
+    public void close() {
+        if (connection != null) {
+            connection.close();
+            connection = null;
+        }
+        unregisterMonitors();
+    }
+
+    /**
+     * @return the sequenceId of the last record written, or 0 if none
+     */
+    public int getSequence() {
+        return sequence;
+    }
+
+    public long getRecords() {
+        return monitors.records.getValue().longValue();
+    }
+
+    public long getConnects() {
+        return monitors.connects.getValue().longValue();
+    }
+
+    public long getDisconnects() {
+        return monitors.disconnects.getValue().longValue();
+    }
+
+    /**
+     * @return writes of a batch, ie not counting retries
+     */
+    public long getWrites() {
+        return monitors.writes.getValue().longValue();
+    }
+
+    void registerMonitors() {
+        monitor = Monitors.newObjectMonitor("AuditSyslogSink", monitors);
+        DefaultMonitorRegistry.getInstance().register(monitor);
+    }
+
+    void unregisterMonitors() {
+        if (monitor != null) {
+            DefaultMonitorRegistry.getInstance().unregister(monitor);
+            monitor = null;
+        }
+    }
+
+    // printable ascii without spaces, of at most the given length, or the nil value
+    private static String field(String value, int maxLength) {
+        if (value == null || value.isEmpty()) {
+            return "-";
+        }
+        StringBuilder field = new StringBuilder();
+        for (int i = 0; i < value.length() && field.length() < maxLength; i++) {
+            char c = value.charAt(i);
+            field.append(c > 32 && c < 127 ? c : '_');
+        }
+        return field.toString();
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // of the jvm, rather than the transaction, which is the pid in the audit structured data
+    private static String processId() {
+        String name = ManagementFactory.getRuntimeMXBean().getName();
+        int at = name.indexOf('@');
+        return at > 0 ? name.substring(0, at) : null;
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    // registered through Monitors.newObjectMonitor, which picks up Monitor fields
+    private class SinkMonitors {
+
+        private final BasicCounter records = new BasicCounter(MonitorConfig.builder("syslogRecords").build());
+
+        private final BasicCounter writes = new BasicCounter(MonitorConfig.builder("syslogWrites").build());
+
+        private final BasicCounter connects = new BasicCounter(MonitorConfig.builder("syslogConnects").build());
+
+        private final BasicCounter disconnects = new BasicCounter(MonitorConfig.builder("syslogDisconnects").build());
+
+        private final BasicGauge<Integer> sequenceId = new BasicGauge<Integer>(MonitorConfig.builder("syslogSequenceId").build(),
+                new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        return getSequence();
+                    }
+                });
+    }
+
+}
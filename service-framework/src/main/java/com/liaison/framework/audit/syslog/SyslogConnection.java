@@ -0,0 +1,238 @@
+package com.liaison.framework.audit.syslog;
+
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SNIServerName;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Syslog Connection
+ * <p/>
+ * <P>A stream connection to a syslog receiver, over plain TCP or TLS, which writes a batch of framed
+ * records at once.  Over TCP the records are gathered from their buffers into a single write where the
+ * socket buffer allows.  An SSLSocket cannot gather, so over TLS the records are coalesced in a buffered
+ * stream and flushed once per batch instead.
+ * <p/>
+ * Over TLS the receiver's certificate is verified against the host, as an HTTPS client verifies it, and the
+ * host is named to the receiver by SNI, unless it is an address.
+ * <p/>
+ * A write gives up at its deadline, so that a receiver which accepts a connection but stops reading cannot
+ * stall the sink indefinitely.  Over TCP the channel is non-blocking, and waits for room in the socket buffer
+ * on a selector.  An SSLSocket's writes cannot time out, so over TLS a watchdog closes the underlying socket
+ * of a write still blocked at its deadline.
+ * <p/>
+ * A failed write leaves the position of each record's buffer where it could be resumed on a new connection:
+ * records known to be written are left consumed and the rest rewound, so that a record is never sent in part.
+ *
+ * @version 1.0
+ */
+abstract class SyslogConnection {
+
+    /**
+     * @param tls the factory of TLS connections, or null to connect over plain TCP
+     */
+    static SyslogConnection open(String host, int port, SSLSocketFactory tls, int connectTimeoutMillis)
+            throws IOException {
+        return tls != null ? new Tls(host, port, tls, connectTimeoutMillis) : new Tcp(host, port, connectTimeoutMillis);
+    }
+
+    /**
+     * Writes the remaining bytes of the first count buffers
+     *
+     * @param deadline the {@link System#nanoTime()} by which to have written them
+     * @throws SocketTimeoutException if they are not written by the deadline
+     */
+    abstract void write(ByteBuffer[] records, int count, long deadline) throws IOException;
+
+    abstract void close();
+
+    private static class Tcp extends SyslogConnection {
+
+        private final SocketChannel channel;
+        private final Selector selector;
+
+        Tcp(String host, int port, int connectTimeoutMillis) throws IOException {
+            channel = SocketChannel.open();
+            try {
+                channel.socket().setTcpNoDelay(true);
+                channel.socket().setKeepAlive(true);
+                channel.socket().connect(new InetSocketAddress(host, port), connectTimeoutMillis);
+                channel.configureBlocking(false);
+                selector = Selector.open();
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            try {
+                channel.register(selector, SelectionKey.OP_WRITE);
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        void write(ByteBuffer[] records, int count, long deadline) throws IOException {
+            int offset = 0;
+            try {
+                while (offset < count) {
+                    if (channel.write(records, offset, count - offset) == 0) {
+                        // the socket buffer is full, until the receiver reads
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            throw new SocketTimeoutException("Timed out writing to syslog, which is not reading");
+                        }
+                        selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+                        selector.selectedKeys().clear();
+                    }
+                    while (offset < count && !records[offset].hasRemaining()) {
+                        offset++;
+                    }
+                }
+            } catch (IOException e) {
+                // resent in whole
+                if (offset < count) {
+                    records[offset].rewind();
+                }
+                throw e;
+            }
+        }
+
+        @Override
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // nothing more to do
+            }
+            if (selector != null) {
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    // nothing more to do
+                }
+            }
+        }
+    }
+
+    private static class Tls extends SyslogConnection {
+
+        private static final int BUFFER_SIZE = 64 * 1024;
+
+        // IPv4 and IPv6 literals, which SNI may not name (RFC 6066)
+        private static final Pattern ADDRESS = Pattern.compile("[0-9.]+|.*:.*");
+
+        // closes the sockets of writes blocked past their deadline, shared by every connection
+        private static final ScheduledThreadPoolExecutor watchdog = new ScheduledThreadPoolExecutor(1,
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "SyslogWriteWatchdog");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+
+        static {
+            // a timeout is scheduled for every batch, and all but a stalled one are cancelled
+            watchdog.setRemoveOnCancelPolicy(true);
+        }
+
+        private final Socket plain;
+        private final SSLSocket socket;
+        private final OutputStream out;
+        private volatile boolean timedOut;
+
+        Tls(String host, int port, SSLSocketFactory factory, int connectTimeoutMillis) throws IOException {
+            plain = new Socket();
+            try {
+                plain.setTcpNoDelay(true);
+                plain.setKeepAlive(true);
+                plain.connect(new InetSocketAddress(host, port), connectTimeoutMillis);
+                // layered, so that the session is of the host as configured rather than as resolved
+                socket = (SSLSocket) factory.createSocket(plain, host, port, true);
+            } catch (IOException e) {
+                plain.close();
+                throw e;
+            }
+            try {
+                SSLParameters parameters = socket.getSSLParameters();
+                parameters.setEndpointIdentificationAlgorithm("HTTPS");
+                if (!ADDRESS.matcher(host).matches()) {
+                    parameters.setServerNames(Collections.<SNIServerName>singletonList(new SNIHostName(host)));
+                }
+                socket.setSSLParameters(parameters);
+                // nor may the handshake wait on a receiver indefinitely
+                socket.setSoTimeout(connectTimeoutMillis);
+                socket.startHandshake();
+                socket.setSoTimeout(0);
+                out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        @Override
+        void write(ByteBuffer[] records, int count, long deadline) throws IOException {
+            ScheduledFuture<?> timeout = watchdog.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    timedOut = true;
+                    // the plain socket, since closing the SSLSocket waits on the blocked write to send close_notify
+                    try {
+                        plain.close();
+                    } catch (IOException e) {
+                        // nothing more to do
+                    }
+                }
+            }, deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            try {
+                for (int i = 0; i < count; i++) {
+                    ByteBuffer record = records[i];
+                    out.write(record.array(), record.arrayOffset() + record.position(), record.remaining());
+                    record.position(record.limit());
+                }
+                out.flush();
+            } catch (IOException e) {
+                // buffered, so which records reached the socket is not known
+                for (int i = 0; i < count; i++) {
+                    records[i].rewind();
+                }
+                if (timedOut) {
+                    throw new SocketTimeoutException("Timed out writing to syslog, which is not reading");
+                }
+                throw e;
+            } finally {
+                timeout.cancel(false);
+            }
+        }
+
+        @Override
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // nothing more to do
+            }
+        }
+    }
+
+}
@@ -0,0 +1,429 @@
+package com.liaison.framework.dynamic;
+
+import com.liaison.framework.ProcessManager;
+import com.liaison.framework.audit.AuditLogger;
+import com.liaison.framework.audit.AuditStatement;
+import com.liaison.framework.audit.hipaa.HIPAAAdminSimplification201303;
+import com.liaison.framework.dynamic.runtime.ScriptEnginePoolExhaustedException;
+import com.liaison.framework.dynamic.runtime.ScriptInvoker;
+import com.netflix.config.DynamicIntProperty;
+import com.netflix.config.DynamicPropertyFactory;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParseException;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonProcessingException;
+import org.codehaus.jackson.JsonToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Dynamic Batch
+ * <p/>
+ * <P>Runs several dynamic service invocations posted to /dyn/_batch in a single request, so that a
+ * client making many small calls pays for HTTP, filtering, and auditing once.  The body is an array
+ * of paths (relative to /dyn, invoked with GET) and/or objects naming the method:
+ * <pre>
+ * ["/v1/math/multiply/3/4", {"method": "GET", "path": "/v1/math/divide/8/2"}]
+ * </pre>
+ * Each invocation is routed through the same matcher, result caches, bulkheads, budgets and monitors
+ * as a single request.  Up to {@link #PARALLELISM_PROP_NAME} invocations run ahead in parallel on the
+ * {@link DynamicScriptExecutor}, where their binding's bulkhead admits them without queueing and an
+ * executor thread is free; the rest are invoked on the container thread in their turn.  Results are
+ * streamed back in request order, each flushed as soon as it (and those before it) are written:
+ * <pre>
+ * [{"Path":"/v1/math/multiply/3/4","Status":200,"Function":"multiply","Parameters":["3","4"],"Result":12},
+ *  {"Path":"/v1/math/nope","Status":404,"Error":"No dynamic service bound to /v1/math/nope"}]
+ * </pre>
+ * The whole batch runs under the request's PID and is audited once.
+ *
+ * @version 1.0
+ */
+class DynamicBatch {
+
+    private static final Logger logger = LoggerFactory.getLogger(DynamicBatch.class);
+
+    static final String PATH = "/_batch";
+
+    public static final String MAX_ITEMS_PROP_NAME = "com.liaison.framework.dynamic.batch.max.items";
+    public static final String PARALLELISM_PROP_NAME = "com.liaison.framework.dynamic.batch.parallelism";
+
+    private static final DynamicIntProperty MAX_ITEMS = DynamicPropertyFactory.getInstance()
+            .getIntProperty(MAX_ITEMS_PROP_NAME, 100);
+    private static final DynamicIntProperty PARALLELISM = DynamicPropertyFactory.getInstance()
+            .getIntProperty(PARALLELISM_PROP_NAME, 8);
+
+    private static final JsonFactory factory = new JsonFactory();
+
+    // a batch is for many small invocations rather than large listings, so results produced element by element
+    // are collected (on the script engine producing them, see ScriptInvoker) and written once their turn comes
+    private static final ScriptInvoker.ResultHandler COLLECT = new ScriptInvoker.ResultHandler() {
+        @Override
+        public Object handle(Object result) throws Exception {
+            Iterator<?> elements = DynamicResponseEncoder.streamOf(result);
+            if (elements == null) {
+                return result;
+            }
+            try {
+                List<Object> collected = new ArrayList<Object>();
+                while (elements.hasNext()) {
+                    collected.add(elements.next());
+                }
+                return collected;
+            } finally {
+                if (result instanceof AutoCloseable) {
+                    ((AutoCloseable) result).close();
+                }
+            }
+        }
+    };
+
+    private final DynamicBindingsSnapshot snapshot;
+    private final List<Item> items;
+    private final int parallelism;
+
+    // items handed to the executor (or found unable to go there) so far, and items written so far
+    private int submitted;
+    private int written;
+    private int failed;
+
+    private DynamicBatch(DynamicBindingsSnapshot snapshot, List<Item> items) {
+        this.snapshot = snapshot;
+        this.items = items;
+        this.parallelism = Math.max(1, PARALLELISM.get());
+    }
+
+    static void run(DynamicBindingsSnapshot snapshot, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+
+        // read no more than one item past the limit
+        int maxItems = MAX_ITEMS.get();
+        List<Item> items;
+        try {
+            items = parse(request.getInputStream(), maxItems + 1);
+        } catch (JsonProcessingException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Malformed batch: " + e.getMessage());
+            return;
+        }
+
+        if (items.size() > maxItems) {
+            response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE,
+                    "Batch exceeds the maximum of " + maxItems + " invocations");
+            return;
+        }
+
+        new DynamicBatch(snapshot, items).stream(response);
+    }
+
+    /**
+     * @return the invocations of the batch, stopping once maxItems have been read
+     */
+    static List<Item> parse(InputStream in, int maxItems) throws IOException {
+
+        JsonParser parser = factory.createJsonParser(in);
+        try {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new JsonParseException("Expected an array of invocations", parser.getCurrentLocation());
+            }
+
+            List<Item> items = new ArrayList<Item>();
+            JsonToken token;
+            while (items.size() < maxItems && (token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                if (token == JsonToken.VALUE_STRING) {
+                    items.add(new Item("GET", parser.getText()));
+                } else if (token == JsonToken.START_OBJECT) {
+                    items.add(parseItem(parser));
+                } else {
+                    throw new JsonParseException("Expected a path, or an object with a method and path",
+                            parser.getCurrentLocation());
+                }
+            }
+            return items;
+        } finally {
+            parser.close();
+        }
+    }
+
+    private static Item parseItem(JsonParser parser) throws IOException {
+
+        String method = "GET";
+        String path = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (field.equals("method") && value == JsonToken.VALUE_STRING) {
+                method = parser.getText().toUpperCase(Locale.ENGLISH);
+            } else if (field.equals("path") && value == JsonToken.VALUE_STRING) {
+                path = parser.getText();
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        if (path == null) {
+            throw new JsonParseException("Invocation has no path", parser.getCurrentLocation());
+        }
+        return new Item(method, path);
+    }
+
+    private void stream(HttpServletResponse response) throws IOException {
+
+        for (Item item : items) {
+            match(item);
+        }
+
+        response.setContentType(DynamicResponseEncoder.CONTENT_TYPE);
+        JsonGenerator generator = DynamicResponseEncoder.createGenerator(response.getOutputStream());
+        boolean completed = false;
+        try {
+            generator.writeStartArray();
+            for (int i = 0; i < items.size(); i++) {
+
+                // keep up to parallelism invocations running, counting the one about to be written
+                while (submitted < items.size() && submitted < i + parallelism) {
+                    submit(items.get(submitted++));
+                }
+
+                write(generator, items.get(i));
+                written = i + 1;
+                generator.flush();
+            }
+            generator.writeEndArray();
+            // closed only once complete, a failure part way through leaves the array open for the response to
+            // be aborted, rather than passed off as the whole batch
+            generator.close();
+            completed = true;
+        } finally {
+            // ie the client went away, so results still running ahead are of no use to anyone
+            for (int i = written; i < items.size(); i++) {
+                release(items.get(i));
+            }
+            audit(completed);
+        }
+    }
+
+    private void match(Item item) {
+
+        long start = System.nanoTime();
+        DynamicServiceMatcher.Match match = snapshot.getMatcher().match(item.method, item.path);
+
+        if (match == null) {
+            fail(item, HttpServletResponse.SC_NOT_FOUND, "No dynamic service bound to " + item.path);
+            return;
+        }
+        if (!match.isMethodAllowed()) {
+            fail(item, HttpServletResponse.SC_METHOD_NOT_ALLOWED, item.method + " not allowed, allowed methods are "
+                    + match.getAllowedMethods());
+            return;
+        }
+        if (match.getViolation() != null) {
+            fail(item, HttpServletResponse.SC_BAD_REQUEST, match.getViolation());
+            return;
+        }
+
+        item.match = match;
+        item.start = start;
+        item.monitors = snapshot.getOperationMonitors(match.getOperation());
+        item.bulkhead = snapshot.getBulkhead(match.getBinding());
+        // batched invocations have no body of their own, those of methods carrying one get an empty body
+        item.body = DynamicRequestBody.hasBody(item.method) ? DynamicRequestBody.empty() : null;
+        item.cache = item.body == null ? snapshot.getResultCache(match) : null;
+        item.monitors.begin(System.nanoTime() - start);
+        if (item.cache != null) {
+            item.encoded = item.cache.get(match.getFunction(), match.getParameters());
+        }
+    }
+
+    /**
+     * Starts the item on the executor, if its binding and the executor have capacity for it right now
+     */
+    private void submit(final Item item) {
+
+        if (item.match == null || item.encoded != null) {
+            return;
+        }
+
+        // a binding at capacity is not queued for here, the item waits its turn (in the bulkhead's queue) instead
+        if (item.bulkhead != null) {
+            if (!item.bulkhead.tryEnterNow()) {
+                return;
+            }
+            item.entered.set(true);
+        }
+
+        final ScriptInvoker invoker = snapshot.getInvoker(item.match.getBinding());
+        final Object[] arguments = DynamicServicesServlet.arguments(item.match, item.body);
+        try {
+            item.invocation = DynamicScriptExecutor.getInstance().submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    try {
+                        return invoker.invoke(item.monitors, COLLECT, item.match.getFunction(), arguments);
+                    } finally {
+                        // free the binding for other requests as soon as possible, rather than once written
+                        item.exitBulkhead();
+                    }
+                }
+            }, DynamicScriptExecutor.timeoutNanos(item.match.getOperation()),
+                    DynamicScriptExecutor.cpuBudgetNanos(item.match.getOperation()));
+        } catch (ScriptEnginePoolExhaustedException e) {
+            // every executor thread is busy, so the item is invoked on this thread in its turn
+            item.exitBulkhead();
+        }
+    }
+
+    private void write(JsonGenerator generator, Item item) throws IOException {
+        try {
+            Object result = null;
+            if (item.match != null && item.encoded == null) {
+                result = invoke(item);
+                if (item.status == HttpServletResponse.SC_OK && item.cache != null) {
+                    item.encoded = DynamicResponseEncoder.encode(result);
+                    item.cache.put(item.match.getFunction(), item.match.getParameters(), item.encoded);
+                }
+            }
+
+            long serializeStart = System.nanoTime();
+            generator.writeStartObject();
+            generator.writeStringField("Path", item.path);
+            generator.writeNumberField("Status", item.status);
+            if (item.status == HttpServletResponse.SC_OK) {
+                generator.writeStringField("Function", item.match.getFunction());
+                generator.writeArrayFieldStart("Parameters");
+                for (String parameter : item.match.getParameters()) {
+                    generator.writeString(parameter);
+                }
+                generator.writeEndArray();
+                generator.writeFieldName("Result");
+                try {
+                    if (item.encoded != null) {
+                        generator.writeRawValue(item.encoded);
+                    } else {
+                        DynamicResponseEncoder.writeValue(generator, result, 0);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    item.monitors.error();
+                    throw e;
+                } finally {
+                    item.monitors.recordSerialize(System.nanoTime() - serializeStart);
+                }
+            } else {
+                generator.writeStringField("Error", item.error);
+            }
+            generator.writeEndObject();
+        } finally {
+            release(item);
+        }
+    }
+
+    private Object invoke(Item item) {
+        try {
+            if (item.invocation != null) {
+                return item.invocation.await();
+            }
+
+            if (item.bulkhead != null) {
+                if (!DynamicServicesServlet.enter(item.bulkhead)) {
+                    fail(item, HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                            "Dynamic service " + item.bulkhead.getServiceName() + " is at capacity");
+                    return null;
+                }
+                item.entered.set(true);
+            }
+            return DynamicServicesServlet.invoke(snapshot.getInvoker(item.match.getBinding()), item.monitors, item.match,
+                    item.body, COLLECT);
+
+        } catch (ScriptEnginePoolExhaustedException e) {
+            logger.warn(e.getMessage());
+            fail(item, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "No script engine available");
+        } catch (ScriptBudgetExceededException e) {
+            logger.warn("Cancelled " + item.match.getFunction() + " of dynamic service "
+                    + item.match.getBinding().serviceName + " in batch: " + e.getMessage());
+            fail(item, HttpServletResponse.SC_GATEWAY_TIMEOUT, e.getMessage());
+        } catch (Exception e) {
+            logger.error("Error invoking " + item.match.getFunction() + " of dynamic service "
+                    + item.match.getBinding().serviceName + " in batch", e);
+            fail(item, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Error invoking " + item.match.getFunction());
+        }
+        return null;
+    }
+
+    private void fail(Item item, int status, String error) {
+        item.status = status;
+        item.error = error;
+        failed++;
+        if (item.monitors != null) {
+            item.monitors.error();
+        }
+    }
+
+    private void release(Item item) {
+        if (item.released) {
+            return;
+        }
+        item.released = true;
+        if (item.invocation != null) {
+            item.invocation.abort();
+        }
+        item.exitBulkhead();
+        if (item.monitors != null) {
+            item.monitors.end(System.nanoTime() - item.start);
+        }
+    }
+
+    private void audit(boolean completed) {
+        String message = "Batch of " + items.size() + " dynamic service invocations [PID=" + ProcessManager.getPid()
+                + "]: " + failed + " failed" + (completed ? "" : ", response incomplete");
+        if (logger.isDebugEnabled()) {
+            logger.debug(message);
+        }
+        AuditLogger.log(HIPAAAdminSimplification201303.HIPAA_AS_C_164_306_a1,
+                completed && failed == 0 ? AuditStatement.Status.SUCCEED : AuditStatement.Status.FAILED, message);
+    }
+
+    static class Item {
+
+        final String method;
+        final String path;
+
+        private DynamicServiceMatcher.Match match;
+        private DynamicOperationMonitors monitors;
+        private DynamicBulkhead bulkhead;
+        private DynamicRequestBody body;
+        private DynamicResultCache cache;
+        // the result, if served from (or just put to) the cache
+        private String encoded;
+        private DynamicScriptExecutor.BudgetedInvocation invocation;
+        private long start;
+
+        // entered by this thread or the executor, and exited by whichever finishes with the item first
+        private final AtomicBoolean entered = new AtomicBoolean(false);
+        private boolean released;
+
+        private int status = HttpServletResponse.SC_OK;
+        private String error;
+
+        Item(String method, String path) {
+            this.method = method;
+            this.path = path;
+        }
+
+        private void exitBulkhead() {
+            if (entered.compareAndSet(true, false)) {
+                bulkhead.exit();
+            }
+        }
+    }
+
+}
@@ -1,5 +1,7 @@
 package com.liaison.framework.dynamic;
 
+import java.util.Map;
+
 /**
  * Dynamic Bindings
  * <p/>
@@ -23,6 +25,10 @@ class DynamicBinding {
     public String baseURI;
     public String scriptLocation;
     public String serviceName;
+    // see com.liaison.framework.dynamic.runtime.ScriptRuntimes, defaults to javascript
+    public String runtime;
+    // see DynamicBulkhead, unlimited if absent
+    public Bulkhead bulkhead;
 
 }
 
@@ -44,6 +50,76 @@ class Operation {
 
     public String operationUrl;
     public String[] allowedMethods;
+    // function invoked per method (ie {"POST": "create"}), defaults to the first literal segment of the operation url
+    public Map<String, String> functions;
+    // wall-clock and CPU-time budgets of an invocation, see DynamicScriptExecutor, defaulted if absent
+    public long timeoutMillis;
+    public long cpuTimeMillis;
+    // set for operations whose result depends only on their parameters, see DynamicResultCache
+    public Cacheable cacheable;
+    // sample calls made before the operation goes into service, see DynamicWarmup
+    public Warmup[] warmup;
+    // schema of the operation url's template parameters by name, see DynamicParameterValidator
+    public Map<String, ParameterSchema> parameters;
+}
+
+class ParameterSchema {
+    public ParameterSchema(String type, Double minimum, Double maximum, String pattern) {
+        this.type = type;
+        this.minimum = minimum;
+        this.maximum = maximum;
+        this.pattern = pattern;
+    }
+
+    // string, integer, number or boolean, defaults to string
+    public String type;
+    // bounds of a numeric value, or of the length of a string, inclusive
+    public Double minimum;
+    public Double maximum;
+    // regular expression the whole value must match
+    public String pattern;
+}
+
+class Warmup {
+    public Warmup(String method, Map<String, String> parameters) {
+        this.method = method;
+        this.parameters = parameters;
+    }
+
+    // defaults to the operation's first allowed method
+    public String method;
+    // values of the operation url's template parameters by name, ie {"id": "1"}
+    public Map<String, String> parameters;
+    // JSON request body, if any
+    public String body;
+}
+
+class Cacheable {
+    public Cacheable(long ttlMillis, int maxSize) {
+        this.ttlMillis = ttlMillis;
+        this.maxSize = maxSize;
+    }
+
+    // how long a result is served from the cache, defaults to the life of the bindings snapshot
+    public long ttlMillis;
+    // results kept, least valuable evicted first, defaults to 1024
+    public int maxSize;
+}
+
+class Bulkhead {
+    public Bulkhead(int maxConcurrent, int maxQueued) {
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueued = maxQueued;
+    }
+
+    // invocations of the binding allowed at once
+    public int maxConcurrent;
+    // requests allowed to wait for one of the above, defaults to none
+    public int maxQueued;
+    // longest a request waits before being rejected, defaults to 1000
+    public long maxQueueWaitMillis;
+    // Retry-After returned with rejections, defaults to 1
+    public int retryAfterSeconds;
 }
 
 public class DynamicBindings {
@@ -0,0 +1,305 @@
+package com.liaison.framework.dynamic;
+
+import com.google.gson.Gson;
+import com.liaison.framework.dynamic.runtime.ScriptInvoker;
+import com.liaison.framework.dynamic.runtime.ScriptRuntime;
+import com.liaison.framework.dynamic.runtime.ScriptRuntimes;
+import com.liaison.framework.util.ServiceUtils;
+import com.netflix.config.DynamicPropertyFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.script.ScriptException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Dynamic Bindings Registry
+ * <p/>
+ * <P>Loads dynamic service bindings and their scripts once into an immutable
+ * {@link DynamicBindingsSnapshot}, and atomically swaps in a new snapshot on reload.
+ * <p/>
+ * By default bindings are read from /bindings.json on the classpath.  If the
+ * {@link #BINDINGS_DIRECTORY_PROP_NAME} property names a directory, bindings.json (and any script
+ * location not prefixed with classpath://) are read from that directory instead, and the directory
+ * is watched so that changes are picked up in real-time.  Reloads may also be triggered from the
+ * admin port, see {@link com.liaison.framework.dynamic.admin.DynamicBindingsResource}.
+ * <p/>
+ * A failed reload is logged and the previous snapshot remains in service.
+ *
+ * @version 1.0
+ */
+public class DynamicBindingsRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(DynamicBindingsRegistry.class);
+
+    public static final String BINDINGS_DIRECTORY_PROP_NAME = "com.liaison.framework.dynamic.bindings.directory";
+
+    private static final String BINDINGS_FILE_NAME = "bindings.json";
+    private static final String CLASSPATH_PREFIX = "classpath://";
+
+    // quiet period allowing a burst of file changes (ie an editor save, or rsync) to settle before reloading
+    private static final long WATCH_QUIET_PERIOD_MILLIS = 250;
+
+    private final Path directory;
+    // kept across reloads, see DynamicKeyValueStores
+    private final DynamicKeyValueStores stores;
+    private final AtomicReference<DynamicBindingsSnapshot> current = new AtomicReference<DynamicBindingsSnapshot>();
+    private final AtomicLong versions = new AtomicLong(0);
+
+    private WatchService watchService;
+    private Thread watcher;
+
+    private static class Holder {
+        private static final DynamicBindingsRegistry INSTANCE = create();
+    }
+
+    public static DynamicBindingsRegistry getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    private static DynamicBindingsRegistry create() {
+        String directory = DynamicPropertyFactory.getInstance().getStringProperty(BINDINGS_DIRECTORY_PROP_NAME, null).get();
+        DynamicBindingsRegistry registry = new DynamicBindingsRegistry(directory == null ? null : Paths.get(directory));
+        registry.start();
+        return registry;
+    }
+
+    /**
+     * @param directory directory holding bindings.json, or null to load bindings from the classpath
+     */
+    DynamicBindingsRegistry(Path directory) {
+        this.directory = directory;
+        this.stores = DynamicKeyValueStores.create();
+    }
+
+    /**
+     * @return the current snapshot.  Callers should hold on to the returned snapshot for the duration of
+     * a request, rather than calling back into the registry.
+     */
+    public DynamicBindingsSnapshot getSnapshot() {
+        return current.get();
+    }
+
+    public DynamicKeyValueStores getStores() {
+        return stores;
+    }
+
+    /**
+     * Loads a new snapshot and swaps it in.
+     *
+     * @return the newly loaded snapshot
+     * @throws RuntimeException if the bindings or any bound script cannot be loaded, in which case the
+     *                          previous snapshot remains current
+     */
+    public synchronized DynamicBindingsSnapshot reload() {
+        DynamicBindingsSnapshot snapshot = load();
+        DynamicBindingsSnapshot previous = current.get();
+        if (previous != null) {
+            // in-flight requests may continue to use the previous snapshot's invokers, only the monitors go away
+            previous.unregisterMonitors();
+        }
+        snapshot.registerMonitors();
+        current.set(snapshot);
+        logger.info("Loaded dynamic bindings version " + snapshot.getVersion() + " from " + snapshot.getSource());
+        return snapshot;
+    }
+
+    void start() {
+
+        reload();
+
+        if (directory == null) {
+            return;
+        }
+
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            registerDirectories();
+        } catch (IOException e) {
+            throw new RuntimeException("Error watching " + directory + " for dynamic binding changes.", e);
+        }
+
+        watcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watch();
+            }
+        }, "DynamicBindingsWatcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    public void shutdown() {
+        if (watcher != null) {
+            watcher.interrupt();
+        }
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                logger.warn("Error closing dynamic bindings watch service", e);
+            }
+        }
+        stores.close();
+    }
+
+    private void watch() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+
+                WatchKey key = watchService.take();
+                do {
+                    key.pollEvents();
+                    key.reset();
+                    key = watchService.poll(WATCH_QUIET_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+                } while (key != null);
+
+                try {
+                    // pick up any newly created script directories
+                    registerDirectories();
+                    reload();
+                } catch (Exception e) {
+                    logger.error("Error reloading dynamic bindings from " + directory + ", keeping version "
+                            + getSnapshot().getVersion(), e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // shutdown
+        }
+        logger.info("Stopped watching " + directory + " for dynamic binding changes");
+    }
+
+    // WatchService is not recursive, so each directory below the bindings directory is registered
+    private void registerDirectories() throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private DynamicBindingsSnapshot load() {
+
+        String source;
+        String rawConfiguration;
+        if (directory == null) {
+            source = CLASSPATH_PREFIX + "/" + BINDINGS_FILE_NAME;
+            rawConfiguration = ServiceUtils.readFileFromClassPath("/" + BINDINGS_FILE_NAME);
+        } else {
+            Path file = directory.resolve(BINDINGS_FILE_NAME);
+            source = file.toString();
+            rawConfiguration = readFile(file);
+        }
+
+        DynamicBindings bindings = new Gson().fromJson(rawConfiguration, DynamicBindings.class);
+        if (bindings == null || bindings.bindings == null) {
+            throw new IllegalArgumentException("No dynamic bindings defined in " + source);
+        }
+
+        DynamicServiceMatcher matcher = new DynamicServiceMatcher(bindings);
+
+        Map<String, String> scripts = new HashMap<String, String>();
+        for (DynamicBinding db : bindings.bindings) {
+            // bindings on script-less runtimes (ie java) have no script location
+            if (db.scriptLocation != null && !scripts.containsKey(db.scriptLocation)) {
+                scripts.put(db.scriptLocation, readScript(db.scriptLocation));
+            }
+        }
+
+        // bound to this snapshot, once built, so that composite scripts compose the operations of the same snapshot
+        DynamicScatterGather scatterGather = new DynamicScatterGather();
+        Map<DynamicBinding, DynamicScriptMetrics> scriptMetrics = new HashMap<DynamicBinding, DynamicScriptMetrics>();
+        Map<DynamicBinding, ScriptInvoker> invokers = new HashMap<DynamicBinding, ScriptInvoker>();
+        for (DynamicBinding db : bindings.bindings) {
+            ScriptRuntime runtime = ScriptRuntimes.get(db.runtime);
+            scriptMetrics.put(db, new DynamicScriptMetrics(db.serviceName));
+            // globals of the binding's scripts
+            Map<String, Object> hostObjects = new HashMap<String, Object>();
+            hostObjects.put(DynamicScatterGather.HOST_OBJECT_NAME, scatterGather);
+            hostObjects.put(DynamicKeyValueStore.HOST_OBJECT_NAME, stores.get(db.serviceName));
+            hostObjects.put(DynamicScriptMetrics.HOST_OBJECT_NAME, scriptMetrics.get(db));
+            try {
+                invokers.put(db, runtime.bind(db.serviceName, scripts.get(db.scriptLocation), hostObjects));
+            } catch (ScriptException e) {
+                throw new RuntimeException("Error binding " + db.serviceName + " to runtime " + runtime.getName() + ".", e);
+            }
+        }
+
+        // operations have identity equality, each is parsed into exactly one binding
+        Map<Operation, DynamicOperationMonitors> operationMonitors = new IdentityHashMap<Operation, DynamicOperationMonitors>();
+        for (DynamicBinding db : bindings.bindings) {
+            for (Operation o : db.operations) {
+                operationMonitors.put(o, new DynamicOperationMonitors(db, o));
+            }
+        }
+
+        // bindings listed in the order configured, for the admin port
+        Map<DynamicBinding, DynamicBulkhead> bulkheads = new LinkedHashMap<DynamicBinding, DynamicBulkhead>();
+        for (DynamicBinding db : bindings.bindings) {
+            if (db.bulkhead != null) {
+                bulkheads.put(db, new DynamicBulkhead(db.serviceName, db.bulkhead));
+            }
+        }
+
+        // created afresh with every snapshot, so results of previous bindings and scripts are never served
+        Map<Operation, DynamicResultCache> resultCaches = new IdentityHashMap<Operation, DynamicResultCache>();
+        for (DynamicBinding db : bindings.bindings) {
+            for (Operation o : db.operations) {
+                if (o.cacheable != null) {
+                    resultCaches.put(o, new DynamicResultCache(db, o));
+                }
+            }
+        }
+
+        DynamicServicesLandingPage landingPage = DynamicServicesLandingPage.render(rawConfiguration, bindings);
+
+        DynamicBindingsSnapshot snapshot = new DynamicBindingsSnapshot(versions.incrementAndGet(), source,
+                rawConfiguration, bindings, matcher, scripts, invokers, landingPage, operationMonitors, bulkheads,
+                resultCaches, scriptMetrics);
+        scatterGather.bind(snapshot);
+
+        // before the snapshot goes into service, so that no request pays for a cold binding
+        snapshot.setWarmup(DynamicWarmup.run(bindings, matcher, invokers));
+        return snapshot;
+    }
+
+    private String readScript(String scriptLocation) {
+        if (directory == null || scriptLocation.startsWith(CLASSPATH_PREFIX)) {
+            return ServiceUtils.readFileFromClassPath(scriptLocation);
+        }
+        return readFile(directory.resolve(scriptLocation));
+    }
+
+    private static String readFile(Path file) {
+        try {
+            return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading " + file + ".", e);
+        }
+    }
+
+}
@@ -0,0 +1,196 @@
+package com.liaison.framework.dynamic;
+
+import com.liaison.framework.dynamic.runtime.ScriptInvoker;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Dynamic Bindings Snapshot
+ * <p/>
+ * <P>Immutable, fully loaded view of the dynamic services configuration: the raw and parsed
+ * bindings, the compiled matcher, the contents of every bound script, the rendered landing page, the
+ * monitors of every operation, the bulkheads of bindings that configure one, the result caches
+ * of cacheable operations, the script metrics of every binding, and how each binding warmed up.
+ * Snapshots are built completely (and warmed up, see {@link DynamicWarmup}) before being published by
+ * {@link DynamicBindingsRegistry}, so a request holding a snapshot never observes a partially loaded
+ * configuration.
+ *
+ * @version 1.0
+ */
+public class DynamicBindingsSnapshot {
+
+    private final long version;
+    private final long loadedAt;
+    private final String source;
+    private final String rawConfiguration;
+    private final DynamicBindings bindings;
+    private final DynamicServiceMatcher matcher;
+    private final Map<String, String> scripts;
+    private final Map<DynamicBinding, ScriptInvoker> invokers;
+    private final DynamicServicesLandingPage landingPage;
+    private final Map<Operation, DynamicOperationMonitors> operationMonitors;
+    private final Map<DynamicBinding, DynamicBulkhead> bulkheads;
+    private final Map<Operation, DynamicResultCache> resultCaches;
+    private final Map<DynamicBinding, DynamicScriptMetrics> scriptMetrics;
+    // set once warmed up, before the snapshot is published
+    private DynamicWarmup warmup;
+
+    DynamicBindingsSnapshot(long version, String source, String rawConfiguration, DynamicBindings bindings,
+                            DynamicServiceMatcher matcher, Map<String, String> scripts,
+                            Map<DynamicBinding, ScriptInvoker> invokers, DynamicServicesLandingPage landingPage,
+                            Map<Operation, DynamicOperationMonitors> operationMonitors,
+                            Map<DynamicBinding, DynamicBulkhead> bulkheads,
+                            Map<Operation, DynamicResultCache> resultCaches,
+                            Map<DynamicBinding, DynamicScriptMetrics> scriptMetrics) {
+        this.version = version;
+        this.loadedAt = System.currentTimeMillis();
+        this.source = source;
+        this.rawConfiguration = rawConfiguration;
+        this.bindings = bindings;
+        this.matcher = matcher;
+        this.scripts = Collections.unmodifiableMap(scripts);
+        this.invokers = Collections.unmodifiableMap(invokers);
+        this.landingPage = landingPage;
+        this.operationMonitors = Collections.unmodifiableMap(operationMonitors);
+        this.bulkheads = Collections.unmodifiableMap(bulkheads);
+        this.resultCaches = Collections.unmodifiableMap(resultCaches);
+        this.scriptMetrics = Collections.unmodifiableMap(scriptMetrics);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getLoadedAt() {
+        return loadedAt;
+    }
+
+    /**
+     * @return where the bindings were loaded from (ie classpath:///bindings.json, or a file path)
+     */
+    public String getSource() {
+        return source;
+    }
+
+    public String getRawConfiguration() {
+        return rawConfiguration;
+    }
+
+    public String[] getServiceNames() {
+        String[] names = new String[bindings.bindings.length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = bindings.bindings[i].serviceName;
+        }
+        return names;
+    }
+
+    DynamicBindings getBindings() {
+        return bindings;
+    }
+
+    DynamicServiceMatcher getMatcher() {
+        return matcher;
+    }
+
+    /**
+     * @return contents of the script at the given (binding) script location
+     */
+    String getScript(String scriptLocation) {
+        return scripts.get(scriptLocation);
+    }
+
+    ScriptInvoker getInvoker(DynamicBinding binding) {
+        return invokers.get(binding);
+    }
+
+    DynamicServicesLandingPage getLandingPage() {
+        return landingPage;
+    }
+
+    DynamicOperationMonitors getOperationMonitors(Operation operation) {
+        return operationMonitors.get(operation);
+    }
+
+    /**
+     * @return the bulkhead of the given binding, or null if the binding is unlimited
+     */
+    DynamicBulkhead getBulkhead(DynamicBinding binding) {
+        return bulkheads.get(binding);
+    }
+
+    /**
+     * @return bulkheads of every binding that configures one
+     */
+    public Collection<DynamicBulkhead> getBulkheads() {
+        return bulkheads.values();
+    }
+
+    /**
+     * @return the result cache of the matched operation, or null if the operation is not cacheable or the
+     * match is not a read (see {@link DynamicResultCache#isRead(String)})
+     */
+    DynamicResultCache getResultCache(DynamicServiceMatcher.Match match) {
+        return DynamicResultCache.isRead(match.getMethod()) ? resultCaches.get(match.getOperation()) : null;
+    }
+
+    /**
+     * @return result caches of every cacheable operation
+     */
+    public Collection<DynamicResultCache> getResultCaches() {
+        return resultCaches.values();
+    }
+
+    /**
+     * @return metrics of the binding's scripts
+     */
+    public DynamicScriptMetrics getScriptMetrics(DynamicBinding binding) {
+        return scriptMetrics.get(binding);
+    }
+
+    public DynamicWarmup getWarmup() {
+        return warmup;
+    }
+
+    void setWarmup(DynamicWarmup warmup) {
+        this.warmup = warmup;
+    }
+
+    void registerMonitors() {
+        for (ScriptInvoker invoker : invokers.values()) {
+            invoker.registerMonitors();
+        }
+        for (DynamicOperationMonitors monitors : operationMonitors.values()) {
+            monitors.registerMonitors();
+        }
+        for (DynamicBulkhead bulkhead : bulkheads.values()) {
+            bulkhead.registerMonitors();
+        }
+        for (DynamicResultCache cache : resultCaches.values()) {
+            cache.registerMonitors();
+        }
+        for (DynamicScriptMetrics metrics : scriptMetrics.values()) {
+            metrics.registerMonitors();
+        }
+    }
+
+    void unregisterMonitors() {
+        for (ScriptInvoker invoker : invokers.values()) {
+            invoker.unregisterMonitors();
+        }
+        for (DynamicOperationMonitors monitors : operationMonitors.values()) {
+            monitors.unregisterMonitors();
+        }
+        for (DynamicBulkhead bulkhead : bulkheads.values()) {
+            bulkhead.unregisterMonitors();
+        }
+        for (DynamicResultCache cache : resultCaches.values()) {
+            cache.unregisterMonitors();
+        }
+        for (DynamicScriptMetrics metrics : scriptMetrics.values()) {
+            metrics.unregisterMonitors();
+        }
+    }
+
+}
@@ -0,0 +1,186 @@
+package com.liaison.framework.dynamic;
+
+import com.netflix.servo.DefaultMonitorRegistry;
+import com.netflix.servo.monitor.BasicCounter;
+import com.netflix.servo.monitor.BasicGauge;
+import com.netflix.servo.monitor.BasicTimer;
+import com.netflix.servo.monitor.CompositeMonitor;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.monitor.Monitors;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Dynamic Bulkhead
+ * <p/>
+ * <P>Admission control for a single dynamic binding, so that a slow binding cannot tie up every
+ * container thread at the expense of other bindings and endpoints.  Configured per binding in
+ * bindings.json:
+ * <pre>
+ * "bulkhead": {"maxConcurrent": 8, "maxQueued": 16, "maxQueueWaitMillis": 500, "retryAfterSeconds": 2}
+ * </pre>
+ * At most maxConcurrent requests invoke the binding at once.  Up to maxQueued further requests wait
+ * (at most maxQueueWaitMillis) for one of them to finish, and anything beyond that is rejected
+ * immediately, for the servlet to answer with 503 and Retry-After.
+ * <p/>
+ * Bulkheads are created with the bindings snapshot, so requests in flight during a reload finish
+ * against the previous snapshot's bulkhead.  Monitors are registered as DynamicBulkhead-&lt;serviceName&gt;.
+ *
+ * @version 1.0
+ */
+public class DynamicBulkhead {
+
+    static final long DEFAULT_MAX_QUEUE_WAIT_MILLIS = 1000;
+    static final int DEFAULT_RETRY_AFTER_SECONDS = 1;
+
+    private final String serviceName;
+    private final int maxConcurrent;
+    private final int maxQueued;
+    private final long maxQueueWaitNanos;
+    private final int retryAfterSeconds;
+
+    private final Semaphore permits;
+    private final AtomicInteger queued = new AtomicInteger(0);
+
+    private final BulkheadMonitors monitors = new BulkheadMonitors();
+    private CompositeMonitor<?> monitor;
+
+    DynamicBulkhead(String serviceName, Bulkhead bulkhead) {
+        if (bulkhead.maxConcurrent <= 0) {
+            throw new IllegalArgumentException("Bulkhead of " + serviceName + " must allow a maxConcurrent of at least 1.");
+        }
+        if (bulkhead.maxQueued < 0) {
+            throw new IllegalArgumentException("Bulkhead of " + serviceName + " cannot have a negative maxQueued.");
+        }
+        this.serviceName = serviceName;
+        this.maxConcurrent = bulkhead.maxConcurrent;
+        this.maxQueued = bulkhead.maxQueued;
+        this.maxQueueWaitNanos = TimeUnit.MILLISECONDS.toNanos(
+                bulkhead.maxQueueWaitMillis > 0 ? bulkhead.maxQueueWaitMillis : DEFAULT_MAX_QUEUE_WAIT_MILLIS);
+        this.retryAfterSeconds = bulkhead.retryAfterSeconds > 0 ? bulkhead.retryAfterSeconds : DEFAULT_RETRY_AFTER_SECONDS;
+        this.permits = new Semaphore(maxConcurrent, true);
+    }
+
+    /**
+     * Admits a request to the binding, waiting in the queue if the binding is at capacity.  Every
+     * admitted request must be followed by {@link #exit()}.
+     *
+     * @return false if the request was rejected, ie the queue is full or the wait timed out
+     */
+    boolean tryEnter() throws InterruptedException {
+
+        if (permits.tryAcquire()) {
+            return true;
+        }
+
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            monitors.rejected.increment();
+            return false;
+        }
+
+        monitors.queuedTotal.increment();
+        long start = System.nanoTime();
+        try {
+            if (permits.tryAcquire(maxQueueWaitNanos, TimeUnit.NANOSECONDS)) {
+                return true;
+            }
+            monitors.rejected.increment();
+            return false;
+        } finally {
+            queued.decrementAndGet();
+            monitors.queueWaitTime.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Admits a request to the binding only if it is below capacity, without queueing, ie for requests
+     * that can run elsewhere (or later) instead.  Every admitted request must be followed by {@link #exit()}.
+     */
+    boolean tryEnterNow() {
+        return permits.tryAcquire();
+    }
+
+    void exit() {
+        permits.release();
+    }
+
+    public String getServiceName() {
+        return serviceName;
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public int getMaxQueued() {
+        return maxQueued;
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    /**
+     * @return requests currently invoking the binding
+     */
+    public int getActive() {
+        return maxConcurrent - permits.availablePermits();
+    }
+
+    /**
+     * @return requests currently waiting to invoke the binding
+     */
+    public int getQueued() {
+        return queued.get();
+    }
+
+    /**
+     * @return requests rejected since the bulkhead was created (ie since the last reload)
+     */
+    public long getRejected() {
+        return monitors.rejected.getValue().longValue();
+    }
+
+    void registerMonitors() {
+        monitor = Monitors.newObjectMonitor("DynamicBulkhead-" + serviceName, monitors);
+        DefaultMonitorRegistry.getInstance().register(monitor);
+    }
+
+    void unregisterMonitors() {
+        if (monitor != null) {
+            DefaultMonitorRegistry.getInstance().unregister(monitor);
+        }
+    }
+
+    // registered through Monitors.newObjectMonitor, which picks up Monitor fields
+    private class BulkheadMonitors {
+
+        private final BasicCounter rejected = new BasicCounter(MonitorConfig.builder("bulkheadRejected").build());
+
+        private final BasicCounter queuedTotal = new BasicCounter(MonitorConfig.builder("bulkheadQueued").build());
+
+        private final BasicTimer queueWaitTime = new BasicTimer(MonitorConfig.builder("bulkheadQueueWaitTime").build(),
+                TimeUnit.MICROSECONDS);
+
+        private final BasicGauge<Integer> active = new BasicGauge<Integer>(MonitorConfig.builder("bulkheadActive").build(),
+                new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        return getActive();
+                    }
+                });
+
+        private final BasicGauge<Integer> queueDepth = new BasicGauge<Integer>(MonitorConfig.builder("bulkheadQueueDepth").build(),
+                new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        return getQueued();
+                    }
+                });
+    }
+
+}
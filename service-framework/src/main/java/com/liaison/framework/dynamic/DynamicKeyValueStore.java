@@ -0,0 +1,524 @@
+package com.liaison.framework.dynamic;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Dynamic Key Value Store
+ * <p/>
+ * <P>In-process store of a single namespace (a binding's service name), bound as "store" in the global
+ * scope of the binding's scripts:
+ * <pre>
+ * function create(id, body) {
+ *     var it = body.elements();
+ *     return store.putIfAbsent(id, it.next()) ? {"id": id} : {"id": id, "exists": true};
+ * }
+ * function foo(id) {
+ *     return id === undefined ? store.keys() : store.get(id);    // keys are streamed, see DynamicResponseEncoder
+ * }
+ * </pre>
+ * Values are held encoded as JSON (as dynamic service results are, see {@link DynamicResponseEncoder}),
+ * so they are immutable, shared safely by every engine and thread, and read back as plain Maps, Lists,
+ * Strings, Numbers and Booleans.  Reads are lock-free, from a {@link ConcurrentHashMap}.  Writes of a key
+ * are serialized by one of {@link #STRIPES} striped locks, so that each key's log records are in the
+ * order its writes took effect.
+ * <p/>
+ * When persistent (see {@link DynamicKeyValueStores}) every write is appended to a log before it returns,
+ * &lt;namespace&gt;.&lt;generation&gt;.log, as a CRC checked record.  A snapshot rolls the log over to
+ * the next generation, then writes every entry through a memory-mapped file, which is forced and then
+ * atomically renamed to &lt;namespace&gt;.&lt;generation&gt;.snapshot.  Older logs and snapshots are
+ * deleted once it is in place.  On opening, the latest snapshot is mapped and loaded, and logs of its
+ * generation and later are replayed over it.  Writes racing a snapshot are in the new log, and replaying
+ * them again is harmless.  A log record torn by a crash is truncated.
+ * <p/>
+ * The log is appended through a {@link RandomAccessFile} rather than a FileChannel, since writes are made on
+ * script threads, which are interrupted when cancelled or over budget, and an interrupt closes a FileChannel
+ * for every later write.  A record not written in whole, ie by a thread stopped part way, is cut off the log.
+ * <p/>
+ * In file names the namespace keeps its letters, digits, '_' and '-', and every other character is
+ * escaped as %XX of its UTF-8 bytes, so that no two namespaces share files (as a.b and a_b would were
+ * other characters simply replaced).
+ *
+ * @version 1.0
+ */
+public class DynamicKeyValueStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(DynamicKeyValueStore.class);
+
+    public static final String HOST_OBJECT_NAME = "store";
+
+    static final int STRIPES = 64;
+
+    private static final int SNAPSHOT_MAGIC = 0x44594B56;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+
+    private static final Pattern FILE_NAME = Pattern.compile("(.+)\\.(\\d+)\\.(log|snapshot)");
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final String namespace;
+    private final String fileNamespace;
+    private final Path directory;
+    private final boolean sync;
+
+    private final ConcurrentHashMap<String, String> entries = new ConcurrentHashMap<String, String>(256, 0.75f, STRIPES);
+    private final Object[] locks = new Object[STRIPES];
+
+    // guards the log, and the generation and count of records logged since the last snapshot
+    private final Object logLock = new Object();
+    private RandomAccessFile log;
+    private long generation;
+    private long logged;
+    private boolean closed;
+
+    /**
+     * @param directory directory of the store's logs and snapshots, or null for a store held in memory only
+     * @param sync      true to force each log record to disk before the write returns
+     */
+    DynamicKeyValueStore(String namespace, Path directory, boolean sync) throws IOException {
+        this.namespace = namespace;
+        this.fileNamespace = fileNamespace(namespace);
+        this.directory = directory;
+        this.sync = sync;
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+
+        if (directory != null) {
+            long start = System.nanoTime();
+            recover();
+            log = openLog(generation);
+            logger.info("Recovered " + entries.size() + " entries of dynamic store " + namespace + " in "
+                    + (System.nanoTime() - start) / 1000000 + "ms");
+        }
+    }
+
+    public String getNamespace() {
+        return namespace;
+    }
+
+    /**
+     * @return the value of the key, or null if none
+     */
+    public Object get(String key) throws IOException {
+        String json = entries.get(key);
+        return json == null ? null : mapper.readValue(json, Object.class);
+    }
+
+    /**
+     * @return the value of the key as JSON, or null if none
+     */
+    public String getJson(String key) {
+        return entries.get(key);
+    }
+
+    public boolean containsKey(String key) {
+        return entries.containsKey(key);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the keys, reflecting writes made while iterating or not
+     */
+    public Iterator<String> keys() {
+        return Collections.unmodifiableSet(entries.keySet()).iterator();
+    }
+
+    /**
+     * @param value any value a dynamic service may return, but null
+     */
+    public void put(String key, Object value) throws IOException {
+        String json = encode(value);
+        synchronized (lock(key)) {
+            String previous = entries.put(key, json);
+            logged(PUT, key, json, previous);
+        }
+    }
+
+    /**
+     * @return true if the key had no value, and now has the given one
+     */
+    public boolean putIfAbsent(String key, Object value) throws IOException {
+        String json = encode(value);
+        synchronized (lock(key)) {
+            if (entries.containsKey(key)) {
+                return false;
+            }
+            entries.put(key, json);
+            logged(PUT, key, json, null);
+            return true;
+        }
+    }
+
+    /**
+     * @return true if the key had a value
+     */
+    public boolean remove(String key) throws IOException {
+        synchronized (lock(key)) {
+            String previous = entries.remove(key);
+            if (previous == null) {
+                return false;
+            }
+            logged(REMOVE, key, null, previous);
+            return true;
+        }
+    }
+
+    /**
+     * Snapshots the store if anything was logged since the last snapshot, see above
+     */
+    synchronized void snapshot() throws IOException {
+        if (directory == null) {
+            return;
+        }
+
+        long snapshotGeneration;
+        synchronized (logLock) {
+            if (closed || logged == 0) {
+                return;
+            }
+            snapshotGeneration = generation + 1;
+            RandomAccessFile next = openLog(snapshotGeneration);
+            log.close();
+            log = next;
+            generation = snapshotGeneration;
+            logged = 0;
+        }
+
+        // encoded up front, to size the mapping
+        List<byte[]> encoded = new ArrayList<byte[]>();
+        long size = 4 + 4 + 8;
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            byte[] value = entry.getValue().getBytes(StandardCharsets.UTF_8);
+            encoded.add(key);
+            encoded.add(value);
+            size += 4 + key.length + 4 + value.length;
+        }
+
+        Path temporary = directory.resolve(fileName(snapshotGeneration, "snapshot") + ".tmp");
+        FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(SNAPSHOT_MAGIC);
+            buffer.putInt(encoded.size() / 2);
+            CRC32 crc = new CRC32();
+            for (byte[] bytes : encoded) {
+                buffer.putInt(bytes.length);
+                buffer.put(bytes);
+                crc.update(bytes);
+            }
+            buffer.putLong(crc.getValue());
+            buffer.force();
+        } finally {
+            channel.close();
+        }
+        Files.move(temporary, directory.resolve(fileName(snapshotGeneration, "snapshot")), StandardCopyOption.ATOMIC_MOVE);
+
+        for (Map.Entry<Long, Path> older : files("snapshot").headMap(snapshotGeneration).entrySet()) {
+            Files.deleteIfExists(older.getValue());
+        }
+        for (Map.Entry<Long, Path> older : files("log").headMap(snapshotGeneration).entrySet()) {
+            Files.deleteIfExists(older.getValue());
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Snapshot " + snapshotGeneration + " of dynamic store " + namespace + ": " + encoded.size() / 2
+                    + " entries, " + size + " bytes");
+        }
+    }
+
+    /**
+     * Snapshots and closes the store, after which it refuses writes
+     */
+    void close() throws IOException {
+        snapshot();
+        synchronized (logLock) {
+            closed = true;
+            if (log != null) {
+                log.close();
+            }
+        }
+    }
+
+    private Object lock(String key) {
+        // spread, as ConcurrentHashMap does, since String hashes of similar keys differ mostly in the low bits
+        int h = key.hashCode();
+        return locks[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+
+    private static String encode(Object value) throws IOException {
+        if (value == null) {
+            throw new IllegalArgumentException("Dynamic store values may not be null, remove the key instead");
+        }
+        return DynamicResponseEncoder.encode(value);
+    }
+
+    /**
+     * Logs a write already made to the entries, undoing it if it cannot be logged.  Made first, a write
+     * logged before a snapshot's roll over is in the entries the snapshot copies.
+     */
+    private void logged(byte op, String key, String value, String previous) throws IOException {
+        boolean appended = false;
+        try {
+            append(op, key, value);
+            appended = true;
+        } finally {
+            if (!appended) {
+                if (previous == null) {
+                    entries.remove(key);
+                } else {
+                    entries.put(key, previous);
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends a record, [crc][op][key length][key][value length][value], the value only of puts
+     */
+    private void append(byte op, String key, String value) throws IOException {
+        if (directory == null) {
+            synchronized (logLock) {
+                if (closed) {
+                    throw new IllegalStateException("Dynamic store " + namespace + " is closed");
+                }
+            }
+            return;
+        }
+
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] valueBytes = value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(4 + 1 + 4 + keyBytes.length
+                + (valueBytes == null ? 0 : 4 + valueBytes.length));
+        record.position(4);
+        record.put(op);
+        record.putInt(keyBytes.length);
+        record.put(keyBytes);
+        if (valueBytes != null) {
+            record.putInt(valueBytes.length);
+            record.put(valueBytes);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, record.capacity() - 4);
+        record.putInt(0, (int) crc.getValue());
+
+        synchronized (logLock) {
+            if (closed) {
+                throw new IllegalStateException("Dynamic store " + namespace + " is closed");
+            }
+            long end = log.getFilePointer();
+            boolean written = false;
+            try {
+                log.write(record.array());
+                if (sync) {
+                    log.getFD().sync();
+                }
+                written = true;
+            } finally {
+                if (!written) {
+                    // so that the records after it are not lost to recovery truncating the log at it
+                    log.setLength(end);
+                    log.seek(end);
+                }
+            }
+            logged++;
+        }
+    }
+
+    private RandomAccessFile openLog(long generation) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(directory.resolve(fileName(generation, "log")).toFile(), "rw");
+        try {
+            file.seek(file.length());
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+        return file;
+    }
+
+    /**
+     * @return the namespace escaped as described above
+     */
+    static String fileNamespace(String namespace) {
+        StringBuilder escaped = new StringBuilder(namespace.length());
+        for (byte b : namespace.getBytes(StandardCharsets.UTF_8)) {
+            if ((b >= 'A' && b <= 'Z') || (b >= 'a' && b <= 'z') || (b >= '0' && b <= '9') || b == '_' || b == '-') {
+                escaped.append((char) b);
+            } else {
+                escaped.append('%').append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private String fileName(long generation, String kind) {
+        return fileNamespace + "." + generation + "." + kind;
+    }
+
+    /**
+     * @return the namespace's files of the kind by generation
+     */
+    private TreeMap<Long, Path> files(String kind) throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<Long, Path>();
+        DirectoryStream<Path> stream = Files.newDirectoryStream(directory, fileNamespace + ".*");
+        try {
+            for (Path file : stream) {
+                Matcher matcher = FILE_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches() && matcher.group(1).equals(fileNamespace) && matcher.group(3).equals(kind)) {
+                    files.put(Long.parseLong(matcher.group(2)), file);
+                }
+            }
+        } finally {
+            stream.close();
+        }
+        return files;
+    }
+
+    private void recover() throws IOException {
+        // a snapshot interrupted before its rename is incomplete, and its logs are still in place
+        DirectoryStream<Path> stream = Files.newDirectoryStream(directory, fileNamespace + ".*.snapshot.tmp");
+        try {
+            for (Path file : stream) {
+                Files.delete(file);
+            }
+        } finally {
+            stream.close();
+        }
+
+        TreeMap<Long, Path> snapshots = files("snapshot");
+        long snapshotGeneration = 0;
+        if (!snapshots.isEmpty()) {
+            snapshotGeneration = snapshots.lastKey();
+            loadSnapshot(snapshots.lastEntry().getValue());
+        }
+
+        generation = snapshotGeneration;
+        for (Map.Entry<Long, Path> log : files("log").tailMap(snapshotGeneration).entrySet()) {
+            logged += replay(log.getValue());
+            generation = log.getKey();
+        }
+    }
+
+    private void loadSnapshot(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != SNAPSHOT_MAGIC) {
+                throw new IOException(file + " is not a dynamic store snapshot");
+            }
+            int count = buffer.getInt();
+            CRC32 crc = new CRC32();
+            for (int i = 0; i < count; i++) {
+                String key = readString(buffer, crc);
+                entries.put(key, readString(buffer, crc));
+            }
+            if (buffer.getLong() != crc.getValue()) {
+                throw new IOException("Dynamic store snapshot " + file + " is corrupt");
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static String readString(ByteBuffer buffer, CRC32 crc) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        crc.update(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the number of records replayed, the log being truncated after the last whole one
+     */
+    private long replay(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long size = channel.size();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            long records = 0;
+            int valid = 0;
+            while (true) {
+                if (buffer.remaining() < 4 + 1 + 4) {
+                    break;
+                }
+                int start = buffer.position();
+                int crc = buffer.getInt();
+                byte op = buffer.get();
+                int keyLength = buffer.getInt();
+                if (keyLength < 0 || buffer.remaining() < keyLength + (op == PUT ? 4 : 0)) {
+                    break;
+                }
+                byte[] key = new byte[keyLength];
+                buffer.get(key);
+                byte[] value = null;
+                if (op == PUT) {
+                    int valueLength = buffer.getInt();
+                    if (valueLength < 0 || buffer.remaining() < valueLength) {
+                        break;
+                    }
+                    value = new byte[valueLength];
+                    buffer.get(value);
+                } else if (op != REMOVE) {
+                    break;
+                }
+
+                CRC32 check = new CRC32();
+                ByteBuffer body = buffer.duplicate();
+                body.position(start + 4).limit(buffer.position());
+                check.update(body);
+                if ((int) check.getValue() != crc) {
+                    break;
+                }
+
+                String k = new String(key, StandardCharsets.UTF_8);
+                if (value == null) {
+                    entries.remove(k);
+                } else {
+                    entries.put(k, new String(value, StandardCharsets.UTF_8));
+                }
+                records++;
+                valid = buffer.position();
+            }
+
+            if (valid < size) {
+                logger.warn("Truncating dynamic store log " + file + " from " + size + " to " + valid
+                        + " bytes, after its last whole record");
+                channel.truncate(valid);
+            }
+            return records;
+        } finally {
+            channel.close();
+        }
+    }
+
+}
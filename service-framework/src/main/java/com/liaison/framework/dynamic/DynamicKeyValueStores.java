@@ -0,0 +1,138 @@
+package com.liaison.framework.dynamic;
+
+import com.netflix.config.DynamicPropertyFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dynamic Key Value Stores
+ * <p/>
+ * <P>The {@link DynamicKeyValueStore} of each namespace.  Stores outlive the bindings snapshots using
+ * them, so that their entries survive a reload.
+ * <p/>
+ * Stores are held in memory only, unless {@link #DIRECTORY_PROP_NAME} names a directory, in which case
+ * they are logged to and recovered from it, and snapshot every {@link #SNAPSHOT_INTERVAL_PROP_NAME}
+ * milliseconds in which they were written.  {@link #SYNC_PROP_NAME} forces each write to disk before it
+ * returns, at a considerable cost in write throughput (see DynamicKeyValueStoreBenchmark).  Otherwise a
+ * crash of the machine, rather than of the process, may lose the latest writes.
+ *
+ * @version 1.0
+ */
+public class DynamicKeyValueStores {
+
+    private static final Logger logger = LoggerFactory.getLogger(DynamicKeyValueStores.class);
+
+    public static final String DIRECTORY_PROP_NAME = "com.liaison.framework.dynamic.store.directory";
+    public static final String SNAPSHOT_INTERVAL_PROP_NAME = "com.liaison.framework.dynamic.store.snapshot.interval.millis";
+    public static final String SYNC_PROP_NAME = "com.liaison.framework.dynamic.store.sync";
+
+    private final Path directory;
+    private final boolean sync;
+    private final ConcurrentMap<String, DynamicKeyValueStore> stores = new ConcurrentHashMap<String, DynamicKeyValueStore>();
+    private final ScheduledExecutorService snapshots;
+
+    static DynamicKeyValueStores create() {
+        DynamicPropertyFactory properties = DynamicPropertyFactory.getInstance();
+        String directory = properties.getStringProperty(DIRECTORY_PROP_NAME, null).get();
+        return new DynamicKeyValueStores(directory == null ? null : Paths.get(directory),
+                properties.getLongProperty(SNAPSHOT_INTERVAL_PROP_NAME, 60000).get(),
+                properties.getBooleanProperty(SYNC_PROP_NAME, false).get());
+    }
+
+    /**
+     * @param directory directory of the stores' logs and snapshots, or null to hold them in memory only
+     */
+    DynamicKeyValueStores(Path directory, long snapshotIntervalMillis, boolean sync) {
+        this.directory = directory;
+        this.sync = sync;
+        if (directory == null) {
+            snapshots = null;
+            return;
+        }
+
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error creating dynamic store directory " + directory, e);
+        }
+        snapshots = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "DynamicKeyValueStoreSnapshots");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        snapshots.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                snapshot();
+            }
+        }, snapshotIntervalMillis, snapshotIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the store of the namespace, recovered from its files when first asked for
+     * @throws UncheckedIOException if it cannot be recovered
+     */
+    public DynamicKeyValueStore get(String namespace) {
+        DynamicKeyValueStore store = stores.get(namespace);
+        if (store != null) {
+            return store;
+        }
+        synchronized (stores) {
+            store = stores.get(namespace);
+            if (store == null) {
+                try {
+                    store = new DynamicKeyValueStore(namespace, directory, sync);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Error recovering dynamic store " + namespace + " from " + directory, e);
+                }
+                stores.put(namespace, store);
+            }
+            return store;
+        }
+    }
+
+    void snapshot() {
+        for (DynamicKeyValueStore store : stores.values()) {
+            try {
+                store.snapshot();
+            } catch (IOException e) {
+                logger.error("Error taking snapshot of dynamic store " + store.getNamespace(), e);
+            }
+        }
+    }
+
+    /**
+     * Snapshots and closes every store
+     */
+    void close() {
+        if (snapshots != null) {
+            snapshots.shutdown();
+        }
+        synchronized (stores) {
+            for (DynamicKeyValueStore store : stores.values()) {
+                try {
+                    store.close();
+                } catch (IOException e) {
+                    logger.error("Error closing dynamic store " + store.getNamespace(), e);
+                }
+            }
+            stores.clear();
+        }
+    }
+
+}
@@ -0,0 +1,127 @@
+package com.liaison.framework.dynamic;
+
+import com.liaison.framework.dynamic.runtime.InvocationTimer;
+import com.netflix.servo.DefaultMonitorRegistry;
+import com.netflix.servo.monitor.BasicCounter;
+import com.netflix.servo.monitor.BasicGauge;
+import com.netflix.servo.monitor.BasicTimer;
+import com.netflix.servo.monitor.CompositeMonitor;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.monitor.Monitors;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Dynamic Operation Monitors
+ * <p/>
+ * <P>Servo monitors for a single operation of a dynamic binding, registered with the
+ * {@link DefaultMonitorRegistry} (and so published over JMX) as
+ * DynamicOperation-&lt;serviceName&gt;-&lt;operationUrl&gt;:
+ * <ul>
+ * <li>calls, errors and inFlight</li>
+ * <li>matchTime, acquireTime, invokeTime and serializeTime, the phases of a request</li>
+ * <li>latency, the total time of a request, and latencyHistogram, its distribution</li>
+ * </ul>
+ * Monitors are created with the bindings snapshot, so recording touches only preallocated counters
+ * and does not allocate.
+ *
+ * @version 1.0
+ */
+class DynamicOperationMonitors implements InvocationTimer {
+
+    private final String name;
+    private final OperationMonitors monitors = new OperationMonitors();
+    private final AtomicInteger inFlight = new AtomicInteger(0);
+    private CompositeMonitor<?> monitor;
+
+    DynamicOperationMonitors(DynamicBinding binding, Operation operation) {
+        this.name = "DynamicOperation-" + binding.serviceName + "-" + operation.operationUrl;
+    }
+
+    /**
+     * Records a matched request, which must be followed by {@link #end(long)}
+     *
+     * @param matchNanos time spent matching the request to the operation
+     */
+    void begin(long matchNanos) {
+        monitors.calls.increment();
+        inFlight.incrementAndGet();
+        monitors.matchTime.record(matchNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param latencyNanos total time spent on the request
+     */
+    void end(long latencyNanos) {
+        inFlight.decrementAndGet();
+        monitors.latency.record(latencyNanos, TimeUnit.NANOSECONDS);
+        monitors.latencyHistogram.record(latencyNanos);
+    }
+
+    /**
+     * @return requests begun but not yet ended
+     */
+    int getInFlight() {
+        return inFlight.get();
+    }
+
+    void error() {
+        monitors.errors.increment();
+    }
+
+    @Override
+    public void recordAcquire(long nanos) {
+        monitors.acquireTime.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void recordInvoke(long nanos) {
+        monitors.invokeTime.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void recordSerialize(long nanos) {
+        monitors.serializeTime.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void registerMonitors() {
+        monitor = Monitors.newObjectMonitor(name, monitors);
+        DefaultMonitorRegistry.getInstance().register(monitor);
+    }
+
+    void unregisterMonitors() {
+        if (monitor != null) {
+            DefaultMonitorRegistry.getInstance().unregister(monitor);
+        }
+    }
+
+    // registered through Monitors.newObjectMonitor, which picks up Monitor fields
+    private class OperationMonitors {
+
+        private final BasicCounter calls = new BasicCounter(MonitorConfig.builder("calls").build());
+
+        private final BasicCounter errors = new BasicCounter(MonitorConfig.builder("errors").build());
+
+        private final BasicGauge<Integer> inFlightGauge = new BasicGauge<Integer>(MonitorConfig.builder("inFlight").build(),
+                new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        return inFlight.get();
+                    }
+                });
+
+        private final BasicTimer matchTime = timer("matchTime");
+        private final BasicTimer acquireTime = timer("acquireTime");
+        private final BasicTimer invokeTime = timer("invokeTime");
+        private final BasicTimer serializeTime = timer("serializeTime");
+        private final BasicTimer latency = timer("latency");
+
+        private final LatencyHistogram latencyHistogram = new LatencyHistogram(MonitorConfig.builder("latencyHistogram").build());
+
+        private BasicTimer timer(String name) {
+            return new BasicTimer(MonitorConfig.builder(name).build(), TimeUnit.MICROSECONDS);
+        }
+    }
+
+}
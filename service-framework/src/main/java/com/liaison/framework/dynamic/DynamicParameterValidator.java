@@ -0,0 +1,199 @@
+package com.liaison.framework.dynamic;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Dynamic Parameter Validator
+ * <p/>
+ * <P>Validates the path parameters of an operation against the operation's parameter schema, and
+ * coerces them to the declared types:
+ * <pre>
+ * {"operationUrl": "/divide/{x}/{y}", "allowedMethods": ["GET"],
+ *  "parameters": {"x": {"type": "number"}, "y": {"type": "integer", "minimum": 1, "maximum": 1000}}}
+ * </pre>
+ * Types are string (the default), integer (passed to the function as an Integer, or a Long beyond its
+ * range), number (a Double) and boolean (true or false).  The minimum and maximum bound the value of
+ * numeric parameters and the length of string parameters, and the pattern is a regular expression the
+ * whole of the parameter must match.
+ * <p/>
+ * Schemas are compiled with the matcher, so that a schema in error fails the load of the bindings, and
+ * so that a request is validated without parsing a schema, or acquiring a script engine.
+ *
+ * @version 1.0
+ */
+class DynamicParameterValidator {
+
+    private enum Type {
+        STRING, INTEGER, NUMBER, BOOLEAN
+    }
+
+    // by position in the operation url, null for parameters the schema leaves out
+    private final Parameter[] parameters;
+
+    private DynamicParameterValidator(Parameter[] parameters) {
+        this.parameters = parameters;
+    }
+
+    /**
+     * @param parameterNames names of the operation url's template parameters, in order
+     * @return the validator of the operation's schema, or null if it declares none
+     * @throws IllegalArgumentException if the schema is in error
+     */
+    static DynamicParameterValidator compile(DynamicBinding db, Operation o, String[] parameterNames) {
+        if (o.parameters == null || o.parameters.isEmpty()) {
+            return null;
+        }
+
+        Parameter[] parameters = new Parameter[parameterNames.length];
+        for (Map.Entry<String, ParameterSchema> entry : o.parameters.entrySet()) {
+            int position = -1;
+            for (int i = 0; i < parameterNames.length; i++) {
+                if (parameterNames[i].equals(entry.getKey())) {
+                    position = i;
+                }
+            }
+            if (position < 0) {
+                throw new IllegalArgumentException("Schema of operation " + o.operationUrl + " of " + db.serviceName
+                        + " declares " + entry.getKey() + ", which is not one of its parameters");
+            }
+            parameters[position] = new Parameter(entry.getKey(), entry.getValue(), o.operationUrl);
+        }
+        return new DynamicParameterValidator(parameters);
+    }
+
+    /**
+     * Validates the parameters, putting each (coerced to its type) in the given arguments
+     *
+     * @return null if valid, otherwise why not
+     */
+    String validate(String[] values, Object[] arguments) {
+        for (int i = 0; i < values.length; i++) {
+            Parameter parameter = parameters[i];
+            if (parameter == null) {
+                arguments[i] = values[i];
+                continue;
+            }
+            Object argument = parameter.coerce(values[i]);
+            if (argument == null) {
+                return parameter.describe(values[i]);
+            }
+            arguments[i] = argument;
+        }
+        return null;
+    }
+
+    private static class Parameter {
+
+        private final String name;
+        private final String operationUrl;
+        private final Type type;
+        private final Double minimum;
+        private final Double maximum;
+        private final Pattern pattern;
+
+        Parameter(String name, ParameterSchema schema, String operationUrl) {
+            this.name = name;
+            this.operationUrl = operationUrl;
+            try {
+                this.type = schema.type == null ? Type.STRING : Type.valueOf(schema.type.toUpperCase(Locale.ENGLISH));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Parameter " + name + " of " + operationUrl + " has unknown type "
+                        + schema.type);
+            }
+            this.minimum = schema.minimum;
+            this.maximum = schema.maximum;
+            this.pattern = schema.pattern == null ? null : Pattern.compile(schema.pattern);
+        }
+
+        /**
+         * @return the value as the parameter's type, or null if not valid
+         */
+        Object coerce(String value) {
+            if (pattern != null && !pattern.matcher(value).matches()) {
+                return null;
+            }
+            switch (type) {
+                case INTEGER:
+                    if (!isInteger(value)) {
+                        return null;
+                    }
+                    long l;
+                    try {
+                        l = Long.parseLong(value);
+                    } catch (NumberFormatException e) {
+                        // beyond the range of a long
+                        return null;
+                    }
+                    if (!inRange(l)) {
+                        return null;
+                    }
+                    // not a conditional expression, which would promote the Integer to a Long
+                    if (l == (int) l) {
+                        return Integer.valueOf((int) l);
+                    }
+                    return Long.valueOf(l);
+                case NUMBER:
+                    double d;
+                    try {
+                        d = Double.parseDouble(value);
+                    } catch (NumberFormatException e) {
+                        return null;
+                    }
+                    return Double.isNaN(d) || Double.isInfinite(d) || !inRange(d) ? null : d;
+                case BOOLEAN:
+                    if (value.equals("true")) {
+                        return Boolean.TRUE;
+                    }
+                    return value.equals("false") ? Boolean.FALSE : null;
+                default:
+                    return inRange(value.length()) ? value : null;
+            }
+        }
+
+        private boolean inRange(double value) {
+            return (minimum == null || value >= minimum) && (maximum == null || value <= maximum);
+        }
+
+        // checked up front, so that the common case of a malformed integer does not throw
+        private static boolean isInteger(String value) {
+            int start = value.startsWith("-") ? 1 : 0;
+            if (value.length() == start) {
+                return false;
+            }
+            for (int i = start; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c < '0' || c > '9') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        String describe(String value) {
+            StringBuilder description = new StringBuilder("Parameter ").append(name).append(" of ").append(operationUrl)
+                    .append(" must be ");
+            description.append(type == Type.INTEGER ? "an integer" : type == Type.NUMBER ? "a number"
+                    : type == Type.BOOLEAN ? "true or false" : "a string");
+            if (minimum != null || maximum != null) {
+                description.append(type == Type.STRING ? " of length" : "");
+                if (minimum != null) {
+                    description.append(" at least ").append(format(minimum));
+                }
+                if (maximum != null) {
+                    description.append(minimum != null ? " and" : "").append(" at most ").append(format(maximum));
+                }
+            }
+            if (pattern != null) {
+                description.append(" matching ").append(pattern.pattern());
+            }
+            return description.append(", not ").append(value).toString();
+        }
+
+        private static String format(double bound) {
+            return bound == Math.rint(bound) ? String.valueOf((long) bound) : String.valueOf(bound);
+        }
+    }
+
+}
@@ -0,0 +1,204 @@
+package com.liaison.framework.dynamic;
+
+import com.google.common.io.CountingInputStream;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.MappingJsonFactory;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Dynamic Request Body
+ * <p/>
+ * <P>The body of a POST, PUT or PATCH request, passed to the bound function as its last argument and
+ * read straight from the request input stream, so that a large upload is never held in memory whole.
+ * The body may be read (once) in one of three ways:
+ * <pre>
+ * function create(id, body) {
+ *     var chunk;
+ *     while ((chunk = body.nextChunk()) != null) { ... }    // text, in chunks of up to 8K characters
+ *     while ((bytes = body.nextBytes()) != null) { ... }    // raw bytes, in chunks of up to 8K
+ *     for (var it = body.elements(); it.hasNext();) { ... }  // JSON, parsed one element at a time
+ * }
+ * </pre>
+ * {@link #elements()} parses the body incrementally: a top level JSON array yields its elements one at
+ * a time (each as a Map, List, String, Number, Boolean or null), any other JSON value yields itself.
+ *
+ * @version 1.0
+ */
+public class DynamicRequestBody {
+
+    static final int CHUNK_SIZE = 8192;
+
+    // with an object mapper as codec, so that elements can be read as Maps, Lists, etc
+    private static final JsonFactory factory = new MappingJsonFactory();
+
+    private enum Mode {
+        BYTES,
+        TEXT,
+        JSON
+    }
+
+    private final CountingInputStream in;
+    private final String contentType;
+    private final Charset charset;
+    private final long contentLength;
+
+    private Mode mode;
+    private Reader reader;
+    private char[] chars;
+    private Iterator<Object> elements;
+
+    DynamicRequestBody(InputStream in, String contentType, Charset charset, long contentLength) {
+        this.in = new CountingInputStream(in);
+        this.contentType = contentType;
+        this.charset = charset;
+        this.contentLength = contentLength;
+    }
+
+    static DynamicRequestBody of(HttpServletRequest request) throws IOException {
+        String encoding = request.getCharacterEncoding();
+        Charset charset = encoding == null ? StandardCharsets.UTF_8 : Charset.forName(encoding);
+        return new DynamicRequestBody(request.getInputStream(), request.getContentType(), charset,
+                request.getContentLength());
+    }
+
+    static DynamicRequestBody empty() {
+        return new DynamicRequestBody(new ByteArrayInputStream(new byte[0]), null, StandardCharsets.UTF_8, 0);
+    }
+
+    /**
+     * @return true if requests of the given method carry a body for the function
+     */
+    static boolean hasBody(String method) {
+        return method.equals("POST") || method.equals("PUT") || method.equals("PATCH");
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @return the declared length of the body, or -1 if unknown (ie chunked)
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * @return bytes read from the request so far
+     */
+    public long getBytesRead() {
+        return in.getCount();
+    }
+
+    /**
+     * @return the next chunk of raw bytes, or null at the end of the body
+     */
+    public byte[] nextBytes() throws IOException {
+        use(Mode.BYTES);
+        byte[] buffer = new byte[CHUNK_SIZE];
+        int read = fill(buffer);
+        if (read <= 0) {
+            return null;
+        }
+        return read == buffer.length ? buffer : Arrays.copyOf(buffer, read);
+    }
+
+    /**
+     * @return the next chunk of text, decoded per the request's character encoding (UTF-8 if unspecified),
+     * or null at the end of the body
+     */
+    public String nextChunk() throws IOException {
+        if (use(Mode.TEXT)) {
+            reader = new InputStreamReader(in, charset);
+            chars = new char[CHUNK_SIZE];
+        }
+        int read = reader.read(chars);
+        return read < 0 ? null : new String(chars, 0, read);
+    }
+
+    /**
+     * @return the elements of a top level JSON array, or the top level JSON value, parsed as they are
+     * iterated.  Iteration throws {@link UncheckedIOException} if the body is not well formed JSON
+     */
+    public Iterator<Object> elements() throws IOException {
+        if (!use(Mode.JSON)) {
+            return elements;
+        }
+        final JsonParser parser = factory.createJsonParser(in);
+        final JsonToken first = parser.nextToken();
+
+        elements = new Iterator<Object>() {
+
+            private final boolean array = first == JsonToken.START_ARRAY;
+            // the token at which the next element starts, or null if there are no more
+            private JsonToken next = array ? parser.nextToken() : first;
+
+            @Override
+            public boolean hasNext() {
+                return next != null && next != JsonToken.END_ARRAY;
+            }
+
+            @Override
+            public Object next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                try {
+                    Object element = parser.readValueAs(Object.class);
+                    next = array ? parser.nextToken() : null;
+                    return element;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+        return elements;
+    }
+
+    // reads until the buffer is full or the body ends, so that chunks are full sized but for the last
+    private int fill(byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int read = in.read(buffer, total, buffer.length - total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * @return true if this is the first read of the body
+     */
+    private boolean use(Mode mode) {
+        if (this.mode == null) {
+            this.mode = mode;
+            return true;
+        }
+        if (this.mode != mode) {
+            throw new IllegalStateException("Request body is already being read as " + this.mode);
+        }
+        return false;
+    }
+
+}
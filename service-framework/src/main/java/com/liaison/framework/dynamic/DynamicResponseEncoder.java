@@ -0,0 +1,352 @@
+package com.liaison.framework.dynamic;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerationException;
+import org.codehaus.jackson.JsonGenerator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.stream.BaseStream;
+
+/**
+ * Dynamic Response Encoder
+ * <p/>
+ * <P>Streams the JSON response of a dynamic service invocation straight to the response output
+ * stream, escaping as it goes:
+ * <pre>
+ * [{"Function":"multiply"},{"Parameters":["3","4"]},{"Result":12}]
+ * </pre>
+ * Results are written natively.  Numbers stay numbers (with integral doubles, as produced by script
+ * engines, written without a fraction), maps and script objects become JSON objects, and
+ * collections, arrays, iterators and script arrays become JSON arrays, written element by element.
+ * The generator flushes to the output stream each time its buffer fills, so a large result is sent
+ * in chunks and never materialized as a String.
+ * <p/>
+ * Results produced element by element (see {@link #streamOf(Object)}) may instead be written with
+ * {@link #writeStream}, which also flushes through to the client every so many elements.
+ * <p/>
+ * A document is only ever closed once complete.  If a result fails part way through (ie an iterator or
+ * script throws), what has been sent is left open, and the exception is thrown on for the caller to abort
+ * the response, so that a client can tell the result is incomplete rather than take it for all there is.
+ *
+ * @version 1.0
+ */
+class DynamicResponseEncoder {
+
+    public static final String CONTENT_TYPE = "application/json;charset=UTF-8";
+
+    // guards against cyclic script objects
+    private static final int MAX_DEPTH = 64;
+
+    // largest magnitude at which every integral double is exactly representable as a long
+    private static final double MAX_EXACT_INTEGRAL = 9007199254740992d;
+
+    private static final JsonFactory factory = new JsonFactory();
+
+    static {
+        // the caller owns (and closes) the response stream
+        factory.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        // nor are the arrays and objects left open by a failure closed for it
+        factory.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+    }
+
+    // script engine objects (ie Nashorn's ScriptObjectMirror) expose arrays as Maps with an isArray() method,
+    // functions with an isFunction() method, and call their own functions through callMember(name, args...)
+    private static final ClassValue<Method> isArrayMethod = method("isArray", boolean.class);
+    private static final ClassValue<Method> isFunctionMethod = method("isFunction", boolean.class);
+    private static final ClassValue<Method> callMemberMethod = method("callMember", Object.class, String.class,
+            Object[].class);
+
+    private static ClassValue<Method> method(final String name, final Class<?> returnType,
+                                             final Class<?>... parameterTypes) {
+        return new ClassValue<Method>() {
+            @Override
+            protected Method computeValue(Class<?> type) {
+                try {
+                    Method method = type.getMethod(name, parameterTypes);
+                    return method.getReturnType() == returnType ? method : null;
+                } catch (NoSuchMethodException e) {
+                    return null;
+                }
+            }
+        };
+    }
+
+    /**
+     * @return a UTF-8 generator over the given stream, which closing does not close
+     */
+    static JsonGenerator createGenerator(OutputStream out) throws IOException {
+        return factory.createJsonGenerator(out, JsonEncoding.UTF8);
+    }
+
+    static void write(OutputStream out, String function, String[] parameters, Object result) throws IOException {
+        write(out, function, parameters, result, null);
+    }
+
+    /**
+     * Writes a result already encoded by {@link #encode(Object)}, ie one held by a {@link DynamicResultCache}
+     */
+    static void writeEncoded(OutputStream out, String function, String[] parameters, String encodedResult)
+            throws IOException {
+        write(out, function, parameters, null, encodedResult);
+    }
+
+    /**
+     * @return the elements of a result produced element by element, or null if the result is not.  That is an
+     * {@link Iterator}, a {@link BaseStream}, or a script iterator (an object with a next() function returning
+     * {value: ..., done: ...}, per the ECMAScript iteration protocol).  Collections, arrays and script arrays
+     * are already materialized, so are not.
+     */
+    static Iterator<?> streamOf(Object result) {
+        if (result instanceof Iterator) {
+            return (Iterator<?>) result;
+        } else if (result instanceof BaseStream) {
+            return ((BaseStream<?, ?>) result).iterator();
+        } else if (result instanceof Map && isScriptIterator(result)) {
+            return scriptIterator(result);
+        }
+        return null;
+    }
+
+    /**
+     * Writes the elements of a streamed result as they are iterated, flushing through to the output stream
+     * after the first element and every flushElements elements after that.  Each flush blocks while the
+     * client is not keeping up, so no more elements are produced than it has room to receive.
+     */
+    static void writeStream(OutputStream out, String function, String[] parameters, Iterator<?> elements,
+                            int flushElements) throws IOException {
+
+        JsonGenerator generator = createGenerator(out);
+        writeStart(generator, function, parameters);
+
+        generator.writeStartArray();
+        long count = 0;
+        while (elements.hasNext()) {
+            writeValue(generator, elements.next(), 1);
+            if (++count == 1 || count % flushElements == 0) {
+                generator.flush();
+            }
+        }
+        generator.writeEndArray();
+
+        writeEnd(generator);
+        // only once complete, see above
+        generator.close();
+    }
+
+    /**
+     * @return the result encoded as JSON
+     */
+    static String encode(Object result) throws IOException {
+        StringWriter writer = new StringWriter();
+        JsonGenerator generator = factory.createJsonGenerator(writer);
+        try {
+            writeValue(generator, result, 0);
+        } finally {
+            generator.close();
+        }
+        return writer.toString();
+    }
+
+    private static void write(OutputStream out, String function, String[] parameters, Object result,
+                              String encodedResult) throws IOException {
+
+        JsonGenerator generator = createGenerator(out);
+        writeStart(generator, function, parameters);
+        if (encodedResult != null) {
+            generator.writeRawValue(encodedResult);
+        } else {
+            writeValue(generator, result, 0);
+        }
+        writeEnd(generator);
+        // only once complete, see above
+        generator.close();
+    }
+
+    // everything up to the result's value
+    private static void writeStart(JsonGenerator generator, String function, String[] parameters) throws IOException {
+        generator.writeStartArray();
+
+        generator.writeStartObject();
+        generator.writeStringField("Function", function);
+        generator.writeEndObject();
+
+        generator.writeStartObject();
+        generator.writeArrayFieldStart("Parameters");
+        for (String parameter : parameters) {
+            generator.writeString(parameter);
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+
+        generator.writeStartObject();
+        generator.writeFieldName("Result");
+    }
+
+    private static void writeEnd(JsonGenerator generator) throws IOException {
+        generator.writeEndObject();
+        generator.writeEndArray();
+    }
+
+    static void writeValue(JsonGenerator generator, Object value, int depth) throws IOException {
+
+        if (depth > MAX_DEPTH) {
+            throw new JsonGenerationException("Result nested deeper than " + MAX_DEPTH + " levels (cyclic?)");
+        }
+
+        if (value == null) {
+            generator.writeNull();
+        } else if (value instanceof CharSequence || value instanceof Character) {
+            generator.writeString(value.toString());
+        } else if (value instanceof Number) {
+            writeNumber(generator, (Number) value);
+        } else if (value instanceof Boolean) {
+            generator.writeBoolean((Boolean) value);
+        } else if (value instanceof Map) {
+            if (isScriptArray(value)) {
+                writeArray(generator, ((Map<?, ?>) value).values().iterator(), depth);
+            } else if (isScriptIterator(value)) {
+                writeArray(generator, scriptIterator(value), depth);
+            } else {
+                writeObject(generator, (Map<?, ?>) value, depth);
+            }
+        } else if (value instanceof Iterable) {
+            writeArray(generator, ((Iterable<?>) value).iterator(), depth);
+        } else if (value instanceof Iterator) {
+            writeArray(generator, (Iterator<?>) value, depth);
+        } else if (value instanceof BaseStream) {
+            writeArray(generator, ((BaseStream<?, ?>) value).iterator(), depth);
+        } else if (value.getClass().isArray()) {
+            generator.writeStartArray();
+            int length = Array.getLength(value);
+            for (int i = 0; i < length; i++) {
+                writeValue(generator, Array.get(value, i), depth + 1);
+            }
+            generator.writeEndArray();
+        } else {
+            generator.writeString(value.toString());
+        }
+    }
+
+    private static void writeNumber(JsonGenerator generator, Number number) throws IOException {
+
+        if (number instanceof Integer || number instanceof Long || number instanceof Short || number instanceof Byte) {
+            generator.writeNumber(number.longValue());
+        } else if (number instanceof BigDecimal) {
+            generator.writeNumber((BigDecimal) number);
+        } else if (number instanceof BigInteger) {
+            generator.writeNumber((BigInteger) number);
+        } else {
+            double d = number.doubleValue();
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                // not representable in JSON
+                generator.writeString(String.valueOf(d));
+            } else if (d == Math.rint(d) && Math.abs(d) <= MAX_EXACT_INTEGRAL) {
+                generator.writeNumber((long) d);
+            } else {
+                generator.writeNumber(d);
+            }
+        }
+    }
+
+    private static void writeObject(JsonGenerator generator, Map<?, ?> map, int depth) throws IOException {
+        generator.writeStartObject();
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            generator.writeFieldName(String.valueOf(entry.getKey()));
+            writeValue(generator, entry.getValue(), depth + 1);
+        }
+        generator.writeEndObject();
+    }
+
+    private static void writeArray(JsonGenerator generator, Iterator<?> elements, int depth) throws IOException {
+        generator.writeStartArray();
+        while (elements.hasNext()) {
+            writeValue(generator, elements.next(), depth + 1);
+        }
+        generator.writeEndArray();
+    }
+
+    private static boolean isScriptArray(Object value) {
+        return test(isArrayMethod, value);
+    }
+
+    private static boolean isScriptIterator(Object value) {
+        if (callMemberMethod.get(value.getClass()) == null) {
+            return false;
+        }
+        Object next = ((Map<?, ?>) value).get("next");
+        return next != null && test(isFunctionMethod, next);
+    }
+
+    private static boolean test(ClassValue<Method> predicate, Object value) {
+        Method method = predicate.get(value.getClass());
+        if (method == null) {
+            return false;
+        }
+        try {
+            return (Boolean) method.invoke(value);
+        } catch (ReflectiveOperationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the values a script iterator yields, calling its next() function as they are iterated
+     */
+    private static Iterator<Object> scriptIterator(final Object iterator) {
+        final Method callMember = callMemberMethod.get(iterator.getClass());
+
+        return new Iterator<Object>() {
+
+            // the step holding the next value, if already taken from the script iterator
+            private Map<?, ?> step;
+
+            @Override
+            public boolean hasNext() {
+                if (step == null) {
+                    Object next;
+                    try {
+                        next = callMember.invoke(iterator, "next", new Object[0]);
+                    } catch (InvocationTargetException e) {
+                        Throwable cause = e.getCause();
+                        throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+                    } catch (IllegalAccessException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    if (!(next instanceof Map)) {
+                        throw new IllegalStateException("Script iterator's next() returned " + next
+                                + ", rather than {value: ..., done: ...}");
+                    }
+                    step = (Map<?, ?>) next;
+                }
+                return !Boolean.TRUE.equals(step.get("done"));
+            }
+
+            @Override
+            public Object next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Object value = step.get("value");
+                step = null;
+                return value;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+}
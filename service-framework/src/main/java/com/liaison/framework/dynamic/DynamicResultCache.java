@@ -0,0 +1,292 @@
+package com.liaison.framework.dynamic;
+
+import com.netflix.servo.DefaultMonitorRegistry;
+import com.netflix.servo.monitor.BasicCounter;
+import com.netflix.servo.monitor.BasicGauge;
+import com.netflix.servo.monitor.CompositeMonitor;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.monitor.Monitors;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dynamic Result Cache
+ * <p/>
+ * <P>Memoizes the results of a single cacheable operation, keyed by the function invoked and its
+ * parameters, so that pure functions (ie multiply/{a}/{b}) are not re-run by the script engine for every
+ * request.  Configured per operation in bindings.json:
+ * <pre>
+ * "cacheable": {"ttlMillis": 60000, "maxSize": 1024}
+ * </pre>
+ * Only reads, ie GET and HEAD requests, are served from or fill the cache; an operation mapping other
+ * methods to other functions (ie DELETE to remove) always invokes them.
+ * Results are kept encoded as JSON, never as live script objects, so a hit is written straight to the
+ * response without touching the binding's script engines or bulkhead.
+ * <p/>
+ * Entries are evicted by segmented LRU: new entries are admitted to a probationary region and promoted
+ * to a protected region (80% of capacity) when read again, so a burst of one-off parameters evicts
+ * other one-off entries rather than the frequently read ones.  The cache is split into independently
+ * locked segments by key hash, each holding its share of maxSize.
+ * <p/>
+ * Caches are created with the bindings snapshot, so every cached result is dropped when bindings or
+ * scripts are reloaded.  Monitors are registered as DynamicResultCache-&lt;serviceName&gt;-&lt;operationUrl&gt;.
+ *
+ * @version 1.0
+ */
+public class DynamicResultCache {
+
+    static final int DEFAULT_MAX_SIZE = 1024;
+
+    // segments are never smaller than this, so that small caches evict by (close to) global recency
+    private static final int MIN_SEGMENT_SIZE = 64;
+    private static final int MAX_SEGMENTS = 16;
+
+    private final String serviceName;
+    private final String operationUrl;
+    private final int maxSize;
+    private final long ttlNanos;
+    private final Segment[] segments;
+
+    private final CacheMonitors monitors = new CacheMonitors();
+    private CompositeMonitor<?> monitor;
+
+    DynamicResultCache(DynamicBinding binding, Operation operation) {
+        Cacheable cacheable = operation.cacheable;
+        if (cacheable.maxSize < 0) {
+            throw new IllegalArgumentException("Cache of " + binding.serviceName + " " + operation.operationUrl
+                    + " cannot have a negative maxSize.");
+        }
+        this.serviceName = binding.serviceName;
+        this.operationUrl = operation.operationUrl;
+        this.maxSize = cacheable.maxSize > 0 ? cacheable.maxSize : DEFAULT_MAX_SIZE;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, cacheable.ttlMillis));
+
+        int count = Math.min(MAX_SEGMENTS, Integer.highestOneBit(Math.max(1, maxSize / MIN_SEGMENT_SIZE)));
+        segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            // spread the remainder, so capacities add up to maxSize
+            segments[i] = new Segment(maxSize / count + (i < maxSize % count ? 1 : 0));
+        }
+    }
+
+    /**
+     * @return true if requests of the method may be served from, and fill, a result cache
+     */
+    static boolean isRead(String method) {
+        return "GET".equals(method) || "HEAD".equals(method);
+    }
+
+    /**
+     * @return the encoded result of the function for the given parameters, or null if not cached (or expired)
+     */
+    String get(String function, String[] parameters) {
+        Key key = new Key(function, parameters);
+        String encoded = segmentFor(key).get(key, System.nanoTime());
+        if (encoded == null) {
+            monitors.misses.increment();
+        } else {
+            monitors.hits.increment();
+        }
+        return encoded;
+    }
+
+    /**
+     * @param encoded the result of the function for the given parameters, encoded as JSON
+     */
+    void put(String function, String[] parameters, String encoded) {
+        Key key = new Key(function, parameters);
+        segmentFor(key).put(key, encoded, System.nanoTime());
+    }
+
+    private Segment segmentFor(Key key) {
+        int h = key.hash;
+        return segments[(h ^ (h >>> 16)) & (segments.length - 1)];
+    }
+
+    public String getServiceName() {
+        return serviceName;
+    }
+
+    public String getOperationUrl() {
+        return operationUrl;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getTtlMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(ttlNanos);
+    }
+
+    /**
+     * @return results currently cached, including any expired but not yet evicted
+     */
+    public int getSize() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return monitors.hits.getValue().longValue();
+    }
+
+    public long getMisses() {
+        return monitors.misses.getValue().longValue();
+    }
+
+    public long getEvictions() {
+        return monitors.evictions.getValue().longValue();
+    }
+
+    void registerMonitors() {
+        monitor = Monitors.newObjectMonitor("DynamicResultCache-" + serviceName + "-" + operationUrl, monitors);
+        DefaultMonitorRegistry.getInstance().register(monitor);
+    }
+
+    void unregisterMonitors() {
+        if (monitor != null) {
+            DefaultMonitorRegistry.getInstance().unregister(monitor);
+        }
+    }
+
+    private static final class Key {
+
+        private final String function;
+        private final String[] parameters;
+        private final int hash;
+
+        private Key(String function, String[] parameters) {
+            this.function = function;
+            this.parameters = parameters;
+            this.hash = 31 * function.hashCode() + Arrays.hashCode(parameters);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && function.equals(other.function) && Arrays.equals(parameters, other.parameters);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Entry {
+
+        private final String encoded;
+        private final long writtenAt;
+
+        private Entry(String encoded, long writtenAt) {
+            this.encoded = encoded;
+            this.writtenAt = writtenAt;
+        }
+    }
+
+    private final class Segment {
+
+        private final int capacity;
+        private final int protectedCapacity;
+
+        // both in access order, least recently used first
+        private final LinkedHashMap<Key, Entry> probation = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+        private final LinkedHashMap<Key, Entry> protectedRegion = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+
+        private Segment(int capacity) {
+            this.capacity = capacity;
+            this.protectedCapacity = (int) (capacity * 0.8);
+        }
+
+        synchronized String get(Key key, long now) {
+
+            Entry entry = protectedRegion.get(key);
+            if (entry != null) {
+                if (expired(entry, now)) {
+                    protectedRegion.remove(key);
+                    monitors.expirations.increment();
+                    return null;
+                }
+                return entry.encoded;
+            }
+
+            entry = probation.remove(key);
+            if (entry == null) {
+                return null;
+            }
+            if (expired(entry, now)) {
+                monitors.expirations.increment();
+                return null;
+            }
+
+            // read a second time, so worth protecting, at the expense of the least recently read protected entry
+            protectedRegion.put(key, entry);
+            if (protectedRegion.size() > protectedCapacity) {
+                Iterator<Map.Entry<Key, Entry>> eldest = protectedRegion.entrySet().iterator();
+                Map.Entry<Key, Entry> demoted = eldest.next();
+                eldest.remove();
+                probation.put(demoted.getKey(), demoted.getValue());
+            }
+            return entry.encoded;
+        }
+
+        synchronized void put(Key key, String encoded, long now) {
+
+            Entry entry = new Entry(encoded, now);
+            if (protectedRegion.containsKey(key)) {
+                protectedRegion.put(key, entry);
+                return;
+            }
+
+            probation.put(key, entry);
+            while (probation.size() + protectedRegion.size() > capacity) {
+                // probationary entries go first, only then those read more than once
+                Iterator<Key> eldest = (probation.isEmpty() ? protectedRegion : probation).keySet().iterator();
+                eldest.next();
+                eldest.remove();
+                monitors.evictions.increment();
+            }
+        }
+
+        synchronized int size() {
+            return probation.size() + protectedRegion.size();
+        }
+
+        private boolean expired(Entry entry, long now) {
+            return ttlNanos > 0 && now - entry.writtenAt >= ttlNanos;
+        }
+    }
+
+    // registered through Monitors.newObjectMonitor, which picks up Monitor fields
+    private class CacheMonitors {
+
+        private final BasicCounter hits = new BasicCounter(MonitorConfig.builder("cacheHits").build());
+
+        private final BasicCounter misses = new BasicCounter(MonitorConfig.builder("cacheMisses").build());
+
+        private final BasicCounter evictions = new BasicCounter(MonitorConfig.builder("cacheEvictions").build());
+
+        private final BasicCounter expirations = new BasicCounter(MonitorConfig.builder("cacheExpirations").build());
+
+        private final BasicGauge<Integer> size = new BasicGauge<Integer>(MonitorConfig.builder("cacheSize").build(),
+                new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        return getSize();
+                    }
+                });
+    }
+
+}
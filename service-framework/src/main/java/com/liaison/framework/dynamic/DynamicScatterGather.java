@@ -0,0 +1,493 @@
+package com.liaison.framework.dynamic;
+
+import com.liaison.framework.dynamic.runtime.ScriptEnginePoolExhaustedException;
+import com.liaison.framework.dynamic.runtime.ScriptInvoker;
+import com.netflix.config.DynamicIntProperty;
+import com.netflix.config.DynamicLongProperty;
+import com.netflix.config.DynamicPropertyFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.util.TokenBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Dynamic Scatter Gather
+ * <p/>
+ * <P>Host object, bound as "services" in the global scope of every script, through which a dynamic
+ * service composes others.  It invokes other dynamic operations in-process, and fetches other resources
+ * (ie Jersey resources) over HTTP.  All branches of a gather run concurrently, so a composite
+ * operation takes as long as its slowest branch, rather than the sum of them:
+ * <pre>
+ * function dashboard(id) {
+ *     var gather = services.gather(500);                   // every branch is done, or cancelled, within 500ms
+ *     var product = gather.invoke("/v1/math/multiply/3/4");  // GET
+ *     var foo = gather.invoke("DELETE", "/v21/foo/" + id);
+ *     var hello = gather.fetch("http://localhost:8989/hello-world/helloworld");
+ *     return {"product": product.get(), "foo": foo.getOrElse(null), "hello": hello.getStatus()};
+ * }
+ * </pre>
+ * Each snapshot binds its own host object into its script engines, so branches resolve against the
+ * snapshot serving the request that invoked the composite script (or warming it up), never against one
+ * loaded since.
+ * <p/>
+ * Branches run on the {@link DynamicScriptExecutor}, through the same matcher, result caches, bulkheads,
+ * budgets and monitors as a request of their own.  They never wait for capacity: a branch whose binding
+ * is at capacity, or finding every executor thread busy, fails at once with status 503.  A gather's
+ * deadline ({@link #DEADLINE_PROP_NAME} by default) bounds every branch's wall-clock budget, and the
+ * executor cancels branches still running at the deadline, whether or not the script waits on them.
+ * <p/>
+ * Results of invoked operations are copied out of the script engine that produced them (as Maps, Lists,
+ * Strings, Numbers, Booleans and nulls) before the engine goes back to its pool.  Results of fetches
+ * are parsed likewise if JSON, or are the response body as a String otherwise.
+ *
+ * @version 1.0
+ */
+public class DynamicScatterGather {
+
+    private static final Logger logger = LoggerFactory.getLogger(DynamicScatterGather.class);
+
+    public static final String HOST_OBJECT_NAME = "services";
+
+    public static final String DEADLINE_PROP_NAME = "com.liaison.framework.dynamic.gather.deadline.millis";
+    public static final String MAX_BRANCHES_PROP_NAME = "com.liaison.framework.dynamic.gather.max.branches";
+
+    private static final DynamicLongProperty DEADLINE_MILLIS = DynamicPropertyFactory.getInstance()
+            .getLongProperty(DEADLINE_PROP_NAME, 1000);
+    private static final DynamicIntProperty MAX_BRANCHES = DynamicPropertyFactory.getInstance()
+            .getIntProperty(MAX_BRANCHES_PROP_NAME, 32);
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    // copies results out of the script engine producing them, before it goes back to its pool
+    private static final ScriptInvoker.ResultHandler DETACH = new ScriptInvoker.ResultHandler() {
+        @Override
+        public Object handle(Object result) throws IOException {
+            return detach(result);
+        }
+    };
+
+    // the snapshot whose script engines this is bound into, set as soon as it is built, before it is warmed up
+    private volatile DynamicBindingsSnapshot snapshot;
+
+    DynamicScatterGather() {
+    }
+
+    DynamicScatterGather(DynamicBindingsSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    void bind(DynamicBindingsSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * @return a gather with the default deadline
+     */
+    public Gather gather() {
+        return gather(DEADLINE_MILLIS.get());
+    }
+
+    /**
+     * @param deadlineMillis time from now within which every branch of the gather is done, or cancelled
+     */
+    public Gather gather(long deadlineMillis) {
+        DynamicBindingsSnapshot snapshot = this.snapshot;
+        if (snapshot == null) {
+            // ie a script composing others as it is first evaluated, before there are any to compose
+            throw new IllegalStateException("Dynamic services cannot be composed before their bindings are built");
+        }
+        return new Gather(snapshot, deadlineMillis);
+    }
+
+    /**
+     * @return the value as plain Maps, Lists, Strings, Numbers, Booleans and nulls, written as a dynamic
+     * service result would be (see {@link DynamicResponseEncoder}) but never serialized to text
+     */
+    static Object detach(Object value) throws IOException {
+        TokenBuffer buffer = new TokenBuffer(mapper);
+        DynamicResponseEncoder.writeValue(buffer, value, 0);
+        JsonParser parser = buffer.asParser(mapper);
+        try {
+            parser.nextToken();
+            return parser.readValueAs(Object.class);
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * @return the response to a GET of the URL
+     */
+    private static Fetched get(String url, long timeoutMillis) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            // the executor cancels the fetch at the deadline, but a thread blocked on a socket only notices a timeout
+            connection.setConnectTimeout((int) Math.max(1, timeoutMillis));
+            connection.setReadTimeout((int) Math.max(1, timeoutMillis));
+            connection.setRequestProperty("Accept", "application/json, */*");
+
+            int status = connection.getResponseCode();
+            InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+            if (in == null) {
+                return new Fetched(status, null);
+            }
+            try {
+                String contentType = connection.getContentType();
+                if (contentType != null && contentType.toLowerCase(Locale.ENGLISH).contains("json")) {
+                    return new Fetched(status, mapper.readValue(in, Object.class));
+                }
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    body.write(buffer, 0, read);
+                }
+                return new Fetched(status, new String(body.toByteArray(), StandardCharsets.UTF_8));
+            } finally {
+                in.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Branches started together, within a common deadline
+     */
+    public static class Gather {
+
+        private final DynamicBindingsSnapshot snapshot;
+        private final long deadline;
+        private final int maxBranches;
+        private final List<Branch> branches = new ArrayList<Branch>();
+
+        private Gather(DynamicBindingsSnapshot snapshot, long deadlineMillis) {
+            this.snapshot = snapshot;
+            this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+            this.maxBranches = MAX_BRANCHES.get();
+        }
+
+        /**
+         * Starts a GET of the dynamic operation bound to the path (relative to /dyn)
+         */
+        public Branch invoke(String path) {
+            return invoke("GET", path);
+        }
+
+        /**
+         * Starts an invocation of the dynamic operation bound to the path (relative to /dyn).  Operations of
+         * methods carrying a body are invoked with an empty one.
+         */
+        public synchronized Branch invoke(String method, String path) {
+            Branch branch = add(new Branch(method, path));
+
+            long start = System.nanoTime();
+            DynamicServiceMatcher.Match match = snapshot.getMatcher().match(method, path);
+            if (match == null) {
+                return branch.fail(HttpServletResponse.SC_NOT_FOUND, "No dynamic service bound to " + path);
+            }
+            if (!match.isMethodAllowed()) {
+                return branch.fail(HttpServletResponse.SC_METHOD_NOT_ALLOWED, method + " not allowed, allowed methods are "
+                        + match.getAllowedMethods());
+            }
+            if (match.getViolation() != null) {
+                return branch.fail(HttpServletResponse.SC_BAD_REQUEST, match.getViolation());
+            }
+
+            branch.match = match;
+            branch.start = start;
+            branch.monitors = snapshot.getOperationMonitors(match.getOperation());
+            branch.monitors.begin(System.nanoTime() - start);
+
+            DynamicRequestBody body = DynamicRequestBody.hasBody(method) ? DynamicRequestBody.empty() : null;
+            final DynamicResultCache cache = body == null ? snapshot.getResultCache(match) : null;
+            String cached = cache == null ? null : cache.get(match.getFunction(), match.getParameters());
+            if (cached != null) {
+                try {
+                    return branch.succeed(mapper.readValue(cached, Object.class));
+                } catch (IOException e) {
+                    return branch.fail(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Unreadable cached result");
+                } finally {
+                    branch.finish();
+                }
+            }
+
+            // never waits for the binding, which would eat into the deadline of every branch
+            branch.bulkhead = snapshot.getBulkhead(match.getBinding());
+            if (branch.bulkhead != null) {
+                if (!branch.bulkhead.tryEnterNow()) {
+                    branch.finish();
+                    return branch.fail(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                            "Dynamic service " + branch.bulkhead.getServiceName() + " is at capacity");
+                }
+                branch.entered.set(true);
+            }
+
+            final ScriptInvoker invoker = snapshot.getInvoker(match.getBinding());
+            final Object[] arguments = DynamicServicesServlet.arguments(match, body);
+            final Branch invoked = branch;
+            long timeoutNanos = DynamicScriptExecutor.timeoutNanos(match.getOperation());
+            return submit(branch, new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    try {
+                        Object result = invoker.invoke(invoked.monitors, DETACH, invoked.match.getFunction(), arguments);
+                        if (cache != null) {
+                            cache.put(invoked.match.getFunction(), invoked.match.getParameters(),
+                                    DynamicResponseEncoder.encode(result));
+                        }
+                        return result;
+                    } finally {
+                        invoked.finish();
+                    }
+                }
+            }, timeoutNanos, DynamicScriptExecutor.cpuBudgetNanos(match.getOperation()));
+        }
+
+        /**
+         * Starts a GET of the URL, ie of a Jersey resource, whose status is the response's
+         */
+        public synchronized Branch fetch(final String url) {
+            Branch branch = add(new Branch("GET", url));
+            branch.start = System.nanoTime();
+            final long timeoutMillis = getRemainingMillis();
+            return submit(branch, new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    return get(url, timeoutMillis);
+                }
+            }, 0, 0);
+        }
+
+        /**
+         * Waits for every branch, for whatever remains of the deadline
+         *
+         * @return the results of the branches in the order started, null for those that failed
+         */
+        public List<Object> all() {
+            List<Branch> started;
+            synchronized (this) {
+                started = new ArrayList<Branch>(branches);
+            }
+            List<Object> results = new ArrayList<Object>(started.size());
+            for (Branch branch : started) {
+                results.add(branch.getOrElse(null));
+            }
+            return results;
+        }
+
+        /**
+         * Cancels branches still running, ie once the script has all it needs
+         */
+        public synchronized void cancel() {
+            for (Branch branch : branches) {
+                branch.cancel();
+            }
+        }
+
+        public long getRemainingMillis() {
+            return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+        }
+
+        private Branch add(Branch branch) {
+            if (branches.size() >= maxBranches) {
+                throw new IllegalStateException("Gather exceeds the maximum of " + maxBranches + " branches");
+            }
+            branches.add(branch);
+            return branch;
+        }
+
+        /**
+         * Starts the branch on the executor, within whatever remains of the deadline
+         *
+         * @param timeoutNanos the branch's own wall-clock budget, or 0 for none
+         */
+        private Branch submit(Branch branch, Callable<Object> callable, long timeoutNanos, long cpuBudgetNanos) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                branch.finish();
+                return branch.fail(HttpServletResponse.SC_GATEWAY_TIMEOUT, "Gather deadline passed");
+            }
+            try {
+                branch.invocation = DynamicScriptExecutor.getInstance().submit(callable,
+                        timeoutNanos > 0 ? Math.min(timeoutNanos, remaining) : remaining, cpuBudgetNanos);
+            } catch (ScriptEnginePoolExhaustedException e) {
+                branch.finish();
+                return branch.fail(HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getMessage());
+            }
+            return branch;
+        }
+    }
+
+    /**
+     * A single invocation or fetch of a gather, whose result is waited for (up to the gather's deadline)
+     * on first asking
+     */
+    public static class Branch {
+
+        private final String method;
+        private final String path;
+
+        private DynamicServiceMatcher.Match match;
+        private DynamicOperationMonitors monitors;
+        private DynamicBulkhead bulkhead;
+        private DynamicScriptExecutor.BudgetedInvocation invocation;
+        private long start;
+
+        // entered when started, and exited by whichever finishes with the branch first, see finish()
+        private final AtomicBoolean entered = new AtomicBoolean(false);
+        private final AtomicBoolean finished = new AtomicBoolean(false);
+
+        private boolean resolved;
+        private volatile int status;
+        private Object result;
+        private String error;
+
+        private Branch(String method, String path) {
+            this.method = method;
+            this.path = path;
+        }
+
+        /**
+         * @return the branch's result, waiting for it if need be
+         * @throws IllegalStateException if the branch failed, see {@link #getStatus()} and {@link #getError()}
+         */
+        public Object get() {
+            await();
+            if (!isSuccess(status)) {
+                throw new IllegalStateException(method + " " + path + " failed with status " + status + ": " + error);
+            }
+            return result;
+        }
+
+        /**
+         * @return the branch's result, waiting for it if need be, or the fallback if the branch failed
+         */
+        public Object getOrElse(Object fallback) {
+            await();
+            return isSuccess(status) ? result : fallback;
+        }
+
+        /**
+         * @return the HTTP status of the branch, waiting for it if need be.  504 if the branch overran the
+         * gather's deadline or its own budget, 503 if there was no capacity to start it.
+         */
+        public int getStatus() {
+            await();
+            return status;
+        }
+
+        public String getError() {
+            await();
+            return error;
+        }
+
+        public synchronized boolean isDone() {
+            return resolved || invocation == null || invocation.isDone();
+        }
+
+        private synchronized void await() {
+            if (resolved) {
+                return;
+            }
+            try {
+                Object value = invocation.await();
+                if (value instanceof Fetched) {
+                    Fetched fetched = (Fetched) value;
+                    status = fetched.status;
+                    result = fetched.body;
+                    error = isSuccess(status) ? null : String.valueOf(fetched.body);
+                    resolved = true;
+                } else {
+                    succeed(value);
+                }
+            } catch (ScriptBudgetExceededException e) {
+                fail(HttpServletResponse.SC_GATEWAY_TIMEOUT, e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Interrupted");
+            } catch (Exception e) {
+                // ie the function threw, or the branch was cancelled
+                logger.warn("Error in scatter-gather branch " + method + " " + path, e);
+                fail(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, String.valueOf(e.getMessage()));
+            } finally {
+                // ie never ran, having been cancelled first
+                finish();
+            }
+        }
+
+        private synchronized Branch succeed(Object value) {
+            resolved = true;
+            status = HttpServletResponse.SC_OK;
+            result = value;
+            return this;
+        }
+
+        private synchronized Branch fail(int status, String error) {
+            resolved = true;
+            this.status = status;
+            this.error = error;
+            if (monitors != null) {
+                monitors.error();
+            }
+            return this;
+        }
+
+        private synchronized void cancel() {
+            if (invocation != null && !resolved) {
+                invocation.abort();
+                fail(HttpServletResponse.SC_GATEWAY_TIMEOUT, "Cancelled");
+                finish();
+            }
+        }
+
+        /**
+         * Frees the branch's binding and ends its monitored time, once
+         */
+        private void finish() {
+            if (!finished.compareAndSet(false, true)) {
+                return;
+            }
+            if (entered.compareAndSet(true, false)) {
+                bulkhead.exit();
+            }
+            if (monitors != null) {
+                monitors.end(System.nanoTime() - start);
+            }
+        }
+
+        private static boolean isSuccess(int status) {
+            return status >= 200 && status < 300;
+        }
+    }
+
+    /**
+     * Response of a fetch
+     */
+    private static class Fetched {
+
+        private final int status;
+        private final Object body;
+
+        private Fetched(int status, Object body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+}
@@ -0,0 +1,355 @@
+package com.liaison.framework.dynamic;
+
+import com.liaison.framework.dynamic.runtime.ScriptEnginePoolExhaustedException;
+import com.netflix.config.DynamicIntProperty;
+import com.netflix.config.DynamicLongProperty;
+import com.netflix.config.DynamicPropertyFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Dynamic Script Executor
+ * <p/>
+ * <P>Runs dynamic service invocations that have a wall-clock and/or CPU-time budget on a managed pool
+ * of threads, so that a runaway script can be cancelled rather than holding a container thread forever.
+ * <p/>
+ * The calling (container) thread waits at most the wall-clock budget for the invocation.  A watchdog
+ * samples the CPU time of every running invocation's thread through {@link ThreadMXBean}, every
+ * {@link #WATCHDOG_INTERVAL_PROP_NAME} milliseconds, and cancels invocations that overrun their CPU
+ * budget, or their wall-clock budget with nobody waiting on them (ie scatter-gather branches whose
+ * results the script never asks for).  Cancelled invocations are interrupted, and since script engines generally do not check for
+ * interruption, threads still running a cancelled invocation after {@link #STOP_GRACE_PROP_NAME}
+ * milliseconds are stopped.  Either way the caller gets a {@link ScriptBudgetExceededException}.
+ * Stopping a thread is a last resort (ie it may leave a class half initialized), so the grace period
+ * should comfortably cover an interruptible invocation winding down, or a script engine being created.
+ * The watchdog claims the invocation before it stops the thread, and a claimed thread waits for its
+ * ThreadDeath before it returns to the pool, so that a stop can never hit the next invocation.
+ * <p/>
+ * Budgets are set per operation in bindings.json ("timeoutMillis", "cpuTimeMillis"), falling back to
+ * {@link #DEFAULT_TIMEOUT_PROP_NAME} and {@link #DEFAULT_CPU_TIME_PROP_NAME}.  Operations with no budget
+ * at all are invoked directly on the container thread.
+ * <p/>
+ * The pool holds at most {@link #THREADS_PROP_NAME} threads and does not queue; invocations arriving
+ * when every thread is busy are rejected with {@link ScriptEnginePoolExhaustedException}.
+ *
+ * @version 1.0
+ */
+public class DynamicScriptExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(DynamicScriptExecutor.class);
+
+    public static final String THREADS_PROP_NAME = "com.liaison.framework.dynamic.executor.threads";
+    public static final String WATCHDOG_INTERVAL_PROP_NAME = "com.liaison.framework.dynamic.executor.watchdog.interval.millis";
+    public static final String STOP_GRACE_PROP_NAME = "com.liaison.framework.dynamic.executor.stop.grace.millis";
+
+    // budgets of operations that do not set their own, 0 for none
+    public static final String DEFAULT_TIMEOUT_PROP_NAME = "com.liaison.framework.dynamic.timeout.millis";
+    public static final String DEFAULT_CPU_TIME_PROP_NAME = "com.liaison.framework.dynamic.cpu.time.millis";
+
+    static final DynamicLongProperty DEFAULT_TIMEOUT_MILLIS = DynamicPropertyFactory.getInstance()
+            .getLongProperty(DEFAULT_TIMEOUT_PROP_NAME, 0);
+    static final DynamicLongProperty DEFAULT_CPU_TIME_MILLIS = DynamicPropertyFactory.getInstance()
+            .getLongProperty(DEFAULT_CPU_TIME_PROP_NAME, 0);
+
+    private static final DynamicIntProperty STOP_GRACE_MILLIS = DynamicPropertyFactory.getInstance()
+            .getIntProperty(STOP_GRACE_PROP_NAME, 1000);
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final boolean cpuTimeSupported;
+
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService watchdog;
+    private final Set<BudgetedInvocation> running = ConcurrentHashMap.newKeySet();
+
+    private static class Holder {
+        private static final DynamicScriptExecutor INSTANCE = new DynamicScriptExecutor(
+                DynamicPropertyFactory.getInstance().getIntProperty(THREADS_PROP_NAME,
+                        Runtime.getRuntime().availableProcessors() * 4).get(),
+                DynamicPropertyFactory.getInstance().getIntProperty(WATCHDOG_INTERVAL_PROP_NAME, 10).get());
+    }
+
+    public static DynamicScriptExecutor getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    DynamicScriptExecutor(int maxThreads, long watchdogIntervalMillis) {
+
+        cpuTimeSupported = threads.isThreadCpuTimeSupported();
+        if (cpuTimeSupported && !threads.isThreadCpuTimeEnabled()) {
+            threads.setThreadCpuTimeEnabled(true);
+        }
+
+        executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), daemonThreads("DynamicScriptExecutor"));
+        executor.allowCoreThreadTimeOut(true);
+
+        watchdog = Executors.newSingleThreadScheduledExecutor(daemonThreads("DynamicScriptWatchdog"));
+        watchdog.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                patrol();
+            }
+        }, watchdogIntervalMillis, watchdogIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the operation's wall-clock budget, or the default, in nanoseconds (0 for none)
+     */
+    static long timeoutNanos(Operation operation) {
+        return TimeUnit.MILLISECONDS.toNanos(operation.timeoutMillis > 0 ? operation.timeoutMillis
+                : DEFAULT_TIMEOUT_MILLIS.get());
+    }
+
+    /**
+     * @return the operation's CPU-time budget, or the default, in nanoseconds (0 for none)
+     */
+    static long cpuBudgetNanos(Operation operation) {
+        return TimeUnit.MILLISECONDS.toNanos(operation.cpuTimeMillis > 0 ? operation.cpuTimeMillis
+                : DEFAULT_CPU_TIME_MILLIS.get());
+    }
+
+    /**
+     * Runs the invocation on the executor and waits for its result
+     *
+     * @param timeoutNanos   wall-clock budget, or 0 for none
+     * @param cpuBudgetNanos CPU-time budget, or 0 for none
+     * @throws ScriptBudgetExceededException      if the invocation overran either budget, and was cancelled
+     * @throws ScriptEnginePoolExhaustedException if every executor thread is busy
+     */
+    public Object invoke(Callable<Object> invocation, long timeoutNanos, long cpuBudgetNanos) throws Exception {
+        return submit(invocation, timeoutNanos, cpuBudgetNanos).await();
+    }
+
+    /**
+     * Starts the invocation on the executor without waiting for it, ie to run several invocations in
+     * parallel.  The wall-clock budget runs from submission.
+     *
+     * @throws ScriptEnginePoolExhaustedException if every executor thread is busy
+     */
+    BudgetedInvocation submit(Callable<Object> invocation, long timeoutNanos, long cpuBudgetNanos) {
+
+        BudgetedInvocation budgeted = new BudgetedInvocation(invocation, timeoutNanos, cpuBudgetNanos);
+        try {
+            executor.execute(budgeted);
+        } catch (RejectedExecutionException e) {
+            throw new ScriptEnginePoolExhaustedException("No dynamic script executor thread available (max "
+                    + executor.getMaximumPoolSize() + ")");
+        }
+        return budgeted;
+    }
+
+    public void shutdown() {
+        watchdog.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    int getRunning() {
+        return running.size();
+    }
+
+    private void patrol() {
+        long now = System.nanoTime();
+        for (BudgetedInvocation invocation : running) {
+            try {
+                Thread runner = invocation.runner;
+                if (runner == null) {
+                    continue;
+                }
+                if (invocation.isCancelled()) {
+                    if (now - invocation.abortedAt > TimeUnit.MILLISECONDS.toNanos(STOP_GRACE_MILLIS.get())) {
+                        stop(invocation, runner);
+                    }
+                } else if (invocation.cpuBudgetNanos > 0 && cpuTimeSupported
+                        && threads.getThreadCpuTime(runner.getId()) - invocation.cpuStart > invocation.cpuBudgetNanos) {
+                    invocation.cpuExceeded = true;
+                    invocation.abort();
+                } else if (invocation.timeoutNanos > 0 && now - invocation.submittedAt > invocation.timeoutNanos) {
+                    invocation.wallClockExceeded = true;
+                    invocation.abort();
+                }
+            } catch (RuntimeException e) {
+                logger.error("Error patrolling dynamic script invocations", e);
+            }
+        }
+    }
+
+    // script engines (ie a tight loop in JavaScript) do not check for interruption, so the thread is reclaimed by force
+    @SuppressWarnings("deprecation")
+    private void stop(BudgetedInvocation invocation, Thread runner) {
+        // the invocation may have finished since the patrol read its runner, leaving the thread to another;
+        // once claimed, its thread cannot move on until the stop is delivered
+        if (!invocation.state.compareAndSet(RUNNING, STOPPING)) {
+            return;
+        }
+        logger.warn("Stopping " + runner.getName() + ", still running a cancelled dynamic script invocation");
+        try {
+            runner.stop();
+        } catch (UnsupportedOperationException e) {
+            logger.error("Cannot stop " + runner.getName() + " on this JVM, the thread remains lost to the runaway invocation");
+            invocation.stopDelivered = true;
+        }
+    }
+
+    private static ThreadFactory daemonThreads(final String name) {
+        final AtomicInteger count = new AtomicInteger(0);
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    // states of a BudgetedInvocation
+    private static final int NEW = 0;
+    private static final int RUNNING = 1;
+    private static final int STOPPING = 2;
+    private static final int DONE = 3;
+
+    /**
+     * An invocation running on the executor, see {@link #submit(Callable, long, long)}
+     */
+    class BudgetedInvocation extends FutureTask<Object> {
+
+        private final long timeoutNanos;
+        private final long cpuBudgetNanos;
+        private final long submittedAt = System.nanoTime();
+
+        private volatile Thread runner;
+        private volatile long cpuStart;
+        private volatile long abortedAt;
+        private volatile boolean cpuExceeded;
+        private volatile boolean wallClockExceeded;
+        // RUNNING while on its thread, until either the thread finishes (DONE) or the watchdog claims it (STOPPING)
+        private final AtomicInteger state = new AtomicInteger(NEW);
+        private volatile boolean stopDelivered;
+
+        private BudgetedInvocation(Callable<Object> callable, long timeoutNanos, long cpuBudgetNanos) {
+            super(callable);
+            this.timeoutNanos = timeoutNanos;
+            this.cpuBudgetNanos = cpuBudgetNanos;
+        }
+
+        @Override
+        public void run() {
+            Thread thread = Thread.currentThread();
+            cpuStart = cpuTimeSupported ? threads.getThreadCpuTime(thread.getId()) : 0;
+            runner = thread;
+            running.add(this);
+            try {
+                state.set(RUNNING);
+                super.run();
+            } catch (ThreadDeath death) {
+                // delivered outside the callable, ie as the invocation completed
+                stopDelivered = true;
+            } finally {
+                if (!state.compareAndSet(RUNNING, DONE)) {
+                    awaitStop();
+                }
+                running.remove(this);
+                runner = null;
+                // clear any interrupt aimed at this invocation, before the thread is reused
+                Thread.interrupted();
+            }
+        }
+
+        // the callable's exceptions, ThreadDeath included, are caught by FutureTask.run and land here
+        @Override
+        protected void setException(Throwable t) {
+            if (t instanceof ThreadDeath) {
+                stopDelivered = true;
+            }
+            super.setException(t);
+        }
+
+        // claimed by the watchdog: Thread.stop is asynchronous, so the ThreadDeath may still be on its way
+        private void awaitStop() {
+            while (true) {
+                try {
+                    while (!stopDelivered) {
+                        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                    }
+                    return;
+                } catch (ThreadDeath death) {
+                    stopDelivered = true;
+                }
+            }
+        }
+
+        /**
+         * Waits for the result, for whatever remains of the wall-clock budget
+         *
+         * @throws ScriptBudgetExceededException if the invocation overran either budget, and was cancelled
+         */
+        Object await() throws Exception {
+            try {
+                if (timeoutNanos <= 0) {
+                    return get();
+                }
+                return get(Math.max(0, timeoutNanos - (System.nanoTime() - submittedAt)), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                abort();
+                throw wallClockExceeded();
+            } catch (CancellationException e) {
+                if (cpuExceeded) {
+                    throw new ScriptBudgetExceededException(ScriptBudgetExceededException.Budget.CPU_TIME,
+                            "Exceeded CPU-time budget of " + TimeUnit.NANOSECONDS.toMillis(cpuBudgetNanos) + "ms");
+                }
+                if (wallClockExceeded) {
+                    throw wallClockExceeded();
+                }
+                throw e;
+            } catch (InterruptedException e) {
+                abort();
+                throw e;
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception) {
+                    throw (Exception) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw e;
+            }
+        }
+
+        private ScriptBudgetExceededException wallClockExceeded() {
+            return new ScriptBudgetExceededException(ScriptBudgetExceededException.Budget.WALL_CLOCK,
+                    "Exceeded wall-clock budget of " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + "ms");
+        }
+
+        /**
+         * Cancels the invocation, interrupting it and, after the grace period, stopping its thread
+         */
+        void abort() {
+            if (isDone()) {
+                return;
+            }
+            abortedAt = System.nanoTime();
+            cancel(true);
+        }
+    }
+
+}
@@ -0,0 +1,224 @@
+package com.liaison.framework.dynamic;
+
+import com.liaison.framework.util.StripedCounter;
+import com.netflix.config.DynamicIntProperty;
+import com.netflix.config.DynamicPropertyFactory;
+import com.netflix.servo.DefaultMonitorRegistry;
+import com.netflix.servo.annotations.DataSourceType;
+import com.netflix.servo.monitor.AbstractMonitor;
+import com.netflix.servo.monitor.CompositeMonitor;
+import com.netflix.servo.monitor.Gauge;
+import com.netflix.servo.monitor.Monitor;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.tag.BasicTag;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dynamic Script Metrics
+ * <p/>
+ * <P>Metrics of a binding's own making, bound as "metrics" in the global scope of the binding's scripts:
+ * <pre>
+ * function foo(id) {
+ *     metrics.counter("lookups").increment();
+ *     var stopwatch = metrics.timer("lookupTime").start();
+ *     var value = store.get(id);
+ *     stopwatch.stop();
+ *     metrics.gauge("size").set(store.size());
+ *     return value;
+ * }
+ * </pre>
+ * Metrics are created on first use, and registered with the {@link DefaultMonitorRegistry} (and so
+ * published over JMX) as they are, tagged id=DynamicScript-&lt;serviceName&gt;, so scripts need no
+ * registration code.  Counters and timers add to {@link StripedCounter}s, so that scripts hot on many
+ * threads do not contend on one counter.  A binding may
+ * have at most {@link #MAX_METRICS_PROP_NAME} metrics, so that a script naming metrics after its
+ * parameters cannot exhaust the registry.
+ * <p/>
+ * Like the monitors of operations, metrics are created afresh with every bindings snapshot.
+ *
+ * @version 1.0
+ */
+public class DynamicScriptMetrics {
+
+    public static final String HOST_OBJECT_NAME = "metrics";
+
+    public static final String MAX_METRICS_PROP_NAME = "com.liaison.framework.dynamic.metrics.max";
+
+    private static final DynamicIntProperty maxMetrics =
+            DynamicPropertyFactory.getInstance().getIntProperty(MAX_METRICS_PROP_NAME, 100);
+
+    private final String id;
+    private final ConcurrentMap<String, Monitor<?>> metrics = new ConcurrentHashMap<String, Monitor<?>>();
+    // guards creation and registration of metrics
+    private final Object lock = new Object();
+    private boolean registered;
+
+    DynamicScriptMetrics(String serviceName) {
+        this.id = "DynamicScript-" + serviceName;
+    }
+
+    public StripedCounter counter(String name) {
+        return metric(name, StripedCounter.class);
+    }
+
+    public ScriptTimer timer(String name) {
+        return metric(name, ScriptTimer.class);
+    }
+
+    public ScriptGauge gauge(String name) {
+        return metric(name, ScriptGauge.class);
+    }
+
+    /**
+     * @return the metrics created so far
+     */
+    public Collection<Monitor<?>> getMetrics() {
+        return Collections.unmodifiableCollection(metrics.values());
+    }
+
+    void registerMonitors() {
+        synchronized (lock) {
+            registered = true;
+            for (Monitor<?> metric : metrics.values()) {
+                DefaultMonitorRegistry.getInstance().register(metric);
+            }
+        }
+    }
+
+    void unregisterMonitors() {
+        synchronized (lock) {
+            registered = false;
+            for (Monitor<?> metric : metrics.values()) {
+                DefaultMonitorRegistry.getInstance().unregister(metric);
+            }
+        }
+    }
+
+    private <T extends Monitor<?>> T metric(String name, Class<T> type) {
+        Monitor<?> metric = metrics.get(name);
+        if (metric == null) {
+            synchronized (lock) {
+                metric = metrics.get(name);
+                if (metric == null) {
+                    if (metrics.size() >= maxMetrics.get()) {
+                        throw new IllegalStateException(id + " already has " + metrics.size() + " metrics, see "
+                                + MAX_METRICS_PROP_NAME);
+                    }
+                    MonitorConfig config = MonitorConfig.builder(name).withTag("class", getClass().getSimpleName())
+                            .withTag("id", id).build();
+                    if (type == StripedCounter.class) {
+                        metric = new StripedCounter(config);
+                    } else if (type == ScriptTimer.class) {
+                        metric = new ScriptTimer(config);
+                    } else {
+                        metric = new ScriptGauge(config);
+                    }
+                    metrics.put(name, metric);
+                    if (registered) {
+                        DefaultMonitorRegistry.getInstance().register(metric);
+                    }
+                }
+            }
+        }
+        if (!type.isInstance(metric)) {
+            throw new IllegalArgumentException("Metric " + name + " of " + id + " is a "
+                    + metric.getClass().getSimpleName() + ", not a " + type.getSimpleName());
+        }
+        return type.cast(metric);
+    }
+
+    /**
+     * Count and total time, in microseconds, of the recorded durations, from which monitoring derives
+     * their rate and mean
+     */
+    public static class ScriptTimer extends AbstractMonitor<Long> implements CompositeMonitor<Long> {
+
+        private final StripedCounter count;
+        private final StripedCounter totalTime;
+        private final List<Monitor<?>> monitors;
+
+        ScriptTimer(MonitorConfig config) {
+            super(config);
+            this.count = new StripedCounter(config.withAdditionalTag(new BasicTag("statistic", "count")));
+            this.totalTime = new StripedCounter(config.withAdditionalTag(new BasicTag("statistic", "totalTime")));
+            this.monitors = Collections.<Monitor<?>>unmodifiableList(Arrays.<Monitor<?>>asList(count, totalTime));
+        }
+
+        public ScriptStopwatch start() {
+            return new ScriptStopwatch(this);
+        }
+
+        public void record(double millis) {
+            recordNanos((long) (millis * 1000000));
+        }
+
+        void recordNanos(long nanos) {
+            count.increment();
+            totalTime.increment(TimeUnit.NANOSECONDS.toMicros(nanos));
+        }
+
+        @Override
+        public List<Monitor<?>> getMonitors() {
+            return monitors;
+        }
+
+        /**
+         * @return the number of recorded durations
+         */
+        @Override
+        public Long getValue() {
+            return count.getValue().longValue();
+        }
+    }
+
+    public static class ScriptStopwatch {
+
+        private final ScriptTimer timer;
+        private final long start = System.nanoTime();
+        private boolean stopped;
+
+        private ScriptStopwatch(ScriptTimer timer) {
+            this.timer = timer;
+        }
+
+        /**
+         * Records the time since the stopwatch was started, once only
+         *
+         * @return the time since the stopwatch was started, in milliseconds
+         */
+        public double stop() {
+            long nanos = System.nanoTime() - start;
+            if (!stopped) {
+                stopped = true;
+                timer.recordNanos(nanos);
+            }
+            return nanos / 1e6;
+        }
+    }
+
+    public static class ScriptGauge extends AbstractMonitor<Number> implements Gauge<Number> {
+
+        private volatile double value;
+
+        ScriptGauge(MonitorConfig config) {
+            super(config.withAdditionalTag(DataSourceType.GAUGE));
+        }
+
+        public void set(double value) {
+            this.value = value;
+        }
+
+        @Override
+        public Number getValue() {
+            return value;
+        }
+    }
+
+}
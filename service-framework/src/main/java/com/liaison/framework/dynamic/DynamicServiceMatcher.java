@@ -0,0 +1,299 @@
+package com.liaison.framework.dynamic;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Dynamic Service Matcher
+ * <p/>
+ * <P>Compiles dynamic service bindings into a prefix trie of path segments, once, so that inbound
+ * dynamic service urls are matched in time proportional to the depth of the path rather than the
+ * number of bindings and operations.
+ * <p/>
+ * Each segment of a binding's base URI plus operation URL becomes a node in the trie.  Literal
+ * segments (ie "multiply") are keyed by value, template segments (ie "{a}", "{id}") share a single
+ * wildcard child per node.  Literal segments take precedence over templates at the same depth.
+ * Nodes terminating an operation hold the operation's allowed HTTP methods, each with the function
+ * it invokes and the validator of the operation's parameter schema (see {@link DynamicParameterValidator}).
+ *
+ * @version 1.0
+ */
+class DynamicServiceMatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(DynamicServiceMatcher.class);
+
+    private final Node root = new Node();
+
+    public DynamicServiceMatcher(DynamicBindings serviceBindings) {
+        for (DynamicBinding db : serviceBindings.bindings) {
+            for (Operation o : db.operations) {
+                add(db, o);
+            }
+        }
+    }
+
+    /**
+     * Matches the given method and path (ie "GET", "/v1/math/multiply/1/2") against compiled bindings
+     *
+     * @return the match, or null if no operation is bound to the path.  A match may still disallow
+     * the given method, see {@link Match#isMethodAllowed()}
+     */
+    public Match match(String method, String path) {
+
+        String[] segments = split(path);
+        Node node = find(root, segments, 0);
+        if (node == null) {
+            return null;
+        }
+
+        Route route = node.routes.get(method.toUpperCase(Locale.ENGLISH));
+        if (route == null) {
+            return new Match(null, null, null, null, node.routes.keySet());
+        }
+
+        String[] parameters = new String[route.parameterPositions.length];
+        for (int i = 0; i < parameters.length; i++) {
+            parameters[i] = segments[route.parameterPositions[i]];
+        }
+
+        if (route.validator == null) {
+            return new Match(route, parameters, parameters, null, node.routes.keySet());
+        }
+        Object[] arguments = new Object[parameters.length];
+        String violation = route.validator.validate(parameters, arguments);
+        return new Match(route, parameters, arguments, violation, node.routes.keySet());
+    }
+
+    private void add(DynamicBinding db, Operation o) {
+
+        String[] segments = split(db.baseURI + "/" + o.operationUrl);
+        String[] baseSegments = split(db.baseURI);
+
+        List<String> parameterNames = new ArrayList<String>();
+        List<Integer> parameterPositions = new ArrayList<Integer>();
+        String function = null;
+
+        Node node = root;
+        for (int i = 0; i < segments.length; i++) {
+            String segment = segments[i];
+            SegmentType type = SegmentType.of(segment);
+            switch (type) {
+                case TEMPLATE:
+                    parameterNames.add(segment.substring(1, segment.length() - 1));
+                    parameterPositions.add(i);
+                    if (node.template == null) {
+                        node.template = new Node();
+                    }
+                    node = node.template;
+                    break;
+                case LITERAL:
+                    // function is the first literal segment of the operation url (ie "multiply")
+                    if (function == null && i >= baseSegments.length) {
+                        function = segment;
+                    }
+                    Node child = node.literals.get(segment);
+                    if (child == null) {
+                        child = new Node();
+                        node.literals.put(segment, child);
+                    }
+                    node = child;
+                    break;
+            }
+        }
+
+        if (function == null) {
+            throw new IllegalArgumentException("Operation " + o.operationUrl + " of " + db.serviceName
+                    + " must begin with a literal function segment.");
+        }
+
+        int[] positions = new int[parameterPositions.size()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = parameterPositions.get(i);
+        }
+
+        String[] names = parameterNames.toArray(new String[parameterNames.size()]);
+        DynamicParameterValidator validator = DynamicParameterValidator.compile(db, o, names);
+        for (String method : o.allowedMethods) {
+            String key = method.toUpperCase(Locale.ENGLISH);
+            Route route = new Route(db, o, key, functionFor(o, method, function), names, positions, validator);
+            Route shadowed = node.routes.put(key, route);
+            if (shadowed != null) {
+                logger.warn(method + " " + o.operationUrl + " of " + db.serviceName + " shadows "
+                        + shadowed.operation.operationUrl + " of " + shadowed.binding.serviceName);
+            }
+        }
+    }
+
+    // the operation may name a function per method, ie {"POST": "create", "DELETE": "remove"}
+    private static String functionFor(Operation o, String method, String function) {
+        if (o.functions != null) {
+            for (Map.Entry<String, String> entry : o.functions.entrySet()) {
+                if (entry.getKey().equalsIgnoreCase(method)) {
+                    return entry.getValue();
+                }
+            }
+        }
+        return function;
+    }
+
+    // depth first, literal before template, backtracking to the template branch if a literal branch dead-ends
+    private static Node find(Node node, String[] segments, int depth) {
+
+        if (depth == segments.length) {
+            return node.routes.isEmpty() ? null : node;
+        }
+
+        Node literal = node.literals.get(segments[depth]);
+        if (literal != null) {
+            Node found = find(literal, segments, depth + 1);
+            if (found != null) {
+                return found;
+            }
+        }
+
+        if (node.template != null) {
+            return find(node.template, segments, depth + 1);
+        }
+
+        return null;
+    }
+
+    // splits on '/', ignoring empty segments (ie leading, trailing, and doubled slashes)
+    static String[] split(String path) {
+
+        List<String> segments = new ArrayList<String>();
+        int start = 0;
+        int length = path.length();
+        for (int i = 0; i <= length; i++) {
+            if (i == length || path.charAt(i) == '/') {
+                if (i > start) {
+                    segments.add(path.substring(start, i));
+                }
+                start = i + 1;
+            }
+        }
+
+        return segments.toArray(new String[segments.size()]);
+    }
+
+    enum SegmentType {
+        LITERAL,
+        TEMPLATE;
+
+        static SegmentType of(String segment) {
+            if (segment.length() > 2 && segment.charAt(0) == '{' && segment.charAt(segment.length() - 1) == '}') {
+                return TEMPLATE;
+            }
+            return LITERAL;
+        }
+    }
+
+    private static class Node {
+        final Map<String, Node> literals = new HashMap<String, Node>();
+        Node template;
+        // allowed HTTP methods of the operation(s) terminating at this node
+        final Map<String, Route> routes = new LinkedHashMap<String, Route>();
+    }
+
+    private static class Route {
+        final DynamicBinding binding;
+        final Operation operation;
+        final String method;
+        final String function;
+        final String[] parameterNames;
+        final int[] parameterPositions;
+        // null if the operation declares no parameter schema
+        final DynamicParameterValidator validator;
+
+        Route(DynamicBinding binding, Operation operation, String method, String function, String[] parameterNames,
+              int[] parameterPositions, DynamicParameterValidator validator) {
+            this.binding = binding;
+            this.operation = operation;
+            this.method = method;
+            this.function = function;
+            this.parameterNames = parameterNames;
+            this.parameterPositions = parameterPositions;
+            this.validator = validator;
+        }
+    }
+
+    /**
+     * Result of matching a path against the compiled bindings
+     */
+    static class Match {
+
+        private final Route route;
+        private final String[] parameters;
+        private final Object[] arguments;
+        private final String violation;
+        private final Set<String> allowedMethods;
+
+        Match(Route route, String[] parameters, Object[] arguments, String violation, Set<String> allowedMethods) {
+            this.route = route;
+            this.parameters = parameters;
+            this.arguments = arguments;
+            this.violation = violation;
+            this.allowedMethods = Collections.unmodifiableSet(allowedMethods);
+        }
+
+        public boolean isMethodAllowed() {
+            return route != null;
+        }
+
+        public Set<String> getAllowedMethods() {
+            return allowedMethods;
+        }
+
+        public DynamicBinding getBinding() {
+            return route == null ? null : route.binding;
+        }
+
+        public Operation getOperation() {
+            return route == null ? null : route.operation;
+        }
+
+        /**
+         * @return the method of the route matched, ie GET for a HEAD request answered by the GET route
+         */
+        public String getMethod() {
+            return route == null ? null : route.method;
+        }
+
+        public String getFunction() {
+            return route == null ? null : route.function;
+        }
+
+        public String[] getParameterNames() {
+            return route == null ? null : route.parameterNames;
+        }
+
+        public String[] getParameters() {
+            return parameters;
+        }
+
+        /**
+         * @return the parameters as passed to the function, coerced to the types of the operation's parameter
+         * schema (if any)
+         */
+        public Object[] getArguments() {
+            return arguments;
+        }
+
+        /**
+         * @return why the parameters violate the operation's parameter schema, or null if they do not
+         */
+        public String getViolation() {
+            return violation;
+        }
+    }
+
+}
@@ -0,0 +1,148 @@
+package com.liaison.framework.dynamic;
+
+import com.google.common.hash.Hashing;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Dynamic Services Landing Page
+ * <p/>
+ * <P>The /dyn landing page, rendered once per {@link DynamicBindingsSnapshot} and held as bytes, along
+ * with a gzip precompressed variant.  Each variant carries a strong ETag derived from its content, so
+ * the tag is stable across restarts and across instances behind a load balancer, and conditional
+ * requests (If-None-Match) for the variant negotiated are answered with 304 Not Modified.
+ *
+ * @version 1.0
+ */
+class DynamicServicesLandingPage {
+
+    private static final String CONTENT_TYPE = "text/html;charset=UTF-8";
+    private static final String GZIP = "gzip";
+
+    private final byte[] html;
+    private final byte[] gzipped;
+    private final String etag;
+    private final String gzipEtag;
+
+    DynamicServicesLandingPage(byte[] html) {
+        this.html = html;
+        this.gzipped = gzip(html);
+        String hash = Hashing.sha1().hashBytes(html).toString();
+        this.etag = "\"" + hash + "\"";
+        // a strong ETag identifies a specific representation, so the gzip variant gets its own
+        this.gzipEtag = "\"" + hash + "-" + GZIP + "\"";
+    }
+
+    static DynamicServicesLandingPage render(String rawConfiguration, DynamicBindings bindings) {
+        String html = DynamicServicesWebPageBuilder.buildHTMLPageFromBindings(rawConfiguration, bindings);
+        return new DynamicServicesLandingPage(html.getBytes(StandardCharsets.UTF_8));
+    }
+
+    void serve(HttpServletRequest request, HttpServletResponse response) throws IOException {
+
+        boolean gzip = acceptsGzip(request.getHeader("Accept-Encoding"));
+        String served = gzip ? gzipEtag : etag;
+
+        response.setHeader("ETag", served);
+        response.setHeader("Vary", "Accept-Encoding");
+        // cached copies must be revalidated, the page changes whenever bindings are reloaded
+        response.setHeader("Cache-Control", "no-cache");
+
+        // only the variant negotiated is not modified, a cached copy of the other may not be usable
+        if (matches(request.getHeader("If-None-Match"), served)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        byte[] body = gzip ? gzipped : html;
+        if (gzip) {
+            response.setHeader("Content-Encoding", GZIP);
+        }
+        response.setContentType(CONTENT_TYPE);
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+    }
+
+    String getETag() {
+        return etag;
+    }
+
+    String getGzipETag() {
+        return gzipEtag;
+    }
+
+    byte[] getHtml() {
+        return html;
+    }
+
+    byte[] getGzipped() {
+        return gzipped;
+    }
+
+    /**
+     * @return true if the If-None-Match header value lists the given tag, or is *.  As per RFC 7232,
+     * If-None-Match uses weak comparison, so W/ prefixes are ignored.
+     */
+    static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals("*") || candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the Accept-Encoding header value accepts gzip, ie not absent or gzip;q=0
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] params = coding.split(";");
+            String name = params[0].trim();
+            if (!name.equalsIgnoreCase(GZIP) && !name.equalsIgnoreCase("x-gzip") && !name.equals("*")) {
+                continue;
+            }
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        return Double.parseDouble(param.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static byte[] gzip(byte[] bytes) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4);
+            GZIPOutputStream gzip = new GZIPOutputStream(out);
+            gzip.write(bytes);
+            gzip.close();
+            return out.toByteArray();
+        } catch (IOException e) {
+            // in-memory streams
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
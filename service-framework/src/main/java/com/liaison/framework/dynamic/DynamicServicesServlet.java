@@ -1,18 +1,26 @@
 package com.liaison.framework.dynamic;
 
-import com.google.gson.Gson;
 import com.google.inject.Singleton;
+import com.liaison.framework.audit.AuditLogger;
+import com.liaison.framework.audit.AuditStatement;
+import com.liaison.framework.audit.hipaa.HIPAAAdminSimplification201303;
+import com.liaison.framework.dynamic.runtime.InvocationTimer;
+import com.liaison.framework.dynamic.runtime.ScriptEnginePoolExhaustedException;
+import com.liaison.framework.dynamic.runtime.ScriptInvoker;
 import com.liaison.framework.util.ServiceUtils;
+import com.netflix.config.DynamicIntProperty;
+import com.netflix.config.DynamicPropertyFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.script.Invocable;
-import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
+import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
 
 /**
  * Dynamic Services Servlet
@@ -30,16 +38,100 @@ public class DynamicServicesServlet extends HttpServlet {
 
     private static final Logger logger = LoggerFactory.getLogger(DynamicServicesServlet.class);
 
+    public static final String STREAM_FLUSH_ELEMENTS_PROP_NAME = "com.liaison.framework.dynamic.stream.flush.elements";
+
+    private static final DynamicIntProperty STREAM_FLUSH_ELEMENTS = DynamicPropertyFactory.getInstance()
+            .getIntProperty(STREAM_FLUSH_ELEMENTS_PROP_NAME, 100);
+
+    // returned by the result handler in place of a result it has already streamed
+    private static final Object STREAMED = new Object();
+
+    private final DynamicBindingsRegistry registry;
+
+    public DynamicServicesServlet() {
+        this(null);
+    }
+
+    /**
+     * @param registry registry to serve, rather than the global one (ie in tests)
+     */
+    DynamicServicesServlet(DynamicBindingsRegistry registry) {
+        this.registry = registry;
+    }
+
+    private DynamicBindingsRegistry getRegistry() {
+        return registry != null ? registry : DynamicBindingsRegistry.getInstance();
+    }
+
+    @Override
+    public void init() throws ServletException {
+        // load bindings eagerly, rather than on the first request
+        getRegistry();
+        DynamicScriptExecutor.getInstance();
+    }
+
+    @Override
+    public void destroy() {
+        getRegistry().shutdown();
+        DynamicScriptExecutor.getInstance().shutdown();
+    }
+
+    /**
+     * Runs a batch of invocations posted to /dyn/_batch, see {@link DynamicBatch}
+     */
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+
+        if (DynamicBatch.PATH.equals(request.getPathInfo())) {
+            DynamicBatch.run(getRegistry().getSnapshot(), request, response);
+            return;
+        }
+
+        dispatch(request, response);
+    }
+
     public void doGet(HttpServletRequest request, HttpServletResponse response)
             throws IOException {
+        dispatch(request, response);
+    }
 
-        // TODO:  Probably shouldn't build and load every time, but don't want to cache and hold indefinitely either
-        // needs to be updatable in real-time
-        // for now, always expect com.liaison.service config here under classpath
-        String rawBindingConfiguration = ServiceUtils.readFileFromClassPath("/bindings.json");
+    @Override
+    protected void doPut(HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        dispatch(request, response);
+    }
 
-        // parse com.liaison.service configuration
-        DynamicBindings serviceBindings = new Gson().fromJson(rawBindingConfiguration, DynamicBindings.class);
+    @Override
+    protected void doDelete(HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        dispatch(request, response);
+    }
+
+    @Override
+    protected void service(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+
+        // HttpServlet has no doPatch
+        if (request.getMethod().equals("PATCH")) {
+            dispatch(request, response);
+            return;
+        }
+
+        super.service(request, response);
+    }
+
+    /**
+     * Routes the request to the operation bound to its path and method, per the operation's allowedMethods
+     * (HEAD requests falling back to GET).  Requests of methods carrying a body (see
+     * {@link DynamicRequestBody#hasBody(String)}) pass the function the request body as an extra, last
+     * argument, to read incrementally.
+     */
+    private void dispatch(HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+
+        // hold a single snapshot for the duration of the request, so a concurrent reload is never observed
+        DynamicBindingsSnapshot snapshot = getRegistry().getSnapshot();
 
         // ie if http://localhost:8989/hello-world/dyn/foo/bar/baz, then /foo/bar/baz
         String path = request.getPathInfo();
@@ -47,109 +139,301 @@ public class DynamicServicesServlet extends HttpServlet {
         // if no path info, show landing page information
         if (path == null || path.equals("/")) {
 
-            // TODO: Probably shouldn't build every time...
-            String html = DynamicServicesWebPageBuilder.buildHTMLPageFromBindings(rawBindingConfiguration, serviceBindings);
-            response.getWriter().print(html);
+            if (!request.getMethod().equals("GET") && !request.getMethod().equals("HEAD")) {
+                response.setHeader("Allow", "GET, HEAD");
+                response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+                return;
+            }
+
+            // rendered once per snapshot, and answers conditional requests with 304
+            snapshot.getLandingPage().serve(request, response);
 
             return;
         }
 
         // match incoming url with service
-        DynamicServiceMatcher dsm = new DynamicServiceMatcher(serviceBindings, path);
+        long start = System.nanoTime();
+        String method = request.getMethod();
+        DynamicServiceMatcher.Match match = snapshot.getMatcher().match(method, path);
 
-        // read in JavaScript contents
-        String scriptContents = ServiceUtils.readFileFromClassPath(dsm.matchedBinding.scriptLocation);
-        logger.info("Script contents:\n" + scriptContents);
+        if (match != null && !match.isMethodAllowed() && method.equals("HEAD") && match.getAllowedMethods().contains("GET")) {
+            match = snapshot.getMatcher().match("GET", path);
+        }
 
-        ScriptEngineManager manager = new ScriptEngineManager();
+        if (match == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "No dynamic service bound to " + path);
+            return;
+        }
 
-        // Obtain a ScriptEngine that supports the JavaScript short name.
-        ScriptEngine engine = manager.getEngineByName("JavaScript");
+        if (!match.isMethodAllowed()) {
+            response.setHeader("Allow", ServiceUtils.formatArrayAsString(match.getAllowedMethods().toArray(), ", "));
+            response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+            return;
+        }
 
-        // Evaluate the script.
-        Object result = null;
-        try {
-            engine.eval(scriptContents);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Matched " + path + " with spec " + match.getBinding().baseURI + match.getOperation().operationUrl);
+        }
 
-            Invocable invocable = (Invocable) engine;
+        // turned away before taking any of the binding's capacity
+        if (match.getViolation() != null) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, match.getViolation());
+            return;
+        }
 
-            result = invocable.invokeFunction(dsm.matchedFunction, dsm.matchedParameters[0], dsm.matchedParameters[1]);
+        long matchNanos = System.nanoTime() - start;
 
-            logger.info("Result of invocable is " + result);
+        // streamed to the function, never buffered here
+        DynamicRequestBody body = DynamicRequestBody.hasBody(method) ? DynamicRequestBody.of(request) : null;
 
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+        // results of cacheable operations are served without invoking, or even admitting to, the binding.  Only
+        // reads are cached, a write (or anything depending on a request body) always reaches its function
+        DynamicResultCache cache = body == null ? snapshot.getResultCache(match) : null;
+        String cached = cache == null ? null : cache.get(match.getFunction(), match.getParameters());
+        if (cached != null) {
+            serveCached(snapshot.getOperationMonitors(match.getOperation()), match, cached, start, matchNanos, response);
+            return;
+        }
+
+        // admit the request to the binding, turning it away rather than tying up a thread if the binding is at capacity
+        DynamicBulkhead bulkhead = snapshot.getBulkhead(match.getBinding());
+        if (bulkhead != null && !enter(bulkhead)) {
+            response.setHeader("Retry-After", String.valueOf(bulkhead.getRetryAfterSeconds()));
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                    "Dynamic service " + bulkhead.getServiceName() + " is at capacity");
+            return;
         }
 
-        //String html = "<html><body>URL:  {pathInfo}<br>Method:  {Method}<br></body></html>";
-        //html = html.replace("{pathInfo}", "Path info:  " + path);
-        //html = html.replace("{match}", "false");
+        try {
+            invoke(snapshot, match, body, cache, start, matchNanos, response);
+        } finally {
+            if (bulkhead != null) {
+                bulkhead.exit();
+            }
+        }
+    }
+
+    static boolean enter(DynamicBulkhead bulkhead) {
+        try {
+            return bulkhead.tryEnter();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
 
-        String json = "[\n" + "  {\"Function\": \"" + dsm.matchedFunction + "\"},\n";
-        json += "  {\"Parameters\": \"" + ServiceUtils.formatArrayAsString(dsm.matchedParameters, ",") + "\"},\n";
-        json += "  {\"Result\": \"" + result + "\"}\n";
-        json += "]";
+    private void invoke(DynamicBindingsSnapshot snapshot, DynamicServiceMatcher.Match match, DynamicRequestBody body,
+                        DynamicResultCache cache, long start, long matchNanos, HttpServletResponse response)
+            throws IOException {
 
+        DynamicOperationMonitors monitors = snapshot.getOperationMonitors(match.getOperation());
+        monitors.begin(matchNanos);
+        try {
 
-        response.getWriter().print(json);
+            ScriptInvoker invoker = snapshot.getInvoker(match.getBinding());
+
+            // Invoke the function on the binding's runtime (ie a pooled, precompiled script engine)
+            Object result = null;
+            ResponseStream stream = new ResponseStream(response);
+            try {
+                result = invoke(invoker, monitors, match, body, streamer(monitors, match, stream));
+            } catch (ScriptEnginePoolExhaustedException e) {
+                monitors.error();
+                logger.warn(e.getMessage());
+                response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                return;
+            } catch (ScriptBudgetExceededException e) {
+                monitors.error();
+                String message = "Cancelled " + match.getFunction() + " of dynamic service "
+                        + match.getBinding().serviceName + ": " + e.getMessage();
+                logger.warn(message);
+                AuditLogger.log(HIPAAAdminSimplification201303.HIPAA_AS_C_164_306_a1, AuditStatement.Status.FAILED, message);
+                if (response.isCommitted()) {
+                    // cancelled part way through streaming its result, so all that's left is to abort the response
+                    throw new IOException(message, e);
+                }
+                response.sendError(HttpServletResponse.SC_GATEWAY_TIMEOUT);
+                return;
+            } catch (IOException e) {
+                // ie the client went away while a result was streamed
+                monitors.error();
+                throw e;
+            } catch (Exception e) {
+                monitors.error();
+                if (response.isCommitted()) {
+                    // failed part way through streaming its result, which is left unterminated, so all that's left
+                    // is to abort the response for the client to see it is incomplete
+                    throw new IOException("Failed " + match.getFunction() + " of dynamic service "
+                            + match.getBinding().serviceName + " part way through its result", e);
+                }
+                throw new RuntimeException(e);
+            } finally {
+                // ie a budgeted invocation given up on may still be streaming from the executor
+                stream.detach();
+            }
 
-    }
+            if (result == STREAMED) {
+                return;
+            }
 
+            // stream the response, rather than materializing (potentially large) results as a String
+            long serializeStart = System.nanoTime();
+            try {
+                response.setContentType(DynamicResponseEncoder.CONTENT_TYPE);
+                if (cache == null) {
+                    DynamicResponseEncoder.write(response.getOutputStream(), match.getFunction(), match.getParameters(), result);
+                } else {
+                    // cached encoded, rather than as a (live) script object
+                    String encoded = DynamicResponseEncoder.encode(result);
+                    cache.put(match.getFunction(), match.getParameters(), encoded);
+                    DynamicResponseEncoder.writeEncoded(response.getOutputStream(), match.getFunction(),
+                            match.getParameters(), encoded);
+                }
+            } catch (IOException | RuntimeException e) {
+                monitors.error();
+                throw e;
+            } finally {
+                monitors.recordSerialize(System.nanoTime() - serializeStart);
+            }
 
-    // TODO this is a quick and dirty (and buggy) way to match inbound dynamic service urls to a service specification
-    // TODO and implementation for the purpose of demonstrating a Proof Of Concept for dynamic services.  Need to move
-    // TODO towards using a WADL to leverage existing tools, documentation, and knowledge.  NetFlix has a similar notion
-    // TODO of dynamic endpoints but it doesn't seem to have been released as open source as of this time.
-    class DynamicServiceMatcher {
+        } finally {
+            monitors.end(System.nanoTime() - start);
+        }
+    }
 
-        DynamicBinding matchedBinding = null;
-        String matchedFunction = null;
-        String[] matchedParameters = null;
+    private static void serveCached(DynamicOperationMonitors monitors, DynamicServiceMatcher.Match match, String cached,
+                                    long start, long matchNanos, HttpServletResponse response) throws IOException {
+        monitors.begin(matchNanos);
+        try {
+            response.setContentType(DynamicResponseEncoder.CONTENT_TYPE);
+            DynamicResponseEncoder.writeEncoded(response.getOutputStream(), match.getFunction(), match.getParameters(), cached);
+        } catch (IOException | RuntimeException e) {
+            monitors.error();
+            throw e;
+        } finally {
+            monitors.end(System.nanoTime() - start);
+        }
+    }
 
-        private final Logger logger = LoggerFactory.getLogger(DynamicServicesServlet.class);
+    /**
+     * @return a handler streaming results produced element by element (see {@link DynamicResponseEncoder#streamOf})
+     * to the client as a JSON array, before the runtime releases the script engine producing them, and passing
+     * any other result back as is.  Elements are only produced as fast as the client takes them, and since
+     * they are produced as they are written, the operation's budgets cover writing them too.  Streamed results
+     * are never cached.
+     */
+    private static ScriptInvoker.ResultHandler streamer(final DynamicOperationMonitors monitors,
+                                                        final DynamicServiceMatcher.Match match,
+                                                        final ResponseStream stream) {
+        return new ScriptInvoker.ResultHandler() {
+            @Override
+            public Object handle(Object result) throws Exception {
+                Iterator<?> elements = DynamicResponseEncoder.streamOf(result);
+                if (elements == null) {
+                    return result;
+                }
 
-        public DynamicServiceMatcher(DynamicBindings serviceBindings, String path) {
+                long serializeStart = System.nanoTime();
+                try {
+                    DynamicResponseEncoder.writeStream(stream, match.getFunction(), match.getParameters(), elements,
+                            Math.max(1, STREAM_FLUSH_ELEMENTS.get()));
+                } finally {
+                    monitors.recordSerialize(System.nanoTime() - serializeStart);
+                    if (result instanceof AutoCloseable) {
+                        ((AutoCloseable) result).close();
+                    }
+                }
+                return STREAMED;
+            }
+        };
+    }
 
-            // lazy load of service match
-            // TODO prefer eager-loading/parsing of service binding information
-            // TODO also note this is a quick and dirty proof of concept... there are bugs.
-            // TODO need to move to WADL based url matching and validation, and use bindings
-            // TODO only for binding wadl-to-JS and security
+    /**
+     * Invokes the matched function, on the script executor if the operation has a wall-clock or CPU-time budget
+     *
+     * @param body    the request body, or null if the request's method carries none
+     * @param handler handles the result before the runtime releases the script engine that produced it
+     * @return the handler's return value
+     */
+    static Object invoke(final ScriptInvoker invoker, final InvocationTimer timer,
+                         final DynamicServiceMatcher.Match match, DynamicRequestBody body,
+                         final ScriptInvoker.ResultHandler handler) throws Exception {
+
+        long timeoutNanos = DynamicScriptExecutor.timeoutNanos(match.getOperation());
+        long cpuBudgetNanos = DynamicScriptExecutor.cpuBudgetNanos(match.getOperation());
+        final Object[] arguments = arguments(match, body);
+
+        if (timeoutNanos <= 0 && cpuBudgetNanos <= 0) {
+            return invoker.invoke(timer, handler, match.getFunction(), arguments);
+        }
 
-            for (DynamicBinding db : serviceBindings.bindings) {
-                // pathInfo = /v1/math/multiply/1/2
-                if (path.startsWith(db.baseURI)) {
-                    logger.info("Found possible match (" + db.serviceName + ") for " + path + "... checking available operations.");
-                    for (Operation o : db.operations) {
-                        String spec = db.baseURI + o.operationUrl;
-                        // ... as a quick and dirty, just remove the params to see if we have a match
-                        // TODO this is just to demo a POC... use WADL to match and apply template parameters
-                        spec = spec.substring(0, spec.indexOf('{'));
+        return DynamicScriptExecutor.getInstance().invoke(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return invoker.invoke(timer, handler, match.getFunction(), arguments);
+            }
+        }, timeoutNanos, cpuBudgetNanos);
+    }
 
-                        if (path.startsWith(spec)) {
-                            logger.info("Matched " + path + " with spec " + db.baseURI + o.operationUrl);
-                            // now check for parameters
-                            String tail = path.replaceFirst(spec, ""); // should be empty or parameters
-                            String[] params = tail.split("/");
+    /**
+     * @return the function's arguments, the path parameters (coerced per the operation's parameter schema) followed
+     * by the request body (if any)
+     */
+    static Object[] arguments(DynamicServiceMatcher.Match match, DynamicRequestBody body) {
+        Object[] parameters = match.getArguments();
+        if (body == null) {
+            return parameters;
+        }
+        Object[] arguments = new Object[parameters.length + 1];
+        System.arraycopy(parameters, 0, arguments, 0, parameters.length);
+        arguments[parameters.length] = body;
+        return arguments;
+    }
 
-                            matchedBinding = db;
-                            matchedParameters = params;
+    /**
+     * Response output stream for results streamed by the result handler, possibly from a script executor
+     * thread.  Once detached (as the request thread finishes with the invocation) it refuses to write, so
+     * that an invocation given up on never writes to a response the container has taken back.
+     */
+    private static class ResponseStream extends OutputStream {
 
-                            // hacky... just for POC  (much cleaner to separate function and template parameters in configuration)
-                            logger.info(o.operationUrl + ", " + o.operationUrl.split("/")[1]);
-                            matchedFunction = o.operationUrl.split("/")[1];
-                            logger.info("Function: " + matchedFunction);
+        private final HttpServletResponse response;
+        private OutputStream out;
+        private boolean detached;
 
+        ResponseStream(HttpServletResponse response) {
+            this.response = response;
+        }
 
-                        }
-                    }
-                }
+        synchronized void detach() {
+            detached = true;
+        }
 
+        private OutputStream out() throws IOException {
+            if (detached) {
+                throw new IOException("Response no longer available to the invocation");
+            }
+            if (out == null) {
+                response.setContentType(DynamicResponseEncoder.CONTENT_TYPE);
+                out = response.getOutputStream();
             }
+            return out;
+        }
 
+        @Override
+        public synchronized void write(int b) throws IOException {
+            out().write(b);
+        }
 
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            out().write(b, off, len);
         }
 
+        @Override
+        public synchronized void flush() throws IOException {
+            out().flush();
+        }
     }
 
-}
\ No newline at end of file
+}
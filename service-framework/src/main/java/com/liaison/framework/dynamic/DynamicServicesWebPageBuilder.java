@@ -2,16 +2,30 @@ package com.liaison.framework.dynamic;
 
 import com.liaison.framework.util.ServiceUtils;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Dynamic Services Web Page Builder
  * <p/>
  * <P>Quick and dirty templating for the dynamic services landing page
+ * <p/>
+ * Templates are read from the classpath and split on their {{tokens}} once, and each page is rendered
+ * in a single pass.  Pages are rendered once per bindings snapshot, see {@link DynamicServicesLandingPage}.
  *
  * @author Robert.Christian
  * @version 1.0
  */
 public class DynamicServicesWebPageBuilder {
 
+    private static class Templates {
+        private static final Template LANDING = Template.load("/dyn/services-landing.template.html");
+        private static final Template SERVICE = Template.load("/dyn/services-detail.template.html");
+        private static final Template OPERATION = Template.load("/dyn/operations-detail.template.html");
+    }
+
     /**
      * Builds a landing page for Dynamic Services
      *
@@ -19,46 +33,91 @@ public class DynamicServicesWebPageBuilder {
      */
     public static String buildHTMLPageFromBindings(String rawBindingConfiguration, DynamicBindings dynamicBindings) {
 
-        // read landing page template
-        StringBuilder template = new StringBuilder(ServiceUtils.readFileFromClassPath("/dyn/services-landing.template.html"));
-
-        // swap raw pretty config token
-        ServiceUtils.replaceAll(template, "{{rawConfigJSON}}", ServiceUtils.prettifyJSON(rawBindingConfiguration));
-
-        // build and swap parsed services section
+        // build parsed services section
         StringBuilder serviceDetail = new StringBuilder();
         for (DynamicBinding db : dynamicBindings.bindings) {
-            serviceDetail.append(bindingToHTML((db)));
+            bindingToHTML(db, serviceDetail);
         }
 
-        ServiceUtils.replaceAll(template, "{{parsedConfiguration}}", serviceDetail.toString());
+        Map<String, String> values = new HashMap<String, String>();
+        values.put("rawConfigJSON", ServiceUtils.prettifyJSON(rawBindingConfiguration));
+        values.put("parsedConfiguration", serviceDetail.toString());
 
-        return template.toString();
+        StringBuilder page = new StringBuilder();
+        Templates.LANDING.render(values, page);
+        return page.toString();
 
     }
 
-    private static String bindingToHTML(DynamicBinding db) {
-
-        String parsed = ServiceUtils.readFileFromClassPath("/dyn/services-detail.template.html");
-        parsed = parsed.replace("{{binding-title}}", db.serviceName);
-        parsed = parsed.replace("{{written-by}}", db.about.author);
-        parsed = parsed.replace("{{description}}", db.about.description);
-        parsed = parsed.replace("{{base-uri}}", db.baseURI);
-        parsed = parsed.replace("{{script-location}}", db.scriptLocation);
+    private static void bindingToHTML(DynamicBinding db, StringBuilder out) {
 
         StringBuilder operationSB = new StringBuilder();
+        Map<String, String> operationValues = new HashMap<String, String>();
         for (Operation o : db.operations) {
-            String operationTemplate = ServiceUtils.readFileFromClassPath("/dyn/operations-detail.template.html");
-            operationTemplate = operationTemplate.replace("{{operation-url}}", o.operationUrl);
-            String allowedMethods = ServiceUtils.formatArrayAsString(o.allowedMethods, " | ");
-            operationTemplate = operationTemplate.replace("{{allowed-http-methods}}", allowedMethods);
-            operationSB.append(operationTemplate);
+            operationValues.put("operation-url", o.operationUrl);
+            operationValues.put("allowed-http-methods", ServiceUtils.formatArrayAsString(o.allowedMethods, " | "));
+            Templates.OPERATION.render(operationValues, operationSB);
         }
 
-        parsed = parsed.replace("{{operation-rows}}", operationSB.toString());
+        Map<String, String> values = new HashMap<String, String>();
+        values.put("binding-title", db.serviceName);
+        values.put("written-by", db.about.author);
+        values.put("description", db.about.description);
+        values.put("base-uri", db.baseURI);
+        values.put("script-location", db.scriptLocation == null ? "(" + db.runtime + " runtime)" : db.scriptLocation);
+        values.put("operation-rows", operationSB.toString());
+
+        Templates.SERVICE.render(values, out);
 
-        return parsed;
+    }
+
+    /**
+     * Template pre-split into alternating literal text and token names, ie "a{{b}}c" is [a, b, c].
+     * Unknown tokens are rendered as is.
+     */
+    static class Template {
+
+        private static final String OPEN = "{{";
+        private static final String CLOSE = "}}";
+
+        private final String[] parts;
+
+        Template(String text) {
+            List<String> parts = new ArrayList<String>();
+            int from = 0;
+            int open = text.indexOf(OPEN);
+            while (open != -1) {
+                int close = text.indexOf(CLOSE, open + OPEN.length());
+                if (close == -1) {
+                    break;
+                }
+                parts.add(text.substring(from, open));
+                parts.add(text.substring(open + OPEN.length(), close));
+                from = close + CLOSE.length();
+                open = text.indexOf(OPEN, from);
+            }
+            parts.add(text.substring(from));
+            this.parts = parts.toArray(new String[parts.size()]);
+        }
+
+        static Template load(String path) {
+            return new Template(ServiceUtils.readFileFromClassPath(path));
+        }
 
+        void render(Map<String, String> values, StringBuilder out) {
+            for (int i = 0; i < parts.length; i++) {
+                if (i % 2 == 0) {
+                    out.append(parts[i]);
+                } else {
+                    String value = values.get(parts[i]);
+                    if (value == null) {
+                        out.append(OPEN).append(parts[i]).append(CLOSE);
+                    } else {
+                        out.append(value);
+                    }
+                }
+            }
+        }
     }
 
 }
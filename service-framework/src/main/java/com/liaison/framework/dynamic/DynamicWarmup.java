@@ -0,0 +1,230 @@
+package com.liaison.framework.dynamic;
+
+import com.liaison.framework.dynamic.runtime.InvocationTimer;
+import com.liaison.framework.dynamic.runtime.ScriptInvoker;
+import com.netflix.config.DynamicIntProperty;
+import com.netflix.config.DynamicPropertyFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dynamic Warm-up
+ * <p/>
+ * <P>Warms up every binding of a bindings snapshot before the snapshot goes into service, so that the
+ * first requests after a deploy or reload do not pay for starting a script engine, compiling the
+ * script, and running it cold.  Each binding is preloaded (see {@link ScriptInvoker#preload()}), then
+ * the sample calls declared by its operations are made {@link #ITERATIONS_PROP_NAME} times each:
+ * <pre>
+ * {"operationUrl": "/foo/{id}", "allowedMethods": ["GET", "PUT"],
+ *  "warmup": [{"parameters": {"id": "1"}}, {"method": "PUT", "parameters": {"id": "1"}, "body": "{\"a\": 1}"}]}
+ * </pre>
+ * Sample calls take the path of a request, through the matcher, the script executor's budgets and the
+ * response encoder, with the results discarded.  They are real invocations, so should not have side
+ * effects that matter.  A failed sample call is logged and counted, but a binding that cannot be
+ * preloaded fails the load.
+ * <p/>
+ * The time taken per binding is reported on the admin port, see
+ * {@link com.liaison.framework.dynamic.admin.DynamicBindingsResource}.
+ *
+ * @version 1.0
+ */
+public class DynamicWarmup {
+
+    private static final Logger logger = LoggerFactory.getLogger(DynamicWarmup.class);
+
+    public static final String ITERATIONS_PROP_NAME = "com.liaison.framework.dynamic.warmup.iterations";
+
+    private static final DynamicIntProperty ITERATIONS = DynamicPropertyFactory.getInstance()
+            .getIntProperty(ITERATIONS_PROP_NAME, 20);
+
+    private static final InvocationTimer UNTIMED = new InvocationTimer() {
+        @Override
+        public void recordAcquire(long nanos) {
+        }
+
+        @Override
+        public void recordInvoke(long nanos) {
+        }
+    };
+
+    private static final OutputStream DISCARD = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    private final List<Result> results;
+
+    private DynamicWarmup(List<Result> results) {
+        this.results = Collections.unmodifiableList(results);
+    }
+
+    /**
+     * @return results per binding, in the order configured
+     */
+    public Collection<Result> getResults() {
+        return results;
+    }
+
+    /**
+     * @throws RuntimeException if a binding cannot be preloaded
+     */
+    static DynamicWarmup run(DynamicBindings bindings, DynamicServiceMatcher matcher,
+                             Map<DynamicBinding, ScriptInvoker> invokers) {
+
+        int iterations = Math.max(0, ITERATIONS.get());
+        Map<DynamicBinding, Result> results = new LinkedHashMap<DynamicBinding, Result>();
+        for (DynamicBinding db : bindings.bindings) {
+            if (results.containsKey(db)) {
+                continue;
+            }
+            ScriptInvoker invoker = invokers.get(db);
+
+            long start = System.nanoTime();
+            try {
+                invoker.preload();
+            } catch (Exception e) {
+                throw new RuntimeException("Error preloading " + db.serviceName + ".", e);
+            }
+            long preloadNanos = System.nanoTime() - start;
+
+            int calls = 0;
+            int errors = 0;
+            for (Operation o : db.operations) {
+                if (o.warmup == null) {
+                    continue;
+                }
+                for (Warmup warmup : o.warmup) {
+                    for (int i = 0; i < iterations; i++) {
+                        calls++;
+                        try {
+                            call(matcher, invoker, db, o, warmup);
+                        } catch (Exception e) {
+                            errors++;
+                            // once per sample call, rather than per iteration
+                            if (i == 0) {
+                                logger.warn("Error warming up " + o.operationUrl + " of " + db.serviceName, e);
+                            }
+                        }
+                    }
+                }
+            }
+
+            Result result = new Result(db.serviceName, TimeUnit.NANOSECONDS.toMillis(preloadNanos),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), calls, errors);
+            results.put(db, result);
+            logger.info("Warmed up " + db.serviceName + " in " + result.getDurationMillis() + "ms (preload "
+                    + result.getPreloadMillis() + "ms, " + calls + " calls, " + errors + " errors)");
+        }
+        return new DynamicWarmup(new ArrayList<Result>(results.values()));
+    }
+
+    private static void call(DynamicServiceMatcher matcher, ScriptInvoker invoker, DynamicBinding db, Operation o,
+                             Warmup warmup) throws Exception {
+
+        String method = warmup.method != null ? warmup.method.toUpperCase(Locale.ENGLISH) : o.allowedMethods[0];
+        String path = path(db, o, warmup);
+        final DynamicServiceMatcher.Match match = matcher.match(method, path);
+        if (match == null || !match.isMethodAllowed() || match.getBinding() != db) {
+            throw new IllegalArgumentException(method + " " + path + " does not match " + o.operationUrl);
+        }
+        if (match.getViolation() != null) {
+            throw new IllegalArgumentException(match.getViolation());
+        }
+
+        DynamicRequestBody body = null;
+        if (warmup.body != null) {
+            byte[] bytes = warmup.body.getBytes(StandardCharsets.UTF_8);
+            body = new DynamicRequestBody(new ByteArrayInputStream(bytes), "application/json", StandardCharsets.UTF_8,
+                    bytes.length);
+        }
+
+        DynamicServicesServlet.invoke(invoker, UNTIMED, match, body, new ScriptInvoker.ResultHandler() {
+            @Override
+            public Object handle(Object result) throws Exception {
+                DynamicResponseEncoder.write(DISCARD, match.getFunction(), match.getParameters(), result);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * @return the operation url under the binding's base uri, with the sample call's parameters in place of its
+     * template segments
+     */
+    static String path(DynamicBinding db, Operation o, Warmup warmup) {
+        StringBuilder path = new StringBuilder();
+        for (String segment : DynamicServiceMatcher.split(db.baseURI + "/" + o.operationUrl)) {
+            if (DynamicServiceMatcher.SegmentType.of(segment) == DynamicServiceMatcher.SegmentType.TEMPLATE) {
+                String name = segment.substring(1, segment.length() - 1);
+                String value = warmup.parameters == null ? null : warmup.parameters.get(name);
+                if (value == null) {
+                    throw new IllegalArgumentException("No value for parameter " + name + " of " + o.operationUrl);
+                }
+                segment = value;
+            }
+            path.append('/').append(segment);
+        }
+        return path.toString();
+    }
+
+    public static class Result {
+
+        private final String serviceName;
+        private final long preloadMillis;
+        private final long durationMillis;
+        private final int calls;
+        private final int errors;
+
+        Result(String serviceName, long preloadMillis, long durationMillis, int calls, int errors) {
+            this.serviceName = serviceName;
+            this.preloadMillis = preloadMillis;
+            this.durationMillis = durationMillis;
+            this.calls = calls;
+            this.errors = errors;
+        }
+
+        public String getServiceName() {
+            return serviceName;
+        }
+
+        /**
+         * @return time spent preparing the binding, ie compiling its script
+         */
+        public long getPreloadMillis() {
+            return preloadMillis;
+        }
+
+        /**
+         * @return total time spent warming up the binding, preload included
+         */
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        public int getCalls() {
+            return calls;
+        }
+
+        public int getErrors() {
+            return errors;
+        }
+    }
+
+}
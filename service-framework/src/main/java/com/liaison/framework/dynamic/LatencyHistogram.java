@@ -0,0 +1,84 @@
+package com.liaison.framework.dynamic;
+
+import com.netflix.servo.monitor.BasicCounter;
+import com.netflix.servo.monitor.CompositeMonitor;
+import com.netflix.servo.monitor.Monitor;
+import com.netflix.servo.monitor.MonitorConfig;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency Histogram
+ * <p/>
+ * <P>Fixed bucket latency histogram, published as one counter per bucket (tagged with the bucket's
+ * upper bound, ie bucket=10ms) plus an overflow bucket.  Recording is a scan over the bucket bounds
+ * and a counter increment, with no allocation.
+ *
+ * @version 1.0
+ */
+class LatencyHistogram implements CompositeMonitor<Long> {
+
+    // upper bounds, in milliseconds
+    private static final long[] BOUNDS_MILLIS = {1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+    private final MonitorConfig config;
+    private final long[] bounds;
+    private final BasicCounter[] buckets;
+    private final List<Monitor<?>> monitors;
+
+    LatencyHistogram(MonitorConfig config) {
+        this.config = config;
+        this.bounds = new long[BOUNDS_MILLIS.length];
+        this.buckets = new BasicCounter[BOUNDS_MILLIS.length + 1];
+
+        List<Monitor<?>> monitors = new ArrayList<Monitor<?>>();
+        for (int i = 0; i < BOUNDS_MILLIS.length; i++) {
+            bounds[i] = TimeUnit.MILLISECONDS.toNanos(BOUNDS_MILLIS[i]);
+            buckets[i] = bucket(BOUNDS_MILLIS[i] + "ms");
+            monitors.add(buckets[i]);
+        }
+        buckets[BOUNDS_MILLIS.length] = bucket("overflow");
+        monitors.add(buckets[BOUNDS_MILLIS.length]);
+
+        this.monitors = Collections.unmodifiableList(monitors);
+    }
+
+    private BasicCounter bucket(String bucket) {
+        return new BasicCounter(MonitorConfig.builder(config.getName()).withTags(config.getTags())
+                .withTag("bucket", bucket).build());
+    }
+
+    void record(long nanos) {
+        int i = 0;
+        while (i < bounds.length && nanos > bounds[i]) {
+            i++;
+        }
+        buckets[i].increment();
+    }
+
+    @Override
+    public List<Monitor<?>> getMonitors() {
+        return monitors;
+    }
+
+    /**
+     * @return total number of recorded samples
+     */
+    @Override
+    public Long getValue() {
+        long count = 0;
+        for (BasicCounter bucket : buckets) {
+            count += bucket.getValue().longValue();
+        }
+        return count;
+    }
+
+    @Override
+    public MonitorConfig getConfig() {
+        return config;
+    }
+
+}
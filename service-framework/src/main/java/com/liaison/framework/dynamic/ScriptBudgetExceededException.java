@@ -0,0 +1,28 @@
+package com.liaison.framework.dynamic;
+
+/**
+ * Thrown when a dynamic service invocation exceeds its wall-clock or CPU-time budget, and is cancelled
+ *
+ * @version 1.0
+ */
+public class ScriptBudgetExceededException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public enum Budget {
+        WALL_CLOCK,
+        CPU_TIME
+    }
+
+    private final Budget budget;
+
+    public ScriptBudgetExceededException(Budget budget, String message) {
+        super(message);
+        this.budget = budget;
+    }
+
+    public Budget getBudget() {
+        return budget;
+    }
+
+}
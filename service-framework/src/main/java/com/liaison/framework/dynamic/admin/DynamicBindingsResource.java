@@ -0,0 +1,165 @@
+package com.liaison.framework.dynamic.admin;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.liaison.framework.dynamic.DynamicBindingsRegistry;
+import com.liaison.framework.dynamic.DynamicBindingsSnapshot;
+import com.liaison.framework.dynamic.DynamicBulkhead;
+import com.liaison.framework.dynamic.DynamicResultCache;
+import com.liaison.framework.dynamic.DynamicWarmup;
+import com.netflix.adminresources.resources.KaryonAdminResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Dynamic Bindings Resource
+ * <p/>
+ * <P>Admin port view of the current dynamic bindings snapshot, its live bulkhead occupancy, result
+ * cache effectiveness and warm-up times, and trigger for reloading it.
+ * <p/>
+ * Served by the karyon admin container when this package is listed in
+ * netflix.platform.admin.resources.packages.
+ *
+ * @version 1.0
+ */
+@Path("/webadmin/dyn")
+@Produces(MediaType.APPLICATION_JSON)
+public class DynamicBindingsResource {
+
+    private static final Logger logger = LoggerFactory.getLogger(DynamicBindingsResource.class);
+
+    @GET
+    public Response getBindings() {
+        return Response.ok(toJson(new SnapshotData(DynamicBindingsRegistry.getInstance().getSnapshot()))).build();
+    }
+
+    @GET
+    @Path("bulkheads")
+    public Response getBulkheads() {
+        List<BulkheadData> bulkheads = new ArrayList<BulkheadData>();
+        for (DynamicBulkhead bulkhead : DynamicBindingsRegistry.getInstance().getSnapshot().getBulkheads()) {
+            bulkheads.add(new BulkheadData(bulkhead));
+        }
+        return Response.ok(toJson(bulkheads)).build();
+    }
+
+    @GET
+    @Path("caches")
+    public Response getResultCaches() {
+        List<CacheData> caches = new ArrayList<CacheData>();
+        for (DynamicResultCache cache : DynamicBindingsRegistry.getInstance().getSnapshot().getResultCaches()) {
+            caches.add(new CacheData(cache));
+        }
+        return Response.ok(toJson(caches)).build();
+    }
+
+    @GET
+    @Path("warmup")
+    public Response getWarmup() {
+        List<WarmupData> warmup = new ArrayList<WarmupData>();
+        for (DynamicWarmup.Result result : DynamicBindingsRegistry.getInstance().getSnapshot().getWarmup().getResults()) {
+            warmup.add(new WarmupData(result));
+        }
+        return Response.ok(toJson(warmup)).build();
+    }
+
+    @POST
+    @Path("reload")
+    public Response reload() {
+        try {
+            return Response.ok(toJson(new SnapshotData(DynamicBindingsRegistry.getInstance().reload()))).build();
+        } catch (RuntimeException e) {
+            logger.error("Error reloading dynamic bindings from admin port", e);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(toJson(e.getMessage())).build();
+        }
+    }
+
+    private static String toJson(Object data) {
+        GsonBuilder gsonBuilder = new GsonBuilder().serializeNulls();
+        Gson gson = gsonBuilder.create();
+        return gson.toJson(new KaryonAdminResponse(data));
+    }
+
+    private static class SnapshotData {
+
+        private final long version;
+        private final long loadedAt;
+        private final String source;
+        private final String[] services;
+
+        private SnapshotData(DynamicBindingsSnapshot snapshot) {
+            this.version = snapshot.getVersion();
+            this.loadedAt = snapshot.getLoadedAt();
+            this.source = snapshot.getSource();
+            this.services = snapshot.getServiceNames();
+        }
+    }
+
+    private static class BulkheadData {
+
+        private final String service;
+        private final int active;
+        private final int maxConcurrent;
+        private final int queued;
+        private final int maxQueued;
+        private final long rejected;
+
+        private BulkheadData(DynamicBulkhead bulkhead) {
+            this.service = bulkhead.getServiceName();
+            this.active = bulkhead.getActive();
+            this.maxConcurrent = bulkhead.getMaxConcurrent();
+            this.queued = bulkhead.getQueued();
+            this.maxQueued = bulkhead.getMaxQueued();
+            this.rejected = bulkhead.getRejected();
+        }
+    }
+
+    private static class CacheData {
+
+        private final String service;
+        private final String operation;
+        private final int size;
+        private final int maxSize;
+        private final long ttlMillis;
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+
+        private CacheData(DynamicResultCache cache) {
+            this.service = cache.getServiceName();
+            this.operation = cache.getOperationUrl();
+            this.size = cache.getSize();
+            this.maxSize = cache.getMaxSize();
+            this.ttlMillis = cache.getTtlMillis();
+            this.hits = cache.getHits();
+            this.misses = cache.getMisses();
+            this.evictions = cache.getEvictions();
+        }
+    }
+
+    private static class WarmupData {
+
+        private final String service;
+        private final long durationMillis;
+        private final long preloadMillis;
+        private final int calls;
+        private final int errors;
+
+        private WarmupData(DynamicWarmup.Result result) {
+            this.service = result.getServiceName();
+            this.durationMillis = result.getDurationMillis();
+            this.preloadMillis = result.getPreloadMillis();
+            this.calls = result.getCalls();
+            this.errors = result.getErrors();
+        }
+    }
+}
\ No newline at end of file
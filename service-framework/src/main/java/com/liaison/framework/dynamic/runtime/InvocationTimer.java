@@ -0,0 +1,23 @@
+package com.liaison.framework.dynamic.runtime;
+
+/**
+ * Invocation Timer
+ * <p/>
+ * <P>Receives the time spent in each phase of a {@link ScriptInvoker} invocation.  Called on the
+ * request thread, so implementations must not block, and should not allocate.
+ *
+ * @version 1.0
+ */
+public interface InvocationTimer {
+
+    /**
+     * @param nanos time spent acquiring capacity to invoke (ie waiting for a pooled script engine)
+     */
+    void recordAcquire(long nanos);
+
+    /**
+     * @param nanos time spent in the invoked function
+     */
+    void recordInvoke(long nanos);
+
+}
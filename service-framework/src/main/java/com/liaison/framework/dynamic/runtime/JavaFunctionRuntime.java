@@ -0,0 +1,84 @@
+package com.liaison.framework.dynamic.runtime;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * Java Function Runtime
+ * <p/>
+ * <P>Runs dynamic service operations as plain Java {@link Function}s registered per binding and
+ * function name, with no scripting overhead.  Bindings using this runtime need no script location.
+ * <p/>
+ * Handlers may be registered before or after the bindings are loaded, ie from a service
+ * implementation's component initialization:
+ * <pre>
+ * JavaFunctionRuntime.register("SimpleMathService", "multiply", multiplyHandler);
+ * </pre>
+ *
+ * @version 1.0
+ */
+public class JavaFunctionRuntime implements ScriptRuntime {
+
+    public static final String NAME = "java";
+
+    private static final ConcurrentMap<String, ConcurrentMap<String, Function<Object[], Object>>> handlers =
+            new ConcurrentHashMap<String, ConcurrentMap<String, Function<Object[], Object>>>();
+
+    /**
+     * Registers (or replaces) the handler for a binding's function.  The handler receives the operation's
+     * template parameters in order.
+     */
+    public static void register(String serviceName, String function, Function<Object[], Object> handler) {
+        handlersFor(serviceName).put(function, handler);
+    }
+
+    public static void unregister(String serviceName, String function) {
+        handlersFor(serviceName).remove(function);
+    }
+
+    private static ConcurrentMap<String, Function<Object[], Object>> handlersFor(String serviceName) {
+        ConcurrentMap<String, Function<Object[], Object>> functions = handlers.get(serviceName);
+        if (functions == null) {
+            functions = new ConcurrentHashMap<String, Function<Object[], Object>>();
+            ConcurrentMap<String, Function<Object[], Object>> existing = handlers.putIfAbsent(serviceName, functions);
+            if (existing != null) {
+                functions = existing;
+            }
+        }
+        return functions;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public ScriptInvoker bind(final String serviceName, String script) {
+
+        // resolved once, so later registrations for the binding are still seen
+        final ConcurrentMap<String, Function<Object[], Object>> functions = handlersFor(serviceName);
+
+        return new ScriptInvoker() {
+
+            @Override
+            public Object invoke(String function, Object... parameters) throws NoSuchMethodException {
+                Function<Object[], Object> handler = functions.get(function);
+                if (handler == null) {
+                    throw new NoSuchMethodException("No java handler registered for " + serviceName + "." + function);
+                }
+                return handler.apply(parameters);
+            }
+
+            @Override
+            public void registerMonitors() {
+            }
+
+            @Override
+            public void unregisterMonitors() {
+            }
+        };
+    }
+
+}
@@ -0,0 +1,54 @@
+package com.liaison.framework.dynamic.runtime;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * JSR-223 Script Runtime
+ * <p/>
+ * <P>Runs binding scripts on a named {@link javax.script} engine (ie "JavaScript", "nashorn"),
+ * through a {@link ScriptEnginePool} of precompiled engines per binding.
+ *
+ * @version 1.0
+ */
+public class Jsr223ScriptRuntime implements ScriptRuntime {
+
+    public static final String NAME_PREFIX = "jsr223:";
+
+    private final String engineName;
+    private final ScriptEngineManager manager = new ScriptEngineManager();
+
+    public Jsr223ScriptRuntime(String engineName) {
+        this.engineName = engineName;
+    }
+
+    @Override
+    public String getName() {
+        return NAME_PREFIX + engineName;
+    }
+
+    @Override
+    public ScriptInvoker bind(String serviceName, String script) throws ScriptException {
+        return bind(serviceName, script, Collections.<String, Object>emptyMap());
+    }
+
+    @Override
+    public ScriptInvoker bind(String serviceName, String script, Map<String, Object> hostObjects)
+            throws ScriptException {
+
+        if (script == null) {
+            throw new ScriptException(serviceName + " requires a script location for runtime " + getName());
+        }
+
+        ScriptEngine engine = manager.getEngineByName(engineName);
+        if (engine == null) {
+            throw new ScriptException("No script engine named " + engineName + " available for " + serviceName);
+        }
+
+        return new ScriptEnginePool(serviceName, engine.getFactory(), script, hostObjects);
+    }
+
+}
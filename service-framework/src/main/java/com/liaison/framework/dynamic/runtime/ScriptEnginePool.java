@@ -0,0 +1,317 @@
+package com.liaison.framework.dynamic.runtime;
+
+import com.netflix.config.DynamicIntProperty;
+import com.netflix.config.DynamicPropertyFactory;
+import com.netflix.servo.DefaultMonitorRegistry;
+import com.netflix.servo.monitor.BasicCounter;
+import com.netflix.servo.monitor.BasicGauge;
+import com.netflix.servo.monitor.BasicTimer;
+import com.netflix.servo.monitor.CompositeMonitor;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.monitor.Monitors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.script.Compilable;
+import javax.script.Invocable;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Script Engine Pool
+ * <p/>
+ * <P>Pool of script engines for a single dynamic binding, each holding the binding's script already
+ * compiled (through {@link Compilable}, where supported) and evaluated, so that requests only pay for
+ * the function invocation.
+ * <p/>
+ * Sizing honors the engine factory's THREADING parameter.  Engines declaring themselves
+ * MULTITHREADED, THREAD-ISOLATED or STATELESS are shared by all callers, so the pool holds exactly
+ * one.  Engines that are not thread safe (THREADING is null) are checked out by one caller at a time,
+ * up to {@link #POOL_SIZE_PROP_NAME} engines, created on demand.  Callers finding the pool exhausted
+ * wait up to {@link #ACQUIRE_TIMEOUT_PROP_NAME} before giving up.
+ *
+ * @version 1.0
+ */
+class ScriptEnginePool implements ScriptInvoker {
+
+    private static final Logger logger = LoggerFactory.getLogger(ScriptEnginePool.class);
+
+    public static final String POOL_SIZE_PROP_NAME = "com.liaison.framework.dynamic.engine.pool.size";
+    public static final String ACQUIRE_TIMEOUT_PROP_NAME = "com.liaison.framework.dynamic.engine.pool.acquire.timeout.millis";
+
+    private static final DynamicIntProperty POOL_SIZE = DynamicPropertyFactory.getInstance()
+            .getIntProperty(POOL_SIZE_PROP_NAME, Runtime.getRuntime().availableProcessors() * 2);
+    private static final DynamicIntProperty ACQUIRE_TIMEOUT_MILLIS = DynamicPropertyFactory.getInstance()
+            .getIntProperty(ACQUIRE_TIMEOUT_PROP_NAME, 1000);
+
+    // hands back the result as is
+    private static final ResultHandler RESULT = new ResultHandler() {
+        @Override
+        public Object handle(Object result) {
+            return result;
+        }
+    };
+
+    private final String name;
+    private final ScriptEngineFactory factory;
+    private final String script;
+    private final Map<String, Object> hostObjects;
+    private final boolean threadSafe;
+    private final int maxSize;
+
+    private final BlockingQueue<PooledEngine> idle = new LinkedBlockingQueue<PooledEngine>();
+    private final AtomicInteger size = new AtomicInteger(0);
+    private volatile PooledEngine shared;
+
+    private final PoolMonitors monitors = new PoolMonitors();
+    private CompositeMonitor<?> monitor;
+
+    ScriptEnginePool(String name, ScriptEngineFactory factory, String script) {
+        this(name, factory, script, Collections.<String, Object>emptyMap());
+    }
+
+    /**
+     * @param hostObjects objects put in each engine's global scope by name, before the script is evaluated
+     */
+    ScriptEnginePool(String name, ScriptEngineFactory factory, String script, Map<String, Object> hostObjects) {
+        this.name = name;
+        this.factory = factory;
+        this.script = script;
+        this.hostObjects = hostObjects;
+        this.threadSafe = isThreadSafe(factory);
+        this.maxSize = threadSafe ? 1 : Math.max(1, POOL_SIZE.get());
+    }
+
+    static boolean isThreadSafe(ScriptEngineFactory factory) {
+        Object threading = factory.getParameter("THREADING");
+        return "MULTITHREADED".equals(threading) || "THREAD-ISOLATED".equals(threading) || "STATELESS".equals(threading);
+    }
+
+    /**
+     * Checks out an engine, which must be returned with {@link #release(PooledEngine)}
+     *
+     * @throws ScriptEnginePoolExhaustedException if no engine became available within the acquire timeout
+     */
+    PooledEngine acquire() throws InterruptedException, ScriptException {
+
+        long start = System.nanoTime();
+        try {
+            if (threadSafe) {
+                return shared();
+            }
+
+            PooledEngine engine = idle.poll();
+            if (engine != null) {
+                return engine;
+            }
+
+            if (size.incrementAndGet() <= maxSize) {
+                boolean created = false;
+                try {
+                    engine = create();
+                    created = true;
+                    return engine;
+                } finally {
+                    // whatever the failure, ie an Error such as a ThreadDeath, the slot is given back
+                    if (!created) {
+                        size.decrementAndGet();
+                    }
+                }
+            }
+            size.decrementAndGet();
+
+            engine = idle.poll(ACQUIRE_TIMEOUT_MILLIS.get(), TimeUnit.MILLISECONDS);
+            if (engine == null) {
+                monitors.exhausted.increment();
+                throw new ScriptEnginePoolExhaustedException("No script engine available for " + name
+                        + " within " + ACQUIRE_TIMEOUT_MILLIS.get() + "ms (pool size " + maxSize + ")");
+            }
+            return engine;
+
+        } finally {
+            monitors.waitTime.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    void release(PooledEngine engine) {
+        if (!threadSafe) {
+            idle.offer(engine);
+        }
+    }
+
+    /**
+     * Drops an engine that can no longer be trusted, rather than returning it to the pool
+     */
+    void discard(PooledEngine engine) {
+        if (threadSafe) {
+            synchronized (this) {
+                if (shared == engine) {
+                    shared = null;
+                    size.set(0);
+                }
+            }
+        } else {
+            size.decrementAndGet();
+        }
+        logger.warn("Discarded script engine for " + name);
+    }
+
+    @Override
+    public Object invoke(String function, Object... parameters) throws Exception {
+        PooledEngine engine = acquire();
+        try {
+            Object result = engine.invokeFunction(function, parameters);
+            release(engine);
+            return result;
+        } catch (Exception e) {
+            release(engine);
+            throw e;
+        } catch (Error e) {
+            // ie stopped mid-invocation for overrunning its budget, leaving the engine in an unknown state
+            discard(engine);
+            throw e;
+        }
+    }
+
+    @Override
+    public Object invoke(InvocationTimer timer, String function, Object... parameters) throws Exception {
+        return invoke(timer, RESULT, function, parameters);
+    }
+
+    /**
+     * Holds the engine until the handler returns, so that the handler may consume a lazily evaluated result
+     * (ie a script iterator) on the engine that produced it
+     */
+    @Override
+    public Object invoke(InvocationTimer timer, ResultHandler handler, String function, Object... parameters)
+            throws Exception {
+        long start = System.nanoTime();
+        PooledEngine engine;
+        try {
+            engine = acquire();
+        } finally {
+            timer.recordAcquire(System.nanoTime() - start);
+        }
+
+        start = System.nanoTime();
+        boolean invoked = false;
+        try {
+            Object result = engine.invokeFunction(function, parameters);
+            timer.recordInvoke(System.nanoTime() - start);
+            invoked = true;
+
+            Object handled = handler.handle(result);
+            release(engine);
+            return handled;
+        } catch (Exception e) {
+            release(engine);
+            throw e;
+        } catch (Error e) {
+            discard(engine);
+            throw e;
+        } finally {
+            if (!invoked) {
+                timer.recordInvoke(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Creates an engine, unless one is already idle (or shared)
+     */
+    @Override
+    public void preload() throws Exception {
+        release(acquire());
+    }
+
+    private PooledEngine shared() throws ScriptException {
+        PooledEngine engine = shared;
+        if (engine == null) {
+            synchronized (this) {
+                engine = shared;
+                if (engine == null) {
+                    engine = create();
+                    size.set(1);
+                    shared = engine;
+                }
+            }
+        }
+        return engine;
+    }
+
+    private PooledEngine create() throws ScriptException {
+        ScriptEngine engine = factory.getScriptEngine();
+        for (Map.Entry<String, Object> hostObject : hostObjects.entrySet()) {
+            engine.put(hostObject.getKey(), hostObject.getValue());
+        }
+        if (engine instanceof Compilable) {
+            ((Compilable) engine).compile(script).eval();
+        } else {
+            engine.eval(script);
+        }
+        logger.debug("Created script engine for " + name + " (" + factory.getEngineName() + ")");
+        return new PooledEngine(engine);
+    }
+
+    @Override
+    public void registerMonitors() {
+        monitor = Monitors.newObjectMonitor("DynamicScriptEnginePool-" + name, monitors);
+        DefaultMonitorRegistry.getInstance().register(monitor);
+    }
+
+    @Override
+    public void unregisterMonitors() {
+        if (monitor != null) {
+            DefaultMonitorRegistry.getInstance().unregister(monitor);
+        }
+    }
+
+    // registered through Monitors.newObjectMonitor, which picks up Monitor fields
+    private class PoolMonitors {
+
+        private final BasicTimer waitTime = new BasicTimer(MonitorConfig.builder("poolWaitTime").build(), TimeUnit.MICROSECONDS);
+
+        private final BasicCounter exhausted = new BasicCounter(MonitorConfig.builder("poolExhausted").build());
+
+        private final BasicGauge<Integer> poolSize = new BasicGauge<Integer>(MonitorConfig.builder("poolSize").build(),
+                new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        return size.get();
+                    }
+                });
+
+        private final BasicGauge<Integer> poolIdle = new BasicGauge<Integer>(MonitorConfig.builder("poolIdle").build(),
+                new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        return threadSafe ? size.get() : idle.size();
+                    }
+                });
+    }
+
+    /**
+     * Engine with the binding's script evaluated
+     */
+    static class PooledEngine {
+
+        private final Invocable invocable;
+
+        PooledEngine(ScriptEngine engine) {
+            this.invocable = (Invocable) engine;
+        }
+
+        Object invokeFunction(String function, Object... parameters) throws ScriptException, NoSuchMethodException {
+            return invocable.invokeFunction(function, parameters);
+        }
+    }
+
+}
@@ -0,0 +1,16 @@
+package com.liaison.framework.dynamic.runtime;
+
+/**
+ * Thrown when no script engine becomes available within the pool's acquire timeout
+ *
+ * @version 1.0
+ */
+public class ScriptEnginePoolExhaustedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ScriptEnginePoolExhaustedException(String message) {
+        super(message);
+    }
+
+}
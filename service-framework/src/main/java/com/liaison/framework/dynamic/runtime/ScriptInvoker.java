@@ -0,0 +1,76 @@
+package com.liaison.framework.dynamic.runtime;
+
+/**
+ * Script Invoker
+ * <p/>
+ * <P>A binding prepared by a {@link ScriptRuntime}, invoked concurrently by request threads.
+ *
+ * @version 1.0
+ */
+public interface ScriptInvoker {
+
+    /**
+     * Invokes the named function of the binding
+     *
+     * @throws ScriptEnginePoolExhaustedException if the runtime has no capacity to invoke the function in time
+     */
+    Object invoke(String function, Object... parameters) throws Exception;
+
+    /**
+     * Invokes the named function of the binding, reporting the time spent in each phase of the invocation
+     * to the given timer.  Runtimes without an acquire phase need not override this.
+     *
+     * @throws ScriptEnginePoolExhaustedException if the runtime has no capacity to invoke the function in time
+     */
+    default Object invoke(InvocationTimer timer, String function, Object... parameters) throws Exception {
+        long start = System.nanoTime();
+        try {
+            return invoke(function, parameters);
+        } finally {
+            timer.recordInvoke(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Invokes the named function of the binding, handing its result to the handler before releasing what the
+     * runtime holds for the invocation (ie its pooled script engine).  A result evaluated lazily, such as a
+     * script iterator, may then be consumed by the handler on the engine that produced it, and never
+     * concurrently with another invocation.  Runtimes holding nothing need not override this.
+     *
+     * @return the handler's return value
+     * @throws ScriptEnginePoolExhaustedException if the runtime has no capacity to invoke the function in time
+     */
+    default Object invoke(InvocationTimer timer, ResultHandler handler, String function, Object... parameters)
+            throws Exception {
+        return handler.handle(invoke(timer, function, parameters));
+    }
+
+    /**
+     * Prepares the binding for its first invocation (ie creates a pooled script engine, compiling and
+     * evaluating the script), called before the binding goes into service.  Runtimes with nothing to
+     * prepare need not override this.
+     *
+     * @throws Exception if the binding cannot be invoked, ie its script does not compile
+     */
+    default void preload() throws Exception {
+    }
+
+    /**
+     * Registers any runtime monitors for the binding, called when the binding goes into service
+     */
+    void registerMonitors();
+
+    /**
+     * Unregisters monitors, called when the binding is replaced by a reload
+     */
+    void unregisterMonitors();
+
+    /**
+     * Handles the result of an invocation, see {@link #invoke(InvocationTimer, ResultHandler, String, Object...)}
+     */
+    interface ResultHandler {
+
+        Object handle(Object result) throws Exception;
+    }
+
+}
@@ -0,0 +1,43 @@
+package com.liaison.framework.dynamic.runtime;
+
+import javax.script.ScriptException;
+import java.util.Map;
+
+/**
+ * Script Runtime
+ * <p/>
+ * <P>SPI for the runtimes executing dynamic service operations.  A binding selects its runtime with
+ * the "runtime" field of bindings.json, see {@link ScriptRuntimes} for the built-in runtimes.
+ * <p/>
+ * Additional runtimes are discovered through {@link java.util.ServiceLoader}, by listing the
+ * implementation class in META-INF/services/com.liaison.framework.dynamic.runtime.ScriptRuntime.
+ *
+ * @version 1.0
+ */
+public interface ScriptRuntime {
+
+    /**
+     * @return name by which bindings select this runtime (case insensitive)
+     */
+    String getName();
+
+    /**
+     * Prepares a binding for invocation.  Called once per binding each time the bindings are loaded,
+     * so any expensive work (ie compilation) belongs here rather than in {@link ScriptInvoker#invoke}.
+     *
+     * @param serviceName name of the binding
+     * @param script      contents of the binding's script, or null if the binding has no script location
+     */
+    ScriptInvoker bind(String serviceName, String script) throws ScriptException;
+
+    /**
+     * Prepares a binding for invocation, with host objects for its script to use as globals by name (ie
+     * "services", see {@link com.liaison.framework.dynamic.DynamicScatterGather}).  Runtimes without
+     * globals need not override this.
+     */
+    default ScriptInvoker bind(String serviceName, String script, Map<String, Object> hostObjects)
+            throws ScriptException {
+        return bind(serviceName, script);
+    }
+
+}
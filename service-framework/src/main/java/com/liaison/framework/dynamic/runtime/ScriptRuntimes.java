@@ -0,0 +1,73 @@
+package com.liaison.framework.dynamic.runtime;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Locale;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Script Runtimes
+ * <p/>
+ * <P>Registry of {@link ScriptRuntime}s by name.  Built-in runtimes are:
+ * <ul>
+ * <li>javascript - the default, the JSR-223 "JavaScript" engine</li>
+ * <li>jsr223:&lt;engine name&gt; - any JSR-223 engine by name, ie jsr223:nashorn</li>
+ * <li>java - registered Java functions, see {@link JavaFunctionRuntime}</li>
+ * </ul>
+ *
+ * @version 1.0
+ */
+public class ScriptRuntimes {
+
+    private static final Logger logger = LoggerFactory.getLogger(ScriptRuntimes.class);
+
+    public static final String DEFAULT_RUNTIME = "javascript";
+
+    private static final ConcurrentMap<String, ScriptRuntime> runtimes = new ConcurrentHashMap<String, ScriptRuntime>();
+
+    static {
+        register(DEFAULT_RUNTIME, new Jsr223ScriptRuntime("JavaScript"));
+        register(new JavaFunctionRuntime());
+        for (ScriptRuntime runtime : ServiceLoader.load(ScriptRuntime.class)) {
+            logger.info("Registering dynamic services runtime " + runtime.getName() + " (" + runtime.getClass().getName() + ")");
+            register(runtime);
+        }
+    }
+
+    public static void register(ScriptRuntime runtime) {
+        register(runtime.getName(), runtime);
+    }
+
+    private static void register(String name, ScriptRuntime runtime) {
+        runtimes.put(name.toLowerCase(Locale.ENGLISH), runtime);
+    }
+
+    /**
+     * @param name runtime name, or null for the default runtime
+     * @throws IllegalArgumentException if no such runtime is registered
+     */
+    public static ScriptRuntime get(String name) {
+
+        if (name == null) {
+            name = DEFAULT_RUNTIME;
+        }
+
+        String key = name.toLowerCase(Locale.ENGLISH);
+        ScriptRuntime runtime = runtimes.get(key);
+        if (runtime != null) {
+            return runtime;
+        }
+
+        if (key.startsWith(Jsr223ScriptRuntime.NAME_PREFIX)) {
+            runtime = new Jsr223ScriptRuntime(name.substring(Jsr223ScriptRuntime.NAME_PREFIX.length()));
+            ScriptRuntime existing = runtimes.putIfAbsent(key, runtime);
+            return existing == null ? runtime : existing;
+        }
+
+        throw new IllegalArgumentException("Unknown dynamic services runtime " + name);
+    }
+
+}
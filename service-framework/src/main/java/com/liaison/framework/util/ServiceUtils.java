@@ -25,6 +25,11 @@ public class ServiceUtils {
             path = path.replace("classpath://", "/");
         }
 
+        // class loader resource names are relative; only some (ie webapp) class loaders tolerate a leading slash
+        if (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+
         URL url = Resources.getResource(path);
         try {
             return Resources.toString(url, Charsets.UTF_8);
@@ -0,0 +1,36 @@
+// CrudFooService, see bindings.json.  Each pooled script engine has its own globals, so nothing is
+// kept in them between requests.  Foos are kept in the service's store instead (see DynamicKeyValueStore),
+// which every engine shares, and which outlives reloads (and restarts, if persistent).
+
+// The listing is returned as an iterator of the ids, rather than built whole, and is streamed to the
+// client as a JSON array, each element produced as it is sent
+function foo(id) {
+    if (id !== undefined) {
+        var value = store.get(id);
+        return value != null ? value : {"id": id, "found": false};
+    }
+    return store.keys();
+}
+
+// POST and PUT bodies arrive as a DynamicRequestBody, read incrementally rather than as a String
+function create(id, body) {
+    var elements = body.elements();
+    var value = elements.hasNext() ? elements.next() : {};
+    if (!store.putIfAbsent(id, value)) {
+        metrics.counter("conflicts").increment();
+        return {"id": id, "created": false};
+    }
+    // published over JMX with the service's other monitors, see DynamicScriptMetrics
+    metrics.gauge("size").set(store.size());
+    return {"id": id, "created": true, "bytes": body.getBytesRead()};
+}
+
+function update(id, body) {
+    var elements = body.elements();
+    store.put(id, elements.hasNext() ? elements.next() : {});
+    return {"id": id, "updated": true, "bytes": body.getBytesRead()};
+}
+
+function remove(id) {
+    return {"id": id, "deleted": store.remove(id)};
+}
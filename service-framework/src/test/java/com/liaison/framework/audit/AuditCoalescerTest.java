@@ -0,0 +1,134 @@
+package com.liaison.framework.audit;
+
+import com.liaison.framework.audit.pci.PCIV20Requirement;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link AuditCoalescer}
+ */
+public class AuditCoalescerTest {
+
+    private final AuditCoalescer coalescer = new AuditCoalescer(1000, 4);
+
+    @Test
+    public void testCoalescesWithinWindow() {
+        AuditEvent[] events = new AuditEvent[100];
+        for (int i = 0; i < events.length; i++) {
+            events[i] = attempt("Attempting to create PID", 1000 + i, 100 - i);
+        }
+        Assert.assertEquals(0, coalescer.coalesce(events, events.length, 0));
+        Assert.assertEquals(0, coalescer.flush(999));
+        Assert.assertEquals(99, coalescer.getCoalesced());
+
+        Assert.assertEquals(1, coalescer.flush(1000));
+        AuditEvent coalesced = coalescer.output()[0];
+        Assert.assertEquals(100, coalesced.getCount());
+        Assert.assertEquals(1000, coalesced.getFirstTimestamp());
+        Assert.assertEquals(1099, coalesced.getTimestamp());
+        Assert.assertEquals(1, coalesced.getMinPid());
+        Assert.assertEquals(100, coalesced.getMaxPid());
+        Assert.assertEquals("Attempting to create PID", coalesced.getMessage());
+        Assert.assertEquals(0, coalescer.getWindows());
+    }
+
+    @Test
+    public void testFailedAndPotentialPassThrough() {
+        AuditEvent[] events = {
+                attempt("a", 1, 1),
+                new AuditEvent(PCIV20Requirement.PCI10_2_2, AuditStatement.Status.FAILED, "a", 2, 2),
+                new AuditEvent(PCIV20Requirement.PCI10_2_2, AuditStatement.Status.FAILED, "a", 3, 3),
+                new AuditEvent(PCIV20Requirement.PCI10_2_2, AuditStatement.Status.POTENTIAL, "a", 4, 4),
+                new AuditEvent(PCIV20Requirement.PCI10_2_2, null, "a", 5, 5),
+                attempt("a", 6, 6)
+        };
+        Assert.assertEquals(4, coalescer.coalesce(events, events.length, 0));
+        for (int i = 0; i < 4; i++) {
+            Assert.assertSame(events[i + 1], coalescer.output()[i]);
+        }
+        Assert.assertEquals(1, coalescer.flush(Long.MAX_VALUE));
+        Assert.assertEquals(2, coalescer.output()[0].getCount());
+    }
+
+    @Test
+    public void testDistinctStatementsNotCoalesced() {
+        AuditEvent[] events = {
+                attempt("a", 1, 1),
+                attempt("b", 2, 2),
+                new AuditEvent(PCIV20Requirement.PCI10_2_1, AuditStatement.Status.ATTEMPT, "a", 3, 3),
+                new AuditEvent(PCIV20Requirement.PCI10_2_2, AuditStatement.Status.SUCCEED, "a", 4, 4),
+                // beyond the maximum number of windows
+                attempt("c", 5, 5)
+        };
+        Assert.assertEquals(1, coalescer.coalesce(events, events.length, 0));
+        Assert.assertSame(events[4], coalescer.output()[0]);
+        Assert.assertEquals(4, coalescer.getWindows());
+
+        // shipped as logged, since each is alone in its window
+        Assert.assertEquals(4, coalescer.flush(Long.MAX_VALUE));
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals(1, coalescer.output()[i].getCount());
+            Assert.assertEquals(events[i].getTimestamp(), coalescer.output()[i].getTimestamp());
+        }
+    }
+
+    @Test
+    public void testPipelineShipsCoalesced() throws Exception {
+        final List<AuditEvent> shipped = Collections.synchronizedList(new ArrayList<AuditEvent>());
+        AuditSink sink = new AuditSink() {
+            @Override
+            public void write(AuditEvent[] events, int count) {
+                for (int i = 0; i < count; i++) {
+                    AuditEvent copy = new AuditEvent();
+                    copy.set(events[i]);
+                    shipped.add(copy);
+                }
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        AuditPipeline pipeline = new AuditPipeline(64, 16, AuditPipeline.OverflowPolicy.BLOCK, null,
+                Collections.singletonList(sink), new AuditCoalescer(50, 16));
+        try {
+            for (int i = 0; i < 1000; i++) {
+                pipeline.log(PCIV20Requirement.PCI10_2_2, AuditStatement.Status.ATTEMPT, "Attempting to create PID",
+                        System.currentTimeMillis(), i);
+            }
+            pipeline.log(PCIV20Requirement.PCI10_2_2, AuditStatement.Status.FAILED, "denied", System.currentTimeMillis(), 0);
+
+            // shipped once the window expires, rather than on close
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (count(shipped) < 1001 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(1001, count(shipped));
+            Assert.assertTrue(shipped.size() < 100);
+            Assert.assertEquals(1001, pipeline.getShipped());
+            Assert.assertEquals(1001 - shipped.size(), pipeline.getCoalesced());
+        } finally {
+            pipeline.close();
+        }
+    }
+
+    private static int count(List<AuditEvent> events) {
+        int count = 0;
+        synchronized (events) {
+            for (AuditEvent event : events) {
+                count += event.getCount();
+            }
+        }
+        return count;
+    }
+
+    private static AuditEvent attempt(String message, long timestamp, int pid) {
+        return new AuditEvent(PCIV20Requirement.PCI10_2_2, AuditStatement.Status.ATTEMPT, message, timestamp, pid);
+    }
+
+}
@@ -0,0 +1,87 @@
+package com.liaison.framework.audit;
+
+import com.liaison.framework.audit.hipaa.HIPAAAdminSimplification201303;
+import com.liaison.framework.audit.pci.PCIV20Requirement;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tests for {@link AuditCounters}
+ */
+public class AuditCountersTest {
+
+    @Test
+    public void testCountsByRequirementAndStatus() {
+        AuditCounters counters = new AuditCounters();
+        counters.increment(PCIV20Requirement.PCI10_2_4, AuditStatement.Status.FAILED);
+        counters.increment(PCIV20Requirement.PCI10_2_4, AuditStatement.Status.FAILED);
+        counters.increment(PCIV20Requirement.PCI10_2_4, AuditStatement.Status.ATTEMPT);
+        counters.increment(HIPAAAdminSimplification201303.HIPAA_AS_C_164_306_a1, AuditStatement.Status.SUCCEED);
+        counters.increment(null, null);
+
+        Assert.assertEquals(2, counters.getCount(PCIV20Requirement.PCI10_2_4, AuditStatement.Status.FAILED));
+        Assert.assertEquals(1, counters.getCount(PCIV20Requirement.PCI10_2_4, AuditStatement.Status.ATTEMPT));
+        Assert.assertEquals(0, counters.getCount(PCIV20Requirement.PCI10_2_2, AuditStatement.Status.FAILED));
+        Assert.assertEquals(1, counters.getCount(HIPAAAdminSimplification201303.HIPAA_AS_C_164_306_a1,
+                AuditStatement.Status.SUCCEED));
+        Assert.assertEquals(1, counters.getCount(null, null));
+
+        int requirements = PCIV20Requirement.values().length + HIPAAAdminSimplification201303.values().length + 1;
+        Assert.assertEquals(requirements * (AuditStatement.Status.values().length + 1), counters.getCounters().size());
+    }
+
+    @Test
+    public void testConcurrentCounts() throws Exception {
+        final AuditCounters counters = new AuditCounters();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = 0; i < 10000; i++) {
+                            counters.increment(PCIV20Requirement.PCI10_2_2, AuditStatement.Status.ATTEMPT);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        Assert.assertEquals(80000, counters.getCount(PCIV20Requirement.PCI10_2_2, AuditStatement.Status.ATTEMPT));
+    }
+
+    @Test
+    public void testPublishedOverJmx() throws Exception {
+        AuditCounters counters = new AuditCounters();
+        counters.registerMonitors();
+        try {
+            for (int i = 0; i < 3; i++) {
+                counters.increment(PCIV20Requirement.PCI10_2_4, AuditStatement.Status.POTENTIAL);
+            }
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            Set<ObjectName> names = server.queryNames(new ObjectName(
+                    "com.netflix.servo:name=auditStatements,requirement=PCI10_2_4,status=POTENTIAL,*"), null);
+            Assert.assertEquals(names.toString(), 1, names.size());
+            Assert.assertEquals(3L, ((Number) server.getAttribute(names.iterator().next(), "value")).longValue());
+        } finally {
+            counters.unregisterMonitors();
+        }
+    }
+
+}
@@ -0,0 +1,118 @@
+package com.liaison.framework.audit;
+
+import com.liaison.framework.audit.log4j2.AuditParameterizedMessage;
+import com.liaison.framework.audit.pci.PCIV20Requirement;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compares {@link AuditJsonEncoder} with the Jackson mapping it replaced.  Not run as part of the test
+ * suite, run main() directly, ie with -Dbenchmark.iterations=5000000
+ * <p/>
+ * Reported per path is the time and the bytes allocated per statement, after a warm-up of the same
+ * number of iterations, of encoding a statement as a String (as DefaultAuditStatement.toString does), a
+ * log message bearing it as a String (as AuditParameterizedMessage.toString does), and a statement to a
+ * stream through the thread's buffer.  The Jackson path builds a mapper per statement, as before, and
+ * is run for a hundredth of the iterations.
+ */
+public class AuditJsonEncoderBenchmark {
+
+    private static final OutputStream DISCARD = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    // consumed by every path, so that its results cannot be optimized away
+    private static long sink;
+
+    public static void main(String[] args) throws Exception {
+
+        int iterations = Integer.getInteger("benchmark.iterations", 1000000);
+        final DefaultAuditStatement statement = new DefaultAuditStatement(PCIV20Requirement.PCI10_2_2,
+                AuditStatement.Status.ATTEMPT, "Attempting to create PID for /v1/dyn/foo/42 from 10.0.0.1");
+        final AuditParameterizedMessage message = new AuditParameterizedMessage(
+                new ParameterizedMessage("*", new Object[]{statement}, null));
+
+        run("statement (jackson)", Math.max(1, iterations / 100), new Path() {
+            @Override
+            public void run() throws Exception {
+                sink += AuditJsonEncoderTest.jackson(statement).length();
+            }
+        });
+        run("statement (encoder)", iterations, new Path() {
+            @Override
+            public void run() {
+                sink += AuditJsonEncoder.toJson(statement).length();
+            }
+        });
+        run("log message (jackson)", Math.max(1, iterations / 100), new Path() {
+            @Override
+            public void run() throws Exception {
+                sink += AuditJsonEncoderTest.jackson(message).length();
+            }
+        });
+        run("log message (encoder)", iterations, new Path() {
+            @Override
+            public void run() {
+                sink += message.toString().length();
+            }
+        });
+        run("stream (jackson)", Math.max(1, iterations / 100), new Path() {
+            @Override
+            public void run() throws Exception {
+                byte[] bytes = AuditJsonEncoderTest.jackson(statement).getBytes(StandardCharsets.UTF_8);
+                DISCARD.write(bytes, 0, bytes.length);
+                sink += bytes.length;
+            }
+        });
+        run("stream (encoder)", iterations, new Path() {
+            @Override
+            public void run() throws Exception {
+                AuditJsonEncoder.Buffer buffer = AuditJsonEncoder.buffer();
+                AuditJsonEncoder.writeStatement(buffer, statement);
+                buffer.writeTo(DISCARD);
+                sink += buffer.length();
+            }
+        });
+        System.out.println("(" + sink + ")");
+    }
+
+    private interface Path {
+        void run() throws Exception;
+    }
+
+    private static void run(String name, int iterations, Path path) throws Exception {
+        for (int i = 0; i < iterations; i++) {
+            path.run();
+        }
+
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            path.run();
+        }
+        long nanos = System.nanoTime() - start;
+        allocated = allocatedBytes() - allocated;
+
+        System.out.println(String.format("%-24s %10.1f ns/op %10.1f B/op", name, (double) nanos / iterations,
+                allocated < 0 ? Double.NaN : (double) allocated / iterations));
+    }
+
+    // of the current thread, or -1 where the JVM does not report it
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+}
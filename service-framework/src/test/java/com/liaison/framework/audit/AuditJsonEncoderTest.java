@@ -0,0 +1,141 @@
+package com.liaison.framework.audit;
+
+import com.liaison.framework.audit.hipaa.HIPAAAdminSimplification201303;
+import com.liaison.framework.audit.log4j2.AuditParameterizedMessage;
+import com.liaison.framework.audit.pci.PCIV20Requirement;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.codehaus.jackson.map.AnnotationIntrospector;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.introspect.JacksonAnnotationIntrospector;
+import org.codehaus.jackson.xc.JaxbAnnotationIntrospector;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for {@link AuditJsonEncoder}, against the Jackson mapping it replaces
+ */
+public class AuditJsonEncoderTest {
+
+    private static final String[] MESSAGES = {
+            "Attempting to create PID", "", null, "quote \" backslash \\ slash /", "tab\tnew line\ncarriage\r\b\f",
+            "\u0000\u0001\u001f\u007f", "caf\u00e9 \u20ac \u2028", "emoji \ud83d\ude00", "{\"json\": [1, 2]}"
+    };
+
+    @Test
+    public void testStatementsMatchJackson() throws Exception {
+        List<AuditStandardsRequirement> requirements = new ArrayList<AuditStandardsRequirement>();
+        requirements.addAll(Arrays.asList(PCIV20Requirement.values()));
+        requirements.addAll(Arrays.asList(HIPAAAdminSimplification201303.values()));
+        requirements.add(new AuditStandardsRequirement() {
+            @Override
+            public String getDescription() {
+                return "custom";
+            }
+
+            @Override
+            public String toString() {
+                return "CUSTOM: \"custom\"";
+            }
+        });
+        requirements.add(null);
+
+        List<AuditStatement.Status> statuses = new ArrayList<AuditStatement.Status>(Arrays.asList(AuditStatement.Status.values()));
+        statuses.add(null);
+
+        for (AuditStandardsRequirement requirement : requirements) {
+            for (AuditStatement.Status status : statuses) {
+                for (String message : MESSAGES) {
+                    DefaultAuditStatement statement = new DefaultAuditStatement(requirement, status, message);
+                    assertJsonEquals(jackson(statement), statement.toString());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testLogMessagesMatchJackson() throws Exception {
+        DefaultAuditStatement statement = new DefaultAuditStatement(PCIV20Requirement.PCI10_2_2,
+                AuditStatement.Status.ATTEMPT, MESSAGES[4]);
+
+        AuditParameterizedMessage message = new AuditParameterizedMessage(
+                new ParameterizedMessage("audit {}", new Object[]{statement}, null));
+        assertJsonEquals(jackson(message), message.toString());
+
+        message = new AuditParameterizedMessage(
+                new ParameterizedMessage("*", new Object[]{statement}, new IllegalStateException("\"failed\"")));
+        assertJsonEquals(jackson(message), message.toString());
+    }
+
+    @Test
+    public void testEscapes() {
+        Assert.assertEquals("{\"status\":\"FAILED\",\"message\":\"\\u0000\\u001F\\t\\\"\u007f\",\"auditStandardsRequirement\":null}",
+                AuditJsonEncoder.toJson(new DefaultAuditStatement(null, AuditStatement.Status.FAILED, "\u0000\u001f\t\"\u007f")));
+    }
+
+    @Test
+    public void testCoalesced() {
+        AuditEvent event = new AuditEvent(PCIV20Requirement.PCI10_2_2, AuditStatement.Status.ATTEMPT,
+                "Attempting to create PID", 1000L, 7);
+        event.coalesce(3000L, 9);
+        event.coalesce(2000L, 5);
+        Assert.assertEquals("{\"status\":\"ATTEMPT\",\"message\":\"Attempting to create PID\","
+                + "\"auditStandardsRequirement\":\"" + PCIV20Requirement.PCI10_2_2 + "\",\"count\":3,"
+                + "\"firstTimestamp\":1000,\"lastTimestamp\":3000,\"pids\":[5,9]}", AuditJsonEncoder.toJson(event));
+        // and as shipped to the appenders
+        Assert.assertEquals(AuditJsonEncoder.toJson(event), event.toStatement().toString());
+    }
+
+    @Test
+    public void testWriteToStream() throws Exception {
+        DefaultAuditStatement statement = new DefaultAuditStatement(HIPAAAdminSimplification201303.HIPAA_AS_C_164_306_a1,
+                AuditStatement.Status.FAILED, MESSAGES[7]);
+
+        AuditJsonEncoder.Buffer buffer = AuditJsonEncoder.buffer();
+        AuditJsonEncoder.writeStatement(buffer, statement);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        buffer.writeTo(out);
+        assertJsonEquals(jackson(statement), new String(out.toByteArray(), StandardCharsets.UTF_8));
+
+        // reused, and emptied, per call
+        Assert.assertSame(buffer, AuditJsonEncoder.buffer());
+        Assert.assertEquals(0, buffer.length());
+    }
+
+    @Test
+    public void testLargeMessage() throws Exception {
+        char[] text = new char[100000];
+        Arrays.fill(text, '\u00e9');
+        DefaultAuditStatement statement = new DefaultAuditStatement(PCIV20Requirement.PCI10_2_1,
+                AuditStatement.Status.SUCCEED, new String(text));
+        assertJsonEquals(jackson(statement), statement.toString());
+
+        // not kept, once grown for a large message
+        Assert.assertTrue(AuditJsonEncoder.buffer().array().length < text.length);
+    }
+
+    // the order of fields mapped by Jackson follows reflection, so is not stable
+    private static void assertJsonEquals(String expected, String actual) throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        Assert.assertEquals(expected, mapper.readTree(expected), mapper.readTree(actual));
+    }
+
+    /**
+     * @return the object mapped as before the encoder, ie with a JAXB and Jackson annotation introspector
+     */
+    @SuppressWarnings("deprecation")
+    static String jackson(Object object) throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        AnnotationIntrospector introspector = new AnnotationIntrospector.Pair(new JaxbAnnotationIntrospector(),
+                new JacksonAnnotationIntrospector());
+        mapper.getDeserializationConfig().setAnnotationIntrospector(introspector);
+        mapper.getSerializationConfig().setAnnotationIntrospector(introspector);
+        return mapper.writeValueAsString(object);
+    }
+
+}
@@ -0,0 +1,262 @@
+package com.liaison.framework.audit;
+
+import com.liaison.framework.audit.pci.PCIV20Requirement;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link AuditPipeline}
+ */
+public class AuditPipelineTest {
+
+    private final List<String> shipped = Collections.synchronizedList(new ArrayList<String>());
+    private final List<Integer> batches = Collections.synchronizedList(new ArrayList<Integer>());
+    private final CountDownLatch open = new CountDownLatch(1);
+
+    private Path directory;
+    private AuditPipeline pipeline;
+
+    // ships once the latch is opened, so that tests can fill the ring buffer
+    private final AuditSink sink = new AuditSink() {
+        @Override
+        public void write(AuditEvent[] events, int count) throws Exception {
+            open.await();
+            batches.add(count);
+            for (int i = 0; i < count; i++) {
+                shipped.add(events[i].getMessage());
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("audit");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        open.countDown();
+        if (pipeline != null) {
+            pipeline.close();
+        }
+        Files.deleteIfExists(directory.resolve(AuditSpill.FILE_NAME));
+        Files.delete(directory);
+    }
+
+    @Test
+    public void testShipsInBatches() throws Exception {
+        open.countDown();
+        pipeline = new AuditPipeline(64, 16, AuditPipeline.OverflowPolicy.BLOCK, null, Collections.singletonList(sink));
+        Assert.assertEquals(64, pipeline.getCapacity());
+
+        for (int i = 0; i < 100; i++) {
+            log(pipeline, "m" + i);
+        }
+        pipeline.close();
+
+        Assert.assertEquals(100, shipped.size());
+        Assert.assertEquals(100, pipeline.getShipped());
+        // a single producer is shipped in order
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals("m" + i, shipped.get(i));
+        }
+        for (int size : batches) {
+            Assert.assertTrue(size <= 16);
+        }
+        Assert.assertEquals(0, pipeline.getQueueDepth());
+    }
+
+    @Test
+    public void testEventDetails() throws Exception {
+        final List<String> details = new ArrayList<String>();
+        pipeline = new AuditPipeline(8, 8, AuditPipeline.OverflowPolicy.BLOCK, null,
+                Collections.<AuditSink>singletonList(new AuditSink() {
+                    @Override
+                    public void write(AuditEvent[] events, int count) {
+                        for (int i = 0; i < count; i++) {
+                            AuditEvent event = events[i];
+                            details.add(event.getAuditStandardsRequirement() + " " + event.getStatus() + " "
+                                    + event.getTimestamp() + " " + event.getPid() + " " + event.getMessage());
+                        }
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                }));
+
+        pipeline.log(PCIV20Requirement.PCI10_2_2, AuditStatement.Status.FAILED, "denied", 1234L, 7);
+        pipeline.close();
+        Assert.assertEquals(Collections.singletonList(PCIV20Requirement.PCI10_2_2 + " FAILED 1234 7 denied"), details);
+    }
+
+    @Test
+    public void testDropOverflow() throws Exception {
+        pipeline = new AuditPipeline(4, 2, AuditPipeline.OverflowPolicy.DROP, null, Collections.singletonList(sink));
+        for (int i = 0; i < 20; i++) {
+            log(pipeline, "m" + i);
+        }
+        // at most the ring buffer and the batch held by the blocked sink
+        Assert.assertTrue(pipeline.getDropped() >= 14);
+
+        open.countDown();
+        pipeline.close();
+        Assert.assertEquals(20, shipped.size() + pipeline.getDropped());
+        Assert.assertEquals("m0", shipped.get(0));
+    }
+
+    @Test
+    public void testBlockOverflow() throws Exception {
+        pipeline = new AuditPipeline(4, 2, AuditPipeline.OverflowPolicy.BLOCK, null, Collections.singletonList(sink));
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 20; i++) {
+                    log(pipeline, "m" + i);
+                }
+            }
+        });
+        producer.start();
+
+        // blocked on the full ring buffer until the sink ships
+        producer.join(200);
+        Assert.assertTrue(producer.isAlive());
+
+        open.countDown();
+        producer.join(TimeUnit.SECONDS.toMillis(10));
+        Assert.assertFalse(producer.isAlive());
+        pipeline.close();
+
+        Assert.assertEquals(20, shipped.size());
+        Assert.assertEquals(0, pipeline.getDropped());
+        Assert.assertTrue(pipeline.getBlocked() > 0);
+    }
+
+    @Test
+    public void testSpillOverflow() throws Exception {
+        pipeline = new AuditPipeline(4, 2, AuditPipeline.OverflowPolicy.SPILL, directory, Collections.singletonList(sink));
+        for (int i = 0; i < 20; i++) {
+            log(pipeline, "m" + i);
+        }
+        Assert.assertTrue(pipeline.getSpilled() >= 14);
+        Assert.assertTrue(Files.size(directory.resolve(AuditSpill.FILE_NAME)) > 0);
+
+        open.countDown();
+        pipeline.close();
+
+        Assert.assertEquals(0, pipeline.getDropped());
+        Assert.assertEquals(20, shipped.size());
+        Assert.assertEquals(20, new HashSet<String>(shipped).size());
+        Assert.assertEquals(0, Files.size(directory.resolve(AuditSpill.FILE_NAME)));
+    }
+
+    @Test
+    public void testSpillReplayedOnStart() throws Exception {
+        AuditSpill spill = new AuditSpill(directory);
+        spill.append(PCIV20Requirement.PCI10_2_1, AuditStatement.Status.SUCCEED, "left over", 1L, 1);
+        spill.append(PCIV20Requirement.PCI10_2_1, AuditStatement.Status.SUCCEED, "also left over", 2L, 1);
+        spill.close();
+
+        open.countDown();
+        pipeline = new AuditPipeline(4, 2, AuditPipeline.OverflowPolicy.SPILL, directory, Collections.singletonList(sink));
+        pipeline.close();
+
+        Set<String> expected = new HashSet<String>();
+        Collections.addAll(expected, "left over", "also left over");
+        Assert.assertEquals(expected, new HashSet<String>(shipped));
+    }
+
+    @Test
+    public void testSinkErrorIsContained() throws Exception {
+        open.countDown();
+        AuditSink failing = new AuditSink() {
+            @Override
+            public void write(AuditEvent[] events, int count) {
+                throw new LinkageError("failing sink");
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        pipeline = new AuditPipeline(4, 2, AuditPipeline.OverflowPolicy.BLOCK, null, Arrays.asList(failing, sink));
+        for (int i = 0; i < 20; i++) {
+            log(pipeline, "m" + i);
+        }
+        pipeline.close();
+
+        // the other sink is still shipped to, by the same consumer
+        Assert.assertEquals(20, shipped.size());
+        Assert.assertEquals(20, pipeline.getFailed());
+    }
+
+    @Test
+    public void testBlockDropsOnceConsumerDies() throws Exception {
+        open.countDown();
+        AuditCoalescer dying = new AuditCoalescer(1000, 16) {
+            @Override
+            int coalesce(AuditEvent[] events, int count, long now) {
+                throw new OutOfMemoryError("dying consumer");
+            }
+        };
+        pipeline = new AuditPipeline(4, 2, AuditPipeline.OverflowPolicy.BLOCK, null, Collections.singletonList(sink),
+                dying);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 20; i++) {
+                    log(pipeline, "m" + i);
+                }
+            }
+        });
+        producer.start();
+
+        producer.join(TimeUnit.SECONDS.toMillis(10));
+        Assert.assertFalse(producer.isAlive());
+        Assert.assertTrue(pipeline.getDropped() >= 20 - 4 - 2);
+    }
+
+    @Test
+    public void testLoggedAfterClose() throws Exception {
+        open.countDown();
+        pipeline = new AuditPipeline(4, 2, AuditPipeline.OverflowPolicy.DROP, null,
+                Arrays.asList(new LoggingAuditSink(), sink));
+        pipeline.close();
+
+        // to the logging sink, on this thread, and not to the closed sink
+        log(pipeline, "late");
+        Assert.assertEquals(Collections.<String>emptyList(), shipped);
+        Assert.assertEquals(1, pipeline.getShipped());
+        Assert.assertEquals(0, pipeline.getFailed());
+
+        // with no logging sink, dropped
+        pipeline = new AuditPipeline(4, 2, AuditPipeline.OverflowPolicy.DROP, null, Collections.singletonList(sink));
+        pipeline.close();
+        log(pipeline, "late");
+        Assert.assertEquals(Collections.<String>emptyList(), shipped);
+        Assert.assertEquals(0, pipeline.getShipped());
+        Assert.assertEquals(1, pipeline.getDropped());
+    }
+
+    private static void log(AuditPipeline pipeline, String message) {
+        pipeline.log(PCIV20Requirement.PCI10_2_2, AuditStatement.Status.ATTEMPT, message, System.currentTimeMillis(), -1);
+    }
+
+}
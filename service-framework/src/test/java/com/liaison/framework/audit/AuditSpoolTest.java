@@ -0,0 +1,228 @@
+package com.liaison.framework.audit;
+
+import com.liaison.framework.audit.pci.PCIV20Requirement;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.RandomAccessFile;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for {@link AuditSpool}
+ */
+public class AuditSpoolTest {
+
+    private Path directory;
+    private final List<AuditSpool> spools = new ArrayList<AuditSpool>();
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("audit");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (AuditSpool spool : spools) {
+            spool.close();
+        }
+        delete(directory);
+    }
+
+    @Test
+    public void testReadsAcrossSegments() throws Exception {
+        AuditSpool spool = open(1024 * 1024);
+        AuditEvent event = new AuditEvent(PCIV20Requirement.PCI10_2_2, AuditStatement.Status.FAILED,
+                "denied \"\u00e9\"", 1000L, 12);
+        Assert.assertTrue(spool.append(event));
+        AuditEvent[] batch = batch(150);
+        // not published until committed
+        Assert.assertEquals(0, spool.read(batch));
+
+        for (int i = 1; i < 100; i++) {
+            Assert.assertTrue(spool.append(event(i)));
+        }
+        spool.commit();
+
+        Assert.assertEquals(100, spool.read(batch));
+        Assert.assertEquals(PCIV20Requirement.PCI10_2_2, batch[0].getAuditStandardsRequirement());
+        Assert.assertEquals(AuditStatement.Status.FAILED, batch[0].getStatus());
+        Assert.assertEquals("denied \"\u00e9\"", batch[0].getMessage());
+        Assert.assertEquals(1000L, batch[0].getTimestamp());
+        Assert.assertEquals(12, batch[0].getPid());
+        for (int i = 1; i < 100; i++) {
+            Assert.assertEquals("event " + i, batch[i].getMessage());
+        }
+        Assert.assertTrue(spool.getSegments() > 1);
+
+        // acknowledged segments are deleted, but for the one being read
+        spool.acknowledge();
+        Assert.assertEquals(1, spool.getSegments());
+        Assert.assertEquals(1, segments().size());
+        Assert.assertEquals(0, spool.read(batch));
+    }
+
+    @Test
+    public void testKeepsCoalescedCount() throws Exception {
+        AuditSpool spool = open(1024 * 1024);
+        AuditEvent event = event(1);
+        event.coalesce(5, 3);
+        spool.append(event);
+        spool.commit();
+
+        AuditEvent[] batch = batch(1);
+        Assert.assertEquals(1, spool.read(batch));
+        Assert.assertEquals(2, batch[0].getCount());
+        Assert.assertEquals(1, batch[0].getFirstTimestamp());
+        Assert.assertEquals(5, batch[0].getTimestamp());
+        Assert.assertEquals(1, batch[0].getMinPid());
+        Assert.assertEquals(3, batch[0].getMaxPid());
+        Assert.assertEquals("event 1", batch[0].getMessage());
+    }
+
+    @Test
+    public void testRewind() throws Exception {
+        AuditSpool spool = open(1024 * 1024);
+        for (int i = 0; i < 30; i++) {
+            spool.append(event(i));
+        }
+        spool.commit();
+
+        AuditEvent[] batch = batch(10);
+        Assert.assertEquals(10, spool.read(batch));
+        spool.acknowledge();
+        Assert.assertEquals(10, spool.read(batch));
+        spool.rewind();
+        Assert.assertEquals(10, spool.read(batch));
+        Assert.assertEquals("event 10", batch[0].getMessage());
+    }
+
+    @Test
+    public void testReplaysUnacknowledgedAfterRestart() throws Exception {
+        AuditSpool spool = open(1024 * 1024);
+        for (int i = 0; i < 50; i++) {
+            spool.append(event(i));
+        }
+        spool.commit();
+        AuditEvent[] batch = batch(20);
+        Assert.assertEquals(20, spool.read(batch));
+        spool.acknowledge();
+        // read, but not acknowledged
+        Assert.assertEquals(20, spool.read(batch));
+        spool.close();
+        spools.remove(spool);
+
+        AuditSpool restarted = open(1024 * 1024);
+        batch = batch(100);
+        Assert.assertEquals(30, restarted.read(batch));
+        for (int i = 0; i < 30; i++) {
+            Assert.assertEquals("event " + (i + 20), batch[i].getMessage());
+        }
+
+        // and new records follow in a new segment
+        restarted.append(event(50));
+        restarted.commit();
+        Assert.assertEquals(1, restarted.read(batch));
+        Assert.assertEquals("event 50", batch[0].getMessage());
+    }
+
+    @Test
+    public void testTornRecordEndsSegment() throws Exception {
+        AuditSpool spool = open(1024 * 1024);
+        for (int i = 0; i < 3; i++) {
+            spool.append(event(i));
+        }
+        spool.commit();
+        spool.close();
+        spools.remove(spool);
+
+        // corrupt the last record's payload, as if torn by a crash
+        Path segment = segments().get(0);
+        RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw");
+        try {
+            int position = 0;
+            for (int i = 0; i < 2; i++) {
+                file.seek(position);
+                position += 8 + file.readInt();
+            }
+            file.seek(position + 8 + 16);
+            file.writeByte(0x7f);
+        } finally {
+            file.close();
+        }
+
+        AuditSpool restarted = open(1024 * 1024);
+        AuditEvent[] batch = batch(10);
+        Assert.assertEquals(2, restarted.read(batch));
+        Assert.assertEquals("event 1", batch[1].getMessage());
+    }
+
+    @Test
+    public void testRejectsWhenFull() throws Exception {
+        AuditSpool spool = new AuditSpool(directory, 1024, 2048, AuditSpool.FsyncPolicy.NEVER);
+        spools.add(spool);
+        int appended = 0;
+        while (spool.append(event(appended))) {
+            appended++;
+        }
+        spool.commit();
+        Assert.assertTrue(appended > 0);
+        Assert.assertEquals(2, spool.getSegments());
+
+        // room again once forwarded
+        AuditEvent[] batch = batch(appended);
+        Assert.assertEquals(appended, spool.read(batch));
+        spool.acknowledge();
+        Assert.assertTrue(spool.append(event(appended)));
+    }
+
+    // of small segments, so that tests cross them
+    private AuditSpool open(long maxBytes) throws Exception {
+        AuditSpool spool = new AuditSpool(directory, 1024, maxBytes, AuditSpool.FsyncPolicy.BATCH);
+        spools.add(spool);
+        return spool;
+    }
+
+    private List<Path> segments() throws Exception {
+        List<Path> segments = new ArrayList<Path>();
+        DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.spool");
+        try {
+            for (Path file : files) {
+                segments.add(file);
+            }
+        } finally {
+            files.close();
+        }
+        return segments;
+    }
+
+    static AuditEvent[] batch(int size) {
+        AuditEvent[] batch = new AuditEvent[size];
+        for (int i = 0; i < size; i++) {
+            batch[i] = new AuditEvent();
+        }
+        return batch;
+    }
+
+    static AuditEvent event(int i) {
+        return new AuditEvent(PCIV20Requirement.PCI10_2_1, AuditStatement.Status.SUCCEED, "event " + i, i, i);
+    }
+
+    static void delete(Path directory) throws Exception {
+        DirectoryStream<Path> files = Files.newDirectoryStream(directory);
+        try {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        } finally {
+            files.close();
+        }
+        Files.delete(directory);
+    }
+
+}
@@ -0,0 +1,184 @@
+package com.liaison.framework.audit;
+
+import com.liaison.framework.audit.pci.PCIV20Requirement;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link AuditStore}
+ */
+public class AuditStoreTest {
+
+    private Path directory;
+    private AuditStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("audit");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (store != null) {
+            store.close();
+        }
+        AuditSpoolTest.delete(directory);
+    }
+
+    @Test
+    public void testQueryByRequirementStatusAndTime() throws Exception {
+        store = store(64L * 1024 * 1024, 1024);
+        AuditEvent[] events = new AuditEvent[1000];
+        for (int i = 0; i < events.length; i++) {
+            events[i] = new AuditEvent(i % 10 == 0 ? PCIV20Requirement.PCI10_2_4 : PCIV20Requirement.PCI10_2_2,
+                    i % 20 == 0 ? AuditStatement.Status.FAILED : AuditStatement.Status.SUCCEED, "event " + i, i, i);
+        }
+        store.write(events, events.length);
+
+        List<AuditEvent> failed = query(0, Long.MAX_VALUE, "PCI10_2_4", AuditStatement.Status.FAILED);
+        Assert.assertEquals(50, failed.size());
+        for (int i = 0; i < failed.size(); i++) {
+            Assert.assertEquals("event " + i * 20, failed.get(i).getMessage());
+            Assert.assertEquals(PCIV20Requirement.PCI10_2_4, failed.get(i).getAuditStandardsRequirement());
+            Assert.assertEquals(i * 20, failed.get(i).getTimestamp());
+        }
+
+        Assert.assertEquals(100, query(0, Long.MAX_VALUE, "PCI10_2_4", null).size());
+        Assert.assertEquals(50, query(0, Long.MAX_VALUE, null, AuditStatement.Status.FAILED).size());
+        Assert.assertEquals(0, query(0, Long.MAX_VALUE, "PCI10_2_1", null).size());
+
+        List<AuditEvent> range = query(100, 200, null, null);
+        Assert.assertEquals(100, range.size());
+        Assert.assertEquals("event 100", range.get(0).getMessage());
+        Assert.assertEquals("event 199", range.get(99).getMessage());
+    }
+
+    @Test
+    public void testQueryStops() throws Exception {
+        store = store(64L * 1024 * 1024, 1024);
+        for (int i = 0; i < 100; i++) {
+            store.write(new AuditEvent[]{AuditSpoolTest.event(i)}, 1);
+        }
+        final List<AuditEvent> visited = new ArrayList<AuditEvent>();
+        store.query(0, Long.MAX_VALUE, null, null, new AuditStore.Visitor() {
+            @Override
+            public boolean visit(AuditEvent event) {
+                visited.add(event);
+                return visited.size() < 10;
+            }
+        });
+        Assert.assertEquals(10, visited.size());
+    }
+
+    @Test
+    public void testCompressed() throws Exception {
+        store = store(64L * 1024 * 1024, 64 * 1024);
+        AuditEvent[] events = new AuditEvent[10000];
+        for (int i = 0; i < events.length; i++) {
+            events[i] = new AuditEvent(PCIV20Requirement.PCI10_2_2, AuditStatement.Status.ATTEMPT,
+                    "Attempting to create PID", 1792310400000L + i, i);
+        }
+        store.write(events, events.length);
+        store.flush();
+        // some 70 bytes uncompressed
+        Assert.assertTrue(store.getSize() + " bytes", store.getSize() < events.length * 10);
+        Assert.assertEquals(10000, query(0, Long.MAX_VALUE, null, null).size());
+    }
+
+    @Test
+    public void testRotationAndRetention() throws Exception {
+        store = store(4 * 1024, 1024);
+        for (int i = 0; i < 2000; i++) {
+            store.write(new AuditEvent[]{AuditSpoolTest.event(i)}, 1);
+        }
+        store.flush();
+        Assert.assertTrue(store.getSegments() > 1);
+        Assert.assertTrue(store.getSize() <= 16 * 1024 + 4 * 1024);
+
+        // the oldest segments are gone, and the latest are queried across segments
+        List<AuditEvent> all = query(0, Long.MAX_VALUE, null, null);
+        Assert.assertTrue(all.size() < 2000);
+        Assert.assertEquals("event 1999", all.get(all.size() - 1).getMessage());
+        for (int i = 1; i < all.size(); i++) {
+            Assert.assertEquals(all.get(i - 1).getTimestamp() + 1, all.get(i).getTimestamp());
+        }
+    }
+
+    @Test
+    public void testFlushedWhileIdle() throws Exception {
+        store = new AuditStore(directory, 64L * 1024 * 1024, 60 * 60 * 1000, 1024, 100, 24 * 60 * 60 * 1000,
+                16 * 1024);
+        store.write(new AuditEvent[]{AuditSpoolTest.event(0)}, 1);
+        Assert.assertEquals(0, store.getSize());
+
+        // with no further writes or queries
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (store.getSize() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(store.getSize() > 0);
+    }
+
+    @Test
+    public void testRetentionWhileIdle() throws Exception {
+        store = new AuditStore(directory, 64L * 1024 * 1024, 50, 1024, 100, 200, 16 * 1024);
+        store.write(new AuditEvent[]{AuditSpoolTest.event(0)}, 1);
+        Thread.sleep(60);
+        store.write(new AuditEvent[]{AuditSpoolTest.event(1)}, 1);
+        store.flush();
+        Assert.assertEquals(2, store.getSegments());
+
+        // the first segment expires with no further writes
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (store.getSegments() > 1 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(1, store.getSegments());
+    }
+
+    @Test
+    public void testQueriesAfterRestart() throws Exception {
+        store = store(64L * 1024 * 1024, 1024);
+        AuditEvent coalesced = AuditSpoolTest.event(1);
+        coalesced.coalesce(2, 7);
+        store.write(new AuditEvent[]{AuditSpoolTest.event(0), coalesced}, 2);
+        store.close();
+
+        store = store(64L * 1024 * 1024, 1024);
+        store.write(new AuditEvent[]{AuditSpoolTest.event(3)}, 1);
+        List<AuditEvent> all = query(0, Long.MAX_VALUE, null, null);
+        Assert.assertEquals(3, all.size());
+        Assert.assertEquals(2, all.get(1).getCount());
+        Assert.assertEquals(7, all.get(1).getMaxPid());
+        Assert.assertEquals("event 3", all.get(2).getMessage());
+        Assert.assertEquals(2, store.getSegments());
+    }
+
+    private AuditStore store(long segmentMaxBytes, int blockSize) throws IOException {
+        return new AuditStore(directory, segmentMaxBytes, 60 * 60 * 1000, blockSize, 1000, 24 * 60 * 60 * 1000,
+                16 * 1024);
+    }
+
+    private List<AuditEvent> query(long from, long to, String requirement, AuditStatement.Status status)
+            throws IOException {
+        final List<AuditEvent> events = new ArrayList<AuditEvent>();
+        store.query(from, to, requirement, status, new AuditStore.Visitor() {
+            @Override
+            public boolean visit(AuditEvent event) {
+                events.add(event);
+                return true;
+            }
+        });
+        return events;
+    }
+
+}
@@ -0,0 +1,129 @@
+package com.liaison.framework.audit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link SpoolingAuditSink}
+ */
+public class SpoolingAuditSinkTest {
+
+    private final List<String> forwarded = Collections.synchronizedList(new ArrayList<String>());
+    private volatile boolean available = true;
+
+    private Path directory;
+    private SpoolingAuditSink sink;
+
+    // fails while unavailable, as a remote sink would during an outage
+    private final AuditSink remote = new AuditSink() {
+        @Override
+        public void write(AuditEvent[] events, int count) throws Exception {
+            if (!available) {
+                throw new IOException("unavailable");
+            }
+            for (int i = 0; i < count; i++) {
+                forwarded.add(events[i].getMessage());
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("audit");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        available = true;
+        if (sink != null) {
+            sink.close();
+        }
+        AuditSpoolTest.delete(directory);
+    }
+
+    @Test
+    public void testForwards() throws Exception {
+        sink = sink();
+        write(0, 100);
+
+        await(100);
+        Assert.assertEquals(100, sink.getAppended());
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals("event " + i, forwarded.get(i));
+        }
+    }
+
+    @Test
+    public void testForwardsAfterOutage() throws Exception {
+        available = false;
+        sink = sink();
+        // spooled, rather than failed, while the remote sink is down
+        write(0, 50);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (sink.getFailures() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(sink.getFailures() > 0);
+        Assert.assertTrue(sink.getPendingBytes() > 0);
+
+        available = true;
+        write(50, 50);
+        await(100);
+        Assert.assertEquals(0, sink.getRejected());
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals("event " + i, forwarded.get(i));
+        }
+    }
+
+    @Test
+    public void testForwardsAfterRestart() throws Exception {
+        available = false;
+        sink = sink();
+        write(0, 20);
+        sink.close();
+        sink = null;
+        Assert.assertEquals(0, forwarded.size());
+
+        available = true;
+        sink = sink();
+        await(20);
+        Assert.assertEquals("event 19", forwarded.get(19));
+    }
+
+    private SpoolingAuditSink sink() throws Exception {
+        AuditSpool spool = new AuditSpool(directory, 1024, 1024 * 1024, AuditSpool.FsyncPolicy.INTERVAL);
+        return new SpoolingAuditSink(spool, remote, 16, 10);
+    }
+
+    private void write(int from, int count) throws Exception {
+        AuditEvent[] events = new AuditEvent[count];
+        for (int i = 0; i < count; i++) {
+            events[i] = AuditSpoolTest.event(from + i);
+        }
+        sink.write(events, count);
+    }
+
+    private void await(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (sink.getForwarded() < count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(count, sink.getForwarded());
+        Assert.assertEquals(count, forwarded.size());
+    }
+
+}
@@ -0,0 +1,394 @@
+package com.liaison.framework.audit.syslog;
+
+import com.liaison.framework.audit.AuditEvent;
+import com.liaison.framework.audit.AuditJsonEncoder;
+import com.liaison.framework.audit.AuditStatement;
+import com.liaison.framework.audit.pci.PCIV20Requirement;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.net.ssl.ExtendedSSLSession;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SNIServerName;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Tests for {@link AuditSyslogSink}, end to end against a loopback syslog receiver
+ */
+public class AuditSyslogSinkTest {
+
+    private static final Pattern RECORD = Pattern.compile("<131>1 (\\d{4}-\\d\\d-\\d\\dT\\d\\d:\\d\\d:\\d\\d\\.\\d{3}Z) \\S+ "
+            + "test \\d+ Audit \\[meta sequenceId=\"(\\d+)\"\\]\\[audit@18060 pid=\"(-?\\d+)\" status=\"(\\w+)\"\\] (.*)",
+            Pattern.DOTALL);
+
+    private static final char[] PASSWORD = "changeit".toCharArray();
+
+    // a receiver's certificate for localhost, and no other name or address, trusted by the test's sinks
+    private static Path keyStore;
+    private static SSLContext tls;
+
+    private SyslogReceiver receiver;
+    private AuditSyslogSink sink;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        Path keytool = Paths.get(System.getProperty("java.home"), "bin", "keytool");
+        if (!Files.isExecutable(keytool)) {
+            return;
+        }
+        keyStore = Files.createTempFile("syslog", ".p12");
+        Files.delete(keyStore);
+        Process process = new ProcessBuilder(keytool.toString(), "-genkeypair", "-keystore", keyStore.toString(),
+                "-storetype", "PKCS12", "-storepass", new String(PASSWORD), "-keypass", new String(PASSWORD),
+                "-alias", "syslog", "-keyalg", "RSA", "-keysize", "2048", "-validity", "2", "-dname", "CN=localhost",
+                "-ext", "SAN=dns:localhost").redirectErrorStream(true).start();
+        Assert.assertEquals(0, process.waitFor());
+
+        KeyStore store = KeyStore.getInstance("PKCS12");
+        store.load(Files.newInputStream(keyStore), PASSWORD);
+        KeyManagerFactory keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keys.init(store, PASSWORD);
+        TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trust.init(store);
+        tls = SSLContext.getInstance("TLS");
+        tls.init(keys.getKeyManagers(), trust.getTrustManagers(), null);
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        if (keyStore != null) {
+            Files.deleteIfExists(keyStore);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        receiver = new SyslogReceiver();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (sink != null) {
+            sink.close();
+        }
+        receiver.close();
+    }
+
+    @Test
+    public void testRecords() throws Exception {
+        sink = sink(receiver.getPort(), 5000);
+        AuditEvent event = new AuditEvent(PCIV20Requirement.PCI10_2_2, AuditStatement.Status.FAILED,
+                "denied \"\u00e9\"\n", 1000L, 12);
+        sink.write(new AuditEvent[]{event, event(2), event(3)}, 3);
+
+        List<String> records = receiver.await(3);
+        Matcher matcher = RECORD.matcher(records.get(0));
+        Assert.assertTrue(records.get(0), matcher.matches());
+        Assert.assertEquals("1970-01-01T00:00:01.000Z", matcher.group(1));
+        Assert.assertEquals("1", matcher.group(2));
+        Assert.assertEquals("12", matcher.group(3));
+        Assert.assertEquals("FAILED", matcher.group(4));
+        Assert.assertEquals(AuditJsonEncoder.toJson(event), matcher.group(5));
+
+        for (int i = 1; i < 3; i++) {
+            matcher = RECORD.matcher(records.get(i));
+            Assert.assertTrue(records.get(i), matcher.matches());
+            Assert.assertEquals(String.valueOf(i + 1), matcher.group(2));
+        }
+        Assert.assertEquals(3, sink.getSequence());
+        Assert.assertEquals(3, sink.getRecords());
+    }
+
+    @Test
+    public void testBatchWrittenAtOnce() throws Exception {
+        sink = sink(receiver.getPort(), 5000);
+        AuditEvent[] batch = new AuditEvent[200];
+        for (int i = 0; i < batch.length; i++) {
+            batch[i] = event(i);
+        }
+        sink.write(batch, batch.length);
+        sink.write(batch, 10);
+
+        List<String> records = receiver.await(210);
+        Assert.assertEquals(210, records.size());
+        Assert.assertEquals(2, sink.getWrites());
+        Assert.assertEquals(1, sink.getConnects());
+        Assert.assertEquals(210, sequenceId(records.get(209)));
+    }
+
+    @Test
+    public void testReconnects() throws Exception {
+        sink = sink(receiver.getPort(), 5000);
+        sink.write(new AuditEvent[]{event(1)}, 1);
+        receiver.await(1);
+
+        // dropped by the receiver, so that later writes fail and reconnect
+        receiver.disconnect();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        int written = 1;
+        while (sink.getConnects() < 2 && System.nanoTime() < deadline) {
+            sink.write(new AuditEvent[]{event(++written)}, 1);
+            Thread.sleep(10);
+        }
+        sink.write(new AuditEvent[]{event(++written)}, 1);
+
+        Assert.assertTrue(sink.getDisconnects() >= 1);
+        Assert.assertEquals(2, sink.getConnects());
+
+        // any records lost with the connection show as a gap in the sequence
+        List<String> records = receiver.await(2);
+        while (sequenceId(records.get(records.size() - 1)) < written && System.nanoTime() < deadline) {
+            records = receiver.await(records.size() + 1);
+        }
+        long last = 0;
+        for (String record : records) {
+            long sequenceId = sequenceId(record);
+            Assert.assertTrue(sequenceId > last);
+            last = sequenceId;
+        }
+        Assert.assertEquals(written, last);
+    }
+
+    @Test
+    public void testGivesUpAfterRetryPeriod() throws Exception {
+        int port = receiver.getPort();
+        receiver.close();
+
+        sink = sink(port, 300);
+        long start = System.nanoTime();
+        try {
+            sink.write(new AuditEvent[]{event(1)}, 1);
+            Assert.fail("Expected the write to fail without a receiver");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains(String.valueOf(port)));
+        }
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+        Assert.assertEquals(0, sink.getConnects());
+    }
+
+    @Test
+    public void testTls() throws Exception {
+        Assume.assumeNotNull(tls);
+        receiver.close();
+        receiver = new SyslogReceiver(tls.getServerSocketFactory().createServerSocket(0, 50,
+                InetAddress.getLoopbackAddress()));
+
+        sink = sink("localhost", receiver.getPort(), tls.getSocketFactory(), 5000);
+        sink.write(new AuditEvent[]{event(1), event(2)}, 2);
+        List<String> records = receiver.await(2);
+        Assert.assertEquals(2, sequenceId(records.get(1)));
+        Assert.assertEquals(Collections.<SNIServerName>singletonList(new SNIHostName("localhost")), receiver.serverNames);
+    }
+
+    @Test
+    public void testTlsVerifiesHost() throws Exception {
+        Assume.assumeNotNull(tls);
+        receiver.close();
+        receiver = new SyslogReceiver(tls.getServerSocketFactory().createServerSocket(0, 50,
+                InetAddress.getLoopbackAddress()));
+
+        // a trusted certificate, but of another host
+        sink = sink(InetAddress.getLoopbackAddress().getHostAddress(), receiver.getPort(), tls.getSocketFactory(), 300);
+        try {
+            sink.write(new AuditEvent[]{event(1)}, 1);
+            Assert.fail("Expected the receiver's certificate to be refused");
+        } catch (IOException e) {
+            // expected
+        }
+        Assert.assertEquals(0, sink.getConnects());
+    }
+
+    @Test
+    public void testStalledReceiverTimesOut() throws Exception {
+        stalled(new ServerSocket(), null);
+    }
+
+    @Test
+    public void testStalledTlsReceiverTimesOut() throws Exception {
+        Assume.assumeNotNull(tls);
+        stalled(tls.getServerSocketFactory().createServerSocket(), tls.getSocketFactory());
+    }
+
+    /**
+     * Writes more than the socket buffers hold to a receiver which accepts the connection but never reads
+     */
+    private void stalled(final ServerSocket server, SSLSocketFactory factory) throws Exception {
+        final List<Socket> accepted = Collections.synchronizedList(new ArrayList<Socket>());
+        server.setReceiveBufferSize(4096);
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        Socket socket = server.accept();
+                        accepted.add(socket);
+                        if (socket instanceof SSLSocket) {
+                            ((SSLSocket) socket).startHandshake();
+                        }
+                    }
+                } catch (IOException e) {
+                    // closed
+                }
+            }
+        }, "StalledSyslogReceiver");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        StringBuilder message = new StringBuilder();
+        while (message.length() < 64 * 1024) {
+            message.append("stalled ");
+        }
+        AuditEvent[] batch = new AuditEvent[512];
+        for (int i = 0; i < batch.length; i++) {
+            batch[i] = new AuditEvent(PCIV20Requirement.PCI10_2_1, AuditStatement.Status.SUCCEED, message.toString(),
+                    System.currentTimeMillis(), i);
+        }
+
+        sink = sink("localhost", server.getLocalPort(), factory, 500);
+        long start = System.nanoTime();
+        try {
+            sink.write(batch, batch.length);
+            Assert.fail("Expected the write to time out");
+        } catch (IOException e) {
+            Assert.assertTrue(e.toString(), e instanceof SocketTimeoutException);
+        } finally {
+            server.close();
+            synchronized (accepted) {
+                for (Socket socket : accepted) {
+                    socket.close();
+                }
+            }
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assert.assertTrue("Took " + elapsedMillis + "ms", elapsedMillis < 5000);
+        Assert.assertEquals(1, sink.getConnects());
+    }
+
+    private static AuditSyslogSink sink(int port, long retryMaxMillis) {
+        return sink(InetAddress.getLoopbackAddress().getHostAddress(), port, null, retryMaxMillis);
+    }
+
+    private static AuditSyslogSink sink(String host, int port, SSLSocketFactory tls, long retryMaxMillis) {
+        return new AuditSyslogSink(host, port, tls, "test", 16, 18060, 1000, 20, 100, retryMaxMillis);
+    }
+
+    private static AuditEvent event(int i) {
+        return new AuditEvent(PCIV20Requirement.PCI10_2_1, AuditStatement.Status.SUCCEED, "event " + i,
+                System.currentTimeMillis(), i);
+    }
+
+    private static long sequenceId(String record) {
+        Matcher matcher = RECORD.matcher(record);
+        Assert.assertTrue(record, matcher.matches());
+        return Long.parseLong(matcher.group(2));
+    }
+
+    /**
+     * Loopback stand-in for a syslog receiver, reading octet counted records from one connection at a time
+     */
+    private static class SyslogReceiver implements Runnable {
+
+        private final ServerSocket server;
+        private final Thread thread;
+        private final List<String> records = Collections.synchronizedList(new ArrayList<String>());
+        private volatile Socket connection;
+        // named by the last TLS connection's client
+        private volatile List<SNIServerName> serverNames;
+
+        SyslogReceiver() throws IOException {
+            this(new ServerSocket(0, 50, InetAddress.getLoopbackAddress()));
+        }
+
+        SyslogReceiver(ServerSocket server) {
+            this.server = server;
+            thread = new Thread(this, "SyslogReceiver");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int getPort() {
+            return server.getLocalPort();
+        }
+
+        @Override
+        public void run() {
+            while (!server.isClosed()) {
+                try {
+                    connection = server.accept();
+                    if (connection instanceof SSLSocket) {
+                        serverNames = ((ExtendedSSLSession) ((SSLSocket) connection).getSession()).getRequestedServerNames();
+                    }
+                    DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+                    while (true) {
+                        int length = 0;
+                        int b;
+                        while ((b = in.read()) != ' ') {
+                            if (b < '0' || b > '9') {
+                                throw new EOFException();
+                            }
+                            length = length * 10 + (b - '0');
+                        }
+                        byte[] record = new byte[length];
+                        in.readFully(record);
+                        records.add(new String(record, StandardCharsets.UTF_8));
+                    }
+                } catch (IOException e) {
+                    // next connection
+                }
+            }
+        }
+
+        List<String> await(int count) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (records.size() < count && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertTrue("Received " + records.size() + " of " + count + " records", records.size() >= count);
+            synchronized (records) {
+                return new ArrayList<String>(records);
+            }
+        }
+
+        void disconnect() throws IOException {
+            connection.close();
+        }
+
+        void close() throws IOException {
+            server.close();
+            if (connection != null) {
+                connection.close();
+            }
+        }
+    }
+
+}
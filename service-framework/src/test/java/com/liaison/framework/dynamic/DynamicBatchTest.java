@@ -0,0 +1,174 @@
+package com.liaison.framework.dynamic;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.liaison.framework.dynamic.runtime.JavaFunctionRuntime;
+import org.codehaus.jackson.JsonParseException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Tests for {@link DynamicBatch}
+ */
+public class DynamicBatchTest {
+
+    private static final String BINDINGS = "{\"bindings\": ["
+            + "{\"about\": {\"author\": \"test\", \"description\": \"test\"}, \"runtime\": \"java\","
+            + "\"operations\": [{\"operationUrl\": \"/multiply/{a}/{b}\", \"allowedMethods\": [\"GET\"]},"
+            + "{\"operationUrl\": \"/fail\", \"allowedMethods\": [\"GET\"]}],"
+            + "\"serviceName\": \"BatchMathService\", \"baseURI\": \"/v1/math\","
+            + "\"bulkhead\": {\"maxConcurrent\": 1, \"maxQueued\": 8}},"
+            + "{\"about\": {\"author\": \"test\", \"description\": \"test\"}, \"runtime\": \"java\","
+            + "\"operations\": [{\"operationUrl\": \"/sleep/{millis}\", \"allowedMethods\": [\"GET\"]}],"
+            + "\"serviceName\": \"BatchSleepService\", \"baseURI\": \"/v1/sleep\"}]}";
+
+    private Path directory;
+    private DynamicBindingsRegistry registry;
+
+    @Before
+    public void setUp() throws Exception {
+        JavaFunctionRuntime.register("BatchMathService", "multiply", new Function<Object[], Object>() {
+            @Override
+            public Object apply(Object[] parameters) {
+                return Integer.parseInt((String) parameters[0]) * Integer.parseInt((String) parameters[1]);
+            }
+        });
+        JavaFunctionRuntime.register("BatchMathService", "fail", new Function<Object[], Object>() {
+            @Override
+            public Object apply(Object[] parameters) {
+                throw new IllegalStateException("failed");
+            }
+        });
+        JavaFunctionRuntime.register("BatchSleepService", "sleep", new Function<Object[], Object>() {
+            @Override
+            public Object apply(Object[] parameters) {
+                try {
+                    Thread.sleep(Long.parseLong((String) parameters[0]));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return Thread.currentThread().getName();
+            }
+        });
+
+        directory = Files.createTempDirectory("dyn");
+        Files.write(directory.resolve("bindings.json"), BINDINGS.getBytes(StandardCharsets.UTF_8));
+        registry = new DynamicBindingsRegistry(directory);
+        registry.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        registry.shutdown();
+        Files.delete(directory.resolve("bindings.json"));
+        Files.delete(directory);
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        List<DynamicBatch.Item> items = DynamicBatch.parse(stream(
+                "[\"/v1/math/multiply/3/4\", {\"path\": \"/v1/math/fail\", \"method\": \"post\", \"extra\": [1, {}]}]"), 10);
+        Assert.assertEquals(2, items.size());
+        Assert.assertEquals("GET", items.get(0).method);
+        Assert.assertEquals("/v1/math/multiply/3/4", items.get(0).path);
+        Assert.assertEquals("POST", items.get(1).method);
+        Assert.assertEquals("/v1/math/fail", items.get(1).path);
+
+        // reads no further than asked
+        Assert.assertEquals(1, DynamicBatch.parse(stream("[\"/a\", \"/b\", \"/c\""), 1).size());
+
+        for (String malformed : new String[]{"{}", "[1]", "[{\"method\": \"GET\"}]", "[\"/a\""}) {
+            try {
+                DynamicBatch.parse(stream(malformed), 10);
+                Assert.fail("Expected " + malformed + " to be rejected");
+            } catch (JsonParseException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testResultsInRequestOrder() throws Exception {
+        ServletFakes.Response response = run("[\"/v1/math/multiply/3/4\", \"/v1/math/nope\","
+                + "{\"method\": \"DELETE\", \"path\": \"/v1/math/multiply/1/1\"}, \"/v1/sleep/sleep/20\","
+                + "\"/v1/math/fail\", \"/v1/math/multiply/2/5\"]");
+
+        Assert.assertEquals(HttpServletResponse.SC_OK, response.status);
+        JsonArray results = new JsonParser().parse(response.body()).getAsJsonArray();
+        Assert.assertEquals(6, results.size());
+
+        JsonObject multiply = results.get(0).getAsJsonObject();
+        Assert.assertEquals("/v1/math/multiply/3/4", multiply.get("Path").getAsString());
+        Assert.assertEquals(200, multiply.get("Status").getAsInt());
+        Assert.assertEquals("multiply", multiply.get("Function").getAsString());
+        Assert.assertEquals("4", multiply.get("Parameters").getAsJsonArray().get(1).getAsString());
+        Assert.assertEquals(12, multiply.get("Result").getAsInt());
+
+        Assert.assertEquals(404, status(results, 1));
+        Assert.assertEquals(405, status(results, 2));
+        Assert.assertEquals(200, status(results, 3));
+        Assert.assertEquals(500, status(results, 4));
+        Assert.assertEquals("Error invoking fail", results.get(4).getAsJsonObject().get("Error").getAsString());
+        Assert.assertEquals(10, results.get(5).getAsJsonObject().get("Result").getAsInt());
+
+        // every invocation let go of the binding's bulkhead, including those run ahead on the executor
+        Assert.assertEquals(0, registry.getSnapshot().getBulkheads().iterator().next().getActive());
+    }
+
+    @Test
+    public void testRunsInParallel() throws Exception {
+        long start = System.nanoTime();
+        ServletFakes.Response response = run("[\"/v1/sleep/sleep/300\", \"/v1/sleep/sleep/300\", \"/v1/sleep/sleep/300\","
+                + "\"/v1/sleep/sleep/300\"]");
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        JsonArray results = new JsonParser().parse(response.body()).getAsJsonArray();
+        Assert.assertEquals(4, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            Assert.assertEquals(200, status(results, i));
+            Assert.assertTrue(results.get(i).getAsJsonObject().get("Result").getAsString().startsWith("DynamicScriptExecutor"));
+        }
+        Assert.assertTrue("Batch took " + elapsed + "ms", elapsed < 900);
+    }
+
+    @Test
+    public void testRejectsMalformedAndOversizedBatches() throws Exception {
+        Assert.assertEquals(HttpServletResponse.SC_BAD_REQUEST, run("{\"path\": \"/v1/math/multiply/1/2\"}").status);
+
+        StringBuilder oversized = new StringBuilder("[");
+        for (int i = 0; i <= 100; i++) {
+            oversized.append(i == 0 ? "" : ",").append("\"/v1/math/multiply/1/2\"");
+        }
+        Assert.assertEquals(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, run(oversized.append("]").toString()).status);
+    }
+
+    private ServletFakes.Response run(String body) throws IOException {
+        ServletFakes.Response response = new ServletFakes.Response();
+        DynamicBatch.run(registry.getSnapshot(), ServletFakes.request("POST", "/batch", stream(body)),
+                response.servletResponse());
+        return response;
+    }
+
+    private static int status(JsonArray results, int index) {
+        return results.get(index).getAsJsonObject().get("Status").getAsInt();
+    }
+
+    private static InputStream stream(String body) {
+        return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
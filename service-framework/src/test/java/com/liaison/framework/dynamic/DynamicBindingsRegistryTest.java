@@ -0,0 +1,106 @@
+package com.liaison.framework.dynamic;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Tests for {@link DynamicBindingsRegistry}
+ */
+public class DynamicBindingsRegistryTest {
+
+    private static final String BINDINGS = "{\"bindings\": [{"
+            + "\"about\": {\"author\": \"test\", \"description\": \"test\"},"
+            + "\"operations\": [{\"operationUrl\": \"/%s/{a}\", \"allowedMethods\": [\"GET\"]}],"
+            + "\"serviceName\": \"TestService\", \"baseURI\": \"/v1/test\", \"scriptLocation\": \"scripts/test.js\"}]}";
+
+    private Path directory;
+    private DynamicBindingsRegistry registry;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("dyn");
+        Files.createDirectories(directory.resolve("scripts"));
+        write("scripts/test.js", "function echo(a) { return a; }");
+        write("bindings.json", String.format(BINDINGS, "echo"));
+        registry = new DynamicBindingsRegistry(directory);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        registry.shutdown();
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    @Test
+    public void testLoadFromDirectory() throws Exception {
+        registry.start();
+
+        DynamicBindingsSnapshot snapshot = registry.getSnapshot();
+        Assert.assertEquals(1, snapshot.getVersion());
+        Assert.assertArrayEquals(new String[]{"TestService"}, snapshot.getServiceNames());
+        Assert.assertEquals("function echo(a) { return a; }", snapshot.getScript("scripts/test.js"));
+        Assert.assertNotNull(snapshot.getMatcher().match("GET", "/v1/test/echo/1"));
+        // no bulkhead configured
+        Assert.assertTrue(snapshot.getBulkheads().isEmpty());
+    }
+
+    @Test
+    public void testReloadSwapsSnapshot() throws Exception {
+        registry.start();
+        DynamicBindingsSnapshot first = registry.getSnapshot();
+
+        write("bindings.json", String.format(BINDINGS, "reverse"));
+        DynamicBindingsSnapshot second = registry.reload();
+
+        Assert.assertSame(second, registry.getSnapshot());
+        Assert.assertEquals(first.getVersion() + 1, second.getVersion());
+        Assert.assertNull(second.getMatcher().match("GET", "/v1/test/echo/1"));
+        Assert.assertNotNull(second.getMatcher().match("GET", "/v1/test/reverse/1"));
+
+        // the earlier snapshot is unaffected
+        Assert.assertNotNull(first.getMatcher().match("GET", "/v1/test/echo/1"));
+    }
+
+    @Test
+    public void testFailedReloadKeepsSnapshot() throws Exception {
+        registry.start();
+        DynamicBindingsSnapshot first = registry.getSnapshot();
+
+        Files.delete(directory.resolve("scripts/test.js"));
+        try {
+            registry.reload();
+            Assert.fail("Expected reload to fail on a missing script");
+        } catch (RuntimeException e) {
+            // expected
+        }
+
+        Assert.assertSame(first, registry.getSnapshot());
+    }
+
+    private void write(String name, String contents) throws IOException {
+        Files.write(directory.resolve(name), contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,110 @@
+package com.liaison.framework.dynamic;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link DynamicBulkhead}
+ */
+public class DynamicBulkheadTest {
+
+    @Test
+    public void testRejectsBeyondConcurrencyWithoutQueue() throws Exception {
+        DynamicBulkhead bulkhead = new DynamicBulkhead("TestService", new Bulkhead(2, 0));
+
+        Assert.assertTrue(bulkhead.tryEnter());
+        Assert.assertTrue(bulkhead.tryEnter());
+        Assert.assertEquals(2, bulkhead.getActive());
+
+        // no queue, so rejected without waiting
+        long start = System.nanoTime();
+        Assert.assertFalse(bulkhead.tryEnter());
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(DynamicBulkhead.DEFAULT_MAX_QUEUE_WAIT_MILLIS));
+        Assert.assertEquals(1, bulkhead.getRejected());
+
+        bulkhead.exit();
+        Assert.assertTrue(bulkhead.tryEnter());
+        bulkhead.exit();
+        bulkhead.exit();
+        Assert.assertEquals(0, bulkhead.getActive());
+    }
+
+    @Test
+    public void testQueuedRequestIsAdmittedOnExit() throws Exception {
+        final DynamicBulkhead bulkhead = new DynamicBulkhead("TestService", new Bulkhead(1, 1));
+        Assert.assertTrue(bulkhead.tryEnter());
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> queued = executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return bulkhead.tryEnter();
+                }
+            });
+
+            while (bulkhead.getQueued() == 0) {
+                Thread.sleep(1);
+            }
+
+            // the queue is full, so a third request is rejected outright
+            Assert.assertFalse(bulkhead.tryEnter());
+
+            bulkhead.exit();
+            Assert.assertTrue(queued.get(5, TimeUnit.SECONDS));
+            Assert.assertEquals(0, bulkhead.getQueued());
+            Assert.assertEquals(1, bulkhead.getActive());
+            Assert.assertEquals(1, bulkhead.getRejected());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testQueueWaitTimesOut() throws Exception {
+        Bulkhead config = new Bulkhead(1, 4);
+        config.maxQueueWaitMillis = 20;
+        config.retryAfterSeconds = 5;
+        final DynamicBulkhead bulkhead = new DynamicBulkhead("TestService", config);
+        Assert.assertEquals(5, bulkhead.getRetryAfterSeconds());
+
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    bulkhead.tryEnter();
+                    entered.countDown();
+                    release.await();
+                    bulkhead.exit();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        holder.start();
+        entered.await();
+
+        Assert.assertFalse(bulkhead.tryEnter());
+        Assert.assertEquals(0, bulkhead.getQueued());
+        Assert.assertEquals(1, bulkhead.getRejected());
+
+        release.countDown();
+        holder.join();
+        Assert.assertEquals(0, bulkhead.getActive());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRequiresConcurrency() {
+        new DynamicBulkhead("TestService", new Bulkhead(0, 0));
+    }
+
+}
@@ -0,0 +1,122 @@
+package com.liaison.framework.dynamic;
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures {@link DynamicKeyValueStore} read and write throughput from 1 to N threads.  Not run as part
+ * of the test suite, run main() directly, ie with -Dbenchmark.iterations=1000000 -Dbenchmark.threads=16
+ * <p/>
+ * Reported per store and thread count is the total throughput of reads, of writes, and of a mix of 9
+ * reads to a write, over 10000 keys, after a warm-up of the same number of operations per thread.
+ * Writes are of a store held in memory, of one logged to a temporary directory, and of one forcing each
+ * log record to disk, which is run for a hundredth of the iterations.
+ */
+public class DynamicKeyValueStoreBenchmark {
+
+    private static final int KEYS = 10000;
+
+    public static void main(String[] args) throws Exception {
+
+        int iterations = Integer.getInteger("benchmark.iterations", 200000);
+        int maxThreads = Integer.getInteger("benchmark.threads", Runtime.getRuntime().availableProcessors());
+        Path directory = Files.createTempDirectory("dynstore");
+
+        try {
+            DynamicKeyValueStore memory = new DynamicKeyValueStore("memory", null, false);
+            DynamicKeyValueStore logged = new DynamicKeyValueStore("logged", directory, false);
+            DynamicKeyValueStore synced = new DynamicKeyValueStore("synced", directory, true);
+            for (int k = 0; k < KEYS; k++) {
+                memory.put("key" + k, k);
+                logged.put("key" + k, k);
+            }
+
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                run("read", memory, 0, threads, iterations);
+                run("write (memory)", memory, 1, threads, iterations);
+                run("write (logged)", logged, 1, threads, iterations);
+                run("write (synced)", synced, 1, threads, Math.max(1, iterations / 100));
+                run("90% read (logged)", logged, 10, threads, iterations);
+            }
+
+            long start = System.nanoTime();
+            logged.snapshot();
+            System.out.println(String.format("%-24s %10.1f ms  (%d entries)", "snapshot (logged)",
+                    (System.nanoTime() - start) / 1e6, logged.size()));
+            start = System.nanoTime();
+            DynamicKeyValueStore recovered = new DynamicKeyValueStore("logged", directory, false);
+            System.out.println(String.format("%-24s %10.1f ms  (%d entries)", "recovery (logged)",
+                    (System.nanoTime() - start) / 1e6, recovered.size()));
+        } finally {
+            DirectoryStream<Path> files = Files.newDirectoryStream(directory);
+            try {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            } finally {
+                files.close();
+            }
+            Files.delete(directory);
+        }
+    }
+
+    /**
+     * @param writeEvery 0 for reads only, otherwise one operation in writeEvery is a write
+     */
+    private static void run(String name, DynamicKeyValueStore store, int writeEvery, int threads, int iterations)
+            throws Exception {
+
+        // warm-up
+        measure(store, writeEvery, threads, iterations);
+
+        long elapsed = measure(store, writeEvery, threads, iterations);
+        System.out.println(String.format("%-24s %2d threads %12.0f ops/s  (%d ops per thread)", name, threads,
+                (double) threads * iterations * 1000000000L / elapsed, iterations));
+    }
+
+    private static long measure(final DynamicKeyValueStore store, final int writeEvery, int threads,
+                                final int iterations) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            List<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for (int t = 0; t < threads; t++) {
+                final int offset = t * 7919;
+                futures.add(executor.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        start.await();
+                        Object sink = null;
+                        for (int i = 0; i < iterations; i++) {
+                            String key = "key" + (offset + i) % KEYS;
+                            if (writeEvery != 0 && i % writeEvery == 0) {
+                                store.put(key, i);
+                            } else {
+                                sink = store.getJson(key);
+                            }
+                        }
+                        return sink;
+                    }
+                }));
+            }
+
+            long begin = System.nanoTime();
+            start.countDown();
+            for (Future<Object> future : futures) {
+                future.get();
+            }
+            return System.nanoTime() - begin;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
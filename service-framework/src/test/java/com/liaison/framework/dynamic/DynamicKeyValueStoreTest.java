@@ -0,0 +1,246 @@
+package com.liaison.framework.dynamic;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tests for {@link DynamicKeyValueStore}
+ */
+public class DynamicKeyValueStoreTest {
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("dynstore");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (Path file : files()) {
+            Files.delete(file);
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void testReadsAndWrites() throws Exception {
+        DynamicKeyValueStore store = new DynamicKeyValueStore("InMemoryService", null, false);
+        Map<String, Object> value = new LinkedHashMap<String, Object>();
+        value.put("name", "foo");
+        value.put("tags", Arrays.asList("a", "b"));
+
+        store.put("1", value);
+        Assert.assertEquals(value, store.get("1"));
+        Assert.assertEquals("{\"name\":\"foo\",\"tags\":[\"a\",\"b\"]}", store.getJson("1"));
+        Assert.assertFalse(store.putIfAbsent("1", "other"));
+        Assert.assertTrue(store.putIfAbsent("2", 2.5));
+        Assert.assertEquals(2.5, store.get("2"));
+        Assert.assertEquals(2, store.size());
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("1", "2")), keys(store));
+
+        Assert.assertTrue(store.remove("1"));
+        Assert.assertFalse(store.remove("1"));
+        Assert.assertNull(store.get("1"));
+        Assert.assertFalse(store.containsKey("1"));
+
+        // nothing to snapshot in memory, and no files written
+        store.close();
+        Assert.assertTrue(files().isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullValue() throws Exception {
+        new DynamicKeyValueStore("InMemoryService", null, false).put("1", null);
+    }
+
+    @Test
+    public void testRecovery() throws Exception {
+        DynamicKeyValueStore store = new DynamicKeyValueStore("Crud/Foo", directory, false);
+        store.put("1", "one");
+        store.put("2", "two");
+        store.snapshot();
+        // after the snapshot, in the next log
+        store.put("3", "three");
+        store.remove("1");
+
+        // as after a crash, without a snapshot on close
+        DynamicKeyValueStore recovered = new DynamicKeyValueStore("Crud/Foo", directory, false);
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("2", "3")), keys(recovered));
+        Assert.assertEquals("three", recovered.get("3"));
+
+        // the snapshot on close replaces every earlier log and snapshot
+        recovered.close();
+        Assert.assertEquals(Arrays.asList("Crud%2FFoo.2.log", "Crud%2FFoo.2.snapshot"), fileNames());
+        Assert.assertEquals("two", new DynamicKeyValueStore("Crud/Foo", directory, false).get("2"));
+    }
+
+    @Test
+    public void testNamespacesDoNotShareFiles() throws Exception {
+        DynamicKeyValueStore dotted = new DynamicKeyValueStore("a.b", directory, false);
+        DynamicKeyValueStore underscored = new DynamicKeyValueStore("a_b", directory, false);
+        dotted.put("1", "dotted");
+        underscored.put("1", "underscored");
+        dotted.close();
+        underscored.close();
+
+        Assert.assertEquals("dotted", new DynamicKeyValueStore("a.b", directory, false).get("1"));
+        Assert.assertEquals("underscored", new DynamicKeyValueStore("a_b", directory, false).get("1"));
+        Assert.assertEquals("a%25b%2E%C3%A9", DynamicKeyValueStore.fileNamespace("a%b.\u00e9"));
+    }
+
+    @Test
+    public void testInterruptedWriter() throws Exception {
+        final DynamicKeyValueStore store = new DynamicKeyValueStore("InterruptedService", directory, false);
+        // as a script thread cancelled, or over budget, while it writes
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Thread.currentThread().interrupt();
+                try {
+                    store.put("1", "interrupted");
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        writer.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread t, Throwable e) {
+                failures.add(e);
+            }
+        });
+        writer.start();
+        writer.join();
+
+        store.put("2", "later");
+        Assert.assertEquals(2, store.size());
+
+        DynamicKeyValueStore recovered = new DynamicKeyValueStore("InterruptedService", directory, false);
+        Assert.assertEquals("interrupted", recovered.get("1"));
+        Assert.assertEquals("later", recovered.get("2"));
+        Assert.assertEquals(Collections.<Throwable>emptyList(), failures);
+    }
+
+    @Test
+    public void testTornLogRecord() throws Exception {
+        DynamicKeyValueStore store = new DynamicKeyValueStore("TornService", directory, false);
+        store.put("1", "one");
+        store.put("2", "two");
+
+        // cut the last record short, as a crash mid-write would
+        Path log = directory.resolve("TornService.0.log");
+        FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE);
+        long whole = channel.size();
+        channel.truncate(whole - 3);
+        channel.close();
+
+        DynamicKeyValueStore recovered = new DynamicKeyValueStore("TornService", directory, false);
+        Assert.assertEquals("one", recovered.get("1"));
+        Assert.assertNull(recovered.get("2"));
+
+        // the torn record is truncated, so that later writes are recovered too
+        recovered.put("3", "three");
+        DynamicKeyValueStore again = new DynamicKeyValueStore("TornService", directory, false);
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("1", "3")), keys(again));
+    }
+
+    @Test
+    public void testConcurrentWrites() throws Exception {
+        final DynamicKeyValueStore store = new DynamicKeyValueStore("ConcurrentService", directory, false);
+        final int threads = 8;
+        final int keys = 500;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                futures.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        // every thread races for every key, and snapshots along the way
+                        int won = 0;
+                        for (int k = 0; k < keys; k++) {
+                            if (store.putIfAbsent("key" + k, thread)) {
+                                won++;
+                            }
+                            store.put("thread" + thread + "." + k, k);
+                            if (k % 100 == 0) {
+                                store.snapshot();
+                            }
+                        }
+                        return won;
+                    }
+                }));
+            }
+            int won = 0;
+            for (Future<Integer> future : futures) {
+                won += future.get();
+            }
+            Assert.assertEquals(keys, won);
+        } finally {
+            executor.shutdown();
+        }
+
+        Assert.assertEquals(keys + threads * keys, store.size());
+        DynamicKeyValueStore recovered = new DynamicKeyValueStore("ConcurrentService", directory, false);
+        Assert.assertEquals(keys(store), keys(recovered));
+        for (int k = 0; k < keys; k++) {
+            Assert.assertEquals(store.get("key" + k), recovered.get("key" + k));
+        }
+    }
+
+    private static Set<String> keys(DynamicKeyValueStore store) {
+        Set<String> keys = new HashSet<String>();
+        for (Iterator<String> i = store.keys(); i.hasNext(); ) {
+            keys.add(i.next());
+        }
+        return keys;
+    }
+
+    private List<Path> files() throws IOException {
+        List<Path> files = new ArrayList<Path>();
+        DirectoryStream<Path> stream = Files.newDirectoryStream(directory);
+        try {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        } finally {
+            stream.close();
+        }
+        return files;
+    }
+
+    private List<String> fileNames() throws IOException {
+        List<String> names = new ArrayList<String>();
+        for (Path file : files()) {
+            names.add(file.getFileName().toString());
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+}
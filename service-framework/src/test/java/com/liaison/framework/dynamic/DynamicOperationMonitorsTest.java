@@ -0,0 +1,123 @@
+package com.liaison.framework.dynamic;
+
+import com.netflix.servo.DefaultMonitorRegistry;
+import com.netflix.servo.monitor.Monitor;
+import com.netflix.servo.monitor.MonitorConfig;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link DynamicOperationMonitors} and {@link LatencyHistogram}
+ */
+public class DynamicOperationMonitorsTest {
+
+    private static final About ABOUT = new About("test", "test");
+
+    @Test
+    public void testHistogramBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram(MonitorConfig.builder("latencyHistogram").build());
+
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(500));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(1));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(7));
+        histogram.record(TimeUnit.SECONDS.toNanos(60));
+
+        Assert.assertEquals(4L, histogram.getValue().longValue());
+        Assert.assertEquals(2L, bucket(histogram, "1ms"));
+        Assert.assertEquals(0L, bucket(histogram, "5ms"));
+        Assert.assertEquals(1L, bucket(histogram, "10ms"));
+        Assert.assertEquals(1L, bucket(histogram, "overflow"));
+    }
+
+    @Test
+    public void testRegisteredPerOperation() throws Exception {
+        Operation multiply = new Operation("multiply/{a}/{b}", new String[]{"GET"});
+        Operation divide = new Operation("divide/{a}/{b}", new String[]{"GET"});
+        DynamicBinding binding = new DynamicBinding("MonitoredService", ABOUT, new Operation[]{multiply, divide}, "/v1/m/", "m.js");
+
+        DynamicOperationMonitors multiplyMonitors = new DynamicOperationMonitors(binding, multiply);
+        DynamicOperationMonitors divideMonitors = new DynamicOperationMonitors(binding, divide);
+
+        int before = DefaultMonitorRegistry.getInstance().getRegisteredMonitors().size();
+        multiplyMonitors.registerMonitors();
+        divideMonitors.registerMonitors();
+        try {
+            Assert.assertEquals(before + 2, DefaultMonitorRegistry.getInstance().getRegisteredMonitors().size());
+
+            multiplyMonitors.begin(1000);
+            multiplyMonitors.recordAcquire(2000);
+            multiplyMonitors.recordInvoke(3000);
+            multiplyMonitors.recordSerialize(4000);
+            multiplyMonitors.error();
+            multiplyMonitors.end(10000);
+
+            // published over JMX, with the id sanitized
+            Assert.assertEquals(1L, jmxValue("calls", "DynamicOperation-MonitoredService-multiply__a___b_"));
+            Assert.assertEquals(1L, jmxValue("errors", "DynamicOperation-MonitoredService-multiply__a___b_"));
+            Assert.assertEquals(0L, jmxValue("calls", "DynamicOperation-MonitoredService-divide__a___b_"));
+        } finally {
+            multiplyMonitors.unregisterMonitors();
+            divideMonitors.unregisterMonitors();
+        }
+
+        Assert.assertEquals(before, DefaultMonitorRegistry.getInstance().getRegisteredMonitors().size());
+    }
+
+    @Test
+    public void testRecordingDoesNotAllocate() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported() && allocations.isThreadAllocatedMemoryEnabled());
+
+        Operation operation = new Operation("multiply/{a}/{b}", new String[]{"GET"});
+        DynamicOperationMonitors monitors = new DynamicOperationMonitors(
+                new DynamicBinding("AllocationService", ABOUT, new Operation[]{operation}, "/v1/a/", "a.js"), operation);
+
+        // warm up
+        record(monitors, 100000);
+
+        long threadId = Thread.currentThread().getId();
+        long before = allocations.getThreadAllocatedBytes(threadId);
+        record(monitors, 100000);
+        long allocated = allocations.getThreadAllocatedBytes(threadId) - before;
+
+        // allow for the odd allocation outside the recording path (ie by the measurement itself)
+        Assert.assertTrue("Recording allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    private static void record(DynamicOperationMonitors monitors, int times) {
+        for (int i = 0; i < times; i++) {
+            monitors.begin(i);
+            monitors.recordAcquire(i);
+            monitors.recordInvoke(i * 1000L);
+            monitors.recordSerialize(i);
+            monitors.end(i * 10000L);
+        }
+    }
+
+    private static long jmxValue(String name, String id) throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        Set<ObjectName> names = server.queryNames(new ObjectName("com.netflix.servo:name=" + name + ",id=" + id + ",*"), null);
+        Assert.assertEquals(names.toString(), 1, names.size());
+        return ((Number) server.getAttribute(names.iterator().next(), "value")).longValue();
+    }
+
+    private static long bucket(LatencyHistogram histogram, String bucket) {
+        for (Monitor<?> monitor : histogram.getMonitors()) {
+            if (bucket.equals(monitor.getConfig().getTags().getTag("bucket").getValue())) {
+                return ((Number) monitor.getValue()).longValue();
+            }
+        }
+        throw new IllegalArgumentException(bucket);
+    }
+
+}
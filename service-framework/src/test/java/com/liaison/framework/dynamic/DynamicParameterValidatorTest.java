@@ -0,0 +1,87 @@
+package com.liaison.framework.dynamic;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tests for {@link DynamicParameterValidator}
+ */
+public class DynamicParameterValidatorTest {
+
+    private static final About ABOUT = new About("test", "test");
+
+    @Test
+    public void testCoercion() {
+        DynamicServiceMatcher matcher = matcher("/convert/{i}/{n}/{b}/{s}", schema(
+                "i", new ParameterSchema("integer", null, null, null),
+                "n", new ParameterSchema("number", null, null, null),
+                "b", new ParameterSchema("boolean", null, null, null)));
+
+        DynamicServiceMatcher.Match match = matcher.match("GET", "/v1/v/convert/42/2.5/true/text");
+        Assert.assertNull(match.getViolation());
+        Assert.assertArrayEquals(new Object[]{42, 2.5, true, "text"}, match.getArguments());
+        // as requested, ie for the response and result cache
+        Assert.assertArrayEquals(new String[]{"42", "2.5", "true", "text"}, match.getParameters());
+
+        Assert.assertEquals(10000000000L, matcher.match("GET", "/v1/v/convert/10000000000/1/false/x").getArguments()[0]);
+        Assert.assertEquals(-7, matcher.match("GET", "/v1/v/convert/-7/1e3/false/x").getArguments()[0]);
+        Assert.assertEquals(1000.0, matcher.match("GET", "/v1/v/convert/-7/1e3/false/x").getArguments()[1]);
+    }
+
+    @Test
+    public void testViolations() {
+        DynamicServiceMatcher matcher = matcher("/divide/{x}/{y}/{code}", schema(
+                "x", new ParameterSchema("number", null, null, null),
+                "y", new ParameterSchema("integer", 1.0, 1000.0, null),
+                "code", new ParameterSchema(null, 2.0, 3.0, "[A-Z]+")));
+
+        Assert.assertNull(matcher.match("GET", "/v1/v/divide/1.5/10/AB").getViolation());
+        Assert.assertEquals("Parameter x of /divide/{x}/{y}/{code} must be a number, not a",
+                matcher.match("GET", "/v1/v/divide/a/10/AB").getViolation());
+        Assert.assertEquals("Parameter y of /divide/{x}/{y}/{code} must be an integer at least 1 and at most 1000, not 0",
+                matcher.match("GET", "/v1/v/divide/1/0/AB").getViolation());
+        Assert.assertNotNull(matcher.match("GET", "/v1/v/divide/1/1.5/AB").getViolation());
+        Assert.assertNotNull(matcher.match("GET", "/v1/v/divide/1/99999999999999999999/AB").getViolation());
+        Assert.assertNotNull(matcher.match("GET", "/v1/v/divide/NaN/10/AB").getViolation());
+        Assert.assertEquals("Parameter code of /divide/{x}/{y}/{code} must be a string of length at least 2 and at most 3"
+                + " matching [A-Z]+, not ab", matcher.match("GET", "/v1/v/divide/1/10/ab").getViolation());
+        Assert.assertNotNull(matcher.match("GET", "/v1/v/divide/1/10/ABCD").getViolation());
+    }
+
+    @Test
+    public void testWithoutSchema() {
+        DynamicServiceMatcher matcher = matcher("/echo/{a}", null);
+        DynamicServiceMatcher.Match match = matcher.match("GET", "/v1/v/echo/1");
+        Assert.assertNull(match.getViolation());
+        Assert.assertArrayEquals(new Object[]{"1"}, match.getArguments());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownParameter() {
+        matcher("/echo/{a}", schema("b", new ParameterSchema("number", null, null, null)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownType() {
+        matcher("/echo/{a}", schema("a", new ParameterSchema("date", null, null, null)));
+    }
+
+    private static DynamicServiceMatcher matcher(String operationUrl, Map<String, ParameterSchema> schema) {
+        Operation operation = new Operation(operationUrl, new String[]{"GET"});
+        operation.parameters = schema;
+        return new DynamicServiceMatcher(new DynamicBindings(new DynamicBinding[]{
+                new DynamicBinding("ValidatedService", ABOUT, new Operation[]{operation}, "/v1/v/", "v.js")}));
+    }
+
+    private static Map<String, ParameterSchema> schema(Object... namesAndSchemas) {
+        Map<String, ParameterSchema> schema = new HashMap<String, ParameterSchema>();
+        for (int i = 0; i < namesAndSchemas.length; i += 2) {
+            schema.put((String) namesAndSchemas[i], (ParameterSchema) namesAndSchemas[i + 1]);
+        }
+        return schema;
+    }
+
+}
@@ -0,0 +1,96 @@
+package com.liaison.framework.dynamic;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests for {@link DynamicRequestBody}
+ */
+public class DynamicRequestBodyTest {
+
+    @Test
+    public void testBytes() throws Exception {
+        byte[] data = new byte[DynamicRequestBody.CHUNK_SIZE + 10];
+        Arrays.fill(data, (byte) 7);
+        DynamicRequestBody body = body(data);
+
+        Assert.assertEquals(DynamicRequestBody.CHUNK_SIZE, body.nextBytes().length);
+        Assert.assertEquals(10, body.nextBytes().length);
+        Assert.assertNull(body.nextBytes());
+        Assert.assertEquals(data.length, body.getBytesRead());
+    }
+
+    @Test
+    public void testText() throws Exception {
+        // multi-byte characters straddling the chunk boundary are decoded whole
+        StringBuilder text = new StringBuilder();
+        while (text.length() < DynamicRequestBody.CHUNK_SIZE * 2) {
+            text.append("aé€");
+        }
+        DynamicRequestBody body = body(text.toString().getBytes(StandardCharsets.UTF_8));
+
+        StringBuilder read = new StringBuilder();
+        String chunk;
+        while ((chunk = body.nextChunk()) != null) {
+            Assert.assertTrue(chunk.length() <= DynamicRequestBody.CHUNK_SIZE);
+            read.append(chunk);
+        }
+        Assert.assertEquals(text.toString(), read.toString());
+    }
+
+    @Test
+    public void testJsonElements() throws Exception {
+        Iterator<Object> elements = body("[{\"id\": 1, \"tags\": [\"a\"]}, 2.5, \"three\", null, []]"
+                .getBytes(StandardCharsets.UTF_8)).elements();
+
+        Map<?, ?> first = (Map<?, ?>) elements.next();
+        Assert.assertEquals(1, first.get("id"));
+        Assert.assertEquals(Arrays.asList("a"), first.get("tags"));
+        Assert.assertEquals(2.5, elements.next());
+        Assert.assertEquals("three", elements.next());
+        Assert.assertTrue(elements.hasNext());
+        Assert.assertNull(elements.next());
+        Assert.assertTrue(((List<?>) elements.next()).isEmpty());
+        Assert.assertFalse(elements.hasNext());
+
+        // a value other than an array is a single element
+        Iterator<Object> single = body("{\"id\": 1}".getBytes(StandardCharsets.UTF_8)).elements();
+        Assert.assertEquals(1, ((Map<?, ?>) single.next()).get("id"));
+        Assert.assertFalse(single.hasNext());
+
+        Assert.assertFalse(DynamicRequestBody.empty().elements().hasNext());
+    }
+
+    @Test(expected = UncheckedIOException.class)
+    public void testMalformedJson() throws Exception {
+        Iterator<Object> elements = body("[{\"id\": 1}, {\"id\": ]".getBytes(StandardCharsets.UTF_8)).elements();
+        elements.next();
+        elements.next();
+    }
+
+    @Test
+    public void testReadOneWayOnly() throws Exception {
+        DynamicRequestBody body = body("[1, 2]".getBytes(StandardCharsets.UTF_8));
+        Iterator<Object> elements = body.elements();
+        Assert.assertSame(elements, body.elements());
+        try {
+            body.nextChunk();
+            Assert.fail("Expected a body read as JSON not to be read as text");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    private static DynamicRequestBody body(byte[] data) {
+        return new DynamicRequestBody(new ByteArrayInputStream(data), "application/json", StandardCharsets.UTF_8, data.length);
+    }
+
+}
@@ -0,0 +1,282 @@
+package com.liaison.framework.dynamic;
+
+import org.codehaus.jackson.JsonGenerationException;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests for {@link DynamicResponseEncoder}
+ */
+public class DynamicResponseEncoderTest {
+
+    @Test
+    public void testEnvelope() throws Exception {
+        Assert.assertEquals("[{\"Function\":\"multiply\"},{\"Parameters\":[\"3\",\"4\"]},{\"Result\":12}]",
+                encode("multiply", new String[]{"3", "4"}, 12.0));
+    }
+
+    @Test
+    public void testEncodedResult() throws Exception {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("product", 12.0);
+        map.put("factors", Arrays.asList("3", "4"));
+        String encoded = DynamicResponseEncoder.encode(map);
+        Assert.assertEquals("{\"product\":12,\"factors\":[\"3\",\"4\"]}", encoded);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DynamicResponseEncoder.writeEncoded(out, "multiply", new String[]{"3", "4"}, encoded);
+        Assert.assertEquals(encode("multiply", new String[]{"3", "4"}, map), new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testEscaping() throws Exception {
+        String nasty = "quote\" backslash\\ newline\n tab\t control\u0001 unicodeé";
+        String json = encode("echo", new String[]{nasty}, nasty);
+
+        List<?> parsed = new ObjectMapper().readValue(json, List.class);
+        Assert.assertEquals(Arrays.asList(nasty), ((Map<?, ?>) parsed.get(1)).get("Parameters"));
+        Assert.assertEquals(nasty, ((Map<?, ?>) parsed.get(2)).get("Result"));
+    }
+
+    @Test
+    public void testNumbers() throws Exception {
+        Assert.assertEquals("7", result(7));
+        Assert.assertEquals("-3", result(-3L));
+        Assert.assertEquals("0.75", result(0.75));
+        Assert.assertEquals("12", result(12.0d));
+        Assert.assertEquals("1.0E20", result(1e20));
+        Assert.assertEquals("\"Infinity\"", result(1 / 0.0));
+        Assert.assertEquals("\"NaN\"", result(Double.NaN));
+    }
+
+    @Test
+    public void testStructures() throws Exception {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("name", "foo");
+        map.put("tags", Arrays.asList("a", "b"));
+        map.put("ids", new int[]{1, 2});
+        map.put("ok", true);
+        map.put("none", null);
+
+        Assert.assertEquals("{\"name\":\"foo\",\"tags\":[\"a\",\"b\"],\"ids\":[1,2],\"ok\":true,\"none\":null}", result(map));
+    }
+
+    @Test
+    public void testCyclicResultIsRejected() throws Exception {
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("self", map);
+        try {
+            result(map);
+            Assert.fail("Expected cyclic result to be rejected");
+        } catch (JsonGenerationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testScriptObjects() throws Exception {
+        ScriptEngine engine = new ScriptEngineManager().getEngineByName("JavaScript");
+        Assume.assumeNotNull(engine);
+
+        Object result = engine.eval("({ name: 'foo', values: [1, 2.5, 'three'], nested: { ok: true } })");
+
+        Assert.assertEquals("{\"name\":\"foo\",\"values\":[1,2.5,\"three\"],\"nested\":{\"ok\":true}}", result(result));
+    }
+
+    @Test
+    public void testLargeResultIsStreamed() throws Exception {
+        final int count = 100000;
+        Iterator<Integer> elements = new Iterator<Integer>() {
+            private int next = 0;
+
+            public boolean hasNext() {
+                return next < count;
+            }
+
+            public Integer next() {
+                return next++;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+
+        final List<Integer> writes = new ArrayList<Integer>();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream out = new CountingOutputStream(bytes, writes);
+
+        DynamicResponseEncoder.write(out, "range", new String[0], elements);
+
+        // the generator flushes each time its buffer fills, rather than writing the result in one go
+        Assert.assertTrue("Expected chunked writes, got " + writes.size(), writes.size() > 10);
+        for (int size : writes) {
+            Assert.assertTrue(size < 64 * 1024);
+        }
+
+        List<?> parsed = new ObjectMapper().readValue(bytes.toByteArray(), List.class);
+        List<?> result = (List<?>) ((Map<?, ?>) parsed.get(2)).get("Result");
+        Assert.assertEquals(count, result.size());
+        Assert.assertEquals(count - 1, result.get(count - 1));
+    }
+
+    @Test
+    public void testStreamOf() throws Exception {
+        Assert.assertNull(DynamicResponseEncoder.streamOf(Arrays.asList(1, 2)));
+        Assert.assertNull(DynamicResponseEncoder.streamOf(new HashMap<String, Object>()));
+        Assert.assertNull(DynamicResponseEncoder.streamOf("text"));
+
+        Iterator<?> elements = Arrays.asList(1, 2).iterator();
+        Assert.assertSame(elements, DynamicResponseEncoder.streamOf(elements));
+        Assert.assertEquals("[1,2]", result(Arrays.asList(1, 2).stream()));
+        Assert.assertTrue(DynamicResponseEncoder.streamOf(Arrays.asList(1, 2).stream()).hasNext());
+
+        ScriptEngine engine = new ScriptEngineManager().getEngineByName("JavaScript");
+        Assume.assumeNotNull(engine);
+
+        // per the ECMAScript iteration protocol
+        Object scriptIterator = engine.eval("({ i: 0, next: function() {"
+                + " return this.i < 3 ? { value: 'v' + this.i++, done: false } : { done: true }; } })");
+        Iterator<?> values = DynamicResponseEncoder.streamOf(scriptIterator);
+        Assert.assertEquals("v0", values.next());
+        Assert.assertTrue(values.hasNext());
+        Assert.assertEquals("v1", values.next());
+        Assert.assertEquals("v2", values.next());
+        Assert.assertFalse(values.hasNext());
+
+        Assert.assertNull(DynamicResponseEncoder.streamOf(engine.eval("({ next: 1 })")));
+        Assert.assertNull(DynamicResponseEncoder.streamOf(engine.eval("[1, 2]")));
+    }
+
+    @Test
+    public void testStreamFlushesEveryNElements() throws Exception {
+        final List<Integer> flushes = new ArrayList<Integer>();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream out = new OutputStream() {
+            @Override
+            public void write(int b) {
+                bytes.write(b);
+            }
+
+            @Override
+            public void flush() {
+                flushes.add(bytes.size());
+            }
+        };
+
+        final int count = 95;
+        Iterator<Integer> elements = new Iterator<Integer>() {
+            private int next = 0;
+
+            public boolean hasNext() {
+                return next < count;
+            }
+
+            public Integer next() {
+                // everything up to the previous flush has been sent before any more is produced
+                if (next == 1 || next == 11) {
+                    Assert.assertEquals(next == 1 ? 1 : 2, flushes.size());
+                }
+                return next++;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+
+        DynamicResponseEncoder.writeStream(out, "range", new String[0], elements, 10);
+
+        // after the first element, after every 10th, and on close
+        Assert.assertEquals(1 + 9 + 1, flushes.size());
+        List<?> parsed = new ObjectMapper().readValue(bytes.toByteArray(), List.class);
+        Assert.assertEquals(count, ((List<?>) ((Map<?, ?>) parsed.get(2)).get("Result")).size());
+    }
+
+    @Test
+    public void testFailingStreamIsLeftOpen() throws Exception {
+        Iterator<Integer> elements = new Iterator<Integer>() {
+            private int next = 0;
+
+            public boolean hasNext() {
+                if (next == 3) {
+                    throw new IllegalStateException("broken");
+                }
+                return true;
+            }
+
+            public Integer next() {
+                return next++;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            DynamicResponseEncoder.writeStream(bytes, "range", new String[0], elements, 1);
+            Assert.fail("Expected the iterator's exception");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("broken", e.getMessage());
+        }
+
+        // rather than closed into a well-formed, but truncated, document
+        Assert.assertEquals("[{\"Function\":\"range\"},{\"Parameters\":[]},{\"Result\":[0,1,2",
+                new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    private static String result(Object result) throws IOException {
+        String json = encode("f", new String[0], result);
+        String prefix = "[{\"Function\":\"f\"},{\"Parameters\":[]},{\"Result\":";
+        Assert.assertTrue(json, json.startsWith(prefix) && json.endsWith("}]"));
+        return json.substring(prefix.length(), json.length() - 2);
+    }
+
+    private static String encode(String function, String[] parameters, Object result) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DynamicResponseEncoder.write(out, function, parameters, result);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+
+        private final OutputStream delegate;
+        private final List<Integer> writes;
+
+        CountingOutputStream(OutputStream delegate, List<Integer> writes) {
+            this.delegate = delegate;
+            this.writes = writes;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            writes.add(1);
+            delegate.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            writes.add(len);
+            delegate.write(b, off, len);
+        }
+    }
+
+}
@@ -0,0 +1,143 @@
+package com.liaison.framework.dynamic;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Tests for {@link DynamicResultCache}
+ */
+public class DynamicResultCacheTest {
+
+    private static final About ABOUT = new About("test", "test");
+
+    @Test
+    public void testHitsAndMisses() {
+        DynamicResultCache cache = cache(0, 16);
+
+        Assert.assertNull(cache.get("multiply", new String[]{"3", "4"}));
+        cache.put("multiply", new String[]{"3", "4"}, "12");
+
+        // keyed by function and parameter values
+        Assert.assertEquals("12", cache.get("multiply", new String[]{"3", "4"}));
+        Assert.assertNull(cache.get("multiply", new String[]{"4", "3"}));
+        Assert.assertNull(cache.get("multiply", new String[]{"3"}));
+        Assert.assertNull(cache.get("add", new String[]{"3", "4"}));
+
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(4, cache.getMisses());
+        Assert.assertEquals(1, cache.getSize());
+    }
+
+    @Test
+    public void testProtectsEntriesReadMoreThanOnce() {
+        DynamicResultCache cache = cache(0, 10);
+
+        for (int i = 0; i < 4; i++) {
+            cache.put("multiply", new String[]{"hot", String.valueOf(i)}, String.valueOf(i));
+            Assert.assertNotNull(cache.get("multiply", new String[]{"hot", String.valueOf(i)}));
+        }
+
+        // a scan of one-off parameters, many times the size of the cache
+        for (int i = 0; i < 100; i++) {
+            cache.put("multiply", new String[]{"cold", String.valueOf(i)}, String.valueOf(i));
+        }
+
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals(String.valueOf(i), cache.get("multiply", new String[]{"hot", String.valueOf(i)}));
+        }
+        Assert.assertEquals(10, cache.getSize());
+        Assert.assertEquals(94, cache.getEvictions());
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        DynamicResultCache cache = cache(20, 16);
+        cache.put("multiply", new String[]{"1"}, "1");
+        Assert.assertEquals("1", cache.get("multiply", new String[]{"1"}));
+
+        Thread.sleep(40);
+        Assert.assertNull(cache.get("multiply", new String[]{"1"}));
+        Assert.assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testSegmentsHoldMaxSize() {
+        DynamicResultCache cache = cache(0, 1000);
+        for (int i = 0; i < 5000; i++) {
+            cache.put("multiply", new String[]{String.valueOf(i)}, String.valueOf(i));
+        }
+        Assert.assertEquals(1000, cache.getSize());
+        Assert.assertEquals(4000, cache.getEvictions());
+    }
+
+    @Test
+    public void testInvalidatedOnReload() throws Exception {
+        Path directory = Files.createTempDirectory("dyn");
+        Files.write(directory.resolve("bindings.json"), ("{\"bindings\": [{"
+                + "\"about\": {\"author\": \"test\", \"description\": \"test\"}, \"runtime\": \"java\","
+                + "\"operations\": [{\"operationUrl\": \"/multiply/{a}/{b}\", \"allowedMethods\": [\"GET\"],"
+                + "\"cacheable\": {\"maxSize\": 8}}, {\"operationUrl\": \"/random\", \"allowedMethods\": [\"GET\"]}],"
+                + "\"serviceName\": \"CachedService\", \"baseURI\": \"/v1/cached\"}]}").getBytes(StandardCharsets.UTF_8));
+
+        DynamicBindingsRegistry registry = new DynamicBindingsRegistry(directory);
+        try {
+            registry.start();
+            DynamicBindingsSnapshot first = registry.getSnapshot();
+            Assert.assertEquals(1, first.getResultCaches().size());
+
+            DynamicResultCache cache = first.getResultCaches().iterator().next();
+            Assert.assertEquals(8, cache.getMaxSize());
+            Assert.assertSame(cache, first.getResultCache(first.getMatcher().match("GET", "/v1/cached/multiply/3/4")));
+            Assert.assertNull(first.getResultCache(first.getMatcher().match("GET", "/v1/cached/random")));
+            cache.put("multiply", new String[]{"3", "4"}, "12");
+
+            DynamicBindingsSnapshot second = registry.reload();
+            Assert.assertNull(second.getResultCaches().iterator().next().get("multiply", new String[]{"3", "4"}));
+        } finally {
+            registry.shutdown();
+            Files.delete(directory.resolve("bindings.json"));
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    public void testOnlyReadsAreCached() throws Exception {
+        Path directory = Files.createTempDirectory("dyn");
+        Files.write(directory.resolve("bindings.json"), ("{\"bindings\": [{"
+                + "\"about\": {\"author\": \"test\", \"description\": \"test\"}, \"runtime\": \"java\","
+                + "\"operations\": [{\"operationUrl\": \"/item/{id}\", \"allowedMethods\": [\"GET\", \"HEAD\", \"DELETE\"],"
+                + "\"functions\": {\"GET\": \"read\", \"HEAD\": \"read\", \"DELETE\": \"remove\"},"
+                + "\"cacheable\": {\"maxSize\": 8}}],"
+                + "\"serviceName\": \"CachedService\", \"baseURI\": \"/v1/cached\"}]}").getBytes(StandardCharsets.UTF_8));
+
+        DynamicBindingsRegistry registry = new DynamicBindingsRegistry(directory);
+        try {
+            registry.start();
+            DynamicBindingsSnapshot snapshot = registry.getSnapshot();
+            DynamicResultCache cache = snapshot.getResultCaches().iterator().next();
+
+            Assert.assertSame(cache, snapshot.getResultCache(snapshot.getMatcher().match("GET", "/v1/cached/item/1")));
+            Assert.assertSame(cache, snapshot.getResultCache(snapshot.getMatcher().match("HEAD", "/v1/cached/item/1")));
+            // a DELETE always reaches remove, rather than being answered with what GET read
+            DynamicServiceMatcher.Match delete = snapshot.getMatcher().match("DELETE", "/v1/cached/item/1");
+            Assert.assertEquals("remove", delete.getFunction());
+            Assert.assertNull(snapshot.getResultCache(delete));
+        } finally {
+            registry.shutdown();
+            Files.delete(directory.resolve("bindings.json"));
+            Files.delete(directory);
+        }
+    }
+
+    private static DynamicResultCache cache(long ttlMillis, int maxSize) {
+        Operation operation = new Operation("multiply/{a}/{b}", new String[]{"GET"});
+        operation.cacheable = new Cacheable(ttlMillis, maxSize);
+        return new DynamicResultCache(new DynamicBinding("CacheService", ABOUT, new Operation[]{operation}, "/v1/c/", "c.js"),
+                operation);
+    }
+
+}
@@ -0,0 +1,250 @@
+package com.liaison.framework.dynamic;
+
+import com.liaison.framework.dynamic.runtime.JavaFunctionRuntime;
+import com.netflix.config.ConfigurationManager;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.script.ScriptEngineManager;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Tests for {@link DynamicScatterGather}
+ */
+public class DynamicScatterGatherTest {
+
+    private static final String BINDINGS = "{\"bindings\": [{"
+            + "\"about\": {\"author\": \"test\", \"description\": \"test\"}, \"runtime\": \"java\","
+            + "\"operations\": [{\"operationUrl\": \"/sleep/{millis}\", \"allowedMethods\": [\"GET\"]}],"
+            + "\"serviceName\": \"GatherSleepService\", \"baseURI\": \"/v1/gsleep\"}, {"
+            + "\"about\": {\"author\": \"test\", \"description\": \"test\"},"
+            + "\"operations\": [{\"operationUrl\": \"/composite/{a}/{b}\", \"allowedMethods\": [\"GET\"]}],"
+            + "\"serviceName\": \"GatherCompositeService\", \"baseURI\": \"/v1/gcomposite\", \"scriptLocation\": \"composite.js\"}]}";
+
+    private static final String SCRIPT = "function composite(a, b) {\n"
+            + "    var gather = services.gather(2000);\n"
+            + "    var x = gather.invoke('/v1/gsleep/sleep/' + a);\n"
+            + "    var y = gather.invoke('GET', '/v1/gsleep/sleep/' + b);\n"
+            + "    return {'x': x.get(), 'y': y.get(), 'missing': gather.invoke('/v1/nothing').getStatus()};\n"
+            + "}\n";
+
+    private Path directory;
+    private DynamicBindingsRegistry registry;
+    private DynamicScatterGather services;
+
+    @Before
+    public void setUp() throws Exception {
+        JavaFunctionRuntime.register("GatherSleepService", "sleep", new Function<Object[], Object>() {
+            @Override
+            public Object apply(Object[] parameters) {
+                try {
+                    Thread.sleep(Long.parseLong((String) parameters[0]));
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return Arrays.asList("slept", Long.parseLong((String) parameters[0]));
+            }
+        });
+
+        directory = Files.createTempDirectory("dyn");
+        Files.write(directory.resolve("bindings.json"), BINDINGS.getBytes(StandardCharsets.UTF_8));
+        Files.write(directory.resolve("composite.js"), SCRIPT.getBytes(StandardCharsets.UTF_8));
+        registry = new DynamicBindingsRegistry(directory);
+        registry.start();
+        services = new DynamicScatterGather(registry.getSnapshot());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ConfigurationManager.getConfigInstance().clearProperty(DynamicScatterGather.MAX_BRANCHES_PROP_NAME);
+        registry.shutdown();
+        Files.delete(directory.resolve("bindings.json"));
+        Files.delete(directory.resolve("composite.js"));
+        Files.delete(directory);
+    }
+
+    @Test
+    public void testBranchesRunConcurrently() throws Exception {
+        long start = System.nanoTime();
+        DynamicScatterGather.Gather gather = services.gather(2000);
+        DynamicScatterGather.Branch first = gather.invoke("/v1/gsleep/sleep/300");
+        DynamicScatterGather.Branch second = gather.invoke("/v1/gsleep/sleep/300");
+        DynamicScatterGather.Branch third = gather.invoke("/v1/gsleep/sleep/300");
+
+        Assert.assertEquals(Arrays.<Object>asList("slept", 300L), first.get());
+        Assert.assertEquals(Arrays.asList(first.get(), second.get(), third.get()), gather.all());
+        Assert.assertEquals(HttpServletResponse.SC_OK, third.getStatus());
+
+        // as long as the slowest branch, rather than all three
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assert.assertTrue("Took " + elapsedMillis + "ms", elapsedMillis < 800);
+    }
+
+    @Test
+    public void testDeadline() throws Exception {
+        long start = System.nanoTime();
+        DynamicScatterGather.Gather gather = services.gather(100);
+        DynamicScatterGather.Branch fast = gather.invoke("/v1/gsleep/sleep/10");
+        DynamicScatterGather.Branch slow = gather.invoke("/v1/gsleep/sleep/5000");
+
+        Assert.assertEquals(HttpServletResponse.SC_OK, fast.getStatus());
+        Assert.assertEquals(HttpServletResponse.SC_GATEWAY_TIMEOUT, slow.getStatus());
+        Assert.assertEquals("fallback", slow.getOrElse("fallback"));
+        Assert.assertNull(gather.all().get(1));
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+
+        // no branch starts once the deadline has passed
+        Thread.sleep(gather.getRemainingMillis() + 10);
+        Assert.assertEquals(HttpServletResponse.SC_GATEWAY_TIMEOUT, gather.invoke("/v1/gsleep/sleep/1").getStatus());
+    }
+
+    @Test
+    public void testFailedBranches() throws Exception {
+        DynamicScatterGather.Gather gather = services.gather();
+        Assert.assertEquals(HttpServletResponse.SC_NOT_FOUND, gather.invoke("/v1/nothing").getStatus());
+        Assert.assertEquals(HttpServletResponse.SC_METHOD_NOT_ALLOWED,
+                gather.invoke("DELETE", "/v1/gsleep/sleep/1").getStatus());
+        try {
+            gather.invoke("/v1/nothing").get();
+            Assert.fail("Expected a failed branch to have no result");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testMaxBranches() throws Exception {
+        ConfigurationManager.getConfigInstance().setProperty(DynamicScatterGather.MAX_BRANCHES_PROP_NAME, "2");
+        DynamicScatterGather.Gather gather = services.gather();
+        gather.invoke("/v1/gsleep/sleep/1");
+        gather.invoke("/v1/gsleep/sleep/1");
+        gather.invoke("/v1/gsleep/sleep/1");
+    }
+
+    @Test
+    public void testFetch() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/resource", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = "{\"hello\": [\"world\"]}".getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+        try {
+            String base = "http://localhost:" + server.getAddress().getPort();
+            DynamicScatterGather.Gather gather = services.gather(2000);
+            DynamicScatterGather.Branch resource = gather.fetch(base + "/resource");
+            DynamicScatterGather.Branch missing = gather.fetch(base + "/missing");
+
+            Assert.assertEquals(Arrays.asList("world"), ((Map<?, ?>) resource.get()).get("hello"));
+            Assert.assertEquals(HttpServletResponse.SC_NOT_FOUND, missing.getStatus());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testScriptComposition() throws Exception {
+        Assume.assumeNotNull(new ScriptEngineManager().getEngineByName("JavaScript"));
+        DynamicBindingsSnapshot snapshot = registry.getSnapshot();
+        DynamicServiceMatcher.Match match = snapshot.getMatcher().match("GET", "/v1/gcomposite/composite/200/300");
+
+        long start = System.nanoTime();
+        Object result = DynamicScatterGather.detach(snapshot.getInvoker(match.getBinding())
+                .invoke(match.getFunction(), (Object[]) match.getParameters()));
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        Map<?, ?> composite = (Map<?, ?>) result;
+        Assert.assertEquals(Arrays.<Object>asList("slept", 200L), composite.get("x"));
+        Assert.assertEquals(Arrays.<Object>asList("slept", 300L), composite.get("y"));
+        Assert.assertEquals((long) HttpServletResponse.SC_NOT_FOUND, composite.get("missing"));
+        Assert.assertTrue("Took " + elapsedMillis + "ms", elapsedMillis < 1000);
+    }
+
+    @Test
+    public void testComposesOwnSnapshot() throws Exception {
+        Assume.assumeNotNull(new ScriptEngineManager().getEngineByName("JavaScript"));
+        Path bindings = directory.resolve("bindings.json");
+        String composite = "\"/composite/{a}/{b}\", \"allowedMethods\": [\"GET\"]";
+
+        // warmed up as it is first loaded, before any snapshot is published
+        Files.write(bindings, BINDINGS.replace(composite, composite
+                + ", \"warmup\": [{\"parameters\": {\"a\": \"1\", \"b\": \"2\"}}]").getBytes(StandardCharsets.UTF_8));
+        DynamicBindingsRegistry warmed = new DynamicBindingsRegistry(directory);
+        try {
+            warmed.start();
+            for (DynamicWarmup.Result result : warmed.getSnapshot().getWarmup().getResults()) {
+                Assert.assertEquals(result.getServiceName(), 0, result.getErrors());
+            }
+        } finally {
+            warmed.shutdown();
+        }
+
+        // a request still holding the previous snapshot composes the operations it was served with
+        DynamicBindingsSnapshot previous = registry.getSnapshot();
+        Files.write(bindings, BINDINGS.replace("/v1/gsleep", "/v2/gsleep").getBytes(StandardCharsets.UTF_8));
+        registry.reload();
+        DynamicServiceMatcher.Match match = previous.getMatcher().match("GET", "/v1/gcomposite/composite/1/2");
+        Map<?, ?> result = (Map<?, ?>) DynamicScatterGather.detach(previous.getInvoker(match.getBinding())
+                .invoke(match.getFunction(), (Object[]) match.getParameters()));
+        Assert.assertEquals(Arrays.<Object>asList("slept", 1L), result.get("x"));
+    }
+
+    @Test
+    public void testUninvokedBranchesEnd() throws Exception {
+        String sleep = "\"/sleep/{millis}\", \"allowedMethods\": [\"GET\"]";
+        Files.write(directory.resolve("bindings.json"), BINDINGS.replace(sleep, sleep + ", \"cacheable\": {\"maxSize\": 8}")
+                .replace("\"baseURI\": \"/v1/gsleep\"", "\"baseURI\": \"/v1/gsleep\","
+                        + " \"bulkhead\": {\"maxConcurrent\": 1, \"maxQueued\": 0}").getBytes(StandardCharsets.UTF_8));
+        registry.reload();
+        DynamicBindingsSnapshot snapshot = registry.getSnapshot();
+        DynamicScatterGather gathers = new DynamicScatterGather(snapshot);
+        DynamicOperationMonitors monitors = snapshot.getOperationMonitors(
+                snapshot.getMatcher().match("GET", "/v1/gsleep/sleep/1").getOperation());
+
+        // rejected by the bulkhead the first holds
+        DynamicScatterGather.Gather gather = gathers.gather(2000);
+        DynamicScatterGather.Branch first = gather.invoke("/v1/gsleep/sleep/200");
+        Assert.assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, gather.invoke("/v1/gsleep/sleep/1").getStatus());
+        Assert.assertEquals(HttpServletResponse.SC_OK, first.getStatus());
+        Assert.assertEquals(0, monitors.getInFlight());
+
+        // served from the cache the first filled
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals("[slept, 200]", String.valueOf(gathers.gather(2000).invoke("/v1/gsleep/sleep/200").get()));
+        }
+        Assert.assertEquals(0, monitors.getInFlight());
+    }
+
+    @Test
+    public void testDetach() throws Exception {
+        Object detached = DynamicScatterGather.detach(Arrays.asList(1.0, "two", Arrays.asList(true, null).iterator()));
+        Assert.assertEquals(Arrays.asList(1L, "two", Arrays.asList(true, null)), detached);
+        Assert.assertTrue(detached instanceof List);
+    }
+
+}
@@ -0,0 +1,246 @@
+package com.liaison.framework.dynamic;
+
+import com.liaison.framework.dynamic.runtime.ScriptEnginePoolExhaustedException;
+import com.liaison.framework.dynamic.runtime.ScriptInvoker;
+import com.liaison.framework.dynamic.runtime.ScriptRuntimes;
+import com.netflix.config.ConfigurationManager;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.script.ScriptEngineManager;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link DynamicScriptExecutor}
+ */
+public class DynamicScriptExecutorTest {
+
+    private DynamicScriptExecutor executor;
+
+    @Before
+    public void setUp() {
+        ConfigurationManager.getConfigInstance().setProperty(DynamicScriptExecutor.STOP_GRACE_PROP_NAME, "50");
+        executor = new DynamicScriptExecutor(2, 5);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+        ConfigurationManager.getConfigInstance().clearProperty(DynamicScriptExecutor.STOP_GRACE_PROP_NAME);
+    }
+
+    @Test
+    public void testResultAndException() throws Exception {
+        Assert.assertEquals(12, executor.invoke(new Callable<Object>() {
+            @Override
+            public Object call() {
+                return 12;
+            }
+        }, TimeUnit.SECONDS.toNanos(5), TimeUnit.SECONDS.toNanos(5)));
+
+        try {
+            executor.invoke(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    throw new NoSuchMethodException("missing");
+                }
+            }, TimeUnit.SECONDS.toNanos(5), 0);
+            Assert.fail("Expected the invocation's exception");
+        } catch (NoSuchMethodException e) {
+            Assert.assertEquals("missing", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testWallClockBudget() throws Exception {
+        try {
+            executor.invoke(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+                    return null;
+                }
+            }, TimeUnit.MILLISECONDS.toNanos(50), 0);
+            Assert.fail("Expected wall-clock budget to be exceeded");
+        } catch (ScriptBudgetExceededException e) {
+            Assert.assertEquals(ScriptBudgetExceededException.Budget.WALL_CLOCK, e.getBudget());
+        }
+
+        // the sleeping invocation was interrupted, and its thread returned to the pool
+        awaitIdle();
+    }
+
+    @Test
+    public void testWallClockBudgetWithNobodyWaiting() throws Exception {
+        DynamicScriptExecutor.BudgetedInvocation invocation = executor.submit(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+                return null;
+            }
+        }, TimeUnit.MILLISECONDS.toNanos(50), 0);
+
+        // cancelled by the watchdog, rather than by a caller giving up waiting
+        Thread.sleep(200);
+        Assert.assertTrue(invocation.isDone());
+        awaitIdle();
+        try {
+            invocation.await();
+            Assert.fail("Expected wall-clock budget to be exceeded");
+        } catch (ScriptBudgetExceededException e) {
+            Assert.assertEquals(ScriptBudgetExceededException.Budget.WALL_CLOCK, e.getBudget());
+        }
+    }
+
+    @Test
+    public void testCpuBudgetStopsRunawayLoop() throws Exception {
+        final long[] spins = new long[1];
+        long start = System.nanoTime();
+        try {
+            executor.invoke(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    // ignores interruption, like a script engine
+                    while (true) {
+                        spins[0]++;
+                    }
+                }
+            }, 0, TimeUnit.MILLISECONDS.toNanos(100));
+            Assert.fail("Expected CPU budget to be exceeded");
+        } catch (ScriptBudgetExceededException e) {
+            Assert.assertEquals(ScriptBudgetExceededException.Budget.CPU_TIME, e.getBudget());
+        }
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+
+        // the runaway thread is stopped once the grace period passes
+        awaitIdle();
+    }
+
+    @Test
+    public void testStoppedThreadServesNextInvocation() throws Exception {
+        DynamicScriptExecutor single = new DynamicScriptExecutor(1, 1);
+        try {
+            try {
+                single.invoke(new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        while (true) {
+                            Thread.yield();
+                        }
+                    }
+                }, TimeUnit.MILLISECONDS.toNanos(20), 0);
+                Assert.fail("Expected wall-clock budget to be exceeded");
+            } catch (ScriptBudgetExceededException e) {
+                Assert.assertEquals(ScriptBudgetExceededException.Budget.WALL_CLOCK, e.getBudget());
+            }
+
+            // the thread stopped waits for its ThreadDeath, so it never reaches the invocations that follow
+            for (int i = 0; i < 200; i++) {
+                final int value = i;
+                Object result = null;
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                while (result == null) {
+                    try {
+                        result = single.invoke(new Callable<Object>() {
+                            @Override
+                            public Object call() {
+                                return value;
+                            }
+                        }, TimeUnit.SECONDS.toNanos(5), 0);
+                    } catch (ScriptEnginePoolExhaustedException e) {
+                        // the stopped thread has yet to be handed back
+                        Assert.assertTrue(System.nanoTime() < deadline);
+                        Thread.sleep(1);
+                    }
+                }
+                Assert.assertEquals(value, result);
+            }
+        } finally {
+            single.shutdown();
+        }
+    }
+
+    @Test
+    public void testRejectsWhenSaturated() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<Object> blocked = new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                release.await();
+                return null;
+            }
+        };
+
+        Thread[] callers = new Thread[2];
+        for (int i = 0; i < callers.length; i++) {
+            callers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        executor.invoke(blocked, 0, TimeUnit.SECONDS.toNanos(5));
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            callers[i].start();
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (executor.getRunning() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+
+        try {
+            executor.invoke(blocked, 0, 0);
+            Assert.fail("Expected executor of two threads to be saturated");
+        } catch (ScriptEnginePoolExhaustedException e) {
+            // expected
+        } finally {
+            release.countDown();
+        }
+
+        for (Thread caller : callers) {
+            caller.join();
+        }
+        awaitIdle();
+    }
+
+    @Test
+    public void testRunawayScript() throws Exception {
+        Assume.assumeNotNull(new ScriptEngineManager().getEngineByName("JavaScript"));
+        final ScriptInvoker invoker = ScriptRuntimes.get("javascript").bind("RunawayService",
+                "function spin() { while (true) {} }\nfunction echo(a) { return a; }");
+        // create the engine up front, the budget below is meant for the runaway function, not engine creation
+        Assert.assertEquals("warm", invoker.invoke("echo", "warm"));
+
+        try {
+            executor.invoke(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    return invoker.invoke("spin");
+                }
+            }, TimeUnit.MILLISECONDS.toNanos(100), 0);
+            Assert.fail("Expected wall-clock budget to be exceeded");
+        } catch (ScriptBudgetExceededException e) {
+            Assert.assertEquals(ScriptBudgetExceededException.Budget.WALL_CLOCK, e.getBudget());
+        }
+        awaitIdle();
+
+        // the stopped engine is discarded, rather than handed to the next caller
+        Assert.assertEquals("hello", invoker.invoke("echo", "hello"));
+    }
+
+    private void awaitIdle() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (executor.getRunning() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        Assert.assertEquals(0, executor.getRunning());
+    }
+
+}
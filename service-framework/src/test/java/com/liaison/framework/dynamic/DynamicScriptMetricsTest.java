@@ -0,0 +1,143 @@
+package com.liaison.framework.dynamic;
+
+import com.netflix.config.ConfigurationManager;
+import com.netflix.servo.DefaultMonitorRegistry;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tests for {@link DynamicScriptMetrics}
+ */
+public class DynamicScriptMetricsTest {
+
+    @After
+    public void tearDown() {
+        ConfigurationManager.getConfigInstance().clearProperty(DynamicScriptMetrics.MAX_METRICS_PROP_NAME);
+    }
+
+    @Test
+    public void testConcurrentCounter() throws Exception {
+        final DynamicScriptMetrics metrics = new DynamicScriptMetrics("CountedService");
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = 0; i < 10000; i++) {
+                            metrics.counter("hits").increment();
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        Assert.assertEquals(80000L, metrics.counter("hits").getValue().longValue());
+        Assert.assertEquals(1, metrics.getMetrics().size());
+    }
+
+    @Test
+    public void testTimerAndGauge() throws Exception {
+        DynamicScriptMetrics metrics = new DynamicScriptMetrics("TimedService");
+        metrics.timer("lookup").record(1.5);
+        DynamicScriptMetrics.ScriptStopwatch stopwatch = metrics.timer("lookup").start();
+        Thread.sleep(5);
+        Assert.assertTrue(stopwatch.stop() >= 5);
+        // stopping again records nothing
+        stopwatch.stop();
+        Assert.assertEquals(2L, metrics.timer("lookup").getValue().longValue());
+
+        metrics.gauge("size").set(42);
+        Assert.assertEquals(42.0, metrics.gauge("size").getValue());
+    }
+
+    @Test
+    public void testMetricTypeAndLimit() {
+        ConfigurationManager.getConfigInstance().setProperty(DynamicScriptMetrics.MAX_METRICS_PROP_NAME, "2");
+        DynamicScriptMetrics metrics = new DynamicScriptMetrics("LimitedService");
+        metrics.counter("a");
+        try {
+            metrics.timer("a");
+            Assert.fail("Expected a counter not to be used as a timer");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        metrics.gauge("b");
+        try {
+            metrics.counter("c");
+            Assert.fail("Expected no more than 2 metrics");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        // existing metrics are still available
+        metrics.counter("a").increment();
+    }
+
+    @Test
+    public void testPublishedOverJmx() throws Exception {
+        DynamicScriptMetrics metrics = new DynamicScriptMetrics("PublishedService");
+        metrics.counter("before").increment(3);
+
+        int registered = DefaultMonitorRegistry.getInstance().getRegisteredMonitors().size();
+        metrics.registerMonitors();
+        try {
+            // created after registration, and still registered
+            metrics.counter("after").increment();
+            metrics.timer("time").record(2);
+            Assert.assertEquals(registered + 3, DefaultMonitorRegistry.getInstance().getRegisteredMonitors().size());
+
+            Assert.assertEquals(3L, jmxValue("before", "DynamicScript-PublishedService", ""));
+            Assert.assertEquals(1L, jmxValue("after", "DynamicScript-PublishedService", ""));
+            Assert.assertEquals(1L, jmxValue("time", "DynamicScript-PublishedService", ",statistic=count"));
+            Assert.assertEquals(2000L, jmxValue("time", "DynamicScript-PublishedService", ",statistic=totalTime"));
+        } finally {
+            metrics.unregisterMonitors();
+        }
+        Assert.assertEquals(registered, DefaultMonitorRegistry.getInstance().getRegisteredMonitors().size());
+    }
+
+    @Test
+    public void testFromScript() throws Exception {
+        ScriptEngine engine = new ScriptEngineManager().getEngineByName("JavaScript");
+        Assume.assumeNotNull(engine);
+        DynamicScriptMetrics metrics = new DynamicScriptMetrics("ScriptedService");
+        engine.put(DynamicScriptMetrics.HOST_OBJECT_NAME, metrics);
+
+        engine.eval("for (var i = 0; i < 10; i++) { metrics.counter('calls').increment(); }"
+                + "metrics.counter('calls').increment(5);"
+                + "var stopwatch = metrics.timer('time').start(); stopwatch.stop();"
+                + "metrics.gauge('ratio').set(0.25);");
+
+        Assert.assertEquals(15L, metrics.counter("calls").getValue().longValue());
+        Assert.assertEquals(1L, metrics.timer("time").getValue().longValue());
+        Assert.assertEquals(0.25, metrics.gauge("ratio").getValue());
+    }
+
+    private static long jmxValue(String name, String id, String tags) throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        Set<ObjectName> names = server.queryNames(new ObjectName("com.netflix.servo:name=" + name + ",id=" + id + tags + ",*"), null);
+        Assert.assertEquals(names.toString(), 1, names.size());
+        return ((Number) server.getAttribute(names.iterator().next(), "value")).longValue();
+    }
+
+}
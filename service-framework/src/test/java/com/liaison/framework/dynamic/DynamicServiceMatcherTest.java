@@ -0,0 +1,134 @@
+package com.liaison.framework.dynamic;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+
+/**
+ * Tests for {@link DynamicServiceMatcher}
+ */
+public class DynamicServiceMatcherTest {
+
+    private static final About ABOUT = new About("test", "test");
+
+    @Test
+    public void testTemplateParameters() {
+        DynamicServiceMatcher matcher = new DynamicServiceMatcher(DynamicBindings.buildMockBindings());
+
+        DynamicServiceMatcher.Match match = matcher.match("GET", "/v1/math/multiply/3/4");
+
+        Assert.assertNotNull(match);
+        Assert.assertTrue(match.isMethodAllowed());
+        Assert.assertEquals("multiply", match.getFunction());
+        Assert.assertArrayEquals(new String[]{"a", "b"}, match.getParameterNames());
+        Assert.assertArrayEquals(new String[]{"3", "4"}, match.getParameters());
+    }
+
+    @Test
+    public void testFunctionsPerMethod() {
+        Operation item = new Operation("/foo/{id}", new String[]{"GET", "POST", "DELETE"});
+        item.functions = new HashMap<String, String>();
+        item.functions.put("post", "create");
+        item.functions.put("DELETE", "remove");
+        DynamicServiceMatcher matcher = new DynamicServiceMatcher(bindings(
+                new DynamicBinding("CrudFooService", ABOUT, new Operation[]{item}, "/v21/", "foo.js")));
+
+        Assert.assertEquals("foo", matcher.match("GET", "/v21/foo/1").getFunction());
+        Assert.assertEquals("create", matcher.match("POST", "/v21/foo/1").getFunction());
+        Assert.assertEquals("remove", matcher.match("DELETE", "/v21/foo/1").getFunction());
+        Assert.assertArrayEquals(new String[]{"1"}, matcher.match("DELETE", "/v21/foo/1").getParameters());
+    }
+
+    @Test
+    public void testLiteralRoutes() {
+        Operation list = new Operation("foo", new String[]{"GET"});
+        Operation item = new Operation("/foo/{id}", new String[]{"GET", "PUT"});
+        DynamicServiceMatcher matcher = new DynamicServiceMatcher(bindings(
+                new DynamicBinding("CrudFooService", ABOUT, new Operation[]{list, item}, "/v21/", "foo.js")));
+
+        DynamicServiceMatcher.Match listMatch = matcher.match("GET", "/v21/foo");
+        Assert.assertSame(list, listMatch.getOperation());
+        Assert.assertEquals("foo", listMatch.getFunction());
+        Assert.assertEquals(0, listMatch.getParameters().length);
+
+        DynamicServiceMatcher.Match itemMatch = matcher.match("put", "/v21/foo/42/");
+        Assert.assertSame(item, itemMatch.getOperation());
+        Assert.assertArrayEquals(new String[]{"42"}, itemMatch.getParameters());
+
+        Assert.assertNull(matcher.match("GET", "/v21/foo/42/bar"));
+        Assert.assertNull(matcher.match("GET", "/v21/fo"));
+    }
+
+    @Test
+    public void testLiteralPrecedesTemplate() {
+        Operation byId = new Operation("item/{id}", new String[]{"GET"});
+        Operation latest = new Operation("item/latest", new String[]{"GET"});
+        Operation nested = new Operation("item/{id}/detail", new String[]{"GET"});
+        DynamicServiceMatcher matcher = new DynamicServiceMatcher(bindings(
+                new DynamicBinding("ItemService", ABOUT, new Operation[]{byId, latest, nested}, "/v1", "item.js")));
+
+        Assert.assertSame(latest, matcher.match("GET", "/v1/item/latest").getOperation());
+        Assert.assertSame(byId, matcher.match("GET", "/v1/item/7").getOperation());
+
+        // literal branch dead-ends, falls back to template
+        DynamicServiceMatcher.Match match = matcher.match("GET", "/v1/item/latest/detail");
+        Assert.assertSame(nested, match.getOperation());
+        Assert.assertArrayEquals(new String[]{"latest"}, match.getParameters());
+    }
+
+    @Test
+    public void testMethodNotAllowed() {
+        DynamicServiceMatcher matcher = new DynamicServiceMatcher(DynamicBindings.buildMockBindings());
+
+        DynamicServiceMatcher.Match match = matcher.match("DELETE", "/v1/math/divide/1/2");
+
+        Assert.assertNotNull(match);
+        Assert.assertFalse(match.isMethodAllowed());
+        Assert.assertNull(match.getFunction());
+        Assert.assertTrue(match.getAllowedMethods().contains("GET"));
+        Assert.assertTrue(match.getAllowedMethods().contains("POST"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOperationWithoutFunction() {
+        new DynamicServiceMatcher(bindings(new DynamicBinding("Bad", ABOUT,
+                new Operation[]{new Operation("{a}/{b}", new String[]{"GET"})}, "/v1/bad", "bad.js")));
+    }
+
+    @Test
+    public void testTenThousandOperations() {
+        int bindingCount = 100;
+        int operationCount = 100;
+
+        DynamicBinding[] bindings = new DynamicBinding[bindingCount];
+        for (int i = 0; i < bindingCount; i++) {
+            Operation[] operations = new Operation[operationCount];
+            for (int j = 0; j < operationCount; j++) {
+                operations[j] = new Operation("/op" + j + "/{a}/{b}", new String[]{"GET"});
+            }
+            bindings[i] = new DynamicBinding("Service" + i, ABOUT, operations, "/v1/service" + i, "service" + i + ".js");
+        }
+
+        DynamicServiceMatcher matcher = new DynamicServiceMatcher(new DynamicBindings(bindings));
+
+        for (int i = 0; i < bindingCount; i++) {
+            for (int j = 0; j < operationCount; j++) {
+                DynamicServiceMatcher.Match match = matcher.match("GET", "/v1/service" + i + "/op" + j + "/" + i + "/" + j);
+                Assert.assertNotNull(match);
+                Assert.assertSame(bindings[i], match.getBinding());
+                Assert.assertSame(bindings[i].operations[j], match.getOperation());
+                Assert.assertEquals("op" + j, match.getFunction());
+                Assert.assertArrayEquals(new String[]{String.valueOf(i), String.valueOf(j)}, match.getParameters());
+            }
+        }
+
+        Assert.assertNull(matcher.match("GET", "/v1/service" + bindingCount + "/op0/1/2"));
+        Assert.assertNull(matcher.match("GET", "/v1/service0/op" + operationCount + "/1/2"));
+    }
+
+    private static DynamicBindings bindings(DynamicBinding... bindings) {
+        return new DynamicBindings(bindings);
+    }
+
+}
@@ -0,0 +1,109 @@
+package com.liaison.framework.dynamic;
+
+import com.google.common.io.ByteStreams;
+import com.google.gson.Gson;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Tests for {@link DynamicServicesLandingPage}
+ */
+public class DynamicServicesLandingPageTest {
+
+    @Test
+    public void testRender() throws Exception {
+        DynamicBindings bindings = DynamicBindings.buildMockBindings();
+        DynamicServicesLandingPage page = DynamicServicesLandingPage.render(new Gson().toJson(bindings), bindings);
+
+        String html = new String(page.getHtml(), StandardCharsets.UTF_8);
+        Assert.assertTrue(html.contains("HelloWorldService"));
+        Assert.assertTrue(html.contains("multiply/{a}/{b}"));
+        Assert.assertFalse(html.contains("{{parsedConfiguration}}"));
+        Assert.assertFalse(html.contains("{{operation-rows}}"));
+
+        // same content, same (strong) tag
+        Assert.assertEquals(page.getETag(), DynamicServicesLandingPage.render(new Gson().toJson(bindings), bindings).getETag());
+        Assert.assertFalse(page.getETag().equals(page.getGzipETag()));
+
+        Assert.assertArrayEquals(page.getHtml(), ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(page.getGzipped()))));
+    }
+
+    @Test
+    public void testTemplate() {
+        DynamicServicesWebPageBuilder.Template template = new DynamicServicesWebPageBuilder.Template("a{{b}}c{{d}}{{unknown}}e{{");
+        Map<String, String> values = new HashMap<String, String>();
+        values.put("b", "B");
+        values.put("d", "{{b}}");
+
+        StringBuilder out = new StringBuilder();
+        template.render(values, out);
+
+        // values are not themselves rendered
+        Assert.assertEquals("aBc{{b}}{{unknown}}e{{", out.toString());
+    }
+
+    @Test
+    public void testConditionalHeaders() {
+        Assert.assertFalse(DynamicServicesLandingPage.matches(null, "\"abc\""));
+        Assert.assertTrue(DynamicServicesLandingPage.matches("\"abc\"", "\"abc\""));
+        Assert.assertTrue(DynamicServicesLandingPage.matches("\"xyz\", W/\"abc\"", "\"abc\""));
+        Assert.assertTrue(DynamicServicesLandingPage.matches("*", "\"abc\""));
+        Assert.assertFalse(DynamicServicesLandingPage.matches("\"abcd\"", "\"abc\""));
+
+        Assert.assertFalse(DynamicServicesLandingPage.acceptsGzip(null));
+        Assert.assertTrue(DynamicServicesLandingPage.acceptsGzip("gzip, deflate"));
+        Assert.assertTrue(DynamicServicesLandingPage.acceptsGzip("deflate, GZIP;q=0.5"));
+        Assert.assertFalse(DynamicServicesLandingPage.acceptsGzip("gzip;q=0"));
+        Assert.assertFalse(DynamicServicesLandingPage.acceptsGzip("deflate, br"));
+    }
+
+    @Test
+    public void testServe() throws Exception {
+        DynamicServicesLandingPage page = new DynamicServicesLandingPage("<html>hello</html>".getBytes(StandardCharsets.UTF_8));
+
+        ServletFakes.Response plain = serve(page, null, null);
+        Assert.assertEquals(HttpServletResponse.SC_OK, plain.status);
+        Assert.assertEquals(page.getETag(), plain.headers.get("ETag"));
+        Assert.assertNull(plain.headers.get("Content-Encoding"));
+        Assert.assertArrayEquals(page.getHtml(), plain.body.toByteArray());
+
+        ServletFakes.Response gzipped = serve(page, "gzip", null);
+        Assert.assertEquals(page.getGzipETag(), gzipped.headers.get("ETag"));
+        Assert.assertEquals("gzip", gzipped.headers.get("Content-Encoding"));
+        Assert.assertArrayEquals(page.getGzipped(), gzipped.body.toByteArray());
+
+        ServletFakes.Response notModified = serve(page, "gzip", page.getGzipETag());
+        Assert.assertEquals(HttpServletResponse.SC_NOT_MODIFIED, notModified.status);
+        Assert.assertEquals(0, notModified.body.size());
+        Assert.assertEquals("Accept-Encoding", notModified.headers.get("Vary"));
+
+        // a cached gzip variant does not stand for the identity one, nor the other way round
+        ServletFakes.Response otherVariant = serve(page, null, page.getGzipETag());
+        Assert.assertEquals(HttpServletResponse.SC_OK, otherVariant.status);
+        Assert.assertArrayEquals(page.getHtml(), otherVariant.body.toByteArray());
+        Assert.assertEquals(HttpServletResponse.SC_OK, serve(page, "gzip", page.getETag()).status);
+
+        ServletFakes.Response modified = serve(page, null, "\"stale\"");
+        Assert.assertEquals(HttpServletResponse.SC_OK, modified.status);
+    }
+
+    private static ServletFakes.Response serve(DynamicServicesLandingPage page, String acceptEncoding, String ifNoneMatch)
+            throws IOException {
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("Accept-Encoding", acceptEncoding);
+        headers.put("If-None-Match", ifNoneMatch);
+
+        ServletFakes.Response response = new ServletFakes.Response();
+        page.serve(ServletFakes.request("GET", "/", headers, null), response.servletResponse());
+        return response;
+    }
+
+}
@@ -0,0 +1,312 @@
+package com.liaison.framework.dynamic;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.liaison.framework.dynamic.runtime.JavaFunctionRuntime;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Tests for {@link DynamicServicesServlet}
+ * <p/>
+ * The uploads are far larger than the heap the tests run with (see build.gradle), so they only pass if
+ * request bodies are streamed to the function rather than buffered.
+ */
+public class DynamicServicesServletTest {
+
+    private static final long UPLOAD_BYTES = 100L * 1024 * 1024;
+
+    private static final String BINDINGS = "{\"bindings\": [{"
+            + "\"about\": {\"author\": \"test\", \"description\": \"test\"}, \"runtime\": \"java\","
+            + "\"operations\": [{\"operationUrl\": \"/items/{id}\", \"allowedMethods\": [\"GET\", \"POST\", \"PUT\", \"DELETE\"],"
+            + "\"functions\": {\"POST\": \"create\", \"PUT\": \"update\", \"DELETE\": \"remove\"}},"
+            + "{\"operationUrl\": \"/items\", \"allowedMethods\": [\"GET\"], \"functions\": {\"GET\": \"list\"}},"
+            + "{\"operationUrl\": \"/broken\", \"allowedMethods\": [\"GET\"]}],"
+            + "\"serviceName\": \"UploadService\", \"baseURI\": \"/v1/upload\"}]}";
+
+    private static final int LIST_SIZE = 1000;
+
+    private Path directory;
+    private DynamicBindingsRegistry registry;
+    private DynamicServicesServlet servlet;
+    // the response of the request in progress
+    private ServletFakes.Response current;
+
+    @Before
+    public void setUp() throws Exception {
+        JavaFunctionRuntime.register("UploadService", "items", new Function<Object[], Object>() {
+            @Override
+            public Object apply(Object[] parameters) {
+                return "read " + parameters[0] + " of " + parameters.length;
+            }
+        });
+        JavaFunctionRuntime.register("UploadService", "remove", new Function<Object[], Object>() {
+            @Override
+            public Object apply(Object[] parameters) {
+                return "removed " + parameters[0] + " of " + parameters.length;
+            }
+        });
+        JavaFunctionRuntime.register("UploadService", "create", new Function<Object[], Object>() {
+            @Override
+            public Object apply(Object[] parameters) {
+                DynamicRequestBody body = (DynamicRequestBody) parameters[1];
+                try {
+                    long count = 0;
+                    for (Iterator<Object> elements = body.elements(); elements.hasNext(); ) {
+                        Map<?, ?> element = (Map<?, ?>) elements.next();
+                        Assert.assertEquals(count++, ((Number) element.get("id")).longValue());
+                    }
+                    return Arrays.asList(count, body.getBytesRead());
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        JavaFunctionRuntime.register("UploadService", "update", new Function<Object[], Object>() {
+            @Override
+            public Object apply(Object[] parameters) {
+                DynamicRequestBody body = (DynamicRequestBody) parameters[1];
+                try {
+                    long bytes = 0;
+                    byte[] chunk;
+                    while ((chunk = body.nextBytes()) != null) {
+                        bytes += chunk.length;
+                    }
+                    return bytes;
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+
+        JavaFunctionRuntime.register("UploadService", "list", new Function<Object[], Object>() {
+            @Override
+            public Object apply(Object[] parameters) {
+                return new Iterator<Object>() {
+                    private int next = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < LIST_SIZE;
+                    }
+
+                    @Override
+                    public Object next() {
+                        if (next == LIST_SIZE - 1) {
+                            // the client already has the elements before this one
+                            Assert.assertTrue(current.flushes > 0);
+                            Assert.assertTrue(current.body.size() > LIST_SIZE * 5);
+                        }
+                        return "item " + next++;
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        });
+
+        JavaFunctionRuntime.register("UploadService", "broken", new Function<Object[], Object>() {
+            @Override
+            public Object apply(Object[] parameters) {
+                return new Iterator<Object>() {
+                    private int next = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        if (next == 3) {
+                            throw new IllegalStateException("broken");
+                        }
+                        return true;
+                    }
+
+                    @Override
+                    public Object next() {
+                        return next++;
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        });
+
+        directory = Files.createTempDirectory("dyn");
+        Files.write(directory.resolve("bindings.json"), BINDINGS.getBytes(StandardCharsets.UTF_8));
+        registry = new DynamicBindingsRegistry(directory);
+        registry.start();
+        servlet = new DynamicServicesServlet(registry);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        registry.shutdown();
+        Files.delete(directory.resolve("bindings.json"));
+        Files.delete(directory);
+    }
+
+    @Test
+    public void testMethodDispatch() throws Exception {
+        Assert.assertEquals("read 42 of 1", result(service("GET", "/v1/upload/items/42", null)));
+        Assert.assertEquals("removed 42 of 1", result(service("DELETE", "/v1/upload/items/42", null)));
+
+        // HEAD falls back to GET, without a body
+        ServletFakes.Response head = service("HEAD", "/v1/upload/items/42", null);
+        Assert.assertEquals(HttpServletResponse.SC_OK, head.status);
+        Assert.assertEquals(0, head.body.size());
+
+        ServletFakes.Response patch = service("PATCH", "/v1/upload/items/42", new ByteArrayInputStream(new byte[0]));
+        Assert.assertEquals(HttpServletResponse.SC_METHOD_NOT_ALLOWED, patch.status);
+        Assert.assertEquals("GET, POST, PUT, DELETE", patch.headers.get("Allow"));
+
+        Assert.assertEquals(HttpServletResponse.SC_METHOD_NOT_ALLOWED, service("PUT", "/", null).status);
+        Assert.assertEquals(HttpServletResponse.SC_NOT_FOUND, service("POST", "/v1/upload/nothing", null).status);
+    }
+
+    @Test
+    public void testStreamedResult() throws Exception {
+        ServletFakes.Response response = service("GET", "/v1/upload/items", null);
+
+        JsonArray result = new JsonParser().parse(result(response)).getAsJsonArray();
+        Assert.assertEquals(LIST_SIZE, result.size());
+        Assert.assertEquals("item " + (LIST_SIZE - 1), result.get(LIST_SIZE - 1).getAsString());
+        // flushed after the first element, and every 100 after that
+        Assert.assertTrue(response.flushes >= LIST_SIZE / 100);
+    }
+
+    @Test
+    public void testLargeJsonUpload() throws Exception {
+        // a JSON array of ~1KB objects, generated as it is read
+        StringBuilder payload = new StringBuilder();
+        while (payload.length() < 1000) {
+            payload.append("abcdefghij");
+        }
+        final byte[] suffix = (",\"payload\":\"" + payload + "\"}").getBytes(StandardCharsets.UTF_8);
+        final long count = UPLOAD_BYTES / (suffix.length + 16);
+
+        InputStream json = new GeneratedInputStream() {
+            private long next = -1;
+
+            @Override
+            protected byte[] nextSegment() {
+                next++;
+                if (next == 0) {
+                    return "[".getBytes(StandardCharsets.UTF_8);
+                }
+                if (next > 2 * count) {
+                    return null;
+                }
+                if (next == 2 * count) {
+                    return "]".getBytes(StandardCharsets.UTF_8);
+                }
+                if (next % 2 == 0) {
+                    return ",".getBytes(StandardCharsets.UTF_8);
+                }
+                byte[] id = ("{\"id\":" + next / 2).getBytes(StandardCharsets.UTF_8);
+                byte[] element = Arrays.copyOf(id, id.length + suffix.length);
+                System.arraycopy(suffix, 0, element, id.length, suffix.length);
+                return element;
+            }
+        };
+
+        JsonArray result = new JsonParser().parse(result(service("POST", "/v1/upload/items/7", json))).getAsJsonArray();
+        Assert.assertEquals(count, result.get(0).getAsLong());
+        Assert.assertTrue(result.get(1).getAsLong() > UPLOAD_BYTES / 2);
+    }
+
+    @Test
+    public void testStreamFailingPartWayIsAborted() throws Exception {
+        try {
+            service("GET", "/v1/upload/broken", null);
+            Assert.fail("Expected the response to be aborted");
+        } catch (IOException e) {
+            Assert.assertEquals("broken", e.getCause().getMessage());
+        }
+
+        // the elements sent, but not a document a client could take for the whole result
+        String sent = current.body();
+        Assert.assertTrue(sent, sent.startsWith("[{\"Function\":\"broken\"},{\"Parameters\":[]},{\"Result\":[0"));
+        Assert.assertFalse(sent, sent.endsWith("]"));
+    }
+
+    @Test
+    public void testLargeBinaryUpload() throws Exception {
+        final byte[] block = new byte[64 * 1024];
+        InputStream bytes = new GeneratedInputStream() {
+            private long remaining = UPLOAD_BYTES / block.length;
+
+            @Override
+            protected byte[] nextSegment() {
+                return remaining-- > 0 ? block : null;
+            }
+        };
+
+        Assert.assertEquals(UPLOAD_BYTES, Long.parseLong(result(service("PUT", "/v1/upload/items/7", bytes))));
+    }
+
+    private ServletFakes.Response service(String method, String path, InputStream body) throws Exception {
+        ServletFakes.Response response = new ServletFakes.Response();
+        current = response;
+        servlet.service(ServletFakes.request(method, path, body), response.servletResponse());
+        return response;
+    }
+
+    private static String result(ServletFakes.Response response) {
+        Assert.assertEquals(HttpServletResponse.SC_OK, response.status);
+        JsonElement result = new JsonParser().parse(new String(response.body.toByteArray(), StandardCharsets.UTF_8))
+                .getAsJsonArray().get(2).getAsJsonObject().get("Result");
+        return result.isJsonPrimitive() ? result.getAsString() : result.toString();
+    }
+
+    /**
+     * Stream of segments generated on demand, never held in memory together
+     */
+    private abstract static class GeneratedInputStream extends InputStream {
+
+        private byte[] segment = new byte[0];
+        private int position;
+
+        protected abstract byte[] nextSegment();
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            while (segment != null && position == segment.length) {
+                segment = nextSegment();
+                position = 0;
+            }
+            if (segment == null) {
+                return -1;
+            }
+            int read = Math.min(len, segment.length - position);
+            System.arraycopy(segment, position, b, off, read);
+            position += read;
+            return read;
+        }
+    }
+
+}
@@ -0,0 +1,142 @@
+package com.liaison.framework.dynamic;
+
+import com.liaison.framework.dynamic.runtime.JavaFunctionRuntime;
+import com.netflix.config.ConfigurationManager;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.script.ScriptEngineManager;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Tests for {@link DynamicWarmup}
+ */
+public class DynamicWarmupTest {
+
+    private static final About ABOUT = new About("test", "test");
+
+    private static final String BINDINGS = "{\"bindings\": [{"
+            + "\"about\": {\"author\": \"test\", \"description\": \"test\"}, \"runtime\": \"java\","
+            + "\"operations\": [{\"operationUrl\": \"/items/{id}\", \"allowedMethods\": [\"GET\", \"POST\"],"
+            + "\"functions\": {\"POST\": \"create\"}, \"warmup\": [{\"parameters\": {\"id\": \"7\"}},"
+            + "{\"method\": \"post\", \"parameters\": {\"id\": \"8\"}, \"body\": \"[1, 2, 3]\"},"
+            + "{\"parameters\": {\"other\": \"9\"}}]}],"
+            + "\"serviceName\": \"WarmService\", \"baseURI\": \"/v1/warm\"}, {"
+            + "\"about\": {\"author\": \"test\", \"description\": \"test\"},"
+            + "\"operations\": [{\"operationUrl\": \"/echo/{a}\", \"allowedMethods\": [\"GET\"]}],"
+            + "\"serviceName\": \"%s\", \"baseURI\": \"/v1/echo\", \"scriptLocation\": \"echo.js\"}]}";
+
+    private final AtomicInteger reads = new AtomicInteger();
+    private final List<Object> created = Collections.synchronizedList(new ArrayList<Object>());
+
+    private Path directory;
+    private DynamicBindingsRegistry registry;
+
+    @Before
+    public void setUp() throws Exception {
+        JavaFunctionRuntime.register("WarmService", "items", new Function<Object[], Object>() {
+            @Override
+            public Object apply(Object[] parameters) {
+                reads.incrementAndGet();
+                return parameters[0];
+            }
+        });
+        JavaFunctionRuntime.register("WarmService", "create", new Function<Object[], Object>() {
+            @Override
+            public Object apply(Object[] parameters) {
+                try {
+                    created.add(((DynamicRequestBody) parameters[1]).elements().next());
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                return parameters[0];
+            }
+        });
+
+        ConfigurationManager.getConfigInstance().setProperty(DynamicWarmup.ITERATIONS_PROP_NAME, "5");
+        directory = Files.createTempDirectory("dyn");
+        registry = new DynamicBindingsRegistry(directory);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ConfigurationManager.getConfigInstance().clearProperty(DynamicWarmup.ITERATIONS_PROP_NAME);
+        registry.shutdown();
+        Files.deleteIfExists(directory.resolve("bindings.json"));
+        Files.deleteIfExists(directory.resolve("echo.js"));
+        Files.delete(directory);
+    }
+
+    @Test
+    public void testSampleCalls() throws Exception {
+        Assume.assumeNotNull(new ScriptEngineManager().getEngineByName("JavaScript"));
+        write("echo.js", "function echo(a) { return a; }");
+        write("bindings.json", String.format(BINDINGS, "EchoService"));
+        registry.start();
+
+        Assert.assertEquals(5, reads.get());
+        Assert.assertEquals(5, created.size());
+        Assert.assertEquals(1, created.get(0));
+
+        List<DynamicWarmup.Result> results = new ArrayList<DynamicWarmup.Result>(registry.getSnapshot().getWarmup().getResults());
+        Assert.assertEquals(2, results.size());
+        DynamicWarmup.Result warm = results.get(0);
+        Assert.assertEquals("WarmService", warm.getServiceName());
+        Assert.assertEquals(15, warm.getCalls());
+        // the sample call without a value for {id}
+        Assert.assertEquals(5, warm.getErrors());
+        Assert.assertTrue(warm.getDurationMillis() >= warm.getPreloadMillis());
+
+        // preloaded, without any sample calls
+        Assert.assertEquals("EchoService", results.get(1).getServiceName());
+        Assert.assertEquals(0, results.get(1).getCalls());
+    }
+
+    @Test
+    public void testPreloadFailureFailsLoad() throws Exception {
+        Assume.assumeNotNull(new ScriptEngineManager().getEngineByName("JavaScript"));
+        write("echo.js", "function echo(a) { return a; }");
+        write("bindings.json", String.format(BINDINGS, "EchoService"));
+        registry.start();
+        DynamicBindingsSnapshot first = registry.getSnapshot();
+
+        // a script that does not compile is caught by the reload, rather than by the first request
+        write("echo.js", "function echo(a) { return a; ");
+        try {
+            registry.reload();
+            Assert.fail("Expected a script that does not compile to fail the reload");
+        } catch (RuntimeException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("EchoService"));
+        }
+        Assert.assertSame(first, registry.getSnapshot());
+    }
+
+    @Test
+    public void testPath() {
+        Operation operation = new Operation("/items/{id}/parts/{part}", new String[]{"GET"});
+        DynamicBinding binding = new DynamicBinding("PathService", ABOUT, new Operation[]{operation}, "/v1/path/", null);
+        Map<String, String> parameters = new HashMap<String, String>();
+        parameters.put("id", "1");
+        parameters.put("part", "2");
+
+        Assert.assertEquals("/v1/path/items/1/parts/2", DynamicWarmup.path(binding, operation, new Warmup(null, parameters)));
+    }
+
+    private void write(String file, String content) throws Exception {
+        Files.write(directory.resolve(file), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,127 @@
+package com.liaison.framework.dynamic;
+
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Fake servlet requests and responses for the dynamic services' tests, answering only what the code under
+ * test asks of them
+ */
+final class ServletFakes {
+
+    private ServletFakes() {
+    }
+
+    static HttpServletRequest request(String method, String path, InputStream body) {
+        return request(method, path, Collections.<String, String>emptyMap(), body);
+    }
+
+    /**
+     * @param headers the request's headers by name, any other header being absent
+     * @param body    the request's body, or null for none
+     */
+    static HttpServletRequest request(final String method, final String path, final Map<String, String> headers,
+                                      final InputStream body) {
+        return proxy(HttpServletRequest.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method m, Object[] args) {
+                String name = m.getName();
+                if (name.equals("getMethod")) {
+                    return method;
+                } else if (name.equals("getPathInfo")) {
+                    return path;
+                } else if (name.equals("getHeader")) {
+                    return headers.get(args[0]);
+                } else if (name.equals("getInputStream") && body != null) {
+                    return new ServletInputStream() {
+                        @Override
+                        public int read() throws IOException {
+                            return body.read();
+                        }
+
+                        @Override
+                        public int read(byte[] b, int off, int len) throws IOException {
+                            return body.read(b, off, len);
+                        }
+                    };
+                } else if (name.equals("getContentType")) {
+                    return "application/json";
+                } else if (name.equals("getContentLength") || name.equals("getDateHeader")) {
+                    return -1;
+                } else if (name.equals("getCharacterEncoding")) {
+                    return null;
+                }
+                throw new UnsupportedOperationException(name);
+            }
+        });
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    /**
+     * Records what is sent through its {@link #servletResponse()}
+     */
+    static class Response {
+
+        int status = HttpServletResponse.SC_OK;
+        final Map<String, String> headers = new HashMap<String, String>();
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        int flushes;
+
+        private final HttpServletResponse servletResponse = proxy(HttpServletResponse.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method m, Object[] args) {
+                String name = m.getName();
+                if (name.equals("sendError") || name.equals("setStatus")) {
+                    status = (Integer) args[0];
+                } else if (name.equals("setHeader")) {
+                    headers.put((String) args[0], (String) args[1]);
+                } else if (name.equals("containsHeader")) {
+                    return headers.containsKey(args[0]);
+                } else if (name.equals("getCharacterEncoding")) {
+                    return "UTF-8";
+                } else if (name.equals("isCommitted")) {
+                    return flushes > 0;
+                } else if (name.equals("getOutputStream")) {
+                    return new ServletOutputStream() {
+                        @Override
+                        public void write(int b) {
+                            body.write(b);
+                        }
+
+                        @Override
+                        public void flush() {
+                            flushes++;
+                        }
+                    };
+                } else if (m.getReturnType() == boolean.class) {
+                    return false;
+                }
+                return null;
+            }
+        });
+
+        HttpServletResponse servletResponse() {
+            return servletResponse;
+        }
+
+        String body() {
+            return new String(body.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+}
@@ -0,0 +1,162 @@
+package com.liaison.framework.dynamic.runtime;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import com.netflix.config.ConfigurationManager;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptEngineManager;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tests for {@link ScriptEnginePool}
+ */
+public class ScriptEnginePoolTest {
+
+    private ScriptEngineFactory factory;
+    private String script;
+
+    @Before
+    public void setUp() throws Exception {
+        ScriptEngine engine = new ScriptEngineManager().getEngineByName("JavaScript");
+        Assume.assumeNotNull(engine);
+        factory = engine.getFactory();
+        script = Resources.toString(Resources.getResource("dyn/scripts/math/math.js"), Charsets.UTF_8);
+    }
+
+    @After
+    public void tearDown() {
+        ConfigurationManager.getConfigInstance().clearProperty(ScriptEnginePool.POOL_SIZE_PROP_NAME);
+        ConfigurationManager.getConfigInstance().clearProperty(ScriptEnginePool.ACQUIRE_TIMEOUT_PROP_NAME);
+    }
+
+    @Test
+    public void testInvokeOnPooledEngine() throws Exception {
+        ScriptEnginePool pool = new ScriptEnginePool("math", factory, script);
+
+        ScriptEnginePool.PooledEngine engine = pool.acquire();
+        try {
+            Assert.assertEquals(12.0, ((Number) engine.invokeFunction("multiply", "3", "4")).doubleValue(), 0);
+        } finally {
+            pool.release(engine);
+        }
+
+        // the released engine is reused rather than recompiled
+        ScriptEnginePool.PooledEngine again = pool.acquire();
+        Assert.assertSame(engine, again);
+        pool.release(again);
+    }
+
+    @Test
+    public void testExhaustion() throws Exception {
+        Assume.assumeTrue(!ScriptEnginePool.isThreadSafe(factory));
+        ConfigurationManager.getConfigInstance().setProperty(ScriptEnginePool.POOL_SIZE_PROP_NAME, "1");
+        ConfigurationManager.getConfigInstance().setProperty(ScriptEnginePool.ACQUIRE_TIMEOUT_PROP_NAME, "10");
+        ScriptEnginePool pool = new ScriptEnginePool("math", factory, script);
+
+        ScriptEnginePool.PooledEngine engine = pool.acquire();
+        try {
+            pool.acquire();
+            Assert.fail("Expected pool of one to be exhausted");
+        } catch (ScriptEnginePoolExhaustedException e) {
+            // expected
+        } finally {
+            pool.release(engine);
+        }
+
+        Assert.assertSame(engine, pool.acquire());
+    }
+
+    @Test
+    public void testFailedCreationGivesBackItsSlot() throws Exception {
+        Assume.assumeTrue(!ScriptEnginePool.isThreadSafe(factory));
+        ConfigurationManager.getConfigInstance().setProperty(ScriptEnginePool.POOL_SIZE_PROP_NAME, "1");
+        ConfigurationManager.getConfigInstance().setProperty(ScriptEnginePool.ACQUIRE_TIMEOUT_PROP_NAME, "10");
+        final AtomicBoolean failed = new AtomicBoolean();
+        Runnable failOnce = new Runnable() {
+            @Override
+            public void run() {
+                if (failed.compareAndSet(false, true)) {
+                    throw new AssertionError("failed creating engine");
+                }
+            }
+        };
+        ScriptEnginePool pool = new ScriptEnginePool("math", factory, "failOnce.run();\n" + script,
+                Collections.<String, Object>singletonMap("failOnce", failOnce));
+
+        try {
+            pool.acquire();
+            Assert.fail("Expected the first engine to fail");
+        } catch (Error e) {
+            // expected
+        }
+
+        // rather than the pool of one being exhausted by the engine never created
+        ScriptEnginePool.PooledEngine engine = pool.acquire();
+        Assert.assertEquals(12.0, ((Number) engine.invokeFunction("multiply", "3", "4")).doubleValue(), 0);
+        pool.release(engine);
+    }
+
+    @Test
+    public void testInvokeReportsPhases() throws Exception {
+        ScriptEnginePool pool = new ScriptEnginePool("math", factory, script);
+        final long[] phases = new long[2];
+
+        Object result = pool.invoke(new InvocationTimer() {
+            @Override
+            public void recordAcquire(long nanos) {
+                phases[0] = nanos;
+            }
+
+            @Override
+            public void recordInvoke(long nanos) {
+                phases[1] = nanos;
+            }
+        }, "multiply", "3", "4");
+
+        Assert.assertEquals(12.0, ((Number) result).doubleValue(), 0);
+        // the first acquire creates, and so compiles, the engine
+        Assert.assertTrue(phases[0] > 0);
+        Assert.assertTrue(phases[1] > 0);
+    }
+
+    @Test
+    public void testEngineHeldWhileHandlingResult() throws Exception {
+        Assume.assumeTrue(!ScriptEnginePool.isThreadSafe(factory));
+        ConfigurationManager.getConfigInstance().setProperty(ScriptEnginePool.POOL_SIZE_PROP_NAME, "1");
+        ConfigurationManager.getConfigInstance().setProperty(ScriptEnginePool.ACQUIRE_TIMEOUT_PROP_NAME, "10");
+        final ScriptEnginePool pool = new ScriptEnginePool("math", factory, script);
+
+        Object handled = pool.invoke(new InvocationTimer() {
+            @Override
+            public void recordAcquire(long nanos) {
+            }
+
+            @Override
+            public void recordInvoke(long nanos) {
+            }
+        }, new ScriptInvoker.ResultHandler() {
+            @Override
+            public Object handle(Object result) throws Exception {
+                try {
+                    pool.acquire();
+                    Assert.fail("Expected the engine to be held until the result is handled");
+                } catch (ScriptEnginePoolExhaustedException e) {
+                    // expected
+                }
+                return "handled " + ((Number) result).intValue();
+            }
+        }, "multiply", "3", "4");
+
+        Assert.assertEquals("handled 12", handled);
+        pool.release(pool.acquire());
+    }
+
+}
@@ -0,0 +1,86 @@
+package com.liaison.framework.dynamic.runtime;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+
+import javax.script.Invocable;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import java.util.function.Function;
+
+/**
+ * Compares dynamic services runtimes on math.js multiply/divide.  Not run as part of the test suite,
+ * run main() directly, ie with -Dbenchmark.iterations=1000000
+ * <p/>
+ * Reported per runtime is the mean time per invocation, after a warm-up of the same number of
+ * invocations.  "per-request eval" is the former servlet behavior of creating an engine and
+ * evaluating the script for every request, and is run for a tenth of the iterations.
+ */
+public class ScriptRuntimeBenchmark {
+
+    private static final String SERVICE = "SimpleMathService";
+
+    public static void main(String[] args) throws Exception {
+
+        int iterations = Integer.getInteger("benchmark.iterations", 200000);
+        final String script = Resources.toString(Resources.getResource("dyn/scripts/math/math.js"), Charsets.UTF_8);
+
+        JavaFunctionRuntime.register(SERVICE, "multiply", new Function<Object[], Object>() {
+            @Override
+            public Object apply(Object[] parameters) {
+                return Double.parseDouble((String) parameters[0]) * Double.parseDouble((String) parameters[1]);
+            }
+        });
+        JavaFunctionRuntime.register(SERVICE, "divide", new Function<Object[], Object>() {
+            @Override
+            public Object apply(Object[] parameters) {
+                return Double.parseDouble((String) parameters[0]) / Double.parseDouble((String) parameters[1]);
+            }
+        });
+
+        run("java", ScriptRuntimes.get("java").bind(SERVICE, null), iterations);
+        run("javascript (pooled)", ScriptRuntimes.get("javascript").bind(SERVICE, script), iterations);
+
+        ScriptInvoker perRequestEval = new ScriptInvoker() {
+            @Override
+            public Object invoke(String function, Object... parameters) throws Exception {
+                ScriptEngine engine = new ScriptEngineManager().getEngineByName("JavaScript");
+                engine.eval(script);
+                return ((Invocable) engine).invokeFunction(function, parameters);
+            }
+
+            @Override
+            public void registerMonitors() {
+            }
+
+            @Override
+            public void unregisterMonitors() {
+            }
+        };
+        run("javascript (per-request eval)", perRequestEval, Math.max(1, iterations / 10));
+    }
+
+    private static void run(String name, ScriptInvoker invoker, int iterations) throws Exception {
+
+        // warm-up
+        measure(invoker, iterations);
+
+        long elapsed = measure(invoker, iterations);
+        System.out.println(String.format("%-32s %10.1f ns/op  (%d ops)", name, (double) elapsed / iterations, iterations));
+    }
+
+    private static long measure(ScriptInvoker invoker, int iterations) throws Exception {
+        Object sink = null;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            String a = String.valueOf(i);
+            sink = invoker.invoke((i & 1) == 0 ? "multiply" : "divide", a, "7");
+        }
+        long elapsed = System.nanoTime() - start;
+        if (sink == null) {
+            throw new IllegalStateException();
+        }
+        return elapsed;
+    }
+
+}
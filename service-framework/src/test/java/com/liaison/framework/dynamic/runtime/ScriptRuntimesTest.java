@@ -0,0 +1,51 @@
+package com.liaison.framework.dynamic.runtime;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.function.Function;
+
+/**
+ * Tests for {@link ScriptRuntimes} and {@link JavaFunctionRuntime}
+ */
+public class ScriptRuntimesTest {
+
+    @Test
+    public void testBuiltInRuntimes() {
+        Assert.assertEquals("jsr223:JavaScript", ScriptRuntimes.get(null).getName());
+        Assert.assertSame(ScriptRuntimes.get(null), ScriptRuntimes.get("JavaScript"));
+        Assert.assertEquals(JavaFunctionRuntime.NAME, ScriptRuntimes.get("java").getName());
+        Assert.assertEquals("jsr223:nashorn", ScriptRuntimes.get("jsr223:nashorn").getName());
+        Assert.assertSame(ScriptRuntimes.get("jsr223:nashorn"), ScriptRuntimes.get("JSR223:nashorn"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownRuntime() {
+        ScriptRuntimes.get("cobol");
+    }
+
+    @Test
+    public void testJavaFunctionRuntime() throws Exception {
+        ScriptInvoker invoker = ScriptRuntimes.get("java").bind("JavaRuntimeTest", null);
+
+        // registered after binding, as a service implementation may
+        JavaFunctionRuntime.register("JavaRuntimeTest", "concat", new Function<Object[], Object>() {
+            @Override
+            public Object apply(Object[] parameters) {
+                return "" + parameters[0] + parameters[1];
+            }
+        });
+
+        try {
+            Assert.assertEquals("ab", invoker.invoke("concat", "a", "b"));
+        } finally {
+            JavaFunctionRuntime.unregister("JavaRuntimeTest", "concat");
+        }
+    }
+
+    @Test(expected = NoSuchMethodException.class)
+    public void testJavaFunctionNotRegistered() throws Exception {
+        ScriptRuntimes.get("java").bind("JavaRuntimeTest", null).invoke("missing");
+    }
+
+}
@@ -16,9 +16,11 @@
 
 package com.liaison.service.core;
 
+import com.liaison.framework.dynamic.runtime.JavaFunctionRuntime;
 import com.netflix.karyon.spi.Component;
 
 import javax.annotation.PostConstruct;
+import java.util.function.Function;
 
 /**
  * @author Nitesh Kant (nkant@netflix.com)
@@ -29,5 +31,19 @@ public class HelloworldComponent {
     @PostConstruct
     public void initialize() {
         // TODO: Initialization logic, eg: connection to DB etc.
+
+        // handlers for the "java" runtime JavaMathService dynamic binding (see bindings.json)
+        JavaFunctionRuntime.register("JavaMathService", "multiply", new Function<Object[], Object>() {
+            @Override
+            public Object apply(Object[] parameters) {
+                return Double.parseDouble((String) parameters[0]) * Double.parseDouble((String) parameters[1]);
+            }
+        });
+        JavaFunctionRuntime.register("JavaMathService", "divide", new Function<Object[], Object>() {
+            @Override
+            public Object apply(Object[] parameters) {
+                return Double.parseDouble((String) parameters[0]) / Double.parseDouble((String) parameters[1]);
+            }
+        });
     }
 }